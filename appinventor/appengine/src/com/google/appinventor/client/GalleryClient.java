@@ -116,9 +116,10 @@ public class GalleryClient {
   * GetAppsByDeveloper gets apps by developer and then tells listeners when done
   * @param start staring index for search
   * @param count number of results
+  * @param cursor cursor returned with the previous page, or null
   * @param developerId id of developer
   */
-  public void GetAppsByDeveloper(int start, int count, String developerId) {
+  public void GetAppsByDeveloper(int start, int count, String cursor, String developerId) {
     // Callback for when the server returns us the apps
     final Ode ode = Ode.getInstance();
     final OdeAsyncCallback<GalleryAppListResult> callback = new OdeAsyncCallback<GalleryAppListResult>(
@@ -133,15 +134,17 @@ public class GalleryClient {
       }
     };
     // This is below the call back, but of course it is done first
-    ode.getGalleryService().getDeveloperApps(developerId, start,count,callback);
+    ode.getGalleryService().getDeveloperApps(developerId, start,count,cursor,callback);
   }
  /**
   * GetFeatured gets featured apps, currently unimplemented
   * @param start staring index
   * @param count number of results
+  * @param cursor cursor returned with the previous page, or null
   * @param sortOrder unused sort order
   */
-  public void GetFeatured(int start, int count, int sortOrder, final boolean refreshable) {
+  public void GetFeatured(int start, int count, String cursor, int sortOrder,
+      final boolean refreshable) {
     // Callback for when the server returns us the apps
     final Ode ode = Ode.getInstance();
     final OdeAsyncCallback<GalleryAppListResult> callback = new OdeAsyncCallback<GalleryAppListResult>(
@@ -156,15 +159,17 @@ public class GalleryClient {
       }
     };
     // This is below the call back, but of course it is done first
-    ode.getGalleryService().getFeaturedApp(start, count, callback);
+    ode.getGalleryService().getFeaturedApp(start, count, cursor, callback);
   }
 /**
   * GetTutorial gets tutorial apps, implemented in GalleryList.java
   * @param start staring index
   * @param count number of results
+  * @param cursor cursor returned with the previous page, or null
   * @param sortOrder unused sort order
   */
-  public void GetTutorial(int start, int count, int sortOrder, final boolean refreshable) {
+  public void GetTutorial(int start, int count, String cursor, int sortOrder,
+      final boolean refreshable) {
     // Callback for when the server returns us the apps
     final Ode ode = Ode.getInstance();
     final OdeAsyncCallback<GalleryAppListResult> callback = new OdeAsyncCallback<GalleryAppListResult>(
@@ -179,14 +184,15 @@ public class GalleryClient {
       }
     };
     // This is below the call back, but of course it is done first
-    ode.getGalleryService().getTutorialApp(start, count, callback);
+    ode.getGalleryService().getTutorialApp(start, count, cursor, callback);
   }
 /**
   * GetMostRecent gets most recently updated apps then tells listeners
   * @param start staring index
   * @param count number of results
+  * @param cursor cursor returned with the previous page, or null
   */
-  public void GetMostRecent(int start, int count, final boolean refreshable) {
+  public void GetMostRecent(int start, int count, String cursor, final boolean refreshable) {
     // Callback for when the server returns us the apps
     final Ode ode = Ode.getInstance();
     final OdeAsyncCallback<GalleryAppListResult> callback = new OdeAsyncCallback<GalleryAppListResult>(
@@ -201,14 +207,15 @@ public class GalleryClient {
       }
     };
     // This is below the call back, but of course it is done first
-    ode.getGalleryService().getRecentApps(start, count, callback);
+    ode.getGalleryService().getRecentApps(start, count, cursor, callback);
   }
   /**
   * GetMostLiked gets the most liked apps then tells listeners
   * @param start staring index
   * @param count number of results
+  * @param cursor cursor returned with the previous page, or null
   */
-  public void GetMostLiked(int start, int count, final boolean refreshable) {
+  public void GetMostLiked(int start, int count, String cursor, final boolean refreshable) {
     // Callback for when the server returns us the apps
     final Ode ode = Ode.getInstance();
     final OdeAsyncCallback<GalleryAppListResult> callback = new OdeAsyncCallback<GalleryAppListResult>(
@@ -224,14 +231,16 @@ public class GalleryClient {
     };
 
     // ok, this is below the call back, but of course it is done first
-    ode.getGalleryService().getMostLikedApps(start,count,callback);
+    ode.getGalleryService().getMostLikedApps(start,count,cursor,callback);
   }
   /**
   * GetMostDownloaded gets the most downloaded apps then tells listeners
   * @param start staring index
   * @param count number of results
+  * @param cursor cursor returned with the previous page, or null
   */
-  public void GetMostDownloaded(int start, int count, final boolean refreshable) {
+  public void GetMostDownloaded(int start, int count, String cursor,
+      final boolean refreshable) {
     // Callback for when the server returns us the apps
     final Ode ode = Ode.getInstance();
     final OdeAsyncCallback<GalleryAppListResult> callback = new OdeAsyncCallback<GalleryAppListResult>(
@@ -247,7 +256,7 @@ public class GalleryClient {
     };
 
     // ok, this is below the call back, but of course it is done first
-    ode.getGalleryService().getMostDownloadedApps(start,count,callback);
+    ode.getGalleryService().getMostDownloadedApps(start,count,cursor,callback);
   }
   /**
    * GetRemixedToList gets children list that apps remixed to then tells listeners
@@ -337,10 +346,10 @@ public class GalleryClient {
   */
   public void appWasChanged() {
     // for now, let's update the recent list, the popular list and feature list (in case one was deleted)
-    GetMostRecent(0,GalleryList.NUMAPPSTOSHOW, true);
-    GetMostLiked(0,GalleryList.NUMAPPSTOSHOW, true);
-    GetFeatured(0, GalleryList.NUMAPPSTOSHOW, 0, true);
-    GetTutorial(0,GalleryList.NUMAPPSTOSHOW, 0, true);
+    GetMostRecent(0,GalleryList.NUMAPPSTOSHOW, null, true);
+    GetMostLiked(0,GalleryList.NUMAPPSTOSHOW, null, true);
+    GetFeatured(0, GalleryList.NUMAPPSTOSHOW, null, 0, true);
+    GetTutorial(0,GalleryList.NUMAPPSTOSHOW, null, 0, true);
   }
 
  /**
@@ -1408,8 +1408,36 @@ public class Ode implements EntryPoint {
     // Save the user settings.
     userSettings.saveSettings(null);
 
-    // Save all unsaved editors.
-    editorManager.saveDirtyEditors(null);
+    // Save all unsaved editors. The server may hold saves of source files
+    // back for a short time, so ask it to write them: the ones held back
+    // before right away, and the last ones once they have been saved, if
+    // the page is still around then.
+    final long projectId = getCurrentYoungAndroidProjectId();
+    if (projectId != 0 && !isReadOnly()) {
+      flushSaves(projectId);
+    }
+    editorManager.saveDirtyEditors(new Command() {
+      @Override
+      public void execute() {
+        if (projectId != 0 && !isReadOnly()) {
+          flushSaves(projectId);
+        }
+      }
+    });
+  }
+
+  private void flushSaves(long projectId) {
+    projectService.flushSaves(sessionId, projectId, new AsyncCallback<Void>() {
+      @Override
+      public void onSuccess(Void result) {
+      }
+
+      @Override
+      public void onFailure(Throwable caught) {
+        // No UI while the window is closing. Held back saves are still
+        // written by the server's flush task.
+      }
+    });
   }
 
   /**
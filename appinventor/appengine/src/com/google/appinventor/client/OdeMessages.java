@@ -2604,6 +2604,14 @@ public interface OdeMessages extends Messages {
   @Description("")
   String BackgroundColorProperties();
 
+  @DefaultMessage("BackgroundTasksRunning")
+  @Description("")
+  String BackgroundTasksRunningProperties();
+
+  @DefaultMessage("BackgroundTasksWaiting")
+  @Description("")
+  String BackgroundTasksWaitingProperties();
+
   @DefaultMessage("BackgroundImage")
   @Description("")
   String BackgroundImageProperties();
@@ -17,6 +17,9 @@ import com.google.appinventor.client.explorer.project.Project;
 import com.google.appinventor.client.output.OdeLog;
 import com.google.appinventor.client.settings.project.ProjectSettings;
 import com.google.appinventor.shared.rpc.BlocksTruncatedException;
+import com.google.appinventor.shared.rpc.project.ChecksumedFileException;
+import com.google.appinventor.shared.rpc.project.ChecksumedLoadFile;
+import com.google.appinventor.shared.rpc.project.FileDelta;
 import com.google.appinventor.shared.rpc.project.FileDescriptorWithContent;
 import com.google.appinventor.shared.rpc.project.ProjectRootNode;
 import com.google.common.collect.Maps;
@@ -58,16 +61,32 @@ public final class EditorManager {
   private boolean autoSaveIsScheduled;
   private long autoSaveRequestTime;
 
+  // Map of "projectId:fileId" to the content of the file as last loaded
+  // from or saved to the server. Files with an entry here are saved by
+  // sending a FileDelta instead of the whole content.
+  private final Map<String, SavedFile> savedFiles;
+
   private class DateHolder {
     long date;
     long projectId;
   }
 
+  private static class SavedFile {
+    final String content;
+    final String checksum;
+
+    SavedFile(String content, String checksum) {
+      this.content = content;
+      this.checksum = checksum;
+    }
+  }
+
   /**
    * Creates the editor manager.
    */
   public EditorManager() {
     openProjectEditors = Maps.newHashMap();
+    savedFiles = Maps.newHashMap();
 
     dirtyProjectSettings = new HashSet<ProjectSettings>();
     dirtyFileEditors = new HashSet<FileEditor>();
@@ -148,6 +167,7 @@ public final class EditorManager {
         if (fileEditor != null) {
           dirtyFileEditors.remove(fileEditor);
         }
+        savedFiles.remove(savedFileKey(projectId, fileId));
       }
       projectEditor.closeFileEditors(fileIds);
     }
@@ -167,6 +187,30 @@ public final class EditorManager {
     ProjectSettings projectSettings = project.getSettings();
     dirtyProjectSettings.remove(projectSettings);
     openProjectEditors.remove(projectId);
+    String keyPrefix = projectId + ":";
+    for (String key : new ArrayList<String>(savedFiles.keySet())) {
+      if (key.startsWith(keyPrefix)) {
+        savedFiles.remove(key);
+      }
+    }
+  }
+
+  /**
+   * Records the content of a file as loaded from the server, so that the next
+   * save of the file only needs to send the changes to it.
+   *
+   * @param projectId  project ID
+   * @param fileId  file ID
+   * @param content  file content
+   * @param checksum  checksum of the content, as computed by
+   *                  {@link ChecksumedLoadFile#computeChecksum}
+   */
+  public void setSavedContent(long projectId, String fileId, String content, String checksum) {
+    savedFiles.put(savedFileKey(projectId, fileId), new SavedFile(content, checksum));
+  }
+
+  private static String savedFileKey(long projectId, String fileId) {
+    return projectId + ":" + fileId;
   }
 
   /**
@@ -377,8 +421,8 @@ public final class EditorManager {
         final long projectId = fileDescriptor.getProjectId();
         final String fileId = fileDescriptor.getFileId();
         final String content = fileDescriptor.getContent();
-        Ode.getInstance().getProjectService().save2(Ode.getInstance().getSessionId(),
-          projectId, fileId, false, content, new OdeAsyncCallback<Long>(MESSAGES.saveErrorMultipleFiles()) {
+        final String checksum = computeChecksum(content);
+        OdeAsyncCallback<Long> callback = new OdeAsyncCallback<Long>(MESSAGES.saveErrorMultipleFiles()) {
             @Override
             public void onSuccess(Long date) {
               if (dateHolder.date != 0) {
@@ -391,6 +435,9 @@ public final class EditorManager {
                 dateHolder.date = date;
                 dateHolder.projectId = projectId;
               }
+              if (checksum != null) {
+                setSavedContent(projectId, fileId, content, checksum);
+              }
               if (afterSavingFiles != null) {
                 afterSavingFiles.execute();
               }
@@ -400,12 +447,53 @@ public final class EditorManager {
               // Here is where we handle BlocksTruncatedException
               if (caught instanceof BlocksTruncatedException) {
                 Ode.getInstance().blocksTruncatedDialog(projectId, fileId, content, this);
+              } else if (caught instanceof ChecksumedFileException) {
+                // The server does not have the content the delta was made from
+                // (or the delta was damaged), so send the whole content instead.
+                savedFiles.remove(savedFileKey(projectId, fileId));
+                Ode.getInstance().getProjectService().save2(Ode.getInstance().getSessionId(),
+                    projectId, fileId, false, content, this);
               } else {
                 super.onFailure(caught);
               }
             }
-          });
+          };
+        FileDelta delta = createDelta(projectId, fileId, content, checksum);
+        if (delta != null) {
+          Ode.getInstance().getProjectService().saveDelta(Ode.getInstance().getSessionId(),
+              projectId, fileId, false, delta, callback);
+        } else {
+          Ode.getInstance().getProjectService().save2(Ode.getInstance().getSessionId(),
+              projectId, fileId, false, content, callback);
+        }
       }
     }
   }
+
+  /**
+   * Returns the delta from the last loaded or saved content of the given file
+   * to the new content, or null if the whole content should be sent instead.
+   */
+  private FileDelta createDelta(long projectId, String fileId, String content, String checksum) {
+    SavedFile savedFile = savedFiles.get(savedFileKey(projectId, fileId));
+    if (savedFile == null || checksum == null) {
+      return null;
+    }
+    FileDelta delta = FileDelta.create(savedFile.content, savedFile.checksum, content, checksum);
+    // The server reads the stored content to apply a delta, so only use one if it
+    // saves most of the upload.
+    if (delta.getText().length() > content.length() / 2) {
+      return null;
+    }
+    return delta;
+  }
+
+  private static String computeChecksum(String content) {
+    try {
+      return ChecksumedLoadFile.computeChecksum(content);
+    } catch (ChecksumedFileException e) {
+      OdeLog.wlog("Unable to compute checksum: " + e.getMessage());
+      return null;
+    }
+  }
 }
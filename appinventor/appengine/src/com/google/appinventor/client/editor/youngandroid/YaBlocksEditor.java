@@ -176,6 +176,8 @@ public final class YaBlocksEditor extends FileEditor
           this.onFailure(e);
           return;
         }
+        Ode.getInstance().getEditorManager().setSavedContent(projectId, fileId, blkFileContent,
+            result.getChecksum());
         String formJson = myFormEditor.preUpgradeJsonString(); // [lyn, 2014/10/27] added formJson for upgrading
         blocksArea.loadBlocksContent(formJson, blkFileContent);
         loadComplete = true;
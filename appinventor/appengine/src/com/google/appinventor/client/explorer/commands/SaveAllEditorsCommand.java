@@ -8,6 +8,7 @@ package com.google.appinventor.client.explorer.commands;
 
 import com.google.appinventor.client.ErrorReporter;
 import com.google.appinventor.client.Ode;
+import com.google.appinventor.client.OdeAsyncCallback;
 import static com.google.appinventor.client.Ode.MESSAGES;
 import com.google.appinventor.shared.rpc.project.ProjectNode;
 import com.google.gwt.i18n.client.DateTimeFormat;
@@ -44,10 +45,25 @@ public class SaveAllEditorsCommand extends ChainableCommand {
     ode.getEditorManager().saveDirtyEditors(new Command() {
       @Override
       public void execute() {
-        ode.lockScreens(false); // Screen switch OK now
-        ErrorReporter.reportInfo(MESSAGES.savedProject(
-            DateTimeFormat.getMediumDateTimeFormat().format(new Date())));
-        executeNextCommand(node);
+        // Make sure that the server has written all the saves, including the
+        // ones it holds back for a short time.
+        ode.getProjectService().flushSaves(ode.getSessionId(), node.getProjectId(),
+            new OdeAsyncCallback<Void>(MESSAGES.saveErrorMultipleFiles()) {
+              @Override
+              public void onSuccess(Void result) {
+                ode.lockScreens(false); // Screen switch OK now
+                ErrorReporter.reportInfo(MESSAGES.savedProject(
+                    DateTimeFormat.getMediumDateTimeFormat().format(new Date())));
+                executeNextCommand(node);
+              }
+
+              @Override
+              public void onFailure(Throwable caught) {
+                ode.lockScreens(false);
+                super.onFailure(caught);
+                executionFailedOrCanceled();
+              }
+            });
       }
     });
   }
@@ -87,6 +87,13 @@ public class GalleryList extends Composite implements GalleryRequestListener {
   private int appSearchCounter = 0;
   private int appTutorialCounter = 0;
 
+  // The cursors returned with the last page of each tab, for getting the
+  // next page
+  private String appRecentCursor = null;
+  private String appFeaturedCursor = null;
+  private String appPopularCursor = null;
+  private String appTutorialCursor = null;
+
   private boolean appRecentExhausted = false;
   private boolean appFeaturedExhausted = false;
   private boolean appPopularExhausted = false;
@@ -259,20 +266,20 @@ public class GalleryList extends Composite implements GalleryRequestListener {
       } else if (request == REQUEST_TUTORIAL) {
         generalTotalResultsLabel = new Label();
         container.add(generalTotalResultsLabel);
-        gallery.GetTutorial(appTutorialCounter, NUMAPPSTOSHOW, 0, false);
+        gallery.GetTutorial(appTutorialCounter, NUMAPPSTOSHOW, appTutorialCursor, 0, false);
       }
         else if (request == REQUEST_RECENT) {
         generalTotalResultsLabel = new Label();
         container.add(generalTotalResultsLabel);
-        gallery.GetMostRecent(appRecentCounter, NUMAPPSTOSHOW, false);
+        gallery.GetMostRecent(appRecentCounter, NUMAPPSTOSHOW, appRecentCursor, false);
       } else if (request == REQUEST_MOSTLIKED) {
         generalTotalResultsLabel = new Label();
         container.add(generalTotalResultsLabel);
-        gallery.GetMostLiked(appPopularCounter, NUMAPPSTOSHOW, false);
+        gallery.GetMostLiked(appPopularCounter, NUMAPPSTOSHOW, appPopularCursor, false);
       } else if (request == REQUEST_FEATURED){
         generalTotalResultsLabel = new Label();
         container.add(generalTotalResultsLabel);
-        gallery.GetFeatured(appFeaturedCounter, NUMAPPSTOSHOW, 0, false);
+        gallery.GetFeatured(appFeaturedCounter, NUMAPPSTOSHOW, appFeaturedCursor, 0, false);
       }
       container.add(content);
 
@@ -296,21 +303,21 @@ public class GalleryList extends Composite implements GalleryRequestListener {
               if (!appFeaturedExhausted) {
                 // If the next page still has apps to retrieve, do it
                 appFeaturedCounter += NUMAPPSTOSHOW;
-                gallery.GetFeatured(appFeaturedCounter, NUMAPPSTOSHOW, 0, false);
+                gallery.GetFeatured(appFeaturedCounter, NUMAPPSTOSHOW, appFeaturedCursor, 0, false);
               }
               break;
             case REQUEST_TUTORIAL:
               if (!appTutorialExhausted) {
                 // If the next page still has apps to retrieve, do it
                 appTutorialCounter += NUMAPPSTOSHOW;
-                gallery.GetTutorial(appTutorialCounter, NUMAPPSTOSHOW,0, false);
+                gallery.GetTutorial(appTutorialCounter, NUMAPPSTOSHOW, appTutorialCursor, 0, false);
               }
               break;
             case REQUEST_RECENT:
               if (!appRecentExhausted) {
                 // If the next page still has apps to retrieve, do it
                 appRecentCounter += NUMAPPSTOSHOW;
-                gallery.GetMostRecent(appRecentCounter, NUMAPPSTOSHOW, false);
+                gallery.GetMostRecent(appRecentCounter, NUMAPPSTOSHOW, appRecentCursor, false);
               }
               break;
             case REQUEST_SEARCH:
@@ -324,7 +331,7 @@ public class GalleryList extends Composite implements GalleryRequestListener {
               if (!appPopularExhausted) {
                 // If the next page still has apps to retrieve, do it
                 appPopularCounter += NUMAPPSTOSHOW;
-                gallery.GetMostLiked(appPopularCounter, NUMAPPSTOSHOW, false);
+                gallery.GetMostLiked(appPopularCounter, NUMAPPSTOSHOW, appPopularCursor, false);
               }
               break;
           }
@@ -375,6 +382,7 @@ public class GalleryList extends Composite implements GalleryRequestListener {
   private void refreshApps(GalleryAppListResult appsResult, int requestId, boolean refreshable) {
     switch (requestId) {
       case REQUEST_FEATURED:
+        appFeaturedCursor = appsResult.getCursor();
         appFeaturedTab.setGeneralTotalResultsLabel(appsResult.getTotalCount());
         if (appsResult.getTotalCount() < NUMAPPSTOSHOW) {
           // That means there's not enough apps to show (reaches the end)
@@ -390,6 +398,7 @@ public class GalleryList extends Composite implements GalleryRequestListener {
         }
         break;
       case REQUEST_TUTORIAL:
+        appTutorialCursor = appsResult.getCursor();
         appTutorialTab.setGeneralTotalResultsLabel(appsResult.getTotalCount());
         if (appsResult.getTotalCount() < NUMAPPSTOSHOW) {
           // That means there's not enough apps to show (reaches the end)
@@ -405,6 +414,7 @@ public class GalleryList extends Composite implements GalleryRequestListener {
         }
         break;
       case REQUEST_RECENT:
+        appRecentCursor = appsResult.getCursor();
         appRecentTab.setGeneralTotalResultsLabel(appsResult.getTotalCount());
         if(appsResult.getTotalCount() < NUMAPPSTOSHOW  || appRecentCounter + NUMAPPSTOSHOW >= appsResult.getTotalCount()){
           appRecentTab.getButtonNext().setVisible(false);
@@ -445,6 +455,7 @@ public class GalleryList extends Composite implements GalleryRequestListener {
         galleryGF.generateHorizontalAppList(appsResult.getApps(), appSearchContent, refreshable);
         break;
       case REQUEST_MOSTLIKED:
+        appPopularCursor = appsResult.getCursor();
         appPopularTab.setGeneralTotalResultsLabel(appsResult.getTotalCount());
         if(appsResult.getTotalCount() < NUMAPPSTOSHOW || appPopularCounter + NUMAPPSTOSHOW >= appsResult.getTotalCount()){
           appPopularTab.getButtonNext().setVisible(false);
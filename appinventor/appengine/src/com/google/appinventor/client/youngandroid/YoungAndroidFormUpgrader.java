@@ -914,6 +914,12 @@ public final class YoungAndroidFormUpgrader {
       srcCompVersion = 19;
     }
 
+    if (srcCompVersion < 20) {
+      // The BackgroundTasksWaiting and BackgroundTasksRunning properties were added.
+      // No properties need to be modified to upgrade to version 20.
+      srcCompVersion = 20;
+    }
+
     return srcCompVersion;
   }
 
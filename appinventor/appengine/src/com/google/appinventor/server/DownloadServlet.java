@@ -7,12 +7,12 @@
 package com.google.appinventor.server;
 
 import com.google.appinventor.common.utils.StringUtils;
+import com.google.appinventor.server.storage.ProjectSourceZipStream;
 import com.google.appinventor.server.storage.StorageIo;
 import com.google.appinventor.server.storage.StorageIoInstanceHolder;
 import com.google.appinventor.server.util.CacheHeaders;
 import com.google.appinventor.server.util.CacheHeadersImpl;
 import com.google.appinventor.shared.rpc.ServerLayout;
-import com.google.appinventor.shared.rpc.project.ProjectSourceZip;
 import com.google.appinventor.shared.rpc.project.RawFile;
 import com.google.appinventor.shared.storage.StorageUtil;
 
@@ -94,7 +94,9 @@ public class DownloadServlet extends OdeServlet {
     CACHE_HEADERS.setNotCacheable(resp);
     resp.setContentType(CONTENT_TYPE);
 
-    RawFile downloadableFile;
+    RawFile downloadableFile = null;
+    // Project source zips are written straight to the response instead of to downloadableFile.
+    ProjectSourceZipStream zipStream = null;
 
     String userId = null;
 
@@ -125,9 +127,8 @@ public class DownloadServlet extends OdeServlet {
         // If the requester is an Admin, we include any Yail files in the
         // project in the export
         boolean includeYail = userInfoProvider.getIsAdmin();
-        ProjectSourceZip zipFile = fileExporter.exportProjectSourceZip(userId,
+        zipStream = fileExporter.openProjectSourceZip(userId,
           projectId, includeProjectHistory, false, zipName, includeYail, false, false);
-        downloadableFile = zipFile.getRawFile();
 
       } else if (downloadKind.equals(ServerLayout.DOWNLOAD_USER_PROJECT_SOURCE)) {
         if (!userInfoProvider.getIsAdmin()) {
@@ -180,15 +181,12 @@ public class DownloadServlet extends OdeServlet {
         } else {
           zipName = "u" + projectUserId + "_p" + projectId + ".aia";
         }
-        ProjectSourceZip zipFile = fileExporter.exportProjectSourceZip(projectUserId,
+        zipStream = fileExporter.openProjectSourceZip(projectUserId,
           projectId, /* include history*/ true, /* include keystore */ true, zipName, true, false, false);
-        downloadableFile = zipFile.getRawFile();
 
       } else if (downloadKind.equals(ServerLayout.DOWNLOAD_ALL_PROJECTS_SOURCE)) {
         // Download all project source files as a zip of zips.
-        ProjectSourceZip zipFile = fileExporter.exportAllProjectsSourceZip(
-            userId, "all-projects.zip");
-        downloadableFile = zipFile.getRawFile();
+        zipStream = fileExporter.openAllProjectsSourceZip(userId, "all-projects.zip");
 
       } else if (downloadKind.equals(ServerLayout.DOWNLOAD_FILE)) {
         // Download a specific file.
@@ -215,6 +213,30 @@ public class DownloadServlet extends OdeServlet {
       throw CrashReport.createAndLogError(LOG, req, "user=" + userId, e);
     }
 
+    if (zipStream != null) {
+      String fileName = zipStream.getFileName();
+
+      // Set http response information. The length of the zip is not known
+      // until it has been written.
+      resp.setStatus(HttpServletResponse.SC_OK);
+      resp.setHeader("content-disposition", "attachment; filename=\"" + fileName + "\"");
+      resp.setContentType(StorageUtil.getContentTypeForFilePath(fileName));
+
+      // Attach download data
+      ServletOutputStream out = resp.getOutputStream();
+      boolean written = false;
+      try {
+        zipStream.writeTo(out);
+        written = true;
+      } finally {
+        if (!written) {
+          abortZipDownload(resp, fileName);
+        }
+      }
+      out.close();
+      return;
+    }
+
     String fileName = downloadableFile.getFileName();
     byte[] content = downloadableFile.getContent();
 
@@ -229,4 +251,21 @@ public class DownloadServlet extends OdeServlet {
     out.write(content);
     out.close();
   }
+
+  /**
+   * Makes sure that a client whose zip download failed part way doesn't get
+   * a truncated zip with status 200.
+   *
+   * <p>If nothing has been sent yet, the status, headers and buffered data
+   * are dropped so that the exception is reported as an error response.
+   * Otherwise the output stream is left open, so that the exception aborts
+   * the connection instead of ending the response normally.
+   */
+  private static void abortZipDownload(HttpServletResponse resp, String fileName) {
+    if (resp.isCommitted()) {
+      LOG.warning("Aborting download of " + fileName + " after the response was committed");
+    } else {
+      resp.reset();
+    }
+  }
 }
@@ -6,6 +6,7 @@
 
 package com.google.appinventor.server;
 
+import com.google.appinventor.server.storage.ProjectSourceZipStream;
 import com.google.appinventor.shared.rpc.project.ProjectSourceZip;
 import com.google.appinventor.shared.rpc.project.RawFile;
 
@@ -57,16 +58,42 @@ public interface FileExporter {
     boolean fatalError, boolean forGallery) throws IOException;
 
   /**
-   * Exports all of the user's projects' source files as a zip of zips.
+   * Opens the project source files for export as a zip. Unlike
+   * {@link #exportProjectSourceZip}, the zip is not built in memory but
+   * written straight to an output stream by the caller.
+   *
+   * @param userId the userId
+   * @param projectId the project id belonging to the userId
+   * @param includeProjectHistory indicates whether to include a file
+   *        containing the project's history in the zip
+   * @param includeAndroidKeystore indicates whether to include the user's android.keystore file
+   * @param zipName the desired name for the zip, or null for a name to be generated
+   * @param fatalError set to true to cause missing GCS file to throw exception
+   * @return the zip, ready to be written
+   * @throws IllegalArgumentException if download request cannot be fulfilled
+   *         (no source files)
+   * @throws IOException if files cannot be listed
+   */
+  ProjectSourceZipStream openProjectSourceZip(String userId, long projectId,
+    boolean includeProjectHistory,
+    boolean includeAndroidKeystore, @Nullable String zipName,
+    boolean includeYail,
+    boolean fatalError, boolean forGallery) throws IOException;
+
+  /**
+   * Opens all of the user's projects' source files for export as a zip of
+   * zips. The zip is written straight to an output stream by the caller,
+   * one project at a time, so its size is not limited by memory.
    *
    * @param userId the userId
    * @param zipName the desired name for the zip
-   * @return the name, contents, and number of files in the zip
+   * @return the zip, ready to be written
    * @throws IllegalArgumentException if download request cannot be fulfilled
    *         (no projects)
-   * @throws IOException if files cannot be written
+   * @throws IOException if files cannot be listed
    */
-  ProjectSourceZip exportAllProjectsSourceZip(String userId, String zipName) throws IOException;
+  ProjectSourceZipStream openAllProjectsSourceZip(String userId, String zipName)
+      throws IOException;
 
   /**
    * Exports a specific project file.
@@ -6,19 +6,23 @@
 
 package com.google.appinventor.server;
 
+import com.google.common.annotations.VisibleForTesting;
 import com.google.common.base.Strings;
 import com.google.appinventor.server.storage.ObjectifyStorageIo;
+import com.google.appinventor.server.storage.ProjectSourceZipStream;
 import com.google.appinventor.server.storage.StorageIo;
 import com.google.appinventor.server.storage.StorageIoInstanceHolder;
 import com.google.appinventor.shared.rpc.project.ProjectSourceZip;
 import com.google.appinventor.shared.rpc.project.RawFile;
+import com.google.appinventor.shared.rpc.project.UserProject;
 import com.google.appinventor.shared.storage.StorageUtil;
 
-import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.io.OutputStream;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.zip.ZipEntry;
+import java.util.zip.ZipException;
 import java.util.zip.ZipOutputStream;
 
 import javax.annotation.Nullable;
@@ -29,7 +33,16 @@ import javax.annotation.Nullable;
  */
 public final class FileExporterImpl implements FileExporter {
 
-  private final StorageIo storageIo = StorageIoInstanceHolder.INSTANCE;
+  private final StorageIo storageIo;
+
+  public FileExporterImpl() {
+    this(StorageIoInstanceHolder.INSTANCE);
+  }
+
+  @VisibleForTesting
+  FileExporterImpl(StorageIo storageIo) {
+    this.storageIo = storageIo;
+  }
 
   @Override
   public RawFile exportProjectOutputFile(String userId, long projectId, @Nullable String target)
@@ -75,75 +88,161 @@ public final class FileExporterImpl implements FileExporter {
   }
 
   @Override
-  public ProjectSourceZip exportAllProjectsSourceZip(String userId,
-      String zipName) throws IOException {
-    // Create a zip file for each project's sources.
+  public ProjectSourceZipStream openProjectSourceZip(String userId, long projectId,
+    boolean includeProjectHistory,
+    boolean includeAndroidKeystore,
+    @Nullable String zipName,
+    boolean includeYail,
+    boolean fatalError,
+    boolean forGallery) throws IOException {
+    return storageIo.openProjectSourceZip(userId, projectId, includeProjectHistory,
+        includeAndroidKeystore, zipName, includeYail, forGallery, fatalError);
+  }
+
+  @Override
+  public ProjectSourceZipStream openAllProjectsSourceZip(String userId, String zipName)
+      throws IOException {
     List<Long> projectIds = storageIo.getProjects(userId);
     if (projectIds.size() == 0) {
       throw new IllegalArgumentException("No projects to download");
     }
+    AllProjectsSourceZip zip = new AllProjectsSourceZip(userId, zipName, projectIds);
+    if (!zip.openNextProject()) {
+      throw new IllegalArgumentException("No files to download");
+    }
+    return zip;
+  }
 
-    ByteArrayOutputStream zipFile = new ByteArrayOutputStream();
-    ZipOutputStream out = new ZipOutputStream(zipFile);
-    int count = 0;
-    String metadata = "";
-    for (Long projectId : projectIds) {
-      try {
-        // Note: We never include Yail files when exporting all source projects
-        // even for Admins. If you are an admin and want to debug a project, download
-        // it explicitly.
-        ProjectSourceZip projectSourceZip =
-          exportProjectSourceZip(userId, projectId, false, false, null, false, false, false);
-        byte[] data = projectSourceZip.getContent();
-        String name = projectSourceZip.getFileName();
-
-        // If necessary, rename duplicate projects
-        while (true) {
-          try {
-            out.putNextEntry(new ZipEntry(name));
-            break;
-          } catch (IOException e) {
-            name = "duplicate-" + name;
-          }
+  /**
+   * A zip with a source zip for each of a user's projects. Only the project
+   * being written and the next one are open at any time. The files of the
+   * next project are read ahead while the current one is written.
+   */
+  private final class AllProjectsSourceZip implements ProjectSourceZipStream {
+    private final String userId;
+    private final String zipName;
+    private final List<Long> projectIds;
+    private final String metadata;
+    // Index in projectIds of the next project to open.
+    private int nextProjectIndex = 0;
+    private ProjectSourceZipStream nextProject;
+
+    AllProjectsSourceZip(String userId, String zipName, List<Long> projectIds) {
+      this.userId = userId;
+      this.zipName = zipName;
+      this.projectIds = projectIds;
+      StringBuilder sb = new StringBuilder();
+      for (UserProject project : storageIo.getUserProjects(userId, projectIds)) {
+        sb.append(project.getProjectName()).append('\n');
+      }
+      metadata = sb.toString();
+    }
+
+    /*
+     * Opens the next project that has files and starts reading them. Returns
+     * false if there are no more projects.
+     */
+    boolean openNextProject() {
+      nextProject = null;
+      while (nextProjectIndex < projectIds.size()) {
+        long projectId = projectIds.get(nextProjectIndex++);
+        try {
+          // Note: We never include Yail files when exporting all source projects
+          // even for Admins. If you are an admin and want to debug a project, download
+          // it explicitly.
+          nextProject =
+            openProjectSourceZip(userId, projectId, false, false, null, false, false, false);
+          nextProject.prefetch();
+          return true;
+        } catch (IllegalArgumentException e) {
+          System.err.println("No files found for userid: " + userId +
+              " for projectid: " + projectId);
+        } catch (IOException e) {
+          System.err.println("IOException while reading files found for userid: " +
+              userId + " for projectid: " + projectId);
         }
-        metadata += projectSourceZip.getMetadata() + "\n";
-
-        out.write(data, 0, data.length);
-        out.closeEntry();
-        count++;
-      } catch (IllegalArgumentException e) {
-        System.err.println("No files found for userid: " + userId +
-            " for projectid: " + projectId);
-        continue;
-      } catch (IOException e) {
-        System.err.println("IOException while reading files found for userid: " +
-            userId + " for projectid: " + projectId);
-        continue;
       }
+      return false;
     }
-    if (count == 0) {
-      throw new IllegalArgumentException("No files to download");
+
+    @Override
+    public String getFileName() {
+      return zipName;
     }
 
-    List<String> userFiles = storageIo.getUserFiles(userId);
-    if (userFiles.contains(StorageUtil.ANDROID_KEYSTORE_FILENAME)) {
-      byte[] androidKeystoreBytes =
-          storageIo.downloadRawUserFile(userId, StorageUtil.ANDROID_KEYSTORE_FILENAME);
-      if (androidKeystoreBytes.length > 0) {
-        out.putNextEntry(new ZipEntry(StorageUtil.ANDROID_KEYSTORE_FILENAME));
-        out.write(androidKeystoreBytes, 0, androidKeystoreBytes.length);
-        out.closeEntry();
-        count++;
+    @Override
+    public String getMetadata() {
+      return metadata;
+    }
+
+    @Override
+    public void prefetch() {
+      // The first project is prefetched when it is opened.
+    }
+
+    @Override
+    public int writeTo(OutputStream output) throws IOException {
+      ZipOutputStream out = new ZipOutputStream(output);
+      int count = 0;
+      try {
+        while (nextProject != null) {
+          ProjectSourceZipStream project = nextProject;
+          openNextProject();
+          String name = project.getFileName();
+
+          // If necessary, rename duplicate projects
+          while (true) {
+            try {
+              out.putNextEntry(new ZipEntry(name));
+              break;
+            } catch (ZipException e) {
+              name = "duplicate-" + name;
+            }
+          }
+          project.writeTo(out);
+          out.closeEntry();
+          count++;
+        }
+      } finally {
+        // Only left open if a project could not be written.
+        closeNextProject();
+      }
+
+      List<String> userFiles = storageIo.getUserFiles(userId);
+      if (userFiles.contains(StorageUtil.ANDROID_KEYSTORE_FILENAME)) {
+        byte[] androidKeystoreBytes =
+            storageIo.downloadRawUserFile(userId, StorageUtil.ANDROID_KEYSTORE_FILENAME);
+        if (androidKeystoreBytes.length > 0) {
+          out.putNextEntry(new ZipEntry(StorageUtil.ANDROID_KEYSTORE_FILENAME));
+          out.write(androidKeystoreBytes, 0, androidKeystoreBytes.length);
+          out.closeEntry();
+          count++;
+        }
       }
+
+      out.finish();
+      return count;
     }
 
-    out.close();
+    @Override
+    public void close() {
+      closeNextProject();
+    }
 
-    // Package the big zip file up as a ProjectSourceZip and return it.
-    byte[] content = zipFile.toByteArray();
-    ProjectSourceZip projectSourceZip = new ProjectSourceZip(zipName, content, count);
-    projectSourceZip.setMetadata(metadata);
-    return projectSourceZip;
+    /*
+     * Stops the reads started for the next project. Failures are only
+     * reported, so that they don't hide the failure that left it open.
+     */
+    private void closeNextProject() {
+      if (nextProject != null) {
+        try {
+          nextProject.close();
+        } catch (IOException e) {
+          System.err.println("IOException while closing files for userid: " + userId);
+        }
+        nextProject = null;
+      }
+    }
   }
 
   @Override
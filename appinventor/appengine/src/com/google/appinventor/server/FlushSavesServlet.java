@@ -0,0 +1,44 @@
+// -*- mode: java; c-basic-offset: 2; -*-
+// Copyright 2016 MIT, All rights reserved
+// Released under the Apache License, Version 2.0
+// http://www.apache.org/licenses/LICENSE-2.0
+
+package com.google.appinventor.server;
+
+import com.google.appinventor.server.storage.StorageIo;
+import com.google.appinventor.server.storage.StorageIoInstanceHolder;
+
+import java.io.IOException;
+import java.util.logging.Logger;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+/**
+ * FlushSavesServlet -- Write the saves of a project that were held back
+ *
+ * When saves of a source file come in quick succession, the storage
+ * layer holds them back in memcache and adds a task to the task queue
+ * that calls this Servlet once the holding time is over. Like
+ * BlobUpgradeServlet, it is restricted to admin users, which the task
+ * queue manager operates as.
+ *
+ */
+public class FlushSavesServlet extends OdeServlet {
+  // Logging support
+  private static final Logger LOG = Logger.getLogger(FlushSavesServlet.class.getName());
+  private final StorageIo storageIo = StorageIoInstanceHolder.INSTANCE;
+
+  @Override
+  public void doPost(HttpServletRequest req, HttpServletResponse resp)
+      throws IOException {
+    long projectId;
+    try {
+      projectId = Long.parseLong(req.getParameter("project"));
+    } catch (NumberFormatException e) {
+      LOG.warning("Bad project id: " + req.getParameter("project"));
+      return;
+    }
+    storageIo.flushPendingSaves(projectId);
+  }
+}
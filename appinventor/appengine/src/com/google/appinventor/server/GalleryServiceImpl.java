@@ -138,7 +138,7 @@ public class GalleryServiceImpl extends OdeRemoteServiceServlet implements Galle
    */
   @Override
   public void indexAll(int count) {
-    List<GalleryApp> apps= getRecentApps(1,count).getApps();
+    List<GalleryApp> apps= getRecentApps(1,count,null).getApps();
     for (GalleryApp app:apps) {
       GallerySearchIndex.getInstance().indexApp(app);
     }
@@ -158,31 +158,37 @@ public class GalleryServiceImpl extends OdeRemoteServiceServlet implements Galle
    * updated galleryApps and total number of results in database
    * @param start starting index
    * @param count number of apps to return
+   * @param cursor the cursor of the previous page, or null to start at
+   *        the starting index
    * @return list of GalleryApps
    */
   @Override
-  public GalleryAppListResult getRecentApps(int start,int count) {
-    return galleryStorageIo.getRecentGalleryApps(start,count);
+  public GalleryAppListResult getRecentApps(int start,int count, String cursor) {
+    return galleryStorageIo.getRecentGalleryApps(start,count, cursor);
   }
 
   /**
    * Returns a wrapped class which contains list of featured gallery app
    * @param start start index
    * @param count count number
+   * @param cursor the cursor of the previous page, or null to start at
+   *        the starting index
    * @return list of gallery app
    */
-  public GalleryAppListResult getFeaturedApp(int start, int count){
-    return galleryStorageIo.getFeaturedApp(start, count);
+  public GalleryAppListResult getFeaturedApp(int start, int count, String cursor){
+    return galleryStorageIo.getFeaturedApp(start, count, cursor);
   }
 
   /**
    * Returns a wrapped class which contains list of tutorial gallery app
    * @param start start index
    * @param count count number
+   * @param cursor the cursor of the previous page, or null to start at
+   *        the starting index
    * @return list of gallery app
    */
-  public GalleryAppListResult getTutorialApp(int start, int count){
-    return galleryStorageIo.getTutorialApp(start, count);
+  public GalleryAppListResult getTutorialApp(int start, int count, String cursor){
+    return galleryStorageIo.getTutorialApp(start, count, cursor);
   }
 
   /**
@@ -227,11 +233,14 @@ public class GalleryServiceImpl extends OdeRemoteServiceServlet implements Galle
    * @param userId id of the developer
    * @param start starting index
    * @param count number of apps to return
+   * @param cursor the cursor of the previous page, or null to start at
+   *        the starting index
    * @return list of GalleryApps
    */
   @Override
-  public GalleryAppListResult getDeveloperApps(String userId, int start,int count) {
-    return galleryStorageIo.getDeveloperApps(userId, start,count);
+  public GalleryAppListResult getDeveloperApps(String userId, int start,int count,
+      String cursor) {
+    return galleryStorageIo.getDeveloperApps(userId, start,count, cursor);
   }
 
   /**
@@ -263,11 +272,13 @@ public class GalleryServiceImpl extends OdeRemoteServiceServlet implements Galle
    * gallery apps and total number of results in database
    * @param start starting index
    * @param count number of apps to return
+   * @param cursor the cursor of the previous page, or null to start at
+   *        the starting index
    * @return list of GalleryApps
    */
   @Override
-  public GalleryAppListResult getMostDownloadedApps(int start, int count) {
-    return galleryStorageIo.getMostDownloadedApps(start,count);
+  public GalleryAppListResult getMostDownloadedApps(int start, int count, String cursor) {
+    return galleryStorageIo.getMostDownloadedApps(start,count, cursor);
   }
 
   /**
@@ -275,11 +286,13 @@ public class GalleryServiceImpl extends OdeRemoteServiceServlet implements Galle
    * gallery apps and total number of results in database
    * @param start starting index
    * @param count number of apps to return
+   * @param cursor the cursor of the previous page, or null to start at
+   *        the starting index
    * @return list of GalleryApps
    */
   @Override
-  public GalleryAppListResult getMostLikedApps(int start, int count) {
-    return galleryStorageIo.getMostLikedApps(start,count);
+  public GalleryAppListResult getMostLikedApps(int start, int count, String cursor) {
+    return galleryStorageIo.getMostLikedApps(start,count, cursor);
   }
 
   /**
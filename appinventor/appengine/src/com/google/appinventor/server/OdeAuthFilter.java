@@ -13,6 +13,7 @@ import com.google.appinventor.server.flags.Flag;
 
 import com.google.appinventor.server.storage.StorageIo;
 import com.google.appinventor.server.storage.StorageIoInstanceHolder;
+import com.google.appinventor.server.storage.UserCache;
 
 import com.google.appinventor.shared.rpc.ServerLayout;
 import com.google.appinventor.shared.rpc.user.User;
@@ -167,7 +168,7 @@ public class OdeAuthFilter implements Filter {
   @VisibleForTesting
   boolean isUserWhitelisted() {
     //return whitelist.isInWhitelist(localUser);
-    return storageIo.checkWhiteList(localUser.getUserEmail());
+    return UserCache.checkWhiteList(storageIo, localUser.getUserEmail());
   }
 
   @VisibleForTesting
@@ -187,7 +188,7 @@ public class OdeAuthFilter implements Filter {
    * that was encrypted in the URL.
    */
   void setUserFromUserId(String userId, boolean isAdmin, boolean isReadOnly) {
-    User user = storageIo.getUser(userId);
+    User user = UserCache.getUser(storageIo, userId);
     if (!user.getIsAdmin() && isAdmin) {
       user.setIsAdmin(true);    // If session says they are an admin (which is the case
                                 // if they are a Google Account with Developer access
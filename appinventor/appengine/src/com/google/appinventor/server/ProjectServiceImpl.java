@@ -23,13 +23,16 @@ import com.google.appinventor.shared.rpc.project.ChecksumedFileException;
 import com.google.appinventor.shared.rpc.project.ChecksumedLoadFile;
 import com.google.appinventor.shared.rpc.project.FileDescriptor;
 import com.google.appinventor.shared.rpc.project.FileDescriptorWithContent;
+import com.google.appinventor.shared.rpc.project.FileDelta;
 import com.google.appinventor.shared.rpc.project.NewProjectParameters;
 import com.google.appinventor.shared.rpc.project.ProjectRootNode;
 import com.google.appinventor.shared.rpc.project.ProjectService;
 import com.google.appinventor.shared.rpc.project.UserProject;
 import com.google.appinventor.shared.rpc.project.youngandroid.YoungAndroidProjectNode;
+import com.google.appinventor.shared.storage.StorageUtil;
 import com.google.appinventor.shared.util.Base64Util;
 import com.google.common.collect.Lists;
+import com.google.common.collect.Sets;
 
 import java.io.BufferedReader;
 import java.io.ByteArrayInputStream;
@@ -42,6 +45,7 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.nio.channels.Channels;
 import java.util.List;
+import java.util.Set;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -240,14 +244,17 @@ public class ProjectServiceImpl extends OdeRemoteServiceServlet implements Proje
   public List<UserProject> getProjectInfos() {
     String userId = userInfoProvider.getUserId();
     List<Long> projectIds = storageIo.getProjects(userId);
-    List<UserProject> projectInfos = Lists.newArrayListWithExpectedSize(projectIds.size());
-    for (Long projectId : projectIds) {
-      UserProject up = makeUserProject(userId, projectId);
-      if (up != null) {
-        projectInfos.add(up);
-      } else {
-        LOG.log(Level.WARNING, "ProjectId " + projectId +
-          " is missing at the lower level.");
+    List<UserProject> projectInfos = storageIo.getUserProjects(userId, projectIds);
+    if (projectInfos.size() < projectIds.size()) {
+      Set<Long> foundProjectIds = Sets.newHashSetWithExpectedSize(projectInfos.size());
+      for (UserProject up : projectInfos) {
+        foundProjectIds.add(up.getProjectId());
+      }
+      for (Long projectId : projectIds) {
+        if (!foundProjectIds.contains(projectId)) {
+          LOG.log(Level.WARNING, "ProjectId " + projectId +
+            " is missing at the lower level.");
+        }
       }
     }
     return projectInfos;
@@ -426,12 +433,12 @@ public class ProjectServiceImpl extends OdeRemoteServiceServlet implements Proje
   public List<FileDescriptorWithContent> load(List<FileDescriptor> files) {
     List<FileDescriptorWithContent> result = Lists.newArrayList();
     final String userId = userInfoProvider.getUserId();
-    for (FileDescriptor file : files) {
-      long projectId = file.getProjectId();
-      String fileId = file.getFileId();
+    // Load all of the files at once rather than with a storage round trip per file.
+    List<String> contents = storageIo.downloadFiles(userId, files, StorageUtil.DEFAULT_CHARSET);
+    for (int i = 0; i < files.size(); i++) {
+      FileDescriptor file = files.get(i);
       result.add(new FileDescriptorWithContent(
-          projectId, fileId,
-          getProjectRpcImpl(userId, projectId).load(userId, projectId, fileId)));
+          file.getProjectId(), file.getFileId(), contents.get(i)));
     }
     return result;
   }
@@ -480,6 +487,43 @@ public class ProjectServiceImpl extends OdeRemoteServiceServlet implements Proje
         content);
   }
 
+  /**
+   * Saves the content of the file associated with a node in the project tree
+   * by applying a delta to its stored content.
+   *
+   * @param sessionId session id
+   * @param projectId  project ID
+   * @param fileId  project node whose source should be saved
+   * @param force whether to write an empty blocks workspace
+   * @param delta  the change from the content the client loaded or saved last
+   * @return modification date for project
+   *
+   * @see #save2(String, long, String, boolean, String)
+   */
+  @Override
+  public long saveDelta(String sessionId, long projectId, String fileId, boolean force,
+      FileDelta delta) throws InvalidSessionException, BlocksTruncatedException,
+      ChecksumedFileException {
+    validateSessionId(sessionId);
+    final String userId = userInfoProvider.getUserId();
+    return getProjectRpcImpl(userId, projectId).saveDelta(userId, projectId, fileId, force,
+        delta);
+  }
+
+  /**
+   * Makes sure that all saves of the project's files have been written to
+   * storage.
+   *
+   * @param sessionId session id
+   * @param projectId  project ID
+   */
+  @Override
+  public void flushSaves(String sessionId, long projectId) throws InvalidSessionException {
+    validateSessionId(sessionId);
+    final String userId = userInfoProvider.getUserId();
+    getProjectRpcImpl(userId, projectId).flushSaves(projectId);
+  }
+
   /**
    * Saves the contents of multiple files.
    *
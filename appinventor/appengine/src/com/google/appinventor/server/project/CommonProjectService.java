@@ -11,6 +11,7 @@ import com.google.appinventor.shared.rpc.BlocksTruncatedException;
 import com.google.appinventor.shared.rpc.RpcResult;
 import com.google.appinventor.shared.rpc.project.ChecksumedLoadFile;
 import com.google.appinventor.shared.rpc.project.ChecksumedFileException;
+import com.google.appinventor.shared.rpc.project.FileDelta;
 import com.google.appinventor.shared.rpc.project.NewProjectParameters;
 import com.google.appinventor.shared.rpc.project.ProjectRootNode;
 import com.google.appinventor.shared.rpc.user.User;
@@ -287,6 +288,43 @@ public abstract class CommonProjectService {
     }
   }
 
+  /**
+   * Saves the content of the file associated with a node in the project tree
+   * by applying a delta to its stored content. The client only sends the
+   * changed part of the file, which for large blocks workspaces is much
+   * smaller than the whole content.
+   *
+   * @param userId the user id
+   * @param projectId  project root node ID
+   * @param fileId  project node whose source should be saved
+   * @param force whether to write an empty blocks workspace
+   * @param delta  the change from the content the client loaded or saved last
+   * @return modification date for project
+   * @throws ChecksumedFileException if the stored content is not the one the
+   *         delta was made from
+   *
+   * @see com.google.appinventor.shared.rpc.project.ProjectService#saveDelta(String, long, String, boolean, FileDelta)
+   */
+  public long saveDelta(String userId, long projectId, String fileId, boolean force,
+      FileDelta delta) throws BlocksTruncatedException, ChecksumedFileException {
+    // The base may be a save that is held back, which the new save replaces
+    String base = storageIo.downloadFileToUpdate(userId, projectId, fileId,
+        StorageUtil.DEFAULT_CHARSET);
+    return save2(userId, projectId, fileId, force, delta.apply(base));
+  }
+
+  /**
+   * Makes sure that all saves of the project's files have been written to
+   * storage.
+   *
+   * @param projectId  project root node ID
+   *
+   * @see com.google.appinventor.shared.rpc.project.ProjectService#flushSaves(String, long)
+   */
+  public void flushSaves(long projectId) {
+    storageIo.flushPendingSaves(projectId);
+  }
+
   /**
    * Invokes a build command for the project.
    *
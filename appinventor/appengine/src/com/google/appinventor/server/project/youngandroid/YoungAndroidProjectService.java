@@ -20,6 +20,7 @@ import com.google.appinventor.server.flags.Flag;
 import com.google.appinventor.server.project.CommonProjectService;
 import com.google.appinventor.server.project.utils.Security;
 import com.google.appinventor.server.properties.json.ServerJsonParser;
+import com.google.appinventor.server.storage.ProjectSourceZipStream;
 import com.google.appinventor.server.storage.StorageIo;
 import com.google.appinventor.shared.properties.json.JSONParser;
 import com.google.appinventor.shared.rpc.RpcResult;
@@ -49,9 +50,12 @@ import com.google.appinventor.shared.settings.SettingsConstants;
 import com.google.appinventor.shared.storage.StorageUtil;
 import com.google.appinventor.shared.youngandroid.YoungAndroidSourceAnalyzer;
 import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Charsets;
 import com.google.common.base.Strings;
 import com.google.common.collect.Maps;
+import com.google.common.hash.Hashing;
 import com.google.common.io.CharStreams;
+import com.google.common.io.CountingOutputStream;
 import org.json.JSONException;
 import org.json.JSONObject;
 
@@ -67,9 +71,11 @@ import java.net.MalformedURLException;
 import java.net.URL;
 import java.net.URLEncoder;
 import java.text.DecimalFormat;
+import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
 import java.util.Properties;
+import java.util.logging.Level;
 import java.util.logging.Logger;
 
 /**
@@ -80,7 +86,6 @@ import java.util.logging.Logger;
  */
 public final class YoungAndroidProjectService extends CommonProjectService {
 
-  private static int currentProgress = 0;
   private static final Logger LOG = Logger.getLogger(YoungAndroidProjectService.class.getName());
 
   // The value of this flag can be changed in appengine-web.xml
@@ -113,6 +118,10 @@ public final class YoungAndroidProjectService extends CommonProjectService {
 
   public static final String PROJECT_KEYSTORE_LOCATION = "android.keystore";
 
+  // Response header in which the build server returns the estimated number of seconds until a
+  // queued build starts. Must match BuildServer.ESTIMATED_START_HEADER.
+  private static final String ESTIMATED_START_HEADER = "Estimated-Start-Seconds";
+
   // host[:port] to use for connecting to the build server
   private static final Flag<String> buildServerHost =
       Flag.createFlag("build.server.host", "localhost:9990");
@@ -346,6 +355,10 @@ public final class YoungAndroidProjectService extends CommonProjectService {
     newProject.setProjectType(YoungAndroidProjectNode.YOUNG_ANDROID_PROJECT_TYPE);
     newProject.setProjectHistory(oldProjectHistory);
 
+    // Files that keep their names and contents are copied after the new project is created,
+    // which lets the storage share the content of assets instead of copying it.
+    List<String> unchangedFileNames = new ArrayList<String>();
+
     // Get the old project's source files and add them to new project, modifying where necessary.
     for (String oldSourceFileName : storageIo.getProjectSourceFiles(userId, oldProjectId)) {
       String newSourceFileName;
@@ -372,6 +385,8 @@ public final class YoungAndroidProjectService extends CommonProjectService {
         // We've determined (above) that the contents of the file must change for the new project.
         // Use newContents when adding the file to the new project.
         newProject.addTextFile(new TextFile(newSourceFileName, newContents));
+      } else if (newSourceFileName.equals(oldSourceFileName)) {
+        unchangedFileNames.add(oldSourceFileName);
       } else {
         // If we get here, we know that the contents of the file can just be copied from the old
         // project. Since it might be a binary file, we copy it as a raw file (that works for both
@@ -382,8 +397,20 @@ public final class YoungAndroidProjectService extends CommonProjectService {
     }
 
     // Create the new project and return the new project's id.
-    return storageIo.createProject(userId, newProject, getProjectSettings(icon, vcode, vname,
-        useslocation, aname, sizing));
+    long newProjectId = storageIo.createProject(userId, newProject, getProjectSettings(icon,
+        vcode, vname, useslocation, aname, sizing));
+    try {
+      storageIo.copyFiles(userId, oldProjectId, newProjectId, unchangedFileNames);
+    } catch (RuntimeException e) {
+      // Don't leave the user a copy that lacks some of the files
+      try {
+        storageIo.deleteProject(userId, newProjectId);
+      } catch (RuntimeException deleteException) {
+        LOG.log(Level.SEVERE, "Unable to delete incomplete copy " + newProjectId, deleteException);
+      }
+      throw e;
+    }
+    return newProjectId;
   }
 
   @Override
@@ -558,7 +585,8 @@ public final class YoungAndroidProjectService extends CommonProjectService {
       storageIo.deleteFile(userId, projectId, buildOutputFile);
     }
     URL buildServerUrl = null;
-    ProjectSourceZip zipFile = null;
+    // Counts the bytes of the project source zip as it is sent to the build server.
+    CountingOutputStream zipOutput = null;
     try {
       buildServerUrl = new URL(getBuildServerUrlStr(
           user.getUserEmail(),
@@ -569,14 +597,15 @@ public final class YoungAndroidProjectService extends CommonProjectService {
       connection.setDoOutput(true);
       connection.setRequestMethod("POST");
 
-      BufferedOutputStream bufferedOutputStream = new BufferedOutputStream(connection.getOutputStream());
       FileExporter fileExporter = new FileExporterImpl();
-      zipFile = fileExporter.exportProjectSourceZip(userId, projectId, false,
-          /* includeAndroidKeystore */ true,
+      ProjectSourceZipStream zipStream = fileExporter.openProjectSourceZip(userId, projectId,
+          false, /* includeAndroidKeystore */ true,
         projectName + ".aia", true, true, false);
-      bufferedOutputStream.write(zipFile.getContent());
-      bufferedOutputStream.flush();
-      bufferedOutputStream.close();
+      zipOutput = new CountingOutputStream(
+          new BufferedOutputStream(connection.getOutputStream()));
+      zipStream.writeTo(zipOutput);
+      zipOutput.flush();
+      zipOutput.close();
 
       int responseCode = 0;
       responseCode = connection.getResponseCode();
@@ -613,6 +642,21 @@ public final class YoungAndroidProjectService extends CommonProjectService {
 
         return new RpcResult(responseCode, "", StringUtils.escape(error));
       }
+
+      // If the build server is busy, the build is queued and the build server tells us when it
+      // expects the build to start.
+      String estimatedStart = connection.getHeaderField(ESTIMATED_START_HEADER);
+      if (estimatedStart != null) {
+        try {
+          int seconds = Integer.parseInt(estimatedStart);
+          LOG.info("Build of project " + projectId + " is queued, estimated start in " + seconds
+              + " seconds.");
+          return new RpcResult(true, "Building " + projectName + " (the build server is busy,"
+              + " the build is expected to start in about " + seconds + " seconds)", "");
+        } catch (NumberFormatException e) {
+          // Not a number. That's ok.
+        }
+      }
     } catch (MalformedURLException e) {
       CrashReport.createAndLogError(LOG, null,
           buildErrorMsg("MalformedURLException", buildServerUrl, userId, projectId), e);
@@ -620,7 +664,7 @@ public final class YoungAndroidProjectService extends CommonProjectService {
     } catch (IOException e) {
       // As of App Engine 1.9.0 we get these when UrlFetch is asked to send too much data
       Throwable wrappedException = e;
-      int zipFileLength = zipFile == null ? -1 : zipFile.getContent().length;
+      long zipFileLength = zipOutput == null ? -1 : zipOutput.getCount();
       if (zipFileLength >= (5 * 1024 * 1024) /* 5 MB */) {
         String lengthMbs = format((zipFileLength * 1.0)/(1024*1024));
         wrappedException = new IllegalArgumentException(
@@ -638,8 +682,8 @@ public final class YoungAndroidProjectService extends CommonProjectService {
       // In particular, we often see RequestTooLargeException (if the zip is too
       // big) and ApiProxyException. There may be others.
       Throwable wrappedException = e;
-      if (e instanceof ApiProxy.RequestTooLargeException && zipFile != null) {
-        int zipFileLength = zipFile.getContent().length;
+      if (e instanceof ApiProxy.RequestTooLargeException && zipOutput != null) {
+        long zipFileLength = zipOutput.getCount();
         if (zipFileLength >= (5 * 1024 * 1024) /* 5 MB */) {
           String lengthMbs = format((zipFileLength * 1.0)/(1024*1024));
           wrappedException = new IllegalArgumentException(
@@ -675,6 +719,7 @@ public final class YoungAndroidProjectService extends CommonProjectService {
                ? "&gitBuildVersion="
                  + URLEncoder.encode(GitBuildId.getVersion(), "UTF-8")
                : "")
+           + "&buildId=" + getBuildId(userId, projectId, fileName)
            + "&callback="
            + URLEncoder.encode("http://" + getCurrentHost() + ServerLayout.ODE_BASEURL_NOAUTH
                                + ServerLayout.RECEIVE_BUILD_SERVLET + "/"
@@ -683,6 +728,16 @@ public final class YoungAndroidProjectService extends CommonProjectService {
                                "UTF-8");
   }
 
+  /*
+   * Returns the id that the build server uses to report the progress of a
+   * build. The callback URL can't be used for that, because the encrypted
+   * user and project id in it is different every time.
+   */
+  private static String getBuildId(String userId, long projectId, String fileName) {
+    return Hashing.sha256()
+        .hashString(userId + "/" + projectId + "/" + fileName, Charsets.UTF_8).toString();
+  }
+
   private String getCurrentHost() {
     if (Server.isProductionServer()) {
       if (appengineHost.get()=="") {
@@ -731,7 +786,7 @@ public final class YoungAndroidProjectService extends CommonProjectService {
     String userId = user.getUserId();
     String buildOutputFileName = BUILD_FOLDER + '/' + target + '/' + "build.out";
     List<String> outputFiles = storageIo.getProjectOutputFiles(userId, projectId);
-    updateCurrentProgress(user, projectId, target);
+    int currentProgress = updateCurrentProgress(user, projectId, target);
     RpcResult buildResult = new RpcResult(-1, ""+currentProgress, ""); // Build not finished
     for (String outputFile : outputFiles) {
       if (buildOutputFileName.equals(outputFile)) {
@@ -757,8 +812,10 @@ public final class YoungAndroidProjectService extends CommonProjectService {
    * @param user the User that owns the {@code projectId}.
    * @param projectId  project id to be built
    * @param target  build target (optional, implementation dependent)
+   * @return the progress of the build, in percent, or 0 if it is unknown
    */
-  public void updateCurrentProgress(User user, long projectId, String target) {
+  public int updateCurrentProgress(User user, long projectId, String target) {
+    int currentProgress = 0;
     try {
       String userId = user.getUserId();
       String projectName = storageIo.getProjectName(userId, projectId);
@@ -793,6 +850,7 @@ public final class YoungAndroidProjectService extends CommonProjectService {
       } catch (RuntimeException e) {
         // that's ok, nothing to do
       }
+    return currentProgress;
   }
 
   // Nicely format floating number using only two decimal places
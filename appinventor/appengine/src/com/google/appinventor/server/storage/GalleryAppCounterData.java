@@ -0,0 +1,37 @@
+// -*- mode: java; c-basic-offset: 2; -*-
+// Copyright 2016 MIT, All rights reserved
+// Released under the Apache License, Version 2.0
+// http://www.apache.org/licenses/LICENSE-2.0
+
+package com.google.appinventor.server.storage;
+
+import javax.persistence.Id;
+
+import com.googlecode.objectify.annotation.Unindexed;
+
+/**
+ * One shard of the download and like counters of a gallery app.
+ *
+ * <p>Downloads and likes are counted in one of several shards, each in its
+ * own entity group, so that a popular app does not serialize every download
+ * on its {@link GalleryAppData}. The shards only ever hold running totals;
+ * {@link ObjectifyGalleryStorageIo} rolls the totals up into
+ * {@link GalleryAppData#numDownloads} and {@link GalleryAppData#numLikes}
+ * from time to time, which is what the gallery listings are ordered by.
+ *
+ */
+@Unindexed
+public class GalleryAppCounterData {
+  // The gallery app id and the shard number, separated by "/"
+  @Id String id;
+
+  // The downloads counted by this shard since it was created
+  int numDownloads;
+
+  // The likes counted by this shard since it was created, less the unlikes
+  int numLikes;
+
+  // The downloads, likes and unlikes counted by this shard since it was
+  // created, which orders the roll-ups of the shards
+  int numCounts;
+}
@@ -9,6 +9,7 @@ package com.google.appinventor.server.storage;
 import javax.persistence.Id;
 
 import com.googlecode.objectify.annotation.Indexed;
+import com.googlecode.objectify.annotation.Unindexed;
 
 /**
  * this class modelled after those in StoredData.java
@@ -32,6 +33,11 @@ public class GalleryAppData {
   @Indexed public int numDownloads;
   @Indexed public int unreadLikes;
   @Indexed public int unreadDownloads;
+  // The totals of the counter shards (see GalleryAppCounterData) that are
+  // already included in numDownloads and numLikes
+  @Unindexed int shardedDownloads;
+  @Unindexed int shardedLikes;
+  @Unindexed int shardedCounts;
   long projectId;
   int status;
   long lastEmailNotificationTimeStamp;
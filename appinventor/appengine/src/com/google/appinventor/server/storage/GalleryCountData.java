@@ -0,0 +1,26 @@
+// -*- mode: java; c-basic-offset: 2; -*-
+// Copyright 2016 MIT, All rights reserved
+// Released under the Apache License, Version 2.0
+// http://www.apache.org/licenses/LICENSE-2.0
+
+package com.google.appinventor.server.storage;
+
+import javax.persistence.Id;
+
+/**
+ * The number of active gallery apps, kept up to date as apps are published,
+ * removed, deactivated and activated again, so that the gallery listings do
+ * not have to count all apps for every page. The apps are counted again from
+ * time to time, which makes up for changes that the number missed.
+ *
+ */
+public class GalleryCountData {
+  // The id of the only GalleryCountData
+  static final long ID = 1;
+
+  @Id Long id;
+  int numActiveApps;
+
+  // When the active apps were last counted, in milliseconds since the epoch
+  long dateCounted;
+}
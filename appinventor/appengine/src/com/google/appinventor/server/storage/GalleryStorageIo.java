@@ -68,43 +68,53 @@ public interface GalleryStorageIo {
    * updated galleryApps and total number of results in database
    * @param start starting index of apps you want
    * @param count number of apps you want
+   * @param cursor the cursor of the previous page, or null to start at
+   *        the starting index
    * @return list of {@link GalleryApp}
    */
-  GalleryAppListResult getRecentGalleryApps(int start, int count);
+  GalleryAppListResult getRecentGalleryApps(int start, int count, String cursor);
 
   /**
    * Returns a wrapped class which contains a list of most downloaded
    * gallery apps and total number of results in database
    * @param start starting index of apps you want
    * @param count number of apps you want
+   * @param cursor the cursor of the previous page, or null to start at
+   *        the starting index
    * @return list of {@link GalleryApp}
    */
-  GalleryAppListResult getMostDownloadedApps(int start, int count);
+  GalleryAppListResult getMostDownloadedApps(int start, int count, String cursor);
 
   /**
    * Returns a wrapped class which contains a list of most liked
    * gallery apps and total number of results in database
    * @param start starting index of apps you want
    * @param count number of apps you want
+   * @param cursor the cursor of the previous page, or null to start at
+   *        the starting index
    * @return list of {@link GalleryApp}
    */
-  GalleryAppListResult getMostLikedApps(int start, int count);
+  GalleryAppListResult getMostLikedApps(int start, int count, String cursor);
 
   /**
    *Returns a wrapped class which contains a list of featured gallery app
    * @param start start index
    * @param count count number
+   * @param cursor the cursor of the previous page, or null to start at
+   *        the starting index
    * @return list of gallery app
    */
-  GalleryAppListResult getFeaturedApp(int start, int count);
+  GalleryAppListResult getFeaturedApp(int start, int count, String cursor);
 
    /**
    *Returns a wrapped class which contains a list of tutorial gallery app
    * @param start start index
    * @param count count number
+   * @param cursor the cursor of the previous page, or null to start at
+   *        the starting index
    * @return list of gallery app
    */
-  GalleryAppListResult getTutorialApp(int start, int count);
+  GalleryAppListResult getTutorialApp(int start, int count, String cursor);
 
   /**
    * check if app is featured already
@@ -140,9 +150,11 @@ public interface GalleryStorageIo {
    * @param userId id of developer
    * @param start starting index of apps you want
    * @param count number of apps you want
+   * @param cursor the cursor of the previous page, or null to start at
+   *        the starting index
    * @return list of {@link GalleryApp}
    */
-  GalleryAppListResult getDeveloperApps(String userId, int start, int count);
+  GalleryAppListResult getDeveloperApps(String userId, int start, int count, String cursor);
 
   /**
    * records that an app has been downloaded
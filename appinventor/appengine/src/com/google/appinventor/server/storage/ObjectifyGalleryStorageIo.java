@@ -6,13 +6,21 @@
 
 package com.google.appinventor.server.storage;
 
+import java.io.Serializable;
 import java.util.ArrayList;
 import java.util.ConcurrentModificationException;
 import java.util.List;
+import java.util.Random;
 import java.util.TreeMap;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
+import com.google.appengine.api.datastore.Cursor;
+import com.google.appengine.api.datastore.QueryResultIterator;
+import com.google.appengine.api.memcache.Expiration;
+import com.google.appengine.api.memcache.MemcacheService;
+import com.google.appengine.api.memcache.MemcacheService.SetPolicy;
+import com.google.appengine.api.memcache.MemcacheServiceFactory;
 import com.google.appinventor.server.CrashReport;
 import com.google.appinventor.server.GalleryEmail;
 import com.google.appinventor.server.GallerySearchIndex;
@@ -32,6 +40,7 @@ import com.googlecode.objectify.Key;
 import com.googlecode.objectify.NotFoundException;
 import com.googlecode.objectify.Objectify;
 import com.googlecode.objectify.ObjectifyService;
+import com.googlecode.objectify.Query;
 
 /**
  * Implements the GalleryStorageIo interface using Objectify as the underlying data
@@ -53,6 +62,49 @@ public class ObjectifyGalleryStorageIo implements  GalleryStorageIo {
   private static final int MAX_JOB_RETRIES = 10;
   private static final long TWENTYFOURHOURS = 24*3600*1000; // 24 hours in milliseconds
 
+  // The number of shards (see GalleryAppCounterData) the download and like
+  // counters of an app are spread over. The roll-up reads the shards by key,
+  // so this must never be lowered.
+  @VisibleForTesting
+  static final int COUNTER_SHARDS = 20;
+
+  // The minimum number of seconds between two roll-ups of the counter shards
+  // of an app into its GalleryAppData.
+  static final Flag<Integer> counterRollUpSeconds =
+      Flag.createFlag("gallery.counter.rollup.seconds", 60);
+
+  // Memcache key prefix for the marks of recent roll-ups
+  private static final String ROLL_UP_PREFIX = "galleryrollup:";
+
+  // The number of seconds the first page of the recent, most downloaded and
+  // most liked listings, and the cursors to their following pages, are kept
+  // in memcache. Publishing, updating and removing apps drop the pages and
+  // the cursors at once; changes in the download and like counts show when
+  // they expire.
+  static final Flag<Integer> pageCacheSeconds =
+      Flag.createFlag("gallery.page.cache.seconds", 60);
+
+  // The number of seconds after which the active apps are counted again.
+  // The count is kept up to date as apps are published and removed, but not
+  // in the same transactions, since those are in other entity groups, so it
+  // can miss a change.
+  static final Flag<Integer> activeAppsRecountSeconds =
+      Flag.createFlag("gallery.active.apps.recount.seconds", 3600);
+
+  // The orderings of the listings whose pages are cached
+  private static final String RECENT_ORDER = "recent";
+  private static final String DOWNLOADS_ORDER = "downloads";
+  private static final String LIKES_ORDER = "likes";
+
+  // Memcache key prefixes for the first page of a listing, and for the
+  // cursor to the page of a listing that starts at a given index
+  private static final String PAGE_PREFIX = "gallerypage:";
+  private static final String CURSOR_PREFIX = "gallerycursor:";
+
+  // Memcache key of the version of the cached pages and cursors. The version
+  // is part of their keys, so changing it drops all of them at once.
+  private static final String CACHE_VERSION_KEY = "galleryversion";
+
   // Use this class to define the work of a job that can be retried. The
   // "datastore" argument to run() is the Objectify object for this job
   // (created with ObjectifyService.beginTransaction()). Note that all operations
@@ -76,12 +128,27 @@ public class ObjectifyGalleryStorageIo implements  GalleryStorageIo {
     T t;
   }
 
+  // The first page of a listing, as kept in memcache
+  private static class CachedPage implements Serializable {
+    int count;
+    ArrayList<GalleryApp> apps;
+    String cursor;
+
+    CachedPage(int count, ArrayList<GalleryApp> apps, String cursor) {
+      this.count = count;
+      this.apps = apps;
+      this.cursor = cursor;
+    }
+  }
+
   static {
     // Register the data object classes stored in the database
     ObjectifyService.register(EmailData.class);
     ObjectifyService.register(GalleryAppData.class);
     ObjectifyService.register(GalleryCommentData.class);
     ObjectifyService.register(GalleryAppLikeData.class);
+    ObjectifyService.register(GalleryAppCounterData.class);
+    ObjectifyService.register(GalleryCountData.class);
     ObjectifyService.register(GalleryAppFeatureData.class);
     ObjectifyService.register(GalleryAppTutorialData.class);
     ObjectifyService.register(GalleryAppAttributionData.class);
@@ -93,6 +160,9 @@ public class ObjectifyGalleryStorageIo implements  GalleryStorageIo {
   private final transient StorageIo storageIo =
       StorageIoInstanceHolder.INSTANCE;
 
+  private final MemcacheService memcache = MemcacheServiceFactory.getMemcacheService();
+  private final Random random = new Random();
+
   /**
    * creates a new gallery app
    * @param title title of new app
@@ -145,6 +215,7 @@ public class ObjectifyGalleryStorageIo implements  GalleryStorageIo {
           Key<GalleryAppData> galleryKey = galleryKey(appData.id);
         }
       });
+      adjustNumActiveApps(1);
 
     } catch (ObjectifyException e) {
       throw CrashReport.createAndLogError(LOG, null,
@@ -170,46 +241,42 @@ public class ObjectifyGalleryStorageIo implements  GalleryStorageIo {
    * updated galleryApps and total number of results in database
    * @param start starting index of apps you want
    * @param count number of apps you want
+   * @param cursor the cursor of the previous page, or null to start at
+   *        the starting index
    * @return list of {@link GalleryApp}
    */
   @Override
-  public GalleryAppListResult getRecentGalleryApps(int start, final int count) {
-    final List<GalleryApp> apps = new ArrayList<GalleryApp>();
+  public GalleryAppListResult getRecentGalleryApps(int start, final int count,
+      String cursor) {
     // If I try to run this in runjobwithretries, it tells me can't run
     // non-ancestor query as a transaction. ObjectifyStorageio has some samples
     // of not using transactions (run with) so I grabbed.
 
     Objectify datastore = ObjectifyService.begin();
-    for (GalleryAppData appData:datastore.query(GalleryAppData.class).order("-dateModified").filter("active", true).offset(start).limit(count)) {
-      GalleryApp gApp = new GalleryApp();
-      makeGalleryApp(appData, gApp);
-      apps.add(gApp);
-    }
-    int totalCount = datastore.query(GalleryAppData.class).order("-dateModified").filter("active", true).count();
-    return new GalleryAppListResult(apps, totalCount);
+    return getActiveApps(RECENT_ORDER,
+        datastore.query(GalleryAppData.class).order("-dateModified").filter("active", true),
+        start, count, cursor);
   }
   /**
    * Returns a wrapped class which contains a list of most downloaded
    * gallery apps and total number of results in database
    * @param start starting index of apps you want
    * @param count number of apps you want
+   * @param cursor the cursor of the previous page, or null to start at
+   *        the starting index
    * @return list of {@link GalleryApp}
    */
   @Override
-  public GalleryAppListResult getMostDownloadedApps(int start, final int count) {
-    final List<GalleryApp> apps = new ArrayList<GalleryApp>();
+  public GalleryAppListResult getMostDownloadedApps(int start, final int count,
+      String cursor) {
     // If I try to run this in runjobwithretries, it tells me can't run
     // non-ancestor query as a transaction. ObjectifyStorageio has some samples
     // of not using transactions (run with) so I grabbed.
 
     Objectify datastore = ObjectifyService.begin();
-    for (GalleryAppData appData:datastore.query(GalleryAppData.class).order("-numDownloads").filter("active", true).offset(start).limit(count)) {
-      GalleryApp gApp = new GalleryApp();
-      makeGalleryApp(appData, gApp);
-      apps.add(gApp);
-    }
-    int totalCount = datastore.query(GalleryAppData.class).order("-numDownloads").filter("active", true).count();
-    return new GalleryAppListResult(apps, totalCount);
+    return getActiveApps(DOWNLOADS_ORDER,
+        datastore.query(GalleryAppData.class).order("-numDownloads").filter("active", true),
+        start, count, cursor);
   }
 
   /**
@@ -217,46 +284,177 @@ public class ObjectifyGalleryStorageIo implements  GalleryStorageIo {
    * gallery apps and total number of results in database
    * @param start starting index of apps you want
    * @param count number of apps you want
+   * @param cursor the cursor of the previous page, or null to start at
+   *        the starting index
    * @return list of {@link GalleryApp}
    */
   @Override
-  public GalleryAppListResult getMostLikedApps(int start, final int count) {
-    final List<GalleryApp> apps = new ArrayList<GalleryApp>();
+  public GalleryAppListResult getMostLikedApps(int start, final int count,
+      String cursor) {
     // If I try to run this in runjobwithretries, it tells me can't run
     // non-ancestor query as a transaction. ObjectifyStorageio has some samples
     // of not using transactions (run with) so I grabbed
 
     Objectify datastore = ObjectifyService.begin();
-    for (GalleryAppData appData : datastore.query(GalleryAppData.class)
+    return getActiveApps(LIKES_ORDER,
+        datastore.query(GalleryAppData.class)
            .filter("active", true)
            .order("-numLikes")
-           .order("-numDownloads")
-           .offset(start).limit(count)) {
+           .order("-numDownloads"),
+        start, count, cursor);
+  }
+
+  // Returns a page of a listing of active apps, together with the number of
+  // active apps. The first page is taken from memcache if possible. Later
+  // pages start from the given cursor, or else from the cursor left in
+  // memcache by the page before them, so that the datastore need not skip
+  // over all apps before them. Nothing is cached if memcache is not
+  // available.
+  private GalleryAppListResult getActiveApps(String order, Query<GalleryAppData> query,
+      int start, int count, String cursor) {
+    // Starting at the current time, a version that memcache evicted is not
+    // used again for the entries cached with it.
+    Long version = memcache.increment(CACHE_VERSION_KEY, 0, System.currentTimeMillis());
+    boolean cached = version != null;
+    String pageKey = PAGE_PREFIX + version + ":" + order;
+    String cursorPrefix = CURSOR_PREFIX + version + ":" + order + ":";
+    boolean firstPage = start == 0 && cursor == null;
+    if (cached && firstPage) {
+      CachedPage page = (CachedPage) memcache.get(pageKey);
+      if (page != null && page.count == count) {
+        GalleryAppListResult result = new GalleryAppListResult(page.apps, getNumActiveApps());
+        result.setCursor(page.cursor);
+        return result;
+      }
+    } else if (cached && cursor == null) {
+      cursor = (String) memcache.get(cursorPrefix + start);
+    }
+    ArrayList<GalleryApp> apps = new ArrayList<GalleryApp>();
+    QueryResultIterator<GalleryAppData> iterator = startPage(query, cursor, start, count);
+    while (iterator.hasNext()) {
       GalleryApp gApp = new GalleryApp();
-      makeGalleryApp(appData, gApp);
+      makeGalleryApp(iterator.next(), gApp);
       apps.add(gApp);
     }
+    String nextCursor = nextCursor(iterator, apps.size(), count);
+    Expiration expiration = Expiration.byDeltaSeconds(pageCacheSeconds.get());
+    if (cached && nextCursor != null) {
+      memcache.put(cursorPrefix + (start + apps.size()), nextCursor, expiration);
+    }
+    if (cached && firstPage) {
+      memcache.put(pageKey, new CachedPage(count, apps, nextCursor), expiration);
+    }
+    GalleryAppListResult result = new GalleryAppListResult(apps, getNumActiveApps());
+    result.setCursor(nextCursor);
+    return result;
+  }
+
+  // Returns the iterator over a page of the query results that starts at the
+  // given cursor, or at the given index if there is no cursor. Skipping to an
+  // index costs a read of every result before it; starting at a cursor does
+  // not.
+  private static <T> QueryResultIterator<T> startPage(Query<T> query, String cursor,
+      int start, int count) {
+    if (cursor != null) {
+      try {
+        return query.startCursor(Cursor.fromWebSafeString(cursor)).limit(count).iterator();
+      } catch (IllegalArgumentException e) {
+        // A cursor can decode and still be refused when the query runs, so
+        // it is cleared from the query here.
+        LOG.log(Level.WARNING, "Ignoring bad cursor " + cursor, e);
+        query.startCursor(null);
+      }
+    }
+    return query.offset(start).limit(count).iterator();
+  }
 
-    // The line below is a PROBLEM. It is *very expensive*
-    // We either need to keep separate track of the number of apps in the
-    // Gallery, or we need to cache this value somewhere so we are
-    // not computing it all the time!
-    int totalCount = datastore.query(GalleryAppData.class).filter("active", true).count();
-    return new GalleryAppListResult(apps, totalCount);
+  // Returns the cursor to the page after the one just read with the
+  // iterator, or null if that page was the last one.
+  private static String nextCursor(QueryResultIterator<?> iterator, int numRead, int count) {
+    return numRead < count ? null : iterator.getCursor().toWebSafeString();
+  }
+
+  // Returns the number of active apps. They are counted if that was not done
+  // in the last activeAppsRecountSeconds seconds; in between, the count is
+  // kept up to date by adjustNumActiveApps.
+  private int getNumActiveApps() {
+    Objectify datastore = ObjectifyService.begin();
+    GalleryCountData countData = datastore.find(GalleryCountData.class, GalleryCountData.ID);
+    final long date = System.currentTimeMillis();
+    if (countData != null
+        && date - countData.dateCounted < activeAppsRecountSeconds.get() * 1000L) {
+      return countData.numActiveApps;
+    }
+    final int numActiveApps = datastore.query(GalleryAppData.class).filter("active", true).count();
+    try {
+      runJobWithRetries(new JobRetryHelper() {
+        @Override
+        public void run(Objectify datastore) {
+          GalleryCountData countData =
+              datastore.find(GalleryCountData.class, GalleryCountData.ID);
+          if (countData == null) {
+            countData = new GalleryCountData();
+            countData.id = GalleryCountData.ID;
+          } else if (countData.dateCounted >= date) {
+            // A count that started later was stored already.
+            return;
+          }
+          countData.numActiveApps = numActiveApps;
+          countData.dateCounted = date;
+          datastore.put(countData);
+        }
+      });
+    } catch (ObjectifyException e) {
+      throw CrashReport.createAndLogError(LOG, null, "gallery error: getNumActiveApps", e);
+    }
+    return numActiveApps;
+  }
+
+  // Adds delta to the number of active apps, and drops the cached first
+  // pages of the listings. A change that fails is only logged: the next
+  // count of the apps makes up for it.
+  private void adjustNumActiveApps(final int delta) {
+    try {
+      runJobWithRetries(new JobRetryHelper() {
+        @Override
+        public void run(Objectify datastore) {
+          // If the apps were never counted, they will be when they are first
+          // needed, and this app is then included.
+          GalleryCountData countData =
+              datastore.find(GalleryCountData.class, GalleryCountData.ID);
+          if (countData != null) {
+            countData.numActiveApps = countData.numActiveApps + delta;
+            datastore.put(countData);
+          }
+        }
+      });
+    } catch (ObjectifyException e) {
+      LOG.log(Level.WARNING, "Couldn't change the number of active gallery apps by " + delta, e);
+    }
+    dropCachedPages();
+  }
 
+  // Drops the cached first pages of the listings and the cursors to their
+  // following pages.
+  private void dropCachedPages() {
+    memcache.increment(CACHE_VERSION_KEY, 1, System.currentTimeMillis());
   }
 
   /**
    * Returns a wrapped class which contains a list of featured gallery app
    * @param start start index
    * @param count count number
+   * @param cursor the cursor of the previous page, or null to start at
+   *        the starting index
    * @return list of gallery app
    */
-  public GalleryAppListResult getFeaturedApp(int start, int count){
+  public GalleryAppListResult getFeaturedApp(int start, int count, String cursor){
     final List<GalleryApp> apps = new ArrayList<GalleryApp>();
     Objectify datastore = ObjectifyService.begin();
-    for (GalleryAppFeatureData appFeatureData:datastore.query(GalleryAppFeatureData.class).offset(start).limit(count)) {
-      Long galleryId = appFeatureData.galleryKey.getId();
+    QueryResultIterator<GalleryAppFeatureData> iterator =
+        startPage(datastore.query(GalleryAppFeatureData.class), cursor, start, count);
+    while (iterator.hasNext()) {
+      Long galleryId = iterator.next().galleryKey.getId();
       GalleryApp gApp = new GalleryApp();
       GalleryAppData galleryAppData = datastore.find(galleryKey(galleryId));
       makeGalleryApp(galleryAppData, gApp);
@@ -264,20 +462,26 @@ public class ObjectifyGalleryStorageIo implements  GalleryStorageIo {
     }
 
     int totalCount = datastore.query(GalleryAppFeatureData.class).count();
-    return new GalleryAppListResult(apps, totalCount);
+    GalleryAppListResult result = new GalleryAppListResult(apps, totalCount);
+    result.setCursor(nextCursor(iterator, apps.size(), count));
+    return result;
   }
 
   /**
    * Returns a wrapped class which contains a list of tutorial gallery app
    * @param start start index
    * @param count count number
+   * @param cursor the cursor of the previous page, or null to start at
+   *        the starting index
    * @return list of gallery app
    */
-  public GalleryAppListResult getTutorialApp(int start, int count){
+  public GalleryAppListResult getTutorialApp(int start, int count, String cursor){
     final List<GalleryApp> apps = new ArrayList<GalleryApp>();
     Objectify datastore = ObjectifyService.begin();
-    for (GalleryAppTutorialData appTutorialData:datastore.query(GalleryAppTutorialData.class).offset(start).limit(count)) {
-      Long galleryId = appTutorialData.galleryKey.getId();
+    QueryResultIterator<GalleryAppTutorialData> iterator =
+        startPage(datastore.query(GalleryAppTutorialData.class), cursor, start, count);
+    while (iterator.hasNext()) {
+      Long galleryId = iterator.next().galleryKey.getId();
       GalleryApp gApp = new GalleryApp();
       GalleryAppData galleryAppData = datastore.find(galleryKey(galleryId));
       makeGalleryApp(galleryAppData, gApp);
@@ -285,7 +489,9 @@ public class ObjectifyGalleryStorageIo implements  GalleryStorageIo {
     }
 
     int totalCount = datastore.query(GalleryAppTutorialData.class).count();
-    return new GalleryAppListResult(apps, totalCount);
+    GalleryAppListResult result = new GalleryAppListResult(apps, totalCount);
+    result.setCursor(nextCursor(iterator, apps.size(), count));
+    return result;
   }
 
   /**
@@ -378,22 +584,29 @@ public class ObjectifyGalleryStorageIo implements  GalleryStorageIo {
    * @param userId id of developer
    * @param start starting index of apps you want
    * @param count number of apps you want
+   * @param cursor the cursor of the previous page, or null to start at
+   *        the starting index
    * @return list of {@link GalleryApp}
    */  @Override
-  public GalleryAppListResult getDeveloperApps(String userId, int start, final int count) {
+  public GalleryAppListResult getDeveloperApps(String userId, int start, final int count,
+      String cursor) {
     final List<GalleryApp> apps = new ArrayList<GalleryApp>();
     // if i try to run this in runjobwithretries it tells me can't run
     // non-ancestor query as a transaction. ObjectifyStorageio has some samples
     // of not using transactions (run with) so i grabbed
 
     Objectify datastore = ObjectifyService.begin();
-    for (GalleryAppData appData:datastore.query(GalleryAppData.class).filter("userId",userId).filter("active", true).offset(start).limit(count)) {
+    QueryResultIterator<GalleryAppData> iterator = startPage(datastore.query(GalleryAppData.class)
+        .filter("userId",userId).filter("active", true), cursor, start, count);
+    while (iterator.hasNext()) {
       GalleryApp gApp = new GalleryApp();
-      makeGalleryApp(appData, gApp);
+      makeGalleryApp(iterator.next(), gApp);
       apps.add(gApp);
     }
     int totalCount = datastore.query(GalleryAppData.class).filter("userId",userId).filter("active", true).count();
-    return new GalleryAppListResult(apps, totalCount);
+    GalleryAppListResult result = new GalleryAppListResult(apps, totalCount);
+    result.setCursor(nextCursor(iterator, apps.size(), count));
+    return result;
   }
 
  /**
@@ -404,17 +617,7 @@ public class ObjectifyGalleryStorageIo implements  GalleryStorageIo {
   public void incrementDownloads(final long galleryId) {
 
     try {
-      runJobWithRetries(new JobRetryHelper() {
-        @Override
-        public void run(Objectify datastore) {
-          GalleryAppData galleryAppData = datastore.find(galleryKey(galleryId));
-          if (galleryAppData != null) {
-            galleryAppData.numDownloads = galleryAppData.numDownloads + 1;
-            galleryAppData.unreadDownloads = galleryAppData.unreadDownloads + 1;
-            datastore.put(galleryAppData);
-          }
-        }
-      });
+      countInShard(galleryId, 1, 0);
     } catch (ObjectifyException e) {
        throw CrashReport.createAndLogError(LOG, null, "error in galleryStorageIo", e);
     }
@@ -448,6 +651,7 @@ public class ObjectifyGalleryStorageIo implements  GalleryStorageIo {
           }
         }
       });
+      dropCachedPages();
     } catch (ObjectifyException e) {
        throw CrashReport.createAndLogError(LOG, null, "error in galleryStorageIo", e);
     }
@@ -462,6 +666,7 @@ public class ObjectifyGalleryStorageIo implements  GalleryStorageIo {
   public GalleryApp getGalleryApp(final long galleryId) {
     final GalleryApp gApp = new GalleryApp();
     try {
+      rollUpCountersIfDue(galleryId);
       runJobWithRetries(new JobRetryHelper() {
         @Override
         public void run(Objectify datastore) {
@@ -512,18 +717,24 @@ public class ObjectifyGalleryStorageIo implements  GalleryStorageIo {
     }
     */
     //for now, we only set app to inactive status.
+    final Result<Boolean> deactivated = new Result<Boolean>();
     try {
         runJobWithRetries(new JobRetryHelper() {
           @Override
           public void run(Objectify datastore) {
             // delete the GalleryApp
+            deactivated.t = false;
             GalleryAppData appData = datastore.find(galleryKey(galleryId));
             if(appData != null){
+              deactivated.t = appData.active;
               appData.active = false;
               datastore.put(appData);
             }
           }
         });
+        if (deactivated.t) {
+          adjustNumActiveApps(-1);
+        }
        } catch (ObjectifyException e) {
         throw CrashReport.createAndLogError(LOG, null,"gallery remove error", e);
       }
@@ -605,10 +816,12 @@ public class ObjectifyGalleryStorageIo implements  GalleryStorageIo {
   @Override
   public int increaseLikes(final long galleryId,final String userId) {
     final Result<Integer> numLikes = new Result<Integer>();
+    final Result<Boolean> liked = new Result<Boolean>();
     try {
       runJobWithRetries(new JobRetryHelper() {
         @Override
         public void run(Objectify datastore) {
+          liked.t = false;
           GalleryAppData galleryAppData = datastore.find(galleryKey(galleryId));
           if (galleryAppData != null) {
             Key<GalleryAppData> galleryKey = galleryKey(galleryId);
@@ -629,14 +842,14 @@ public class ObjectifyGalleryStorageIo implements  GalleryStorageIo {
 
             // Retrieve the current number of likes
             numLikes.t = datastore.query(GalleryAppLikeData.class).ancestor(galleryKey).count();
-
-            // Increase app's like/unread like count
-            galleryAppData.numLikes = galleryAppData.numLikes + 1;
-            galleryAppData.unreadLikes = galleryAppData.unreadLikes + 1;
-            datastore.put(galleryAppData);
+            liked.t = true;
           }
         }
       });
+      // Increase app's like/unread like count
+      if (liked.t) {
+        countInShard(galleryId, 0, 1);
+      }
     } catch (ObjectifyException e) {
        throw CrashReport.createAndLogError(LOG, null, "error in galleryStorageIo.increaseLike", e);
     }
@@ -653,35 +866,32 @@ public class ObjectifyGalleryStorageIo implements  GalleryStorageIo {
   @Override
   public int decreaseLikes(final long galleryId, final String userId) {
     final Result<Integer> numLikes = new Result<Integer>();
+    final Result<Boolean> unliked = new Result<Boolean>();
     try {
       runJobWithRetries(new JobRetryHelper() {
         @Override
         public void run(Objectify datastore) {
+          unliked.t = false;
           GalleryAppData galleryAppData = datastore.find(galleryKey(galleryId));
           if (galleryAppData != null) {
             Key<GalleryAppData> galleryKey = galleryKey(galleryId);
             for (GalleryAppLikeData likeData : datastore.query(GalleryAppLikeData.class).ancestor(galleryKey)) {
               if(likeData.userId.equals(userId)){
                 datastore.delete(likeData);
+                unliked.t = true;
                 // break;
                 // We don't break because there might be more then one likeData object for this
                 // person
               }
             }
             numLikes.t = datastore.query(GalleryAppLikeData.class).ancestor(galleryKey).count();
-
-            // Increase app's like/unread like count
-            if(galleryAppData.numLikes > 0){
-              galleryAppData.numLikes = galleryAppData.numLikes - 1;
-            }
-
-            if (galleryAppData.unreadLikes > 0) {
-              galleryAppData.unreadLikes = galleryAppData.unreadLikes - 1;
-              datastore.put(galleryAppData);
-            }
           }
         }
       });
+      // Decrease app's like/unread like count
+      if (unliked.t) {
+        countInShard(galleryId, 0, -1);
+      }
     } catch (ObjectifyException e) {
       throw CrashReport.createAndLogError(LOG, null,
           "error in galleryStorageIo.decreaseLike", e);
@@ -699,6 +909,7 @@ public class ObjectifyGalleryStorageIo implements  GalleryStorageIo {
   public int getNumLikes(final long galleryId) {
     final Result<Integer> num = new Result<Integer>();
     try {
+      rollUpCountersIfDue(galleryId);
       runJobWithRetries(new JobRetryHelper() {
         @Override
         public void run(Objectify datastore) {
@@ -756,6 +967,7 @@ public class ObjectifyGalleryStorageIo implements  GalleryStorageIo {
   @Override
   public void salvageGalleryApp(final long galleryId) {
     try {
+      final int[] shardTotals = sumCounterShards(galleryId);
       runJobWithRetries(new JobRetryHelper() {
         @Override
         public void run(Objectify datastore) {
@@ -781,6 +993,8 @@ public class ObjectifyGalleryStorageIo implements  GalleryStorageIo {
           num = datastore.query(GalleryAppLikeData.class).ancestor(galleryKey).count();
           GalleryAppData galleryAppData = datastore.find(galleryKey);
           galleryAppData.numLikes = num;
+          // The likes counted so far in the shards are included in num
+          galleryAppData.shardedLikes = shardTotals[1];
           datastore.put(galleryAppData);
           LOG.info("salvage on gallerId:" + galleryId + ", total likes:" + galleryAppData.numLikes);
         }
@@ -1087,6 +1301,7 @@ public class ObjectifyGalleryStorageIo implements  GalleryStorageIo {
   @Override
   public boolean deactivateGalleryApp(final long galleryId) {
     final Result<Boolean> success = new Result<Boolean>();
+    final Result<Boolean> active = new Result<Boolean>();
     try {
       runJobWithRetries(new JobRetryHelper() {
         @Override
@@ -1099,6 +1314,7 @@ public class ObjectifyGalleryStorageIo implements  GalleryStorageIo {
               appData.active = !appData.active;
               datastore.put(appData);
               success.t = true;
+              active.t = appData.active;
               if(appData.active){
                 GalleryApp gApp = new GalleryApp();
                 makeGalleryApp(appData, gApp);
@@ -1109,6 +1325,9 @@ public class ObjectifyGalleryStorageIo implements  GalleryStorageIo {
             }
          }
       });
+      if (success.t) {
+        adjustNumActiveApps(active.t ? 1 : -1);
+      }
     } catch (ObjectifyException e) {
        throw CrashReport.createAndLogError(LOG, null, "error in galleryStorageIo.markReportAsResolved", e);
     }
@@ -1318,6 +1537,108 @@ public class ObjectifyGalleryStorageIo implements  GalleryStorageIo {
     return "galleryApp=" + galleryAppId;
   }
 
+  // Counts downloads and likes (likes is -1 for an unlike) in a random
+  // counter shard of the app, and rolls the shards up if that is due.
+  private void countInShard(long galleryId, final int downloads, final int likes)
+      throws ObjectifyException {
+    final String shardId = counterShardId(galleryId, random.nextInt(COUNTER_SHARDS));
+    runJobWithRetries(new JobRetryHelper() {
+      @Override
+      public void run(Objectify datastore) {
+        GalleryAppCounterData shard = datastore.find(GalleryAppCounterData.class, shardId);
+        if (shard == null) {
+          shard = new GalleryAppCounterData();
+          shard.id = shardId;
+        }
+        shard.numDownloads = shard.numDownloads + downloads;
+        shard.numLikes = shard.numLikes + likes;
+        shard.numCounts = shard.numCounts + 1;
+        datastore.put(shard);
+      }
+    });
+    rollUpCountersIfDue(galleryId);
+  }
+
+  // Rolls the counter shards of the app up, unless that was done within the
+  // last counterRollUpSeconds seconds. Apps that are neither downloaded,
+  // liked nor viewed keep their counts until the next of these. A roll-up
+  // that fails is only logged: the counts stay in their shards, so the next
+  // roll-up includes them.
+  private void rollUpCountersIfDue(long galleryId) {
+    if (memcache.put(ROLL_UP_PREFIX + galleryId, Boolean.TRUE,
+        Expiration.byDeltaSeconds(counterRollUpSeconds.get()),
+        SetPolicy.ADD_ONLY_IF_NOT_PRESENT)) {
+      try {
+        rollUpCounters(galleryId);
+      } catch (ObjectifyException e) {
+        LOG.log(Level.WARNING, "Couldn't roll up the counters of gallery app " + galleryId, e);
+      }
+    }
+  }
+
+  /**
+   * Adds the downloads and likes counted in the counter shards of an app
+   * since the last roll-up to the totals in its GalleryAppData, which the
+   * gallery listings are ordered by. The shards hold running totals, so a
+   * roll-up that fails is simply made up for by the next one.
+   *
+   * @param galleryId the id of the gallery app
+   */
+  @VisibleForTesting
+  void rollUpCounters(long galleryId) throws ObjectifyException {
+    rollUpCounters(galleryId, sumCounterShards(galleryId));
+  }
+
+  // Rolls up the given totals of the counter shards of an app, unless a
+  // roll-up of totals that include at least as many counts was done already.
+  // Those totals were read later, so these ones are out of date.
+  @VisibleForTesting
+  void rollUpCounters(final long galleryId, final int[] shardTotals)
+      throws ObjectifyException {
+    runJobWithRetries(new JobRetryHelper() {
+      @Override
+      public void run(Objectify datastore) {
+        GalleryAppData appData = datastore.find(galleryKey(galleryId));
+        if (appData == null || shardTotals[2] <= appData.shardedCounts) {
+          return;
+        }
+        int downloads = shardTotals[0] - appData.shardedDownloads;
+        int likes = shardTotals[1] - appData.shardedLikes;
+        appData.numDownloads = appData.numDownloads + downloads;
+        appData.unreadDownloads = appData.unreadDownloads + downloads;
+        appData.numLikes = Math.max(0, appData.numLikes + likes);
+        appData.unreadLikes = Math.max(0, appData.unreadLikes + likes);
+        appData.shardedDownloads = shardTotals[0];
+        appData.shardedLikes = shardTotals[1];
+        appData.shardedCounts = shardTotals[2];
+        datastore.put(appData);
+      }
+    });
+  }
+
+  // Returns the downloads, the likes and the number of counts in all counter
+  // shards of the app. The shards are read by key, which unlike a query
+  // always sees the latest counts.
+  @VisibleForTesting
+  int[] sumCounterShards(long galleryId) {
+    List<Key<GalleryAppCounterData>> keys = new ArrayList<Key<GalleryAppCounterData>>();
+    for (int shard = 0; shard < COUNTER_SHARDS; shard++) {
+      keys.add(new Key<GalleryAppCounterData>(GalleryAppCounterData.class,
+          counterShardId(galleryId, shard)));
+    }
+    int[] totals = new int[3];
+    for (GalleryAppCounterData shard : ObjectifyService.begin().get(keys).values()) {
+      totals[0] += shard.numDownloads;
+      totals[1] += shard.numLikes;
+      totals[2] += shard.numCounts;
+    }
+    return totals;
+  }
+
+  private static String counterShardId(long galleryId, int shard) {
+    return galleryId + "/" + shard;
+  }
+
   private Key<GalleryAppData> galleryKey(long galleryId) {
     return new Key<GalleryAppData>(GalleryAppData.class, galleryId);
   }
@@ -1470,6 +1791,7 @@ public class ObjectifyGalleryStorageIo implements  GalleryStorageIo {
     final long currentTime = System.currentTimeMillis();
     try {
       final User user = storageIo.getUser(userId);
+      rollUpCountersIfDue(galleryId);
       runJobWithRetries(new JobRetryHelper() {
         @Override
         public void run(Objectify datastore) {
@@ -16,14 +16,17 @@ import com.google.appengine.api.memcache.ErrorHandlers;
 import com.google.appengine.api.memcache.MemcacheService;
 import com.google.appengine.api.memcache.MemcacheServiceFactory;
 import com.google.appengine.api.memcache.Expiration;
+import com.google.appengine.api.memcache.MemcacheService.IdentifiableValue;
 import com.google.appengine.api.memcache.MemcacheService.SetPolicy;
 import com.google.appengine.api.taskqueue.Queue;
 import com.google.appengine.api.taskqueue.QueueFactory;
+import com.google.appengine.api.taskqueue.TaskAlreadyExistsException;
 import com.google.appengine.api.taskqueue.TaskOptions;
 import com.google.apphosting.api.ApiProxy;
 import com.google.appinventor.server.CrashReport;
 import com.google.appinventor.server.FileExporter;
 import com.google.appinventor.server.flags.Flag;
+import com.google.appinventor.server.storage.StoredData.AssetData;
 import com.google.appinventor.server.storage.StoredData.CorruptionRecord;
 import com.google.appinventor.server.storage.StoredData.FeedbackData;
 import com.google.appinventor.server.storage.StoredData.FileData;
@@ -42,6 +45,7 @@ import com.google.appinventor.shared.rpc.BlocksTruncatedException;
 import com.google.appinventor.shared.rpc.Motd;
 import com.google.appinventor.shared.rpc.Nonce;
 import com.google.appinventor.shared.rpc.admin.AdminUser;
+import com.google.appinventor.shared.rpc.project.FileDescriptor;
 import com.google.appinventor.shared.rpc.project.Project;
 import com.google.appinventor.shared.rpc.project.ProjectSourceZip;
 import com.google.appinventor.shared.rpc.project.RawFile;
@@ -54,6 +58,7 @@ import com.google.appinventor.shared.storage.StorageUtil;
 import com.google.common.annotations.VisibleForTesting;
 import com.google.common.base.Preconditions;
 import com.google.common.base.Strings;
+import com.google.common.hash.Hashing;
 import com.google.common.io.ByteSource;
 import com.google.common.io.ByteStreams;
 
@@ -78,12 +83,15 @@ import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.io.Serializable;
 import java.io.UnsupportedEncodingException;
 import java.nio.channels.Channels;
 import java.nio.ByteBuffer;
 import java.util.ArrayList;
 import java.util.ConcurrentModificationException;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.NoSuchElementException;
 import java.util.logging.Level;
 import java.util.logging.Logger;
@@ -116,14 +124,66 @@ public class ObjectifyStorageIo implements  StorageIo {
   // TODO(user): need a way to modify this. Also, what is really a good value?
   private static final int MAX_JOB_RETRIES = 10;
 
+  // The number of users returned by searchUsers
+  private static final int MAX_USERS_PER_SEARCH = 21;
+
   private final MemcacheService memcache = MemcacheServiceFactory.getMemcacheService();
 
-  private final GcsService gcsService;
+  private GcsService gcsService;
 
   private static final String GCS_BUCKET_NAME;
 
+  // The number of files whose GCS reads are started ahead of the file being
+  // processed when exporting a project or downloading several files.
+  static final Flag<Integer> gcsReadConcurrency =
+      Flag.createFlag("gcs.read.concurrency", 8);
+
+  // The number of AssetData objects that the same asset content can be
+  // spread over. Each user's assets go to one of them, so that users adding
+  // popular content at the same time don't all update the same reference
+  // count.
+  static final Flag<Integer> assetShards = Flag.createFlag("asset.shards", 16);
+
+  // Size of the blocks in which GCS files are read ahead.
+  private static final int GCS_READ_BLOCK_SIZE = 256 * 1024;
+
   private static final long TWENTYFOURHOURS = 24*3600*1000; // 24 hours in milliseconds
 
+  // The number of milliseconds after a source (.bky or .scm) file is written
+  // during which further saves of it are held back in memcache, so that only
+  // the last of them is written. Held back saves are written when this time
+  // is over, when the file or its project is read, and when the user saves
+  // the project explicitly or leaves App Inventor. 0 turns this off.
+  static final Flag<Integer> saveCoalesceMillis = Flag.createFlag("save.coalesce.millis", 0);
+
+  // Memcache key prefixes for held back saves, for the time at which a
+  // source file was last written and for the counter that numbers its saves.
+  // They are followed by the key string of the FileData.
+  private static final String PENDING_SAVE_PREFIX = "pendingsave:";
+  private static final String LAST_SAVE_PREFIX = "lastsave:";
+  private static final String SAVE_SEQ_PREFIX = "saveseq:";
+
+  // Larger saves are always written at once, so that they fit in memcache.
+  private static final int MAX_PENDING_SAVE_SIZE = 512 * 1024;
+
+  // A save held back in memcache, which is why it has to be Serializable.
+  // modDate is the project modification date returned for the save, which
+  // is also the one written with it. seq is the sequence number of the save
+  // (see nextSaveSeq).
+  private static final class PendingSave implements Serializable {
+    final String userId;
+    final byte[] content;
+    final long modDate;
+    final long seq;
+
+    PendingSave(String userId, byte[] content, long modDate, long seq) {
+      this.userId = userId;
+      this.content = content;
+      this.modDate = modDate;
+      this.seq = seq;
+    }
+  }
+
   private final boolean useGcs = Flag.createFlag("use.gcs", true).get();
 
   private final boolean conversionEnabled = false; // We are converting GCS <=> Blobstore
@@ -179,6 +239,7 @@ public class ObjectifyStorageIo implements  StorageIo {
     ObjectifyService.register(ProjectData.class);
     ObjectifyService.register(UserProjectData.class);
     ObjectifyService.register(FileData.class);
+    ObjectifyService.register(AssetData.class);
     ObjectifyService.register(UserFileData.class);
     ObjectifyService.register(MotdData.class);
     ObjectifyService.register(RendezvousData.class);
@@ -316,6 +377,9 @@ public class ObjectifyStorageIo implements  StorageIo {
       throw CrashReport.createAndLogError(LOG, null, collectUserErrorInfo(userId), e);
     }
     memcache.put(cachekey, user, Expiration.byDeltaSeconds(60)); // Remember for one minute
+    if (email != null) {
+      UserCache.invalidateUser(userId); // The email address may have changed
+    }
     // The choice of one minute here is arbitrary. getUser() is called on every authenticated
     // RPC call to the system (out of OdeAuthFilter), so using memcache will save a significant
     // number of calls to the datastore. If someone is idle for more then a minute, it isn't
@@ -385,6 +449,7 @@ public class ObjectifyStorageIo implements  StorageIo {
     } catch (ObjectifyException e) {
       throw CrashReport.createAndLogError(LOG, null, collectUserErrorInfo(userId), e);
     }
+    UserCache.invalidateUser(userId);
   }
 
   @Override
@@ -404,6 +469,7 @@ public class ObjectifyStorageIo implements  StorageIo {
     } catch (ObjectifyException e) {
       throw CrashReport.createAndLogError(LOG, null, collectUserErrorInfo(userId), e);
     }
+    UserCache.invalidateUser(userId);
   }
 
   @Override
@@ -427,7 +493,7 @@ public class ObjectifyStorageIo implements  StorageIo {
     } catch (ObjectifyException e) {
       throw CrashReport.createAndLogError(LOG, null, collectUserErrorInfo(userId), e);
     }
-
+    UserCache.invalidateUser(userId);
   }
 
   @Override
@@ -451,6 +517,7 @@ public class ObjectifyStorageIo implements  StorageIo {
     } catch (ObjectifyException e) {
       throw CrashReport.createAndLogError(LOG, null, collectUserErrorInfo(userId), e);
     }
+    UserCache.invalidateUser(userId);
   }
 
   @Override
@@ -474,6 +541,7 @@ public class ObjectifyStorageIo implements  StorageIo {
     } catch (ObjectifyException e) {
       throw CrashReport.createAndLogError(LOG, null, collectUserErrorInfo(userId), e);
     }
+    UserCache.invalidateUser(userId);
   }
 
   @Override
@@ -494,6 +562,7 @@ public class ObjectifyStorageIo implements  StorageIo {
       throw CrashReport.createAndLogError(LOG, null, collectUserErrorInfo(userId), e);
     }
     memcache.delete(cachekey);  // Flush cached copy because it changed
+    UserCache.invalidateUser(userId);
   }
 
   @Override
@@ -514,6 +583,7 @@ public class ObjectifyStorageIo implements  StorageIo {
       throw CrashReport.createAndLogError(LOG, null, collectUserErrorInfo(userId), e);
     }
     memcache.delete(cachekey);  // Flush cached copy because it changed
+    UserCache.invalidateUser(userId);
   }
 
   @Override
@@ -624,8 +694,27 @@ public class ObjectifyStorageIo implements  StorageIo {
       final String projectSettings) {
     final Result<Long> projectId = new Result<Long>();
     final List<FileData> addedFiles = new ArrayList<FileData>();
+    final Map<String, AssetData> assets = new HashMap<String, AssetData>();
 
     try {
+      // Store the content of the assets first. Their AssetData objects are
+      // entity roots, so they cannot be updated in the project's transaction.
+      for (RawFile file : project.getRawSourceFiles()) {
+        if (useAssetStoreForFile(file.getFileName())) {
+          try {
+            AssetData asset = acquireAsset(userId, file.getContent());
+            AssetData previous = assets.put(file.getFileName(), asset);
+            if (previous != null) {
+              releaseAsset(previous.hash);
+            }
+          } catch (IOException e) { // GCS throws this
+            releaseAssets(assets.values());
+            throw CrashReport.createAndLogError(LOG, null,
+                collectUserErrorInfo(userId, file.getFileName()), e);
+          }
+        }
+      }
+
       // first job is on the project entity, creating the ProjectData object
       // and the associated files.
       runJobWithRetries(new JobRetryHelper() {
@@ -663,6 +752,11 @@ public class ObjectifyStorageIo implements  StorageIo {
             }
           }
           for (RawFile file : project.getRawSourceFiles()) {
+            AssetData asset = assets.get(file.getFileName());
+            if (asset != null) {
+              addedFiles.add(createAssetFile(projectKey, userId, file.getFileName(), asset));
+              continue;
+            }
             try {
               addedFiles.add(createRawFile(projectKey, FileData.RoleEnum.SOURCE, userId, file.getFileName(),
                   file.getContent()));
@@ -693,8 +787,10 @@ public class ObjectifyStorageIo implements  StorageIo {
         }
       }, true);
     } catch (ObjectifyException e) {
+      releaseAssets(assets.values());
+      assets.clear();
       for (FileData addedFile : addedFiles) {
-        if (isTrue(addedFile.isGCS)) {  // Do something
+        if (isTrue(addedFile.isGCS) && addedFile.contentHash == null) {
           if (addedFile.gcsName != null) {
             try {
               gcsService.delete(new GcsFilename(GCS_BUCKET_NAME, addedFile.gcsName));
@@ -745,6 +841,8 @@ public class ObjectifyStorageIo implements  StorageIo {
     // blobs associated with the project
     final List<String> blobKeys = new ArrayList<String>();
     final List<String> gcsPaths = new ArrayList<String>();
+    // hashes of the assets used by the project
+    final List<String> assetHashes = new ArrayList<String>();
     try {
       // first job deletes the UserProjectData in the user's entity group
       runJobWithRetries(new JobRetryHelper() {
@@ -763,8 +861,12 @@ public class ObjectifyStorageIo implements  StorageIo {
         public void run(Objectify datastore) {
           Key<ProjectData> projectKey = projectKey(projectId);
           Query<FileData> fdq = datastore.query(FileData.class).ancestor(projectKey);
+          // Each asset must be released once, even if this job is retried
+          assetHashes.clear();
           for (FileData fd: fdq) {
-            if (isTrue(fd.isGCS)) {
+            if (fd.contentHash != null) {
+              assetHashes.add(fd.contentHash);
+            } else if (isTrue(fd.isGCS)) {
               gcsPaths.add(fd.gcsName);
             } else if (fd.isBlob) {
               blobKeys.add(fd.blobKey);
@@ -787,6 +889,10 @@ public class ObjectifyStorageIo implements  StorageIo {
           LOG.log(Level.WARNING, "Unable to delete " + gcsName + " from GCS while deleting project", e);
         }
       }
+      // and release the assets, which may still be used by other projects
+      for (String hash : assetHashes) {
+        releaseAsset(hash);
+      }
     } catch (ObjectifyException e) {
       throw CrashReport.createAndLogError(LOG, null,
           collectUserProjectErrorInfo(userId, projectId), e);
@@ -936,11 +1042,44 @@ public class ObjectifyStorageIo implements  StorageIo {
     if (projectData.t == null) {
       return null;
     } else {
-      return new UserProject(projectId, projectData.t.name,
-          projectData.t.type, projectData.t.dateCreated,
-          projectData.t.dateModified, projectData.t.galleryId,
-          projectData.t.attributionId);
+      return makeUserProject(projectData.t);
+    }
+  }
+
+  @Override
+  public List<UserProject> getUserProjects(final String userId, final List<Long> projectIds) {
+    final List<UserProject> userProjects = new ArrayList<UserProject>(projectIds.size());
+    try {
+      runJobWithRetries(new JobRetryHelper() {
+        @Override
+        public void run(Objectify datastore) {
+          userProjects.clear();
+          // Get the ProjectData and UserProjectData of all of the projects with a
+          // single batch get, instead of a round trip per project.
+          Key<UserData> userKey = userKey(userId);
+          List<Key<?>> keys = new ArrayList<Key<?>>(2 * projectIds.size());
+          for (long projectId : projectIds) {
+            keys.add(projectKey(projectId));
+            keys.add(userProjectKey(userKey, projectId));
+          }
+          Map<Key<Object>, Object> entities = datastore.get(keys);
+          for (long projectId : projectIds) {
+            ProjectData pd = (ProjectData) entities.get(projectKey(projectId));
+            if (pd != null && entities.containsKey(userProjectKey(userKey, projectId))) {
+              userProjects.add(makeUserProject(pd));
+            }
+          }
+        }
+      }, false);
+    } catch (ObjectifyException e) {
+      throw CrashReport.createAndLogError(LOG, null, collectUserErrorInfo(userId), e);
     }
+    return userProjects;
+  }
+
+  private static UserProject makeUserProject(ProjectData pd) {
+    return new UserProject(pd.id, pd.name, pd.type, pd.dateCreated, pd.dateModified,
+        pd.galleryId, pd.attributionId);
   }
 
   @Override
@@ -1444,14 +1583,17 @@ public class ObjectifyStorageIo implements  StorageIo {
   }
 
   private long updateProjectModDate(Objectify datastore, long projectId, boolean doingConversion) {
-    long modDate = System.currentTimeMillis();
+    return updateProjectModDate(datastore, projectId, System.currentTimeMillis(),
+        doingConversion);
+  }
+
+  private long updateProjectModDate(Objectify datastore, long projectId, long modDate,
+      boolean doingConversion) {
     ProjectData pd = datastore.find(projectKey(projectId));
     if (pd != null) {
-      // Only update the ProjectData dateModified if it is more then a minute
-      // in the future. Do this to avoid unnecessary datastore puts.
-      // Also do not update modification time when doing conversion from
+      // Do not update modification time when doing conversion from
       // blobstore to GCS
-      if ((modDate > (pd.dateModified + 1000*60)) && !doingConversion) {
+      if ((newProjectModDate(pd.dateModified, modDate) != pd.dateModified) && !doingConversion) {
         pd.dateModified = modDate;
         datastore.put(pd);
       } else {
@@ -1465,6 +1607,12 @@ public class ObjectifyStorageIo implements  StorageIo {
     }
   }
 
+  // Only update the ProjectData dateModified if it is more then a minute
+  // in the future. Do this to avoid unnecessary datastore puts.
+  private static long newProjectModDate(long dateModified, long modDate) {
+    return modDate > dateModified + 1000*60 ? modDate : dateModified;
+  }
+
   @Override
   public long uploadRawFileForce(final long projectId, final String fileName, final String userId,
       final byte[] content) {
@@ -1479,11 +1627,178 @@ public class ObjectifyStorageIo implements  StorageIo {
   @Override
   public long uploadRawFile(final long projectId, final String fileName, final String userId,
       final boolean force, final byte[] content) throws BlocksTruncatedException {
-    return uploadRawFile(projectId, fileName, userId, force, content, false);
+    if (saveCoalesceMillis.get() <= 0 || !isCoalescedFile(fileName)) {
+      return uploadRawFile(projectId, fileName, userId, force, content, false);
+    }
+    String fileKey = projectFileKey(projectKey(projectId), fileName).getString();
+    long seq = nextSaveSeq(fileKey);
+    Long lastSave = (Long) memcache.get(LAST_SAVE_PREFIX + fileKey);
+    // Saves of small blocks files are written at once, so that they are
+    // checked for truncation.
+    if (lastSave != null && !force && content.length <= MAX_PENDING_SAVE_SIZE
+        && (content.length >= 125 || !fileName.endsWith(".bky"))) {
+      // The date the project gets when this save is written
+      long modDate = newProjectModDate(lastSave, System.currentTimeMillis());
+      if (holdBackSave(projectId, fileKey, userId, content, modDate, seq)) {
+        return modDate;
+      }
+    }
+    // This save replaces any held back one. A flush that read the held back
+    // save already doesn't write it over this one, because its number is
+    // lower.
+    memcache.delete(PENDING_SAVE_PREFIX + fileKey);
+    long modTime = uploadRawFile(projectId, fileName, userId, force, content,
+        System.currentTimeMillis(), seq, false);
+    memcache.put(LAST_SAVE_PREFIX + fileKey, modTime,
+        Expiration.byDeltaMillis(saveCoalesceMillis.get()));
+    return modTime;
+  }
+
+  @VisibleForTesting
+  static boolean isCoalescedFile(String fileName) {
+    return fileName.contains("src/") && (fileName.endsWith(".bky") || fileName.endsWith(".scm"));
+  }
+
+  // Returns the sequence number of a new save of the file, which is higher
+  // than those of the saves before it. The counter starts at the current time,
+  // so numbers keep growing after memcache evicts it, as long as the file is
+  // saved less than once a millisecond.
+  private long nextSaveSeq(String fileKey) {
+    Long seq = memcache.increment(SAVE_SEQ_PREFIX + fileKey, 1, System.currentTimeMillis());
+    return seq != null ? seq : System.currentTimeMillis();
+  }
+
+  // Stores the content in memcache in place of any save held back before,
+  // and makes sure that a task will write it. Returns false if memcache
+  // could not store it or no task could be added.
+  private boolean holdBackSave(long projectId, String fileKey, String userId, byte[] content,
+      long modDate, long seq) {
+    String pendingKey = PENDING_SAVE_PREFIX + fileKey;
+    // The content expires long after the task should have written it.
+    if (!memcache.put(pendingKey, new PendingSave(userId, content, modDate, seq),
+        Expiration.byDeltaMillis(saveCoalesceMillis.get() * 10), SetPolicy.SET_ALWAYS)) {
+      return false;
+    }
+    try {
+      addFlushTask(projectId);
+    } catch (RuntimeException e) {
+      // Write it now rather than risk that nothing writes it
+      CrashReport.createAndLogError(LOG, null, "Unable to add flush task for " + fileKey, e);
+      memcache.delete(pendingKey);
+      return false;
+    }
+    return true;
+  }
+
+  // Adds a task that flushes the held back saves of the project once the
+  // current save.coalesce.millis window is over. This is done for every
+  // save that is held back, because a flush that is running may have read
+  // the save before it. Tasks are named after the project and the window,
+  // so each window gets one task however many saves are held back in it.
+  private void addFlushTask(long projectId) {
+    int coalesceMillis = saveCoalesceMillis.get();
+    long windowEnd = (System.currentTimeMillis() / coalesceMillis + 1) * coalesceMillis;
+    try {
+      Queue queue = QueueFactory.getDefaultQueue();
+      queue.add(TaskOptions.Builder.withUrl("/flushsaves")
+          .param("project", Long.toString(projectId))
+          .taskName("flushsaves-" + projectId + "-" + windowEnd)
+          .etaMillis(windowEnd));
+    } catch (TaskAlreadyExistsException e) {
+      // A task already flushes this window
+    }
+  }
+
+  @Override
+  public void flushPendingSaves(long projectId) {
+    if (saveCoalesceMillis.get() <= 0) {
+      return;
+    }
+    Objectify datastore = ObjectifyService.begin();
+    List<Key<FileData>> fileKeys = new ArrayList<Key<FileData>>();
+    for (Key<FileData> fileKey :
+             datastore.query(FileData.class).ancestor(projectKey(projectId)).listKeys()) {
+      if (isCoalescedFile(fileKey.getName())) {
+        fileKeys.add(fileKey);
+      }
+    }
+    flushPendingSaves(fileKeys);
+  }
+
+  // Writes the held back saves of the given files, if any. A save that fails
+  // to be written is logged and left for the task of a later flush.
+  private void flushPendingSaves(List<Key<FileData>> fileKeys) {
+    if (saveCoalesceMillis.get() <= 0) {
+      return;
+    }
+    List<String> pendingKeys = new ArrayList<String>();
+    Map<String, Key<FileData>> fileKeyByPendingKey = new HashMap<String, Key<FileData>>();
+    for (Key<FileData> fileKey : fileKeys) {
+      if (isCoalescedFile(fileKey.getName())) {
+        String pendingKey = PENDING_SAVE_PREFIX + fileKey.getString();
+        pendingKeys.add(pendingKey);
+        fileKeyByPendingKey.put(pendingKey, fileKey);
+      }
+    }
+    if (pendingKeys.isEmpty()) {
+      return;
+    }
+    Map<String, IdentifiableValue> pendingSaves = memcache.getIdentifiables(pendingKeys);
+    for (Map.Entry<String, IdentifiableValue> entry : pendingSaves.entrySet()) {
+      PendingSave pendingSave = (PendingSave) entry.getValue().getValue();
+      if (pendingSave == null) {
+        continue;
+      }
+      Key<FileData> fileKey = fileKeyByPendingKey.get(entry.getKey());
+      long projectId = fileKey.getParent().getId();
+      try {
+        uploadRawFile(projectId, fileKey.getName(), pendingSave.userId, true,
+            pendingSave.content, pendingSave.modDate, pendingSave.seq, false);
+      } catch (BlocksTruncatedException e) {
+        // Won't get here, exception isn't thrown when force is true
+      } catch (RuntimeException e) {
+        CrashReport.createAndLogError(LOG, null,
+            collectProjectErrorInfo(pendingSave.userId, projectId, fileKey.getName()), e);
+        addFlushTaskIfPossible(projectId, fileKey);
+        continue;
+      }
+      // Unless a newer save was held back meanwhile, there is nothing left to write
+      if (!memcache.putIfUntouched(entry.getKey(), entry.getValue(), null)) {
+        // Make sure that the newer save is written too
+        addFlushTaskIfPossible(projectId, fileKey);
+      }
+    }
+  }
+
+  private void addFlushTaskIfPossible(long projectId, Key<FileData> fileKey) {
+    try {
+      addFlushTask(projectId);
+    } catch (RuntimeException e) {
+      CrashReport.createAndLogError(LOG, null,
+          "Unable to add flush task for " + fileKey.getString(), e);
+    }
+  }
+
+  private void flushPendingSave(long projectId, String fileName) {
+    if (saveCoalesceMillis.get() > 0 && isCoalescedFile(fileName)) {
+      List<Key<FileData>> fileKeys = new ArrayList<Key<FileData>>();
+      fileKeys.add(projectFileKey(projectKey(projectId), fileName));
+      flushPendingSaves(fileKeys);
+    }
   }
 
   private long uploadRawFile(final long projectId, final String fileName, final String userId,
       final boolean force, final byte[] content, final boolean doingConversion) throws BlocksTruncatedException {
+    return uploadRawFile(projectId, fileName, userId, force, content, System.currentTimeMillis(),
+        0, doingConversion);
+  }
+
+  // Writes the content of the file. If saveSeq is not 0, it is the sequence
+  // number of a save of a source file while saves are coalesced, and the
+  // content is not written if a later save of the file has been written.
+  private long uploadRawFile(final long projectId, final String fileName, final String userId,
+      final boolean force, final byte[] content, final long modDate, final long saveSeq,
+      final boolean doingConversion) throws BlocksTruncatedException {
     validateGCS();
     final Result<Long> modTime = new Result<Long>();
     final boolean useGCS = useGCSforFile(fileName, content.length);
@@ -1492,15 +1807,45 @@ public class ObjectifyStorageIo implements  StorageIo {
         || (fileName.contains("src/") && fileName.endsWith(".bky")) // Blockly files
         || (fileName.contains("src/") && fileName.endsWith(".scm"))) // Form Definitions
       :false);
-
+    // The asset that will hold the content, and the storage of the previous
+    // content that is no longer used once the file is stored.
+    final AssetData asset;
+    final Result<String> oldAssetHash = new Result<String>();
+    final Result<String> oldgcsName = new Result<String>();
+    boolean stored = false;
+    // Files in assets/ may reference shared asset content, which must be
+    // released exactly once. They are changed in a transaction, so that of
+    // two saves or a save and a delete racing each other only one finds and
+    // releases the old content. Numbered saves are written in a transaction
+    // so that none is written over a later one. The transaction bypasses the
+    // cached FileData.
+    final boolean useTransaction = fileName.contains("assets/") || saveSeq != 0;
+    final Result<FileData> storedFile = new Result<FileData>();
+
+    if (useAssetStoreForFile(fileName)) {
+      try {
+        asset = acquireAsset(userId, content);
+      } catch (IOException e) {
+        throw CrashReport.createAndLogError(LOG, null,
+            collectProjectErrorInfo(userId, projectId, fileName), e);
+      } catch (ObjectifyException e) {
+        throw CrashReport.createAndLogError(LOG, null,
+            collectProjectErrorInfo(userId, projectId, fileName), e);
+      }
+    } else {
+      asset = null;
+    }
     try {
       runJobWithRetries(new JobRetryHelper() {
         FileData fd;
 
         @Override
         public void run(Objectify datastore) throws ObjectifyException {
+          // Only what the last try changed counts
+          oldAssetHash.t = null;
+          storedFile.t = null;
           Key<FileData> key = projectFileKey(projectKey(projectId), fileName);
-          fd = (FileData) memcache.get(key.getString());
+          fd = useTransaction ? null : (FileData) memcache.get(key.getString());
           if (fd == null) {
             fd = datastore.find(projectFileKey(projectKey(projectId), fileName));
           } else {
@@ -1524,6 +1869,12 @@ public class ObjectifyStorageIo implements  StorageIo {
             }
           }
 
+          if (saveSeq != 0 && fd.saveSeq >= saveSeq) {
+            // A later save has been written, leave it and the project alone
+            modTime.t = updateProjectModDate(datastore, projectId, 0, doingConversion);
+            return;
+          }
+
           if ((content.length < 125) && (fileName.endsWith(".bky"))) { // Likely this is an empty blocks workspace
             if (!force) {            // force is true if we *really* want to save it!
               checkForBlocksTruncation(fd); // See if we had previous content and throw and exception if so
@@ -1534,7 +1885,26 @@ public class ObjectifyStorageIo implements  StorageIo {
             // mark the old blobstore blob for deletion
            oldBlobstoreKey.t = fd.blobKey;
           }
-          if (useGCS) {
+          // The file no longer uses its previous asset, if any
+          oldAssetHash.t = fd.contentHash;
+          oldgcsName.t = null;
+          if (fd.contentHash != null) {
+            fd.contentHash = null;
+            fd.isGCS = false;
+            fd.gcsName = null;
+          }
+          if (asset != null) {
+            if (isTrue(fd.isGCS)) {
+              // mark the old GCS file of this project for deletion
+              oldgcsName.t = fd.gcsName;
+            }
+            fd.isGCS = true;
+            fd.gcsName = asset.gcsName;
+            fd.contentHash = asset.hash;
+            fd.content = null;
+            fd.isBlob = false;
+            fd.blobstorePath = null;
+          } else if (useGCS) {
             fd.isGCS = true;
             fd.gcsName = makeGCSfileName(fileName, projectId);
             try {
@@ -1588,9 +1958,17 @@ public class ObjectifyStorageIo implements  StorageIo {
           if (fd.userId == null || fd.userId.equals("")) {
             fd.userId = userId;
           }
+          if (saveSeq != 0) {
+            fd.saveSeq = saveSeq;
+          }
           datastore.put(fd);
-          memcache.put(key.getString(), fd); // Store the updated data in memcache
-          modTime.t = updateProjectModDate(datastore, projectId, doingConversion);
+          if (useTransaction) {
+            // Cached once the transaction is committed
+            storedFile.t = fd;
+          } else {
+            memcache.put(key.getString(), fd); // Store the updated data in memcache
+          }
+          modTime.t = updateProjectModDate(datastore, projectId, modDate, doingConversion);
         }
 
         @Override
@@ -1599,8 +1977,11 @@ public class ObjectifyStorageIo implements  StorageIo {
             oldBlobstoreKey.t = fd.blobKey;
           }
         }
-      }, false);        // Use transaction for blobstore, otherwise we don't need one
-                               // and without one the caching code comes into play.
+      }, useTransaction);  // Otherwise we don't need a transaction, and
+                           // without one the caching code comes into play.
+      if (storedFile.t != null) {
+        memcache.put(projectFileKey(projectKey(projectId), fileName).getString(), storedFile.t);
+      }
 
       // It would have been convenient to delete the old blobstore file within the run() method
       // above but that caused an exception where the app engine datastore claimed to be doing
@@ -1609,12 +1990,23 @@ public class ObjectifyStorageIo implements  StorageIo {
       if (oldBlobstoreKey.t != null) {
         deleteBlobstoreFile(oldBlobstoreKey.t);
       }
+      stored = true;
     } catch (ObjectifyException e) {
       if (e.getMessage().startsWith("Blocks")) { // Convert Exception
         throw new BlocksTruncatedException();
       }
       throw CrashReport.createAndLogError(LOG, null,
           collectProjectErrorInfo(userId, projectId, fileName), e);
+    } finally {
+      if (!stored && asset != null) {
+        releaseAsset(asset.hash);
+      }
+    }
+    if (oldgcsName.t != null) {
+      deleteGcsFile(oldgcsName.t);
+    }
+    if (oldAssetHash.t != null) {
+      releaseAsset(oldAssetHash.t);
     }
     return modTime.t;
   }
@@ -1653,12 +2045,192 @@ public class ObjectifyStorageIo implements  StorageIo {
     return (projectId + "/" + fileName);
   }
 
+  // Assets are stored once for each distinct content, in an AssetData that
+  // is shared by all the projects that contain the asset.
+  @VisibleForTesting
+  boolean useAssetStoreForFile(String fileName) {
+    return useGcs && fileName.contains("assets/");
+  }
+
+  // Make the GCS file name of new asset content. The name is unique so that
+  // a file that is being deleted is never mistaken for new content with the
+  // same hash.
+  private static String makeAssetGcsName(String assetId) {
+    return "__ASSETS__/" + assetId + "/" + UUID.randomUUID().toString();
+  }
+
+  // Returns the id of the AssetData for the given shard of the content with
+  // the given hash. Shard 0 uses the plain hash.
+  private static String makeAssetId(String hash, int shard) {
+    return shard == 0 ? hash : hash + "-" + shard;
+  }
+
+  /*
+   * Adds a reference to an AssetData of the given content and returns it.
+   * The content is looked up in the user's shard first. If the AssetData
+   * there is too busy to be updated, the next shards are tried, so that the
+   * upload succeeds at the cost of storing the content once more. The
+   * reference must be released with releaseAsset() when the file that uses
+   * it is replaced or deleted, or if storing that file fails.
+   */
+  private AssetData acquireAsset(String userId, byte[] content)
+      throws ObjectifyException, IOException {
+    String hash = Hashing.sha256().hashBytes(content).toString();
+    int shards = Math.max(1, assetShards.get());
+    int userShard = (userId.hashCode() & Integer.MAX_VALUE) % shards;
+    ObjectifyException failure = null;
+    for (int i = 0; i < shards; i++) {
+      String assetId = makeAssetId(hash, (userShard + i) % shards);
+      try {
+        return acquireAssetShard(assetId, content);
+      } catch (ObjectifyException e) {
+        LOG.log(Level.WARNING, "Unable to add a reference to asset " + assetId, e);
+        failure = e;
+      }
+    }
+    throw failure;
+  }
+
+  /*
+   * Adds a reference to the AssetData with the given id and returns it. If
+   * there is no such AssetData yet, the content is written to GCS and a new
+   * AssetData is created for it.
+   */
+  private AssetData acquireAssetShard(String assetId, byte[] content)
+      throws ObjectifyException, IOException {
+    AssetData asset = addAssetReference(assetId, null);
+    if (asset != null) {
+      return asset;
+    }
+    // Write the content before the AssetData refers to it, so that the
+    // content of an AssetData can always be read.
+    AssetData newAsset = new AssetData();
+    newAsset.hash = assetId;
+    newAsset.gcsName = makeAssetGcsName(assetId);
+    newAsset.size = content.length;
+    GcsOutputChannel outputChannel = gcsService.createOrReplace(
+        new GcsFilename(GCS_BUCKET_NAME, newAsset.gcsName), GcsFileOptions.getDefaultInstance());
+    outputChannel.write(ByteBuffer.wrap(content));
+    outputChannel.close();
+    try {
+      asset = addAssetReference(assetId, newAsset);
+    } catch (ObjectifyException e) {
+      deleteGcsFile(newAsset.gcsName);
+      throw e;
+    }
+    if (asset != newAsset) {
+      // Someone else stored the same content in the meantime, use theirs.
+      deleteGcsFile(newAsset.gcsName);
+    }
+    return asset;
+  }
+
+  /*
+   * Adds a reference to the AssetData with the given id and returns it. If
+   * there is no such AssetData, newAsset is stored with a single reference
+   * and returned instead, unless it is null.
+   */
+  private AssetData addAssetReference(final String hash, @Nullable final AssetData newAsset)
+      throws ObjectifyException {
+    final Result<AssetData> result = new Result<AssetData>();
+    runJobWithRetries(new JobRetryHelper() {
+      @Override
+      public void run(Objectify datastore) {
+        AssetData asset = datastore.find(assetKey(hash));
+        if (asset != null) {
+          asset.refCount++;
+        } else if (newAsset != null) {
+          asset = newAsset;
+          asset.refCount = 1;
+        } else {
+          result.t = null;
+          return;
+        }
+        datastore.put(asset);
+        result.t = asset;
+      }
+    }, true);
+    return result.t;
+  }
+
+  /*
+   * Removes a reference to the AssetData with the given id. The AssetData
+   * and its content are deleted when the last reference is removed. Errors
+   * are logged but not thrown because at worst they leave unused content
+   * behind.
+   */
+  private void releaseAsset(final String hash) {
+    final Result<String> unusedGcsName = new Result<String>();
+    try {
+      runJobWithRetries(new JobRetryHelper() {
+        @Override
+        public void run(Objectify datastore) {
+          unusedGcsName.t = null;
+          AssetData asset = datastore.find(assetKey(hash));
+          if (asset == null) {
+            LOG.log(Level.WARNING, "releaseAsset: no asset with hash " + hash);
+            return;
+          }
+          asset.refCount--;
+          if (asset.refCount > 0) {
+            datastore.put(asset);
+          } else {
+            datastore.delete(asset);
+            unusedGcsName.t = asset.gcsName;
+          }
+        }
+      }, true);
+    } catch (ObjectifyException e) {
+      LOG.log(Level.WARNING, "Unable to release asset " + hash, e);
+      return;
+    }
+    if (unusedGcsName.t != null) {
+      deleteGcsFile(unusedGcsName.t);
+    }
+  }
+
+  private void releaseAssets(Iterable<AssetData> assets) {
+    for (AssetData asset : assets) {
+      releaseAsset(asset.hash);
+    }
+  }
+
+  private void deleteGcsFile(String gcsName) {
+    try {
+      gcsService.delete(new GcsFilename(GCS_BUCKET_NAME, gcsName));
+    } catch (IOException e) {
+      LOG.log(Level.WARNING, "Unable to delete " + gcsName + " from GCS.", e);
+    }
+  }
+
+  /*
+   *  Creates and returns a new FileData object for an asset whose content is
+   *  in the given AssetData. Does not update the database.
+   */
+  private FileData createAssetFile(Key<ProjectData> projectKey, String userId, String fileName,
+      AssetData asset) {
+    FileData file = new FileData();
+    file.fileName = fileName;
+    file.projectKey = projectKey;
+    file.role = FileData.RoleEnum.SOURCE;
+    file.userId = userId;
+    file.isGCS = true;
+    file.gcsName = asset.gcsName;
+    file.contentHash = asset.hash;
+    return file;
+  }
+
   @Override
   public long deleteFile(final String userId, final long projectId, final String fileName) {
     validateGCS();
     final Result<Long> modTime = new Result<Long>();
     final Result<String> oldBlobKeyString = new Result<String>();
     final Result<String> oldgcsName = new Result<String>();
+    final Result<String> oldAssetHash = new Result<String>();
+    if (saveCoalesceMillis.get() > 0) {
+      // Drop any held back save of the file
+      memcache.delete(PENDING_SAVE_PREFIX + projectFileKey(projectKey(projectId), fileName).getString());
+    }
     try {
       runJobWithRetries(new JobRetryHelper() {
         @Override
@@ -1675,7 +2247,8 @@ public class ObjectifyStorageIo implements  StorageIo {
               }
             }
             oldBlobKeyString.t = fileData.blobKey;
-            if (isTrue(fileData.isGCS)) {
+            oldAssetHash.t = fileData.contentHash;
+            if (isTrue(fileData.isGCS) && fileData.contentHash == null) {
               oldgcsName.t = fileData.gcsName;
             }
           }
@@ -1697,9 +2270,107 @@ public class ObjectifyStorageIo implements  StorageIo {
         LOG.log(Level.WARNING, "Unable to delete " + oldgcsName + " from GCS.", e);
       }
     }
+    if (oldAssetHash.t != null) {
+      releaseAsset(oldAssetHash.t);
+    }
     return (modTime.t == null) ? 0 : modTime.t;
   }
 
+  @Override
+  public void copyFiles(final String userId, final long fromProjectId, final long toProjectId,
+      final List<String> fileNames) {
+    validateGCS();
+    if (fileNames.isEmpty()) {
+      return;
+    }
+    final List<Key<FileData>> fileKeys = new ArrayList<Key<FileData>>(fileNames.size());
+    for (String fileName : fileNames) {
+      fileKeys.add(projectFileKey(projectKey(fromProjectId), fileName));
+    }
+    flushPendingSaves(fileKeys);
+    final Map<Key<FileData>, FileData> fileData = new HashMap<Key<FileData>, FileData>();
+    try {
+      runJobWithRetries(new JobRetryHelper() {
+        @Override
+        public void run(Objectify datastore) {
+          fileData.clear();
+          fileData.putAll(datastore.get(fileKeys));
+        }
+      }, false); // Transaction not needed
+    } catch (ObjectifyException e) {
+      throw CrashReport.createAndLogError(LOG, null,
+          collectUserProjectErrorInfo(userId, fromProjectId), e);
+    }
+
+    // Make the copies. Copies of assets only add a reference to the content
+    // of the original.
+    final Key<ProjectData> toProjectKey = projectKey(toProjectId);
+    final List<FileData> copies = new ArrayList<FileData>(fileNames.size());
+    List<AssetData> assets = new ArrayList<AssetData>();
+    boolean copied = false;
+    try {
+      for (int i = 0; i < fileNames.size(); i++) {
+        String fileName = fileNames.get(i);
+        FileData fd = fileData.get(fileKeys.get(i));
+        if (fd == null) {
+          throw CrashReport.createAndLogError(LOG, null,
+              collectProjectErrorInfo(userId, fromProjectId, fileName),
+              new FileNotFoundException("No data for " + fileName));
+        }
+        if (fd.userId != null && !fd.userId.equals("") && !fd.userId.equals(userId)) {
+          throw CrashReport.createAndLogError(LOG, null,
+              collectUserProjectErrorInfo(userId, fromProjectId),
+              new UnauthorizedAccessException(userId, fromProjectId, null));
+        }
+        AssetData asset = null;
+        if (fd.contentHash != null) {
+          try {
+            asset = addAssetReference(fd.contentHash, null);
+          } catch (ObjectifyException e) {
+            // The AssetData is too busy, store the content in another one.
+            LOG.log(Level.WARNING, "Unable to add a reference to asset " + fd.contentHash, e);
+          }
+        }
+        if (asset == null && useAssetStoreForFile(fileName)) {
+          // An asset stored before assets were shared, move its content to
+          // the asset store so that later copies are cheap.
+          asset = acquireAsset(userId, downloadRawFile(userId, fromProjectId, fileName));
+        }
+        if (asset != null) {
+          assets.add(asset);
+          copies.add(createAssetFile(toProjectKey, userId, fileName, asset));
+        } else {
+          copies.add(createRawFile(toProjectKey, fd.role, userId, fileName,
+              downloadRawFile(userId, fromProjectId, fileName)));
+        }
+      }
+
+      runJobWithRetries(new JobRetryHelper() {
+        @Override
+        public void run(Objectify datastore) {
+          datastore.put(copies);
+          updateProjectModDate(datastore, toProjectId, false);
+        }
+      }, true);
+      copied = true;
+    } catch (ObjectifyException e) {
+      throw CrashReport.createAndLogError(LOG, null,
+          collectUserProjectErrorInfo(userId, toProjectId), e);
+    } catch (IOException e) {
+      throw CrashReport.createAndLogError(LOG, null,
+          collectUserProjectErrorInfo(userId, toProjectId), e);
+    } finally {
+      if (!copied) {
+        releaseAssets(assets);
+        for (FileData copy : copies) {
+          if (isTrue(copy.isGCS) && copy.contentHash == null) {
+            deleteGcsFile(copy.gcsName);
+          }
+        }
+      }
+    }
+  }
+
   // TODO(user) - just use "UTF-8" (instead of having an encoding argument),
   // which will never cause UnsupportedEncodingException. (Here and in other
   // methods with the encoding arg.
@@ -1714,6 +2385,27 @@ public class ObjectifyStorageIo implements  StorageIo {
     }
   }
 
+  @Override
+  public String downloadFileToUpdate(final String userId, final long projectId,
+      final String fileName, final String encoding) {
+    PendingSave pendingSave = null;
+    if (saveCoalesceMillis.get() > 0 && isCoalescedFile(fileName)) {
+      pendingSave = (PendingSave) memcache.get(
+          PENDING_SAVE_PREFIX + projectFileKey(projectKey(projectId), fileName).getString());
+    }
+    // Saves are only held back for the owner of the file, anyone else is
+    // refused by downloadFile.
+    if (pendingSave == null || !pendingSave.userId.equals(userId)) {
+      return downloadFile(userId, projectId, fileName, encoding);
+    }
+    try {
+      return new String(pendingSave.content, encoding);
+    } catch (UnsupportedEncodingException e) {
+      throw CrashReport.createAndLogError(LOG, null, "Unsupported file content encoding, "
+          + collectProjectErrorInfo(userId, projectId, fileName), e);
+    }
+  }
+
   @Override
   public void recordCorruption(String userId, long projectId, String fileId, String message) {
     Objectify datastore = ObjectifyService.begin();
@@ -1739,6 +2431,7 @@ public class ObjectifyStorageIo implements  StorageIo {
   @Override
   public byte[] downloadRawFile(final String userId, final long projectId, final String fileName) {
     validateGCS();
+    flushPendingSave(projectId, fileName);
     final Result<byte[]> result = new Result<byte[]>();
     final Result<FileData> fd = new Result<FileData>();
     try {
@@ -1877,6 +2570,124 @@ public class ObjectifyStorageIo implements  StorageIo {
     return result.t;
   }
 
+  @Override
+  public List<String> downloadFiles(final String userId, final List<FileDescriptor> files,
+      final String encoding) {
+    List<byte[]> contents = downloadRawFiles(userId, files);
+    List<String> result = new ArrayList<String>(contents.size());
+    for (int i = 0; i < files.size(); i++) {
+      try {
+        result.add(new String(contents.get(i), encoding));
+      } catch (UnsupportedEncodingException e) {
+        throw CrashReport.createAndLogError(LOG, null, "Unsupported file content encoding, "
+            + collectProjectErrorInfo(userId, files.get(i).getProjectId(),
+                files.get(i).getFileId()), e);
+      }
+    }
+    return result;
+  }
+
+  /*
+   * Downloads the content of several files, like downloadRawFile does for
+   * one file. The FileData of all of the files is looked up with one memcache
+   * getAll and one datastore batch get for the files not in memcache, and the
+   * GCS reads are started ahead like in exportProjectSourceZip.
+   */
+  private List<byte[]> downloadRawFiles(final String userId, final List<FileDescriptor> files) {
+    validateGCS();
+    final List<Key<FileData>> fileKeys = new ArrayList<Key<FileData>>(files.size());
+    for (FileDescriptor file : files) {
+      fileKeys.add(projectFileKey(projectKey(file.getProjectId()), file.getFileId()));
+    }
+    flushPendingSaves(fileKeys);
+    final Map<Key<FileData>, FileData> fileData = new HashMap<Key<FileData>, FileData>();
+    try {
+      runJobWithRetries(new JobRetryHelper() {
+        @Override
+        public void run(Objectify datastore) {
+          fileData.clear();
+          List<String> cacheKeys = new ArrayList<String>(fileKeys.size());
+          for (Key<FileData> fileKey : fileKeys) {
+            cacheKeys.add(fileKey.getString());
+          }
+          Map<String, Object> cached = memcache.getAll(cacheKeys);
+          List<Key<FileData>> misses = new ArrayList<Key<FileData>>();
+          for (Key<FileData> fileKey : fileKeys) {
+            FileData fd = (FileData) cached.get(fileKey.getString());
+            if (fd != null) {
+              fileData.put(fileKey, fd);
+            } else {
+              misses.add(fileKey);
+            }
+          }
+          if (!misses.isEmpty()) {
+            fileData.putAll(datastore.get(misses));
+          }
+        }
+      }, false); // Transaction not needed
+    } catch (ObjectifyException e) {
+      throw CrashReport.createAndLogError(LOG, null, collectUserErrorInfo(userId), e);
+    }
+
+    // read the blob/GCS Files outside of the job
+    List<byte[]> result = new ArrayList<byte[]>(files.size());
+    int readAheadFiles = Math.max(1, gcsReadConcurrency.get());
+    // Open GCS read channels, by index in files.
+    Map<Integer, GcsInputChannel> readChannels = new HashMap<Integer, GcsInputChannel>();
+    int nextRead = 0;
+    try {
+      for (int i = 0; i < files.size(); i++) {
+        long projectId = files.get(i).getProjectId();
+        String fileName = files.get(i).getFileId();
+        FileData fd = fileData.get(fileKeys.get(i));
+        if (fd == null) {
+          throw CrashReport.createAndLogError(LOG, null,
+              collectProjectErrorInfo(userId, projectId, fileName),
+              new FileNotFoundException("No data for " + fileName));
+        }
+        if (fd.userId != null && !fd.userId.equals("") && !fd.userId.equals(userId)) {
+          throw CrashReport.createAndLogError(LOG, null,
+              collectUserProjectErrorInfo(userId, projectId),
+              new UnauthorizedAccessException(userId, projectId, null));
+        }
+        for (; nextRead < files.size() && nextRead < i + readAheadFiles; nextRead++) {
+          FileData next = fileData.get(fileKeys.get(nextRead));
+          if (next != null && isTrue(next.isGCS)) {
+            readChannels.put(nextRead, openGcsReadChannel(next.gcsName));
+          }
+        }
+        try {
+          if (isTrue(fd.isGCS)) {     // It's in the Cloud Store
+            GcsInputChannel readChannel = readChannels.remove(i);
+            byte[] data = readChannel == null ? null : readGcsChannel(readChannel, fd.gcsName);
+            if (data == null) {
+              // The prefetching read failed, read the file the slow way.
+              data = readGcsFile(fd.gcsName, false);
+            }
+            result.add(data);
+          } else if (fd.isBlob) {
+            if (fd.blobKey == null) {
+              throw new BlobReadException("blobKey is null");
+            }
+            result.add(getBlobstoreBytes(fd.blobKey));
+          } else if (fd.content == null) {
+            result.add(new byte[0]);
+          } else {
+            result.add(fd.content);
+          }
+        } catch (IOException e) {
+          throw CrashReport.createAndLogError(LOG, null,
+              collectProjectErrorInfo(userId, projectId, fileName), e);
+        }
+      }
+    } finally {
+      for (GcsInputChannel readChannel : readChannels.values()) {
+        readChannel.close();
+      }
+    }
+    return result;
+  }
+
   // Note: this must be called outside of any transaction, since getBlobKey()
   // uses the current transaction and it will most likely have the wrong
   // entity group!
@@ -1906,6 +2717,25 @@ public class ObjectifyStorageIo implements  StorageIo {
    */
   @Override
   public ProjectSourceZip exportProjectSourceZip(final String userId, final long projectId,
+    final boolean includeProjectHistory,
+    final boolean includeAndroidKeystore,
+    @Nullable String zipName,
+    final boolean includeYail,
+    final boolean forGallery,
+    final boolean fatalError) throws IOException {
+    ProjectSourceZipStream zipStream = openProjectSourceZip(userId, projectId,
+        includeProjectHistory, includeAndroidKeystore, zipName, includeYail, forGallery,
+        fatalError);
+    ByteArrayOutputStream zipFile = new ByteArrayOutputStream();
+    int fileCount = zipStream.writeTo(zipFile);
+    ProjectSourceZip projectSourceZip =
+        new ProjectSourceZip(zipStream.getFileName(), zipFile.toByteArray(), fileCount);
+    projectSourceZip.setMetadata(zipStream.getMetadata());
+    return projectSourceZip;
+  }
+
+  @Override
+  public ProjectSourceZipStream openProjectSourceZip(final String userId, final long projectId,
     final boolean includeProjectHistory,
     final boolean includeAndroidKeystore,
     @Nullable String zipName,
@@ -1913,8 +2743,7 @@ public class ObjectifyStorageIo implements  StorageIo {
     final boolean forGallery,
     final boolean fatalError) throws IOException {
     validateGCS();
-    final Result<Integer> fileCount = new Result<Integer>();
-    fileCount.t = 0;
+    flushPendingSaves(projectId);
     final Result<String> projectHistory = new Result<String>();
     projectHistory.t = null;
     // We collect up all the file data for the project in a transaction but
@@ -1924,11 +2753,6 @@ public class ObjectifyStorageIo implements  StorageIo {
     final List<FileData> fileData = new ArrayList<FileData>();
     final Result<String> projectName = new Result<String>();
     projectName.t = null;
-    String fileName = null;
-
-    ByteArrayOutputStream zipFile = new ByteArrayOutputStream();
-    final ZipOutputStream out = new ZipOutputStream(zipFile);
-    out.setComment("Built with MIT App Inventor");
 
     try {
       JobRetryHelper job = new JobRetryHelper() {
@@ -1974,148 +2798,339 @@ public class ObjectifyStorageIo implements  StorageIo {
       if (error != null) {
         throw error;
       }
-      // Process the file contents outside of the job since we can't read
-      // blobs in the job.
-      for (FileData fd : fileData) {
-        fileName = fd.fileName;
-        byte[] data = null;
-        if (fd.isBlob) {
-          try {
-            if (fd.blobKey == null) {
-              throw new BlobReadException("blobKey is null");
-            }
-            data = getBlobstoreBytes(fd.blobKey);
-          } catch (BlobReadException e) {
-            throw CrashReport.createAndLogError(LOG, null,
-                collectProjectErrorInfo(userId, projectId, fileName), e);
-          }
-        } else if (isTrue(fd.isGCS)) {
-          try {
-            int count;
-            boolean npfHappened = false;
-            boolean recovered = false;
-            for (count = 0; count < 5; count++) {
-              GcsFilename gcsFileName = new GcsFilename(GCS_BUCKET_NAME, fd.gcsName);
-              int bytesRead = 0;
-              int fileSize = 0;
-              ByteBuffer resultBuffer;
-              try {
-                fileSize = (int) gcsService.getMetadata(gcsFileName).getLength();
-                resultBuffer = ByteBuffer.allocate(fileSize);
-                GcsInputChannel readChannel = gcsService.openReadChannel(gcsFileName, 0);
-                try {
-                  while (bytesRead < fileSize) {
-                    bytesRead += readChannel.read(resultBuffer);
-                    if (bytesRead < fileSize) {
-                      LOG.log(Level.INFO, "readChannel: bytesRead = " + bytesRead + " fileSize = " + fileSize);
-                    }
-                  }
-                  recovered = true;
-                  data = resultBuffer.array();
-                  break;        // We got the data, break out of the loop!
-                } finally {
-                  readChannel.close();
-                }
-              } catch (NullPointerException e) {
-                // This happens if the object in GCS is non-existent, which would happen
-                // when people uploaded a zero length object. As of this change, we now
-                // store zero length objects into GCS, but there are plenty of older objects
-                // that are missing in GCS.
-                LOG.log(Level.WARNING, "exportProjectFile: NPF recorded for " + fd.gcsName);
-                npfHappened = true;
-                resultBuffer = ByteBuffer.allocate(0);
-                data = resultBuffer.array();
-              }
-            }
-
-            // report out on how things went above
-            if (npfHappened) {    // We lost at least once
-              if (recovered) {
-                LOG.log(Level.WARNING, "recovered from NPF in exportProjectFile filename = " + fd.gcsName +
-                  " count = " + count);
-              } else {
-                LOG.log(Level.WARNING, "FATAL NPF in exportProjectFile filename = " + fd.gcsName);
-                if (fatalError) {
-                  throw new IOException("FATAL Error reading file from GCS filename = " + fd.gcsName);
-                }
-              }
-            }
-          } catch (IOException e) {
-            throw CrashReport.createAndLogError(LOG, null,
-              collectProjectErrorInfo(userId, projectId, fileName), e);
-          }
-        } else {
-          data = fd.content;
-        }
-        if (data == null) {     // This happens if file creation is interrupted
-          data = new byte[0];
-        }
-        out.putNextEntry(new ZipEntry(fileName));
-        out.write(data, 0, data.length);
-        out.closeEntry();
-        fileCount.t++;
-      }
-      if (projectHistory.t != null) {
-        byte[] data = projectHistory.t.getBytes(StorageUtil.DEFAULT_CHARSET);
-        out.putNextEntry(new ZipEntry(FileExporter.REMIX_INFORMATION_FILE_PATH));
-        out.write(data, 0, data.length);
-        out.closeEntry();
-        fileCount.t++;
-      }
     } catch (ObjectifyException e) {
       CrashReport.createAndLogError(LOG, null,
-          collectProjectErrorInfo(userId, projectId, fileName), e);
+          collectProjectErrorInfo(userId, projectId, null), e);
       throw new IOException("Reflecting exception for userid " + userId +
           " projectId " + projectId + ", original exception " + e.getMessage());
     } catch (RuntimeException e) {
       CrashReport.createAndLogError(LOG, null,
-          collectProjectErrorInfo(userId, projectId, fileName), e);
+          collectProjectErrorInfo(userId, projectId, null), e);
       throw new IOException("Reflecting exception for userid " + userId +
           " projectId " + projectId + ", original exception " + e.getMessage());
     }
 
-    if (fileCount.t == 0) {
-      // can't close out since will get a ZipException due to the lack of files
+    if (fileData.isEmpty()) {
+      // can't write the zip since will get a ZipException due to the lack of files
       throw new IllegalArgumentException("No files to download");
     }
 
-    if (includeAndroidKeystore) {
+    if (zipName == null) {
+      zipName = projectName.t + ".aia";
+    }
+    return new ProjectSourceZipWriter(userId, projectId, zipName, projectName.t, fileData,
+        projectHistory.t, includeAndroidKeystore, fatalError);
+  }
+
+  /*
+   * Writes the files collected by openProjectSourceZip into a zip.
+   *
+   * GCS files are read ahead of the file being written: the reads of the GCS
+   * files among the next gcsReadConcurrency files are started with
+   * prefetching read channels, which request their first block asynchronously
+   * as soon as they are opened. This overlaps the GCS round trips while
+   * keeping the number of outstanding reads bounded, without creating threads
+   * (which App Engine restricts). Each file is copied to the output block by
+   * block, so a file is never held in memory as a whole.
+   */
+  private class ProjectSourceZipWriter implements ProjectSourceZipStream {
+    private final String userId;
+    private final long projectId;
+    private final String zipName;
+    private final String projectName;
+    private final List<FileData> fileData;
+    private final String projectHistory;
+    private final boolean includeAndroidKeystore;
+    private final boolean fatalError;
+    // Open GCS read channels, by index in fileData.
+    private final Map<Integer, GcsInputChannel> readChannels =
+        new HashMap<Integer, GcsInputChannel>();
+    // Index in fileData of the next file whose read is started.
+    private int nextRead = 0;
+
+    ProjectSourceZipWriter(String userId, long projectId, String zipName, String projectName,
+        List<FileData> fileData, @Nullable String projectHistory, boolean includeAndroidKeystore,
+        boolean fatalError) {
+      this.userId = userId;
+      this.projectId = projectId;
+      this.zipName = zipName;
+      this.projectName = projectName;
+      this.fileData = fileData;
+      this.projectHistory = projectHistory;
+      this.includeAndroidKeystore = includeAndroidKeystore;
+      this.fatalError = fatalError;
+    }
+
+    @Override
+    public String getFileName() {
+      return zipName;
+    }
+
+    @Override
+    public String getMetadata() {
+      return projectName;
+    }
+
+    @Override
+    public void prefetch() {
+      startReads(0);
+    }
+
+    // Starts the GCS reads of the files up to the read ahead window of the
+    // file at the given index.
+    private void startReads(int index) {
+      int readAheadFiles = Math.max(1, gcsReadConcurrency.get());
+      for (; nextRead < fileData.size() && nextRead < index + readAheadFiles; nextRead++) {
+        FileData next = fileData.get(nextRead);
+        if (!next.isBlob && isTrue(next.isGCS)) {
+          readChannels.put(nextRead, openGcsReadChannel(next.gcsName));
+        }
+      }
+    }
+
+    @Override
+    public int writeTo(OutputStream output) throws IOException {
+      final ZipOutputStream out = new ZipOutputStream(output);
+      out.setComment("Built with MIT App Inventor");
+      final Result<Integer> fileCount = new Result<Integer>();
+      fileCount.t = 0;
+      String fileName = null;
+
       try {
-        runJobWithRetries(new JobRetryHelper() {
-            @Override
-            public void run(Objectify datastore) {
-              try {
-                Key<UserData> userKey = userKey(userId);
-                for (UserFileData ufd : datastore.query(UserFileData.class).ancestor(userKey)) {
-                  if (ufd.fileName.equals(StorageUtil.ANDROID_KEYSTORE_FILENAME) &&
-                      (ufd.content.length > 0)) {
-                    out.putNextEntry(new ZipEntry(StorageUtil.ANDROID_KEYSTORE_FILENAME));
-                    out.write(ufd.content, 0, ufd.content.length);
-                    out.closeEntry();
-                    fileCount.t++;
+        for (int i = 0; i < fileData.size(); i++) {
+          FileData fd = fileData.get(i);
+          fileName = fd.fileName;
+          startReads(i);
+          if (fd.isBlob) {
+            byte[] data;
+            try {
+              if (fd.blobKey == null) {
+                throw new BlobReadException("blobKey is null");
+              }
+              data = getBlobstoreBytes(fd.blobKey);
+            } catch (BlobReadException e) {
+              throw CrashReport.createAndLogError(LOG, null,
+                  collectProjectErrorInfo(userId, projectId, fileName), e);
+            }
+            writeZipEntry(out, fileName, data);
+          } else if (isTrue(fd.isGCS)) {
+            try {
+              GcsInputChannel readChannel = readChannels.remove(i);
+              if (readChannel == null || !copyGcsFile(readChannel, out, fileName)) {
+                // The prefetching read failed before anything was written. This
+                // happens for objects missing in GCS, which readGcsFile knows about.
+                writeZipEntry(out, fileName, readGcsFile(fd.gcsName, fatalError));
+              }
+            } catch (IOException e) {
+              throw CrashReport.createAndLogError(LOG, null,
+                  collectProjectErrorInfo(userId, projectId, fileName), e);
+            }
+          } else {
+            writeZipEntry(out, fileName, fd.content);
+          }
+          fileCount.t++;
+        }
+        if (projectHistory != null) {
+          writeZipEntry(out, FileExporter.REMIX_INFORMATION_FILE_PATH,
+              projectHistory.getBytes(StorageUtil.DEFAULT_CHARSET));
+          fileCount.t++;
+        }
+      } catch (RuntimeException e) {
+        CrashReport.createAndLogError(LOG, null,
+            collectProjectErrorInfo(userId, projectId, fileName), e);
+        throw new IOException("Reflecting exception for userid " + userId +
+            " projectId " + projectId + ", original exception " + e.getMessage());
+      } finally {
+        close();
+      }
+
+      if (includeAndroidKeystore) {
+        try {
+          runJobWithRetries(new JobRetryHelper() {
+              @Override
+              public void run(Objectify datastore) {
+                try {
+                  Key<UserData> userKey = userKey(userId);
+                  for (UserFileData ufd : datastore.query(UserFileData.class).ancestor(userKey)) {
+                    if (ufd.fileName.equals(StorageUtil.ANDROID_KEYSTORE_FILENAME) &&
+                        (ufd.content.length > 0)) {
+                      writeZipEntry(out, StorageUtil.ANDROID_KEYSTORE_FILENAME, ufd.content);
+                      fileCount.t++;
+                    }
                   }
+                } catch (IOException e) {
+                  throw CrashReport.createAndLogError(LOG, null,
+                      collectProjectErrorInfo(userId, projectId,
+                          StorageUtil.ANDROID_KEYSTORE_FILENAME), e);
                 }
-              } catch (IOException e) {
-                throw CrashReport.createAndLogError(LOG, null,
-                    collectProjectErrorInfo(userId, projectId,
-                        StorageUtil.ANDROID_KEYSTORE_FILENAME), e);
               }
-            }
-        }, false);
-      } catch (ObjectifyException e) {
-        throw CrashReport.createAndLogError(LOG, null, collectUserErrorInfo(userId), e);
+          }, false);
+        } catch (ObjectifyException e) {
+          throw CrashReport.createAndLogError(LOG, null, collectUserErrorInfo(userId), e);
+        }
+      }
+
+      // Finish rather than close the zip, the caller owns the output stream.
+      out.finish();
+      out.flush();
+      return fileCount.t;
+    }
+
+    @Override
+    public void close() throws IOException {
+      try {
+        for (GcsInputChannel readChannel : readChannels.values()) {
+          readChannel.close();
+        }
+      } finally {
+        readChannels.clear();
       }
     }
+  }
 
-    out.close();
+  private static void writeZipEntry(ZipOutputStream out, String fileName, @Nullable byte[] data)
+      throws IOException {
+    if (data == null) {     // This happens if file creation is interrupted
+      data = new byte[0];
+    }
+    out.putNextEntry(new ZipEntry(fileName));
+    out.write(data, 0, data.length);
+    out.closeEntry();
+  }
 
-    if (zipName == null) {
-      zipName = projectName.t + ".aia";
+  /*
+   * Opens a prefetching read channel for the given GCS object, which starts
+   * reading the object right away. Returns null if the read cannot be started.
+   */
+  @Nullable
+  private GcsInputChannel openGcsReadChannel(String gcsName) {
+    try {
+      return gcsService.openPrefetchingReadChannel(new GcsFilename(GCS_BUCKET_NAME, gcsName), 0,
+          GCS_READ_BLOCK_SIZE);
+    } catch (RuntimeException e) {
+      LOG.log(Level.INFO, "Unable to start reading " + gcsName, e);
+      return null;
+    }
+  }
+
+  /*
+   * Copies a GCS object into a new zip entry and closes the read channel. The
+   * entry is started only once the first block has been read, so if that read
+   * fails nothing is written and false is returned.
+   */
+  private boolean copyGcsFile(GcsInputChannel readChannel, ZipOutputStream out,
+      String fileName) throws IOException {
+    try {
+      ByteBuffer buffer = ByteBuffer.allocate(GCS_READ_BLOCK_SIZE);
+      int bytesRead;
+      try {
+        bytesRead = readChannel.read(buffer);
+      } catch (IOException e) {
+        LOG.log(Level.INFO, "exportProjectFile: prefetching read failed for " + fileName, e);
+        return false;
+      } catch (RuntimeException e) {
+        LOG.log(Level.INFO, "exportProjectFile: prefetching read failed for " + fileName, e);
+        return false;
+      }
+      out.putNextEntry(new ZipEntry(fileName));
+      while (bytesRead != -1) {
+        out.write(buffer.array(), 0, buffer.position());
+        buffer.clear();
+        bytesRead = readChannel.read(buffer);
+      }
+      out.closeEntry();
+      return true;
+    } finally {
+      readChannel.close();
     }
-    ProjectSourceZip projectSourceZip =
-        new ProjectSourceZip(zipName, zipFile.toByteArray(), fileCount.t);
-    projectSourceZip.setMetadata(projectName.t);
-    return projectSourceZip;
+  }
+
+  /*
+   * Reads a GCS object with the given read channel and closes the channel.
+   * Returns null if the first read fails.
+   */
+  @Nullable
+  private byte[] readGcsChannel(GcsInputChannel readChannel, String gcsName)
+      throws IOException {
+    try {
+      ByteArrayOutputStream data = new ByteArrayOutputStream();
+      ByteBuffer buffer = ByteBuffer.allocate(GCS_READ_BLOCK_SIZE);
+      int bytesRead;
+      try {
+        bytesRead = readChannel.read(buffer);
+      } catch (IOException e) {
+        LOG.log(Level.INFO, "readGcsChannel: prefetching read failed for " + gcsName, e);
+        return null;
+      } catch (RuntimeException e) {
+        LOG.log(Level.INFO, "readGcsChannel: prefetching read failed for " + gcsName, e);
+        return null;
+      }
+      while (bytesRead != -1) {
+        data.write(buffer.array(), 0, buffer.position());
+        buffer.clear();
+        bytesRead = readChannel.read(buffer);
+      }
+      return data.toByteArray();
+    } finally {
+      readChannel.close();
+    }
+  }
+
+  /*
+   * Reads a GCS object, retrying if it seems to be missing.
+   */
+  private byte[] readGcsFile(String gcsName, boolean fatalError) throws IOException {
+    byte[] data = null;
+    int count;
+    boolean npfHappened = false;
+    boolean recovered = false;
+    for (count = 0; count < 5; count++) {
+      GcsFilename gcsFileName = new GcsFilename(GCS_BUCKET_NAME, gcsName);
+      int bytesRead = 0;
+      int fileSize = 0;
+      ByteBuffer resultBuffer;
+      try {
+        fileSize = (int) gcsService.getMetadata(gcsFileName).getLength();
+        resultBuffer = ByteBuffer.allocate(fileSize);
+        GcsInputChannel readChannel = gcsService.openReadChannel(gcsFileName, 0);
+        try {
+          while (bytesRead < fileSize) {
+            bytesRead += readChannel.read(resultBuffer);
+            if (bytesRead < fileSize) {
+              LOG.log(Level.INFO, "readChannel: bytesRead = " + bytesRead + " fileSize = " + fileSize);
+            }
+          }
+          recovered = true;
+          data = resultBuffer.array();
+          break;        // We got the data, break out of the loop!
+        } finally {
+          readChannel.close();
+        }
+      } catch (NullPointerException e) {
+        // This happens if the object in GCS is non-existent, which would happen
+        // when people uploaded a zero length object. As of this change, we now
+        // store zero length objects into GCS, but there are plenty of older objects
+        // that are missing in GCS.
+        LOG.log(Level.WARNING, "readGcsFile: NPF recorded for " + gcsName);
+        npfHappened = true;
+        resultBuffer = ByteBuffer.allocate(0);
+        data = resultBuffer.array();
+      }
+    }
+
+    // report out on how things went above
+    if (npfHappened) {    // We lost at least once
+      if (recovered) {
+        LOG.log(Level.WARNING, "recovered from NPF in readGcsFile filename = " + gcsName +
+          " count = " + count);
+      } else {
+        LOG.log(Level.WARNING, "FATAL NPF in readGcsFile filename = " + gcsName);
+        if (fatalError) {
+          throw new IOException("FATAL Error reading file from GCS filename = " + gcsName);
+        }
+      }
+    }
+    return data;
   }
 
   @Override
@@ -2407,6 +3422,10 @@ public class ObjectifyStorageIo implements  StorageIo {
     return new Key<FileData>(projectKey, FileData.class, fileName);
   }
 
+  private Key<AssetData> assetKey(String hash) {
+    return new Key<AssetData>(AssetData.class, hash);
+  }
+
   /**
    * Call job.run() if we get a {@link java.util.ConcurrentModificationException}
    * or {@link com.google.appinventor.server.storage.ObjectifyException}
@@ -2553,11 +3572,31 @@ public class ObjectifyStorageIo implements  StorageIo {
     }
   }
 
+  @VisibleForTesting
+  FileData getFileData(long projectId, String fileName) {
+    return ObjectifyService.begin().find(projectFileKey(projectKey(projectId), fileName));
+  }
+
+  @VisibleForTesting
+  AssetData getAsset(String hash) {
+    return ObjectifyService.begin().find(assetKey(hash));
+  }
+
   @VisibleForTesting
   ProjectData getProject(long projectId) {
     return ObjectifyService.begin().find(projectKey(projectId));
   }
 
+  @VisibleForTesting
+  GcsService getGcsService() {
+    return gcsService;
+  }
+
+  @VisibleForTesting
+  void setGcsService(GcsService gcsService) {
+    this.gcsService = gcsService;
+  }
+
   @VisibleForTesting
   void setGcsFileContent(String gcsPath, byte[] content) throws IOException {
     GcsOutputChannel outputChannel = gcsService.createOrReplace(
@@ -2709,16 +3748,15 @@ public class ObjectifyStorageIo implements  StorageIo {
       runJobWithRetries(new JobRetryHelper() {
           @Override
           public void run(Objectify datastore) {
-            Query<UserData> userDataQuery = datastore.query(UserData.class).filter("email >=", partialEmail);
-            int count = 0;
+            // The page starts at the given email rather than at an offset,
+            // so later pages cost no more than the first one. Only the users
+            // on the page are fetched.
+            Query<UserData> userDataQuery = datastore.query(UserData.class)
+                .filter("email >=", partialEmail).limit(MAX_USERS_PER_SEARCH);
             for (UserData user : userDataQuery) {
               boolean isModerator = (user.type == 1);
               retval.add(new AdminUser(user.id, user.name, user.email, user.tosAccepted,
                   user.isAdmin, isModerator, user.visited));
-              count++;
-              if (count > 20) {
-                break;
-              }
             }
           }
         }, false);
@@ -2790,6 +3828,9 @@ public class ObjectifyStorageIo implements  StorageIo {
       }
       throw CrashReport.createAndLogError(LOG, null, null, e);
     }
+    if (user.getId() != null) {
+      UserCache.invalidateUser(user.getId());
+    }
   }
 
 }
@@ -0,0 +1,61 @@
+// -*- mode: java; c-basic-offset: 2; -*-
+// Copyright 2016 MIT, All rights reserved
+// Released under the Apache License, Version 2.0
+// http://www.apache.org/licenses/LICENSE-2.0
+
+package com.google.appinventor.server.storage;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * A project source zip that has not been written yet.
+ *
+ * <p>The name and metadata are known as soon as the stream is opened, so a
+ * caller can send response headers before any file content is read. The zip
+ * itself is then written straight to the destination with {@link #writeTo}
+ * instead of being built in memory first.
+ *
+ * <p>A zip that is opened but not written has to be closed, so that the reads
+ * started by {@link #prefetch} are stopped.
+ *
+ */
+public interface ProjectSourceZipStream extends Closeable {
+
+  /**
+   * Returns the name of the zip file.
+   */
+  String getFileName();
+
+  /**
+   * Returns the metadata of the zip, which is the project name.
+   */
+  String getMetadata();
+
+  /**
+   * Starts reading the first files of the zip, so that their content arrives
+   * while the caller is busy with something else, such as writing a previous
+   * zip. Calling this is optional.
+   */
+  void prefetch();
+
+  /**
+   * Writes the zip to the given output stream. The output stream is not
+   * closed. This can only be called once.
+   *
+   * @param out the destination of the zip
+   * @return the number of files in the zip
+   * @throws IOException if the files cannot be read or written
+   */
+  int writeTo(OutputStream out) throws IOException;
+
+  /**
+   * Stops the reads started by {@link #prefetch}. Writing the zip closes them
+   * as well, so this does nothing once {@link #writeTo} has been called.
+   *
+   * @throws IOException if a read cannot be stopped
+   */
+  @Override
+  void close() throws IOException;
+}
@@ -11,6 +11,7 @@ import com.google.appinventor.shared.rpc.Motd;
 import com.google.appinventor.shared.rpc.Nonce;
 import com.google.appinventor.shared.rpc.admin.AdminUser;
 import com.google.appinventor.shared.rpc.AdminInterfaceException;
+import com.google.appinventor.shared.rpc.project.FileDescriptor;
 import com.google.appinventor.shared.rpc.project.Project;
 import com.google.appinventor.shared.rpc.project.ProjectSourceZip;
 import com.google.appinventor.shared.rpc.project.UserProject;
@@ -242,6 +243,17 @@ public interface StorageIo {
 
   UserProject getUserProject(String userId, long projectId);
 
+  /**
+   * Returns the UserProject objects of the given projects, reading them all
+   * at once. Projects that do not exist or do not belong to the user are
+   * left out.
+   *
+   * @param userId a user Id (the request is made on behalf of this user)
+   * @param projectIds  project ids
+   * @return the UserProject objects, in the order of projectIds
+   */
+  List<UserProject> getUserProjects(String userId, List<Long> projectIds);
+
   /**
    * Returns a project name.
    *
@@ -480,6 +492,15 @@ public interface StorageIo {
    */
   long uploadRawFileForce(long projectId, String fileId, String userId, byte[] content);
 
+  /**
+   * Writes the saves of the project's source files that are being held back
+   * so that several saves in a short time are written only once. Files that
+   * are read are always flushed first, so this is only needed where the
+   * saves must be written at once, as when the user saves the project.
+   * @param projectId  project ID
+   */
+  void flushPendingSaves(long projectId);
+
   /**
    * Deletes a file.
    * @param userId a user Id (the request is made on behalf of this user)
@@ -489,6 +510,18 @@ public interface StorageIo {
    */
   long deleteFile(String userId, long projectId, String fileId);
 
+  /**
+   * Copies files from one project to another project of the same user,
+   * keeping their names. The content of assets is shared by both projects
+   * instead of being copied. The files must not exist in the project that is
+   * copied to.
+   * @param userId the user who owns both projects
+   * @param fromProjectId  project ID of the project to copy from
+   * @param toProjectId  project ID of the project to copy to
+   * @param fileIds  file IDs of the files to copy
+   */
+  void copyFiles(String userId, long fromProjectId, long toProjectId, List<String> fileIds);
+
   /**
    * Downloads text file data.
    * @param userId a user Id (the request is made on behalf of this user)
@@ -500,6 +533,30 @@ public interface StorageIo {
    */
   String downloadFile(String userId, long projectId, String fileId, String encoding);
 
+  /**
+   * Downloads text file data that is about to be changed. Unlike
+   * {@link #downloadFile}, this returns a save of the file that is being
+   * held back without writing it first, so that the saves of a file that is
+   * changed by deltas are still coalesced.
+   * @param userId a user Id (the request is made on behalf of this user)
+   * @param projectId  project ID
+   * @param fileId  file ID
+   * @param encoding  encoding of text file
+   *
+   * @return  text file content
+   */
+  String downloadFileToUpdate(String userId, long projectId, String fileId, String encoding);
+
+  /**
+   * Downloads the data of several text files at once.
+   * @param userId a user Id (the request is made on behalf of this user)
+   * @param files  the project IDs and file IDs of the files
+   * @param encoding  encoding of the text files
+   *
+   * @return  text file contents, in the order of files
+   */
+  List<String> downloadFiles(String userId, List<FileDescriptor> files, String encoding);
+
   /**
    * Records a "corruption" record so we can analyze if corruption is
    * happening.
@@ -580,6 +637,29 @@ public interface StorageIo {
     final boolean forGallery,
     final boolean fatalError) throws IOException;
 
+  /**
+   * Opens project files for export as a zip archive. The files are listed
+   * right away, but their content is only read while the zip is written with
+   * {@link ProjectSourceZipStream#writeTo}.
+   *
+   * @param userId a user Id (the request is made on behalf of this user)
+   * @param projectId  project ID
+   * @param includeProjectHistory  whether or not to include the project history
+   * @param includeAndroidKeystore  whether or not to include the Android keystore
+   * @param zipName  the name of the zip file, if a specific one is desired
+   * @param fatalError set true to cause missing GCS file to throw exception
+   *
+   * @return  the zip, ready to be written
+   * @throws IllegalArgumentException if the project has no files
+   */
+  ProjectSourceZipStream openProjectSourceZip(String userId, long projectId,
+    boolean includeProjectHistory,
+    boolean includeAndroidKeystore,
+    @Nullable String zipName,
+    boolean includeYail,
+    boolean forGallery,
+    boolean fatalError) throws IOException;
+
   /**
    * Find a user's id given their email address. Note that this query is case
    * sensitive!
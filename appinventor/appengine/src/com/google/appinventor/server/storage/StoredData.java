@@ -197,6 +197,39 @@ public class StoredData {
     String userId;              // The userId which owns this file
                                 // if null or the empty string, we haven't initialized
                                 // it yet
+
+    // If not null, the id of an AssetData, which starts with the SHA-256
+    // hash of the content. The file is then an asset whose content is shared
+    // with other files through that AssetData, and gcsName is the GCS file
+    // name of the AssetData.
+    String contentHash;
+
+    // The sequence number of the save of a source file that was last written
+    // while saves were coalesced (see ObjectifyStorageIo.saveCoalesceMillis),
+    // or 0. Saves with lower numbers are older and are not written over it.
+    long saveSeq;
+  }
+
+  // Asset content shared by project files with the same content. The
+  // AssetData class is an entity root so that its reference count can be
+  // updated in a transaction of its own. To spread these updates, the same
+  // content can be in several AssetData objects, one for each shard.
+  @Unindexed
+  static final class AssetData {
+    // The SHA-256 hash of the content, in hex, followed by "-" and the shard
+    // number for shards other than 0
+    @Id String hash;
+
+    // The GCS filename of the content, sans bucket name. It is never reused
+    // for other AssetData objects, even ones with the same hash.
+    String gcsName;
+
+    // Content length in bytes
+    long size;
+
+    // The number of FileData objects that refer to this content. The
+    // AssetData and its GCS file are deleted when this drops to zero.
+    long refCount;
   }
 
   // MOTD data.
@@ -0,0 +1,142 @@
+// -*- mode: java; c-basic-offset: 2; -*-
+// Copyright 2016 MIT, All rights reserved
+// Released under the Apache License, Version 2.0
+// http://www.apache.org/licenses/LICENSE-2.0
+
+package com.google.appinventor.server.storage;
+
+import com.google.appinventor.server.flags.Flag;
+import com.google.appinventor.shared.rpc.user.User;
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheStats;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Logger;
+
+/**
+ * An in-process cache of the users and whitelist decisions that
+ * {@link com.google.appinventor.server.OdeAuthFilter} looks up for every
+ * request, so that most requests need neither memcache nor the datastore
+ * to be authenticated.
+ *
+ * <p>Entries expire after a few seconds. Changes made through the user
+ * setters of {@link ObjectifyStorageIo} are seen at once by this instance
+ * and by other instances once their entry has expired.
+ *
+ */
+public final class UserCache {
+
+  private static final Logger LOG = Logger.getLogger(UserCache.class.getName());
+
+  // The maximum number of users, and of whitelist decisions, to keep.
+  static final Flag<Integer> maxEntries = Flag.createFlag("user.cache.size", 1000);
+
+  // The number of seconds an entry is used before it is looked up again.
+  static final Flag<Integer> expirySeconds = Flag.createFlag("user.cache.seconds", 10);
+
+  // The hit rates are logged after this many lookups.
+  private static final long LOG_INTERVAL = 10000;
+
+  private static final Cache<String, User> users = newCache();
+  private static final Cache<String, Boolean> whitelist = newCache();
+  private static final AtomicLong lookups = new AtomicLong();
+
+  private UserCache() {
+  }
+
+  private static <V> Cache<String, V> newCache() {
+    return CacheBuilder.newBuilder()
+        .maximumSize(maxEntries.get())
+        .expireAfterWrite(expirySeconds.get(), TimeUnit.SECONDS)
+        .recordStats()
+        .build();
+  }
+
+  /**
+   * Returns the user with the given id, from the cache if possible. The
+   * returned object is a copy that the caller may modify.
+   *
+   * @param storageIo the storage to read the user from on a miss
+   * @param userId user id
+   * @return user data
+   */
+  public static User getUser(StorageIo storageIo, String userId) {
+    countLookup();
+    User user = users.getIfPresent(userId);
+    if (user != null) {
+      return copy(user);
+    }
+    user = storageIo.getUser(userId);
+    // Users who have not accepted the terms of service are not cached, so
+    // that accepting them through another instance takes effect at once.
+    if (user.getUserTosAccepted()) {
+      users.put(userId, copy(user));
+    }
+    return user;
+  }
+
+  /**
+   * Returns whether the given email address is on the whitelist, from the
+   * cache if possible.
+   *
+   * @param storageIo the storage to check the whitelist in on a miss
+   * @param email email address
+   * @return true if the address is on the whitelist
+   */
+  public static boolean checkWhiteList(StorageIo storageIo, String email) {
+    countLookup();
+    Boolean whitelisted = whitelist.getIfPresent(email);
+    if (whitelisted == null) {
+      whitelisted = storageIo.checkWhiteList(email);
+      whitelist.put(email, whitelisted);
+    }
+    return whitelisted;
+  }
+
+  /**
+   * Removes the user with the given id from the cache. Call this whenever
+   * the stored user changes.
+   *
+   * @param userId user id
+   */
+  public static void invalidateUser(String userId) {
+    users.invalidate(userId);
+  }
+
+  /**
+   * Returns the hit and miss counts of the user lookups.
+   */
+  public static CacheStats getUserStats() {
+    return users.stats();
+  }
+
+  /**
+   * Returns the hit and miss counts of the whitelist lookups.
+   */
+  public static CacheStats getWhitelistStats() {
+    return whitelist.stats();
+  }
+
+  @VisibleForTesting
+  static void invalidateAll() {
+    users.invalidateAll();
+    whitelist.invalidateAll();
+  }
+
+  private static void countLookup() {
+    if (lookups.incrementAndGet() % LOG_INTERVAL == 0) {
+      LOG.info("User cache hit rate: " + users.stats().hitRate()
+          + ", whitelist cache hit rate: " + whitelist.stats().hitRate());
+    }
+  }
+
+  // User.copy() leaves out the password, which the cached users must keep.
+  private static User copy(User user) {
+    User copy = user.copy();
+    copy.setPassword(user.getPassword());
+    return copy;
+  }
+}
@@ -0,0 +1,120 @@
+// -*- mode: java; c-basic-offset: 2; -*-
+// Copyright 2016 MIT, All rights reserved
+// Released under the Apache License, Version 2.0
+// http://www.apache.org/licenses/LICENSE-2.0
+
+package com.google.appinventor.shared.rpc.project;
+
+import java.io.Serializable;
+
+/**
+ * The change between two versions of a text file, sent by the client instead
+ * of the whole new content when it saves a file that it loaded or saved
+ * before.
+ *
+ * <p>The delta keeps the start and the end that both versions have in common
+ * and replaces the text in between. Both versions are identified by their
+ * checksums (see {@link ChecksumedLoadFile#computeChecksum}), so that the
+ * delta is only applied to the version it was made from, and a delta that
+ * was damaged on its way is detected.
+ *
+ */
+public class FileDelta implements Serializable {
+
+  // For serialization
+  private static final long serialVersionUID = 3204587161530874052L;
+
+  private String baseChecksum;
+  private String checksum;
+  private int prefixLength;
+  private int suffixLength;
+  private String text;
+
+  /**
+   * Default constructor (for serialization only).
+   */
+  @SuppressWarnings("unused")
+  private FileDelta() {
+  }
+
+  private FileDelta(String baseChecksum, String checksum, int prefixLength, int suffixLength,
+      String text) {
+    this.baseChecksum = baseChecksum;
+    this.checksum = checksum;
+    this.prefixLength = prefixLength;
+    this.suffixLength = suffixLength;
+    this.text = text;
+  }
+
+  /**
+   * Creates the delta that turns {@code base} into {@code content}.
+   *
+   * @param base the content the delta is applied to
+   * @param baseChecksum the checksum of {@code base}
+   * @param content the new content
+   * @param checksum the checksum of {@code content}
+   * @return the delta
+   */
+  public static FileDelta create(String base, String baseChecksum, String content,
+      String checksum) {
+    int maxLength = Math.min(base.length(), content.length());
+    int prefixLength = 0;
+    while (prefixLength < maxLength && base.charAt(prefixLength) == content.charAt(prefixLength)) {
+      prefixLength++;
+    }
+    int suffixLength = 0;
+    while (suffixLength < maxLength - prefixLength
+        && base.charAt(base.length() - suffixLength - 1)
+        == content.charAt(content.length() - suffixLength - 1)) {
+      suffixLength++;
+    }
+    return new FileDelta(baseChecksum, checksum, prefixLength, suffixLength,
+        content.substring(prefixLength, content.length() - suffixLength));
+  }
+
+  /**
+   * Applies the delta to {@code base}.
+   *
+   * @param base the content the delta was made from
+   * @return the new content
+   * @throws ChecksumedFileException if {@code base} is not the content the
+   *         delta was made from, or the new content does not match its
+   *         checksum
+   */
+  public String apply(String base) throws ChecksumedFileException {
+    if (!ChecksumedLoadFile.computeChecksum(base).equals(baseChecksum)) {
+      throw new ChecksumedFileException("Base checksum doesn't match " + baseChecksum);
+    }
+    if (prefixLength + suffixLength > base.length()) {
+      throw new ChecksumedFileException("Delta doesn't fit base of length " + base.length());
+    }
+    String content = base.substring(0, prefixLength) + text
+        + base.substring(base.length() - suffixLength);
+    if (!ChecksumedLoadFile.computeChecksum(content).equals(checksum)) {
+      throw new ChecksumedFileException("Checksum doesn't match " + checksum);
+    }
+    return content;
+  }
+
+  /**
+   * Returns the checksum of the content the delta was made from.
+   */
+  public String getBaseChecksum() {
+    return baseChecksum;
+  }
+
+  /**
+   * Returns the checksum of the new content.
+   */
+  public String getChecksum() {
+    return checksum;
+  }
+
+  /**
+   * Returns the text that replaces the part of the base content between the
+   * common start and end.
+   */
+  public String getText() {
+    return text;
+  }
+}
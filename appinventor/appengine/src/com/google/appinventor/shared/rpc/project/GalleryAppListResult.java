@@ -20,6 +20,7 @@ public class GalleryAppListResult implements IsSerializable{
   List<GalleryApp> apps;    //sliced results
   int totalCount;           //total number of all suitable results
   String keyword;           //search keyword, only for searching
+  String cursor;            //token for the next page, null if none
   /**
    * default constructor
    */
@@ -92,4 +93,20 @@ public class GalleryAppListResult implements IsSerializable{
   public String getKeyword(){
     return keyword;
   }
+
+  /**
+   * Sets the token that is passed back to the server to get the page after
+   * this one.
+   */
+  public void setCursor(String cursor){
+    this.cursor = cursor;
+  }
+
+  /**
+   * Returns the token for the page after this one, or null if this is the
+   * last page. The token is opaque to the client.
+   */
+  public String getCursor(){
+    return cursor;
+  }
 }
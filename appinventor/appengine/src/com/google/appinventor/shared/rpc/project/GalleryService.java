@@ -81,43 +81,53 @@ public interface GalleryService extends RemoteService {
    * updated galleryApps and total number of results in database
    * @param start starting index
    * @param count number of apps to return
+   * @param cursor the cursor of the previous page, or null to start at
+   *        the starting index
    * @return list of GalleryApps
    */
-  GalleryAppListResult getRecentApps(int start, int count);
+  GalleryAppListResult getRecentApps(int start, int count, String cursor);
 
   /**
    * Returns a wrapped class which contains a list of most downloaded
    * gallery apps and total number of results in database
    * @param start starting index
    * @param count number of apps to return
+   * @param cursor the cursor of the previous page, or null to start at
+   *        the starting index
    * @return list of GalleryApps
    */
-  GalleryAppListResult getMostDownloadedApps(int start, int count);
+  GalleryAppListResult getMostDownloadedApps(int start, int count, String cursor);
 
   /**
    * Returns a wrapped class which contains a list of most liked
    * gallery apps and total number of results in database
    * @param start starting index
    * @param count number of apps to return
+   * @param cursor the cursor of the previous page, or null to start at
+   *        the starting index
    * @return list of GalleryApps
    */
-  GalleryAppListResult getMostLikedApps(int start, int count);
+  GalleryAppListResult getMostLikedApps(int start, int count, String cursor);
 
   /**
    * Returns a wrapped class which contains a list of featured gallery app
    * @param start start index
    * @param count count number
+   * @param cursor the cursor of the previous page, or null to start at
+   *        the starting index
    * @return list of gallery app
    */
-  GalleryAppListResult getFeaturedApp(int start, int count);
+  GalleryAppListResult getFeaturedApp(int start, int count, String cursor);
 
   /**
    * Returns a wrapped class which contains a list of tutorial gallery app
    * @param start start index
    * @param count count number
+   * @param cursor the cursor of the previous page, or null to start at
+   *        the starting index
    * @return list of gallery app
    */
-  GalleryAppListResult getTutorialApp(int start, int count);
+  GalleryAppListResult getTutorialApp(int start, int count, String cursor);
 
   /**
    * check if app is featured already
@@ -153,9 +163,11 @@ public interface GalleryService extends RemoteService {
    * @param userId id of the developer
    * @param start starting index
    * @param count number of apps to return
+   * @param cursor the cursor of the previous page, or null to start at
+   *        the starting index
    * @return list of GalleryApps
    */
-  GalleryAppListResult getDeveloperApps(String userId, int start, int count);
+  GalleryAppListResult getDeveloperApps(String userId, int start, int count, String cursor);
 
   /**
    * Returns a wrapped class which contains a list of galleryApps and
@@ -65,19 +65,22 @@ public interface GalleryServiceAsync {
    */
   void getNumApps(AsyncCallback<Integer> callback);
   /**
-   * @see @link{@link GalleryService#getRecentApps(int, int)
+   * @see @link{@link GalleryService#getRecentApps(int, int, String)
    */
-  void getRecentApps(int start, int count, AsyncCallback<GalleryAppListResult> callback);
+  void getRecentApps(int start, int count, String cursor,
+      AsyncCallback<GalleryAppListResult> callback);
 
   /**
-   * @see @link{@link GalleryService#getFeaturedApp(int, int)
+   * @see @link{@link GalleryService#getFeaturedApp(int, int, String)
    */
-  void getFeaturedApp(int start, int count, AsyncCallback<GalleryAppListResult> callback);
+  void getFeaturedApp(int start, int count, String cursor,
+      AsyncCallback<GalleryAppListResult> callback);
 
   /**
-   * @see @link{@link GalleryService#getTutorialApp(int, int)
+   * @see @link{@link GalleryService#getTutorialApp(int, int, String)
    */
-  void getTutorialApp(int start, int count, AsyncCallback<GalleryAppListResult> callback);
+  void getTutorialApp(int start, int count, String cursor,
+      AsyncCallback<GalleryAppListResult> callback);
 
   /**
    * @see @link{@link GalleryService#isFeatured(long)
@@ -100,19 +103,22 @@ public interface GalleryServiceAsync {
   void markAppAsTutorial(long galleryId, AsyncCallback<Boolean> callback);
 
   /**
-   * @see @link{@link GalleryService#getMostDownloadedApps(int, int)
+   * @see @link{@link GalleryService#getMostDownloadedApps(int, int, String)
    */
-  void getMostDownloadedApps(int start, int count, AsyncCallback<GalleryAppListResult> callback);
+  void getMostDownloadedApps(int start, int count, String cursor,
+      AsyncCallback<GalleryAppListResult> callback);
 
   /**
-  * @see @link{@link GalleryService#getMostLikedApps(int, int)
+  * @see @link{@link GalleryService#getMostLikedApps(int, int, String)
   */
- void getMostLikedApps(int start, int count, AsyncCallback<GalleryAppListResult> callback);
+ void getMostLikedApps(int start, int count, String cursor,
+     AsyncCallback<GalleryAppListResult> callback);
 
   /**
-   * @see @link{@link GalleryService#getDeveloperApps(String, int, int)
+   * @see @link{@link GalleryService#getDeveloperApps(String, int, int, String)
    */
-  void getDeveloperApps(String userId, int start, int count, AsyncCallback<GalleryAppListResult> callback);
+  void getDeveloperApps(String userId, int start, int count, String cursor,
+      AsyncCallback<GalleryAppListResult> callback);
 
   /**
    * @see @link{@link GalleryService#findApps(String, int, int)
@@ -250,6 +250,36 @@ public interface ProjectService extends RemoteService {
   long save2(String sessionId, long projectId, String fileId, boolean force, String content) throws InvalidSessionException,
       BlocksTruncatedException;
 
+  /**
+   * Saves the content of the file associated with a node in the project tree
+   * by applying a delta to its stored content. Like save2, this can throw a
+   * BlocksTruncatedException if an attempt is made to save a trivial blocks
+   * file.
+   *
+   * @param sessionId current session id
+   * @param projectId  project ID
+   * @param fileId  project node whose source should be saved
+   * @param delta  the change from the content the client loaded or saved last
+   * @return modification date for project
+   * @throws ChecksumedFileException if the stored content is not the one the
+   *         delta was made from; the client should then save the whole content
+   *
+   * @see #save2(String, long, String, boolean, String)
+   */
+  long saveDelta(String sessionId, long projectId, String fileId, boolean force, FileDelta delta)
+      throws InvalidSessionException, BlocksTruncatedException, ChecksumedFileException;
+
+  /**
+   * Makes sure that all saves of the project's files have been written to
+   * storage, including the ones the server holds back for a short time to
+   * write several autosaves at once. The client calls this when the user
+   * saves the project.
+   *
+   * @param sessionId current session id
+   * @param projectId  project ID
+   */
+  void flushSaves(String sessionId, long projectId) throws InvalidSessionException;
+
   /**
    * Saves the contents of multiple files.
    *
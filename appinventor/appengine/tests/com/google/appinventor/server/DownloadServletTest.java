@@ -6,7 +6,7 @@
 
 package com.google.appinventor.server;
 
-import com.google.appinventor.shared.rpc.project.ProjectSourceZip;
+import com.google.appinventor.server.storage.ProjectSourceZipStream;
 import com.google.appinventor.shared.rpc.project.RawFile;
 import com.riq.MockHttpServletRequest;
 import com.riq.MockHttpServletResponse;
@@ -18,9 +18,11 @@ import org.powermock.core.classloader.annotations.PrepareForTest;
 import org.powermock.modules.junit4.PowerMockRunner;
 
 import java.io.IOException;
+import java.io.OutputStream;
 import java.util.List;
 
 import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertNull;
 import static junit.framework.Assert.fail;
 import static org.easymock.EasyMock.expect;
 
@@ -43,8 +45,8 @@ public class DownloadServletTest {
   private static final String DUMMY_ZIP_FILENAME_WITH_TITLE = "MyProjectTitle123.aia";
   private static final String DOWNLOAD_URL = "http://localhost/baseUrl/download/";
 
-  private ProjectSourceZip dummyZip;
-  private ProjectSourceZip dummyZipWithTitle;
+  private ProjectSourceZipStream dummyZip;
+  private ProjectSourceZipStream dummyZipWithTitle;
   private RawFile dummyApk;
   private RawFile dummyFile;
 
@@ -60,12 +62,55 @@ public class DownloadServletTest {
     exporterMock = PowerMock.createNiceMock(FileExporterImpl.class);
     PowerMock.expectNew(FileExporterImpl.class).andReturn(exporterMock).anyTimes();
 
-    dummyZip = new ProjectSourceZip(DUMMY_ZIP_FILENAME, new byte[] {}, 2);
-    dummyZipWithTitle = new ProjectSourceZip(DUMMY_ZIP_FILENAME_WITH_TITLE, new byte[] {}, 2);
+    dummyZip = new DummyZipStream(DUMMY_ZIP_FILENAME);
+    dummyZipWithTitle = new DummyZipStream(DUMMY_ZIP_FILENAME_WITH_TITLE);
     dummyApk = new RawFile(DUMMY_APK_FILENAME, new byte[] {});
     dummyFile = new RawFile(DUMMY_FILENAME, new byte[] {});
   }
 
+  private static class DummyZipStream implements ProjectSourceZipStream {
+    private final String fileName;
+
+    DummyZipStream(String fileName) {
+      this.fileName = fileName;
+    }
+
+    @Override
+    public String getFileName() {
+      return fileName;
+    }
+
+    @Override
+    public String getMetadata() {
+      return null;
+    }
+
+    @Override
+    public void prefetch() {
+    }
+
+    @Override
+    public int writeTo(OutputStream out) throws IOException {
+      return 2;
+    }
+
+    @Override
+    public void close() {
+    }
+  }
+
+  private static class FailingZipStream extends DummyZipStream {
+    FailingZipStream(String fileName) {
+      super(fileName);
+    }
+
+    @Override
+    public int writeTo(OutputStream out) throws IOException {
+      out.write(new byte[] { 'P', 'K' });
+      throw new IOException("GCS read failed");
+    }
+  }
+
   private void checkResponseHeader(MockHttpServletResponse response, String header) {
     List cd = (List) response.getHeader("content-disposition");
     assertEquals(header, cd.get(0));
@@ -76,7 +121,7 @@ public class DownloadServletTest {
   public void testDownloadProjectSourceZipWithoutTitle() throws Exception {
     MockHttpServletRequest request = new MockHttpServletRequest(DOWNLOAD_URL +
         "project-source/1234");
-    expect(exporterMock.exportProjectSourceZip(USER_ID, PROJECT_ID, true, false, null, false, false, false))
+    expect(exporterMock.openProjectSourceZip(USER_ID, PROJECT_ID, true, false, null, false, false, false))
         .andReturn(dummyZip);
     PowerMock.replayAll();
     DownloadServlet download = new DownloadServlet();
@@ -91,7 +136,7 @@ public class DownloadServletTest {
   public void testDownloadProjectSourceZipWithTitle() throws IOException {
     MockHttpServletRequest request = new MockHttpServletRequest(DOWNLOAD_URL +
         "project-source/1234/My Project Title 123");
-    expect(exporterMock.exportProjectSourceZip(USER_ID, PROJECT_ID, true, false,
+    expect(exporterMock.openProjectSourceZip(USER_ID, PROJECT_ID, true, false,
         "MyProjectTitle123.aia", false, false, false))
         .andReturn(dummyZipWithTitle);
     PowerMock.replayAll();
@@ -103,12 +148,35 @@ public class DownloadServletTest {
     PowerMock.verifyAll();
   }
 
+  @Test
+  public void testDownloadProjectSourceZipThatFails() throws Exception {
+    MockHttpServletRequest request = new MockHttpServletRequest(DOWNLOAD_URL +
+        "project-source/1234");
+    expect(exporterMock.openProjectSourceZip(USER_ID, PROJECT_ID, true, false, null, false, false, false))
+        .andReturn(new FailingZipStream(DUMMY_ZIP_FILENAME));
+    PowerMock.replayAll();
+    DownloadServlet download = new DownloadServlet();
+    MockHttpServletResponse response = new MockHttpServletResponse();
+    try {
+      download.doGet(request, response);
+      fail();
+    } catch (IOException e) {
+      assertEquals("GCS read failed", e.getMessage());
+    }
+    // Nothing was sent, so the response is reset and the client gets an
+    // error instead of a truncated zip.
+    assertNull(response.getHeader("content-disposition"));
+    assertNull(response.getContentType());
+    assertEquals(0, response.getContentAsByteArray().length);
+    PowerMock.verifyAll();
+  }
+
   @Test
   public void testDownloadProjectSourceZipWithNonExistingProject() throws IOException {
     IllegalArgumentException expectedException = new IllegalArgumentException();
     MockHttpServletRequest request = new MockHttpServletRequest(DOWNLOAD_URL +
         "project-source/12345");
-    expect(exporterMock.exportProjectSourceZip(USER_ID, 12345L, true, false, null, false, false, false))
+    expect(exporterMock.openProjectSourceZip(USER_ID, 12345L, true, false, null, false, false, false))
         .andThrow(expectedException);
     PowerMock.replayAll();
     DownloadServlet download = new DownloadServlet();
@@ -6,6 +6,9 @@
 
 package com.google.appinventor.server;
 
+import static org.easymock.EasyMock.expect;
+
+import com.google.appinventor.server.storage.ProjectSourceZipStream;
 import com.google.appinventor.server.storage.StorageIo;
 import com.google.appinventor.server.storage.StorageIoInstanceHolder;
 import com.google.appinventor.server.storage.UnauthorizedAccessException;
@@ -13,6 +16,7 @@ import com.google.appinventor.shared.rpc.project.Project;
 import com.google.appinventor.shared.rpc.project.ProjectSourceZip;
 import com.google.appinventor.shared.rpc.project.RawFile;
 import com.google.appinventor.shared.rpc.project.TextFile;
+import com.google.appinventor.shared.rpc.project.UserProject;
 import com.google.appinventor.shared.storage.StorageUtil;
 import com.google.common.io.ByteStreams;
 
@@ -20,12 +24,17 @@ import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.FileNotFoundException;
 import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.List;
 import java.util.HashMap;
 import java.util.Map;
 import java.util.zip.ZipEntry;
 import java.util.zip.ZipInputStream;
 
+import org.easymock.EasyMock;
+
 /**
  * Tests for {@link FileExporterImpl}.
  *
@@ -167,5 +176,124 @@ public class FileExporterImplTest extends LocalDatastoreTestCase {
     }
   }
 
-  // TODO(user): Add test of exportAllProjectsSourceZip().
+  public void testOpenAllProjectsSourceZip() throws IOException {
+    // A second project with the same name, whose zip has to be renamed.
+    Project project = new Project(PROJECT_NAME);
+    project.setProjectType(FAKE_PROJECT_TYPE);
+    project.addTextFile(new TextFile(FORM1_QUALIFIED_NAME, FORM1_CONTENT));
+    storageIo.createProject(USER_ID, project, SETTINGS);
+
+    ProjectSourceZipStream zip = exporter.openAllProjectsSourceZip(USER_ID, "all-projects.zip");
+    assertEquals("all-projects.zip", zip.getFileName());
+    assertEquals(PROJECT_NAME + "\n" + PROJECT_NAME + "\n", zip.getMetadata());
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    assertEquals(2, zip.writeTo(out));
+
+    ZipInputStream zis = new ZipInputStream(new ByteArrayInputStream(out.toByteArray()));
+    Map<String, byte[]> projects = new HashMap<String, byte[]>();
+    ZipEntry zipEntry;
+    while ((zipEntry = zis.getNextEntry()) != null) {
+      projects.put(zipEntry.getName(), ByteStreams.toByteArray(zis));
+    }
+    assertEquals(2, projects.size());
+    assertTrue(projects.containsKey(PROJECT_NAME + ".aia"));
+    assertTrue(projects.containsKey("duplicate-" + PROJECT_NAME + ".aia"));
+    for (byte[] projectZip : projects.values()) {
+      ZipInputStream projectZis = new ZipInputStream(new ByteArrayInputStream(projectZip));
+      Map<String, byte[]> files = new HashMap<String, byte[]>();
+      while ((zipEntry = projectZis.getNextEntry()) != null) {
+        files.put(zipEntry.getName(), ByteStreams.toByteArray(projectZis));
+      }
+      assertEquals(FORM1_CONTENT, new String(files.get(FORM1_QUALIFIED_NAME),
+          StorageUtil.DEFAULT_CHARSET));
+    }
+  }
+
+  public void testAllProjectsSourceZipClosesNextProject() throws IOException {
+    RecordingZipStream first = new RecordingZipStream("first.aia");
+    RecordingZipStream second = new RecordingZipStream("second.aia");
+    ProjectSourceZipStream zip = openAllProjectsSourceZip(first, second);
+    assertTrue(first.prefetched);
+    zip.close();
+    assertTrue(first.closed);
+
+    // A project that cannot be written leaves the reads of the next one open
+    // unless the zip closes them.
+    first = new RecordingZipStream("first.aia");
+    second = new RecordingZipStream("second.aia");
+    first.failure = new IOException("GCS read failed");
+    zip = openAllProjectsSourceZip(first, second);
+    try {
+      zip.writeTo(new ByteArrayOutputStream());
+      fail();
+    } catch (IOException e) {
+      assertSame(first.failure, e);
+    }
+    assertTrue(second.prefetched);
+    assertTrue(second.closed);
+  }
+
+  public void testOpenAllProjectsSourceZipWithoutProjects() throws IOException {
+    try {
+      exporter.openAllProjectsSourceZip(USER_ID + "2", "all-projects.zip");
+      fail();
+    } catch (IllegalArgumentException e) {
+      // expected
+    }
+  }
+
+  // Opens a zip of two projects whose zips are the given ones.
+  private static ProjectSourceZipStream openAllProjectsSourceZip(ProjectSourceZipStream first,
+      ProjectSourceZipStream second) throws IOException {
+    List<Long> projectIds = Arrays.asList(1L, 2L);
+    StorageIo storageMock = EasyMock.createNiceMock(StorageIo.class);
+    expect(storageMock.getProjects(USER_ID)).andReturn(projectIds);
+    expect(storageMock.getUserProjects(USER_ID, projectIds))
+        .andReturn(new ArrayList<UserProject>());
+    expect(storageMock.openProjectSourceZip(USER_ID, 1L, false, false, null, false, false, false))
+        .andReturn(first);
+    expect(storageMock.openProjectSourceZip(USER_ID, 2L, false, false, null, false, false, false))
+        .andReturn(second);
+    EasyMock.replay(storageMock);
+    return new FileExporterImpl(storageMock).openAllProjectsSourceZip(USER_ID, "all-projects.zip");
+  }
+
+  private static class RecordingZipStream implements ProjectSourceZipStream {
+    private final String fileName;
+    IOException failure;
+    boolean prefetched;
+    boolean closed;
+
+    RecordingZipStream(String fileName) {
+      this.fileName = fileName;
+    }
+
+    @Override
+    public String getFileName() {
+      return fileName;
+    }
+
+    @Override
+    public String getMetadata() {
+      return null;
+    }
+
+    @Override
+    public void prefetch() {
+      prefetched = true;
+    }
+
+    @Override
+    public int writeTo(OutputStream out) throws IOException {
+      if (failure != null) {
+        throw failure;
+      }
+      return 0;
+    }
+
+    @Override
+    public void close() {
+      closed = true;
+    }
+  }
 }
@@ -0,0 +1,85 @@
+// -*- mode: java; c-basic-offset: 2; -*-
+// Copyright 2016 MIT, All rights reserved
+// Released under the Apache License, Version 2.0
+// http://www.apache.org/licenses/LICENSE-2.0
+
+package com.google.appinventor.server;
+
+import com.google.appinventor.server.storage.GalleryStorageIo;
+import com.google.appinventor.server.storage.GalleryStorageIoInstanceHolder;
+import com.google.appinventor.shared.rpc.project.GalleryApp;
+import com.google.appinventor.shared.rpc.project.GalleryAppListResult;
+
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * Tests for {@link GalleryServiceImpl}.
+ *
+ */
+public class GalleryServiceImplTest extends LocalDatastoreTestCase {
+
+  private static final String USER_ID = "2400";
+
+  private GalleryStorageIo galleryStorage;
+  private GalleryServiceImpl galleryService;
+
+  @Override
+  protected void setUp() throws Exception {
+    super.setUp();
+    galleryStorage = GalleryStorageIoInstanceHolder.INSTANCE;
+    galleryService = new GalleryServiceImpl();
+  }
+
+  public void testRecentAppsPageThroughCursors() throws Exception {
+    Set<Long> published = new HashSet<Long>();
+    for (int i = 0; i < 5; i++) {
+      published.add(createApp("App" + i));
+    }
+    Set<Long> listed = new HashSet<Long>();
+    int pages = 0;
+    String cursor = null;
+    do {
+      // The starting index is left at 0, so only the cursor moves the pages on.
+      GalleryAppListResult page = galleryService.getRecentApps(0, 2, cursor);
+      for (GalleryApp app : page.getApps()) {
+        assertTrue(listed.add(app.getGalleryAppId()));
+      }
+      assertEquals(5, page.getTotalCount());
+      cursor = page.getCursor();
+      pages++;
+    } while (cursor != null);
+    assertEquals(3, pages);
+    assertEquals(published, listed);
+  }
+
+  public void testFeaturedAppsPageThroughCursors() throws Exception {
+    Set<Long> featured = new HashSet<Long>();
+    for (int i = 0; i < 3; i++) {
+      long galleryId = createApp("App" + i);
+      galleryStorage.markAppAsFeatured(galleryId);
+      featured.add(galleryId);
+    }
+    createApp("Not featured");
+    GalleryAppListResult page = galleryService.getFeaturedApp(0, 2, null);
+    assertEquals(2, page.getApps().size());
+    Set<Long> listed = new HashSet<Long>();
+    for (GalleryApp app : page.getApps()) {
+      listed.add(app.getGalleryAppId());
+    }
+    page = galleryService.getFeaturedApp(0, 2, page.getCursor());
+    assertEquals(1, page.getApps().size());
+    listed.add(page.getApps().get(0).getGalleryAppId());
+    assertNull(page.getCursor());
+    assertEquals(featured, listed);
+    // A bad cursor is ignored, and the page starts at the starting index.
+    assertEquals(1, galleryService.getFeaturedApp(2, 2, "not a cursor").getApps().size());
+  }
+
+  // Publishes an app, making sure that it is more recent than the ones before.
+  private long createApp(String title) throws InterruptedException {
+    Thread.sleep(2);
+    return galleryStorage.createGalleryApp(title, title, "description", "", "", 0, USER_ID)
+        .getGalleryAppId();
+  }
+}
@@ -10,8 +10,11 @@ import com.google.appinventor.common.testutils.TestUtils;
 
 import com.google.appengine.tools.development.testing.LocalDatastoreServiceTestConfig;
 import com.google.appengine.tools.development.testing.LocalServiceTestHelper;
+import com.google.apphosting.api.ApiProxy;
 import com.google.apphosting.utils.config.GenerationDirectory;
 
+import com.googlecode.objectify.cache.TriggerFutureHook;
+
 import junit.framework.TestCase;
 
 /**
@@ -30,6 +33,13 @@ public abstract class LocalDatastoreTestCase extends TestCase {
     super.setUp();
     System.setProperty(GenerationDirectory.GENERATED_DIR_PROPERTY, APPENGINE_GENERATED_DIR);
     helper.setUp();
+    // Objectify wraps the API proxy delegate the first time it is used. The
+    // GCS client doesn't recognize the wrapped local delegate and picks its
+    // production service instead, so the first test of a run behaved
+    // differently. Let Objectify wrap the delegate now and put it back.
+    ApiProxy.Delegate delegate = ApiProxy.getDelegate();
+    TriggerFutureHook.install();
+    ApiProxy.setDelegate(delegate);
   }
 
   @Override
@@ -12,10 +12,18 @@ import static org.easymock.EasyMock.expectLastCall;
 
 import com.google.appinventor.common.testutils.TestUtils;
 import com.google.appinventor.components.common.YaVersion;
+import com.google.appengine.api.datastore.Blob;
+import com.google.appengine.api.datastore.DatastoreServiceFactory;
+import com.google.appengine.api.datastore.KeyFactory;
 import com.google.appinventor.server.encryption.KeyczarEncryptor;
+import com.google.appinventor.server.flags.Flag;
+import com.google.appinventor.server.project.youngandroid.YoungAndroidProjectService;
 import com.google.appinventor.server.storage.StorageIo;
 import com.google.appinventor.server.storage.StorageIoInstanceHolder;
 import com.google.appinventor.shared.rpc.BlocksTruncatedException;
+import com.google.appinventor.shared.rpc.project.ChecksumedFileException;
+import com.google.appinventor.shared.rpc.project.ChecksumedLoadFile;
+import com.google.appinventor.shared.rpc.project.FileDelta;
 import com.google.appinventor.shared.rpc.project.FileDescriptor;
 import com.google.appinventor.shared.rpc.project.FileDescriptorWithContent;
 import com.google.appinventor.shared.rpc.project.ProjectNode;
@@ -44,6 +52,10 @@ import org.powermock.core.classloader.annotations.PowerMockIgnore;
 import org.powermock.core.classloader.annotations.PrepareForTest;
 import org.powermock.modules.junit4.PowerMockRunner;
 
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
@@ -146,7 +158,7 @@ public class ProjectServiceTest {
     expect(localUserMock.getUserId()).andReturn(USER_ID_TWO).times(2);
     expect(localUserMock.getUserId()).andReturn(USER_ID_ONE).times(4);
     expect(localUserMock.getUserId()).andReturn(USER_ID_TWO).times(2);
-    expect(localUserMock.getUserId()).andReturn(USER_ID_ONE).times(11);
+    expect(localUserMock.getUserId()).andReturn(USER_ID_ONE).times(16);
     PowerMock.replayAll();
     do_init();
 
@@ -238,6 +250,28 @@ public class ProjectServiceTest {
     assertNotNull(fileWithContent);
     assertEquals(u1p2s1, fileWithContent.getContent());
 
+    // Save a file by sending a delta from its loaded content
+    ChecksumedLoadFile loadedFile = projectServiceImpl.load2(user1Project1,
+        user1Project1Source1FileId);
+    String u1p1s1Changed = u1p1s1.replace(YOUNG_ANDROID_COMMENT1, YOUNG_ANDROID_COMMENT2);
+    FileDelta delta = FileDelta.create(loadedFile.getContent(), loadedFile.getChecksum(),
+        u1p1s1Changed, ChecksumedLoadFile.computeChecksum(u1p1s1Changed));
+    assertTrue(delta.getText().length() < YOUNG_ANDROID_COMMENT2.length());
+    modificationDate = projectServiceImpl.saveDelta("test-session", user1Project1,
+        user1Project1Source1FileId, false, delta);
+    assertEquals(u1p1s1Changed, projectServiceImpl.load(user1Project1, user1Project1Source1FileId));
+    checkModificationDateMatchesStored(modificationDate, USER_ID_ONE, user1Project1);
+
+    // The same delta no longer applies to the stored content
+    try {
+      projectServiceImpl.saveDelta("test-session", user1Project1, user1Project1Source1FileId,
+          false, delta);
+      fail();
+    } catch (ChecksumedFileException e) {
+      // Expected
+    }
+    assertEquals(u1p1s1Changed, projectServiceImpl.load(user1Project1, user1Project1Source1FileId));
+
     oldModificationDate = storageIo.getProjectDateModified(USER_ID_ONE, user1Project1);
     modificationDate = projectServiceImpl.deleteFile("test-session", user1Project1, user1Project1Source1FileId);
     assertTrue(oldModificationDate <= modificationDate);
@@ -252,6 +286,57 @@ public class ProjectServiceTest {
     PowerMock.verifyAll();
   }
 
+  @Test
+  public void testSaveDeltaWhileSavesAreCoalesced() throws Exception {
+    expect(localUserMock.getUserId()).andReturn(USER_ID_ONE).anyTimes();
+    PowerMock.replayAll();
+    do_init();
+    Flag<Integer> saveCoalesceMillis = Flag.createFlag("save.coalesce.millis", 0);
+    saveCoalesceMillis.setForTest(60000);
+    try {
+      NewYoungAndroidProjectParameters params = new NewYoungAndroidProjectParameters(
+          PACKAGE_BASE + PROJECT1_NAME);
+      long projectId = projectServiceImpl.newProject(
+          YoungAndroidProjectNode.YOUNG_ANDROID_PROJECT_TYPE, PROJECT1_NAME, params).getProjectId();
+      String fileId = findFileIdByName(projectServiceImpl.getProject(projectId),
+          YOUNG_ANDROID_FORM_NAME + YoungAndroidSourceAnalyzer.FORM_PROPERTIES_EXTENSION);
+      ChecksumedLoadFile loadedFile = projectServiceImpl.load2(projectId, fileId);
+      String content = loadedFile.getContent();
+      String checksum = loadedFile.getChecksum();
+
+      // The first save is written at once. The following ones are held back,
+      // and each delta is applied to the save held back before it.
+      String writtenContent = null;
+      for (String comment : new String[] { YOUNG_ANDROID_COMMENT, YOUNG_ANDROID_COMMENT1,
+               YOUNG_ANDROID_COMMENT2 }) {
+        String newContent = comment + content;
+        String newChecksum = ChecksumedLoadFile.computeChecksum(newContent);
+        projectServiceImpl.saveDelta("test-session", projectId, fileId, false,
+            FileDelta.create(content, checksum, newContent, newChecksum));
+        content = newContent;
+        checksum = newChecksum;
+        if (writtenContent == null) {
+          writtenContent = content;
+        }
+      }
+      assertEquals(writtenContent, getStoredContent(projectId, fileId));
+
+      // Loading the file writes the last save
+      assertEquals(content, projectServiceImpl.load(projectId, fileId));
+      assertEquals(content, getStoredContent(projectId, fileId));
+    } finally {
+      saveCoalesceMillis.setForTest(0);
+    }
+  }
+
+  // Returns the content of a project file as it is written in the datastore
+  private static String getStoredContent(long projectId, String fileId) throws Exception {
+    Blob content = (Blob) DatastoreServiceFactory.getDatastoreService().get(
+        KeyFactory.createKey(KeyFactory.createKey("ProjectData", projectId), "FileData", fileId))
+        .getProperty("content");
+    return new String(content.getBytes(), StorageUtil.DEFAULT_CHARSET);
+  }
+
   @Test
   public void testNewYoungAndroidProject() throws Exception {
     // Since only USER_ID_ONE is used, we don't care how many times
@@ -387,6 +472,39 @@ public class ProjectServiceTest {
     return projectId;
   }
 
+  @Test
+  public void testFailedCopyIsDeleted() throws Exception {
+    expect(localUserMock.getUserId()).andReturn(USER_ID_ONE).anyTimes();
+    PowerMock.replayAll();
+    do_init();
+    long projectId = getBuildableYoungAndroidProjectId(USER_ID_ONE, PROJECT1_NAME);
+
+    // Storage that fails to copy the files of the copy
+    StorageIo failingStorageIo = (StorageIo) Proxy.newProxyInstance(
+        StorageIo.class.getClassLoader(), new Class<?>[] { StorageIo.class },
+        new InvocationHandler() {
+          @Override
+          public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+            if (method.getName().equals("copyFiles")) {
+              throw new IllegalStateException("Copy failed");
+            }
+            try {
+              return method.invoke(storageIo, args);
+            } catch (InvocationTargetException e) {
+              throw e.getCause();
+            }
+          }
+        });
+    try {
+      new YoungAndroidProjectService(failingStorageIo).copyProject(USER_ID_ONE, projectId,
+          PROJECT2_NAME);
+      fail();
+    } catch (IllegalStateException e) {
+      // Expected
+    }
+    assertEquals(Lists.newArrayList(projectId), storageIo.getProjects(USER_ID_ONE));
+  }
+
   @Test
   public void testCreateManyYoungAndroidProjects() throws Exception {
     // Since only USER_ID_ONE is used in this test, we don't care how
@@ -0,0 +1,164 @@
+// -*- mode: java; c-basic-offset: 2; -*-
+// Copyright 2016 MIT, All rights reserved
+// Released under the Apache License, Version 2.0
+// http://www.apache.org/licenses/LICENSE-2.0
+
+package com.google.appinventor.server.storage;
+
+import com.google.appengine.tools.cloudstorage.GcsFileMetadata;
+import com.google.appengine.tools.cloudstorage.GcsFileOptions;
+import com.google.appengine.tools.cloudstorage.GcsFilename;
+import com.google.appengine.tools.cloudstorage.GcsInputChannel;
+import com.google.appengine.tools.cloudstorage.GcsOutputChannel;
+import com.google.appengine.tools.cloudstorage.GcsService;
+import com.google.appengine.tools.cloudstorage.ListOptions;
+import com.google.appengine.tools.cloudstorage.ListResult;
+
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * A GCS service for tests that passes requests on to another one, keeps
+ * track of the read channels that are open and can make objects behave as
+ * if they were missing.
+ *
+ */
+class CountingGcsService implements GcsService {
+  private final GcsService delegate;
+  // Names of objects that behave as if they were missing.
+  final Set<String> missingObjects = new HashSet<String>();
+  private int openChannels;
+  private int maxOpenChannels;
+
+  CountingGcsService(GcsService delegate) {
+    this.delegate = delegate;
+  }
+
+  /**
+   * Returns the number of read channels that are open now.
+   */
+  synchronized int getOpenChannels() {
+    return openChannels;
+  }
+
+  /**
+   * Returns the largest number of read channels that were open at the same
+   * time since the last call to {@link #resetMaxOpenChannels}.
+   */
+  synchronized int getMaxOpenChannels() {
+    return maxOpenChannels;
+  }
+
+  synchronized void resetMaxOpenChannels() {
+    maxOpenChannels = openChannels;
+  }
+
+  @Override
+  public GcsOutputChannel createOrReplace(GcsFilename filename, GcsFileOptions options)
+      throws IOException {
+    return delegate.createOrReplace(filename, options);
+  }
+
+  @Override
+  public void createOrReplace(GcsFilename filename, GcsFileOptions options, ByteBuffer src)
+      throws IOException {
+    delegate.createOrReplace(filename, options, src);
+  }
+
+  @Override
+  public GcsInputChannel openReadChannel(GcsFilename filename, long startPosition)
+      throws IOException {
+    return new CountingInputChannel(filename, startPosition);
+  }
+
+  @Override
+  public GcsInputChannel openPrefetchingReadChannel(GcsFilename filename, long startPosition,
+      int blockSize) {
+    return new CountingInputChannel(filename, startPosition);
+  }
+
+  @Override
+  public GcsFileMetadata getMetadata(GcsFilename filename) throws IOException {
+    if (missingObjects.contains(filename.getObjectName())) {
+      return null;
+    }
+    return delegate.getMetadata(filename);
+  }
+
+  @Override
+  public boolean delete(GcsFilename filename) throws IOException {
+    return delegate.delete(filename);
+  }
+
+  @Override
+  public void compose(Iterable<String> source, GcsFilename dest) throws IOException {
+    delegate.compose(source, dest);
+  }
+
+  @Override
+  public void copy(GcsFilename source, GcsFilename dest) throws IOException {
+    delegate.copy(source, dest);
+  }
+
+  @Override
+  public void update(GcsFilename source, GcsFileOptions options) throws IOException {
+    delegate.update(source, options);
+  }
+
+  @Override
+  public ListResult list(String bucket, ListOptions options) throws IOException {
+    return delegate.list(bucket, options);
+  }
+
+  private synchronized void channelOpened() {
+    openChannels++;
+    maxOpenChannels = Math.max(maxOpenChannels, openChannels);
+  }
+
+  private synchronized void channelClosed() {
+    openChannels--;
+  }
+
+  private class CountingInputChannel implements GcsInputChannel {
+    private final GcsFilename filename;
+    private final long startPosition;
+    private GcsInputChannel channel;
+    private boolean closed;
+
+    CountingInputChannel(GcsFilename filename, long startPosition) {
+      this.filename = filename;
+      this.startPosition = startPosition;
+      channelOpened();
+    }
+
+    @Override
+    public int read(ByteBuffer dst) throws IOException {
+      if (channel == null) {
+        if (missingObjects.contains(filename.getObjectName())) {
+          throw new FileNotFoundException(filename.toString());
+        }
+        channel = delegate.openReadChannel(filename, startPosition);
+      }
+      return channel.read(dst);
+    }
+
+    @Override
+    public boolean isOpen() {
+      return !closed;
+    }
+
+    @Override
+    public void close() {
+      if (!closed) {
+        closed = true;
+        channelClosed();
+        if (channel != null) {
+          channel.close();
+        }
+      }
+    }
+  }
+}
@@ -0,0 +1,113 @@
+// -*- mode: java; c-basic-offset: 2; -*-
+// Copyright 2016 MIT, All rights reserved
+// Released under the Apache License, Version 2.0
+// http://www.apache.org/licenses/LICENSE-2.0
+
+package com.google.appinventor.server.storage;
+
+import com.google.appinventor.server.LocalDatastoreTestCase;
+import com.google.appinventor.shared.rpc.project.FileDescriptor;
+import com.google.appinventor.shared.rpc.project.Project;
+import com.google.appinventor.shared.rpc.project.TextFile;
+import com.google.appinventor.shared.rpc.project.youngandroid.YoungAndroidProjectNode;
+import com.google.appinventor.shared.storage.StorageUtil;
+import com.google.common.base.Strings;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Tests {@link ObjectifyStorageIo#downloadFiles} with the files of a 20
+ * screen project. Large blocks files are stored in GCS.
+ *
+ */
+public class DownloadFilesTest extends LocalDatastoreTestCase {
+
+  private static final String USER_ID = "1800";
+  private static final String USER_EMAIL = "newuser1800@test.com";
+  private static final String SETTINGS = "{settings: \"none\"}";
+  private static final int SCREEN_COUNT = 20;
+
+  private ObjectifyStorageIo storage;
+  private long projectId;
+  private List<FileDescriptor> files;
+  private List<String> expectedContents;
+
+  @Override
+  protected void setUp() throws Exception {
+    super.setUp();
+    storage = new ObjectifyStorageIo();
+    storage.getUser(USER_ID, USER_EMAIL);
+
+    Project project = new Project("Benchmark");
+    project.setProjectType(YoungAndroidProjectNode.YOUNG_ANDROID_PROJECT_TYPE);
+    List<String> fileNames = new ArrayList<String>();
+    expectedContents = new ArrayList<String>();
+    for (int i = 1; i <= SCREEN_COUNT; i++) {
+      String form = "src/com/yourdomain/Screen" + i + ".scm";
+      String formContent = "#|\n$JSON\n{\"Screen\":" + i + "}\n|#";
+      // Every other blocks file is large enough to be stored in GCS.
+      String blocks = "src/com/yourdomain/Screen" + i + ".bky";
+      String blocksContent = Strings.repeat("<xml>" + i + "</xml>", i % 2 == 0 ? 10000 : 10);
+      project.addTextFile(new TextFile(form, formContent));
+      project.addTextFile(new TextFile(blocks, blocksContent));
+      fileNames.add(form);
+      expectedContents.add(formContent);
+      fileNames.add(blocks);
+      expectedContents.add(blocksContent);
+    }
+    projectId = storage.createProject(USER_ID, project, SETTINGS);
+    files = new ArrayList<FileDescriptor>();
+    for (String fileName : fileNames) {
+      files.add(new FileDescriptor(projectId, fileName));
+    }
+    assertTrue(storage.isGcsFile(projectId, "src/com/yourdomain/Screen2.bky"));
+    assertFalse(storage.isGcsFile(projectId, "src/com/yourdomain/Screen1.bky"));
+  }
+
+  public void testDownloadFiles() throws Exception {
+    assertEquals(expectedContents,
+        storage.downloadFiles(USER_ID, files, StorageUtil.DEFAULT_CHARSET));
+  }
+
+  public void testDownloadFilesOfOtherUser() throws Exception {
+    try {
+      storage.downloadFiles("1900", files, StorageUtil.DEFAULT_CHARSET);
+      fail();
+    } catch (Exception e) {
+      assertTrue(e instanceof UnauthorizedAccessException
+                 || e.getCause() instanceof UnauthorizedAccessException);
+    }
+  }
+
+  public void testDownloadFilesBatchesStorageCalls() throws Exception {
+    StorageCallCounter counter = new StorageCallCounter();
+    List<String> batchContents;
+    List<String> oneAtATimeContents;
+    int batchCalls;
+    int oneAtATimeCalls;
+    try {
+      batchContents = storage.downloadFiles(USER_ID, files, StorageUtil.DEFAULT_CHARSET);
+      batchCalls = counter.reset();
+      oneAtATimeContents = downloadOneAtATime();
+      oneAtATimeCalls = counter.reset();
+    } finally {
+      counter.uninstall();
+    }
+
+    assertEquals(expectedContents, batchContents);
+    assertEquals(expectedContents, oneAtATimeContents);
+    // The number of datastore and memcache calls doesn't depend on the number of files.
+    assertTrue("downloadFiles made " + batchCalls + " calls", batchCalls < SCREEN_COUNT);
+    assertTrue(oneAtATimeCalls >= files.size());
+  }
+
+  private List<String> downloadOneAtATime() {
+    List<String> contents = new ArrayList<String>();
+    for (FileDescriptor file : files) {
+      contents.add(storage.downloadFile(USER_ID, file.getProjectId(), file.getFileId(),
+          StorageUtil.DEFAULT_CHARSET));
+    }
+    return contents;
+  }
+}
@@ -0,0 +1,266 @@
+// -*- mode: java; c-basic-offset: 2; -*-
+// Copyright 2016 MIT, All rights reserved
+// Released under the Apache License, Version 2.0
+// http://www.apache.org/licenses/LICENSE-2.0
+
+package com.google.appinventor.server.storage;
+
+import com.google.appengine.api.memcache.MemcacheServiceFactory;
+import com.google.appinventor.server.LocalDatastoreTestCase;
+import com.google.appinventor.shared.rpc.project.GalleryApp;
+import com.google.appinventor.shared.rpc.project.GalleryAppListResult;
+import com.googlecode.objectify.Objectify;
+import com.googlecode.objectify.ObjectifyService;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Tests for {@link ObjectifyGalleryStorageIo}.
+ *
+ */
+public class ObjectifyGalleryStorageIoTest extends LocalDatastoreTestCase {
+
+  private static final String USER_ID = "2300";
+
+  private ObjectifyGalleryStorageIo galleryStorage;
+
+  @Override
+  protected void setUp() throws Exception {
+    super.setUp();
+    galleryStorage = new ObjectifyGalleryStorageIo();
+  }
+
+  public void testPagesFollowCursors() throws Exception {
+    long first = createApp("First");
+    long second = createApp("Second");
+    long third = createApp("Third");
+    long fourth = createApp("Fourth");
+    long fifth = createApp("Fifth");
+    GalleryAppListResult page = galleryStorage.getRecentGalleryApps(0, 2, null);
+    assertEquals(listOf(fifth, fourth), ids(page));
+    assertNotNull(page.getCursor());
+    // The cursor, rather than the starting index, says where the next page starts.
+    page = galleryStorage.getRecentGalleryApps(0, 2, page.getCursor());
+    assertEquals(listOf(third, second), ids(page));
+    assertNotNull(page.getCursor());
+    page = galleryStorage.getRecentGalleryApps(0, 2, page.getCursor());
+    assertEquals(listOf(first), ids(page));
+    assertNull(page.getCursor());
+    assertEquals(5, page.getTotalCount());
+  }
+
+  public void testFullLastPageIsFollowedByEmptyPage() throws Exception {
+    long first = createApp("First");
+    long second = createApp("Second");
+    GalleryAppListResult page = galleryStorage.getDeveloperApps(USER_ID, 0, 2, null);
+    assertEquals(listOf(first, second), sorted(ids(page)));
+    assertNotNull(page.getCursor());
+    page = galleryStorage.getDeveloperApps(USER_ID, 2, 2, page.getCursor());
+    assertEquals(listOf(), ids(page));
+    assertNull(page.getCursor());
+    assertEquals(2, page.getTotalCount());
+  }
+
+  public void testPageWithoutCursorStartsAtIndex() throws Exception {
+    long first = createApp("First");
+    long second = createApp("Second");
+    long third = createApp("Third");
+    // Neither a cursor nor one cached by the page before
+    MemcacheServiceFactory.getMemcacheService().clearAll();
+    GalleryAppListResult page = galleryStorage.getRecentGalleryApps(1, 3, null);
+    assertEquals(listOf(second, first), ids(page));
+    assertNull(page.getCursor());
+    page = galleryStorage.getDeveloperApps(USER_ID, 2, 2, null);
+    assertEquals(1, ids(page).size());
+    assertTrue(listOf(first, second, third).containsAll(ids(page)));
+    assertNull(page.getCursor());
+  }
+
+  public void testBadCursorFallsBackToIndex() throws Exception {
+    long first = createApp("First");
+    long second = createApp("Second");
+    long third = createApp("Third");
+    assertEquals(listOf(second, first),
+        ids(galleryStorage.getRecentGalleryApps(1, 2, "not a cursor")));
+    assertEquals(2, ids(galleryStorage.getMostLikedApps(1, 2, "not a cursor")).size());
+    assertEquals(1, ids(galleryStorage.getDeveloperApps(USER_ID, 2, 2, "not a cursor")).size());
+  }
+
+  public void testRemovedAppLeavesFirstPage() throws Exception {
+    long first = createApp("First");
+    long second = createApp("Second");
+    assertEquals(listOf(second, first), ids(galleryStorage.getRecentGalleryApps(0, 2, null)));
+    galleryStorage.deleteApp(second);
+    assertEquals(listOf(first), ids(galleryStorage.getRecentGalleryApps(0, 2, null)));
+  }
+
+  public void testRemovedAppDropsCachedCursors() throws Exception {
+    long first = createApp("First");
+    long second = createApp("Second");
+    long third = createApp("Third");
+    // Reading the first page leaves the cursor to the second one in memcache.
+    assertEquals(listOf(third, second), ids(galleryStorage.getRecentGalleryApps(0, 2, null)));
+    assertEquals(listOf(first), ids(galleryStorage.getRecentGalleryApps(2, 2, null)));
+    galleryStorage.deleteApp(third);
+    // There is no second page any more, rather than one that starts after the
+    // second app.
+    assertEquals(listOf(), ids(galleryStorage.getRecentGalleryApps(2, 2, null)));
+    assertEquals(listOf(second, first), ids(galleryStorage.getRecentGalleryApps(0, 2, null)));
+  }
+
+  public void testPublishedAppDropsCachedCursors() throws Exception {
+    long first = createApp("First");
+    long second = createApp("Second");
+    long third = createApp("Third");
+    assertEquals(listOf(third, second), ids(galleryStorage.getRecentGalleryApps(0, 2, null)));
+    long fourth = createApp("Fourth");
+    assertEquals(listOf(second, first), ids(galleryStorage.getRecentGalleryApps(2, 2, null)));
+    assertEquals(listOf(fourth, third), ids(galleryStorage.getRecentGalleryApps(0, 2, null)));
+    assertEquals(4, galleryStorage.getRecentGalleryApps(0, 2, null).getTotalCount());
+  }
+
+  public void testActiveAppsAreCountedAgain() throws Exception {
+    createApp("First");
+    createApp("Second");
+    assertEquals(2, galleryStorage.getRecentGalleryApps(0, 2, null).getTotalCount());
+    // A change to the number of active apps that was missed
+    Objectify datastore = ObjectifyService.begin();
+    GalleryCountData countData = datastore.get(GalleryCountData.class, GalleryCountData.ID);
+    countData.numActiveApps = 5;
+    datastore.put(countData);
+    assertEquals(5, galleryStorage.getRecentGalleryApps(0, 2, null).getTotalCount());
+    try {
+      ObjectifyGalleryStorageIo.activeAppsRecountSeconds.setForTest(0);
+      assertEquals(2, galleryStorage.getRecentGalleryApps(0, 2, null).getTotalCount());
+    } finally {
+      ObjectifyGalleryStorageIo.activeAppsRecountSeconds.setForTest(3600);
+    }
+    createApp("Third");
+    assertEquals(3, galleryStorage.getRecentGalleryApps(0, 2, null).getTotalCount());
+  }
+
+  public void testDownloadsAreSharded() throws Exception {
+    long galleryId = createApp("Popular");
+    for (int i = 0; i < 100; i++) {
+      galleryStorage.incrementDownloads(galleryId);
+    }
+    Objectify datastore = ObjectifyService.begin();
+    int shards = 0;
+    int downloads = 0;
+    for (GalleryAppCounterData shard : datastore.query(GalleryAppCounterData.class)) {
+      assertTrue(shard.id.startsWith(galleryId + "/"));
+      shards++;
+      downloads += shard.numDownloads;
+    }
+    assertTrue(shards > 1);
+    assertTrue(shards <= ObjectifyGalleryStorageIo.COUNTER_SHARDS);
+    assertEquals(100, downloads);
+  }
+
+  public void testRollUpCounters() throws Exception {
+    long galleryId = createApp("Popular");
+    for (int i = 0; i < 3; i++) {
+      galleryStorage.incrementDownloads(galleryId);
+    }
+    galleryStorage.increaseLikes(galleryId, "2301");
+    galleryStorage.increaseLikes(galleryId, "2302");
+    galleryStorage.rollUpCounters(galleryId);
+    assertCounts(galleryId, 3, 2);
+    // Counts that were rolled up already are not added again.
+    galleryStorage.rollUpCounters(galleryId);
+    assertCounts(galleryId, 3, 2);
+    galleryStorage.incrementDownloads(galleryId);
+    galleryStorage.decreaseLikes(galleryId, "2301");
+    galleryStorage.rollUpCounters(galleryId);
+    assertCounts(galleryId, 4, 1);
+    assertEquals(4, getAppData(galleryId).unreadDownloads);
+  }
+
+  public void testOutOfDateRollUpIsIgnored() throws Exception {
+    long galleryId = createApp("Popular");
+    galleryStorage.increaseLikes(galleryId, "2301");
+    galleryStorage.rollUpCounters(galleryId);
+    galleryStorage.increaseLikes(galleryId, "2302");
+    // A roll-up that read the shards here is overtaken by a later one
+    int[] shardTotals = galleryStorage.sumCounterShards(galleryId);
+    galleryStorage.decreaseLikes(galleryId, "2302");
+    galleryStorage.rollUpCounters(galleryId);
+    assertCounts(galleryId, 0, 1);
+    galleryStorage.rollUpCounters(galleryId, shardTotals);
+    assertCounts(galleryId, 0, 1);
+    // A like and an unlike since the last roll-up leave the count as it is.
+    galleryStorage.increaseLikes(galleryId, "2302");
+    galleryStorage.decreaseLikes(galleryId, "2302");
+    galleryStorage.rollUpCounters(galleryId);
+    assertCounts(galleryId, 0, 1);
+  }
+
+  public void testFailedRollUpKeepsCount() throws Exception {
+    galleryStorage = new ObjectifyGalleryStorageIo() {
+      @Override
+      void rollUpCounters(long galleryId) throws ObjectifyException {
+        throw new ObjectifyException("roll-up failed");
+      }
+    };
+    long galleryId = createApp("Popular");
+    MemcacheServiceFactory.getMemcacheService().clearAll();
+    galleryStorage.incrementDownloads(galleryId);
+    assertEquals(1, galleryStorage.sumCounterShards(galleryId)[0]);
+    MemcacheServiceFactory.getMemcacheService().clearAll();
+    assertEquals(0, galleryStorage.getNumLikes(galleryId));
+    assertCounts(galleryId, 0, 0);
+  }
+
+  public void testRollUpIsDueOncePerPeriod() throws Exception {
+    long galleryId = createApp("Popular");
+    MemcacheServiceFactory.getMemcacheService().clearAll();
+    galleryStorage.incrementDownloads(galleryId);
+    assertCounts(galleryId, 1, 0);
+    // The roll-up mark left in memcache holds back the next roll-up.
+    galleryStorage.incrementDownloads(galleryId);
+    assertCounts(galleryId, 1, 0);
+    MemcacheServiceFactory.getMemcacheService().clearAll();
+    galleryStorage.incrementDownloads(galleryId);
+    assertCounts(galleryId, 3, 0);
+  }
+
+  private static void assertCounts(long galleryId, int downloads, int likes) {
+    GalleryAppData appData = getAppData(galleryId);
+    assertEquals(downloads, appData.numDownloads);
+    assertEquals(likes, appData.numLikes);
+  }
+
+  private static GalleryAppData getAppData(long galleryId) {
+    return ObjectifyService.begin().get(GalleryAppData.class, galleryId);
+  }
+
+  // Publishes an app, making sure that it is more recent than the ones before.
+  private long createApp(String title) throws InterruptedException {
+    Thread.sleep(2);
+    return galleryStorage.createGalleryApp(title, title, "description", "", "", 0, USER_ID)
+        .getGalleryAppId();
+  }
+
+  private static List<Long> ids(GalleryAppListResult result) {
+    List<Long> ids = new ArrayList<Long>();
+    for (GalleryApp app : result.getApps()) {
+      ids.add(app.getGalleryAppId());
+    }
+    return ids;
+  }
+
+  private static List<Long> sorted(List<Long> ids) {
+    Collections.sort(ids);
+    return ids;
+  }
+
+  private static List<Long> listOf(long... ids) {
+    List<Long> list = new ArrayList<Long>();
+    for (long id : ids) {
+      list.add(id);
+    }
+    return list;
+  }
+}
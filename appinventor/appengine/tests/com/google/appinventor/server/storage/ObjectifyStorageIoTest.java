@@ -7,7 +7,12 @@
 package com.google.appinventor.server.storage;
 
 import com.google.appengine.api.blobstore.BlobKey;
+import com.google.appengine.api.taskqueue.Queue;
+import com.google.appengine.api.taskqueue.dev.LocalTaskQueue;
+import com.google.appengine.api.taskqueue.dev.QueueStateInfo.TaskStateInfo;
+import com.google.appengine.tools.development.testing.LocalTaskQueueTestConfig;
 import com.google.appinventor.server.LocalDatastoreTestCase;
+import com.google.appinventor.server.storage.StoredData.FileData;
 import com.google.appinventor.server.storage.StoredData.ProjectData;
 import com.google.appinventor.shared.rpc.BlocksTruncatedException;
 import com.google.appinventor.shared.rpc.component.Component;
@@ -19,7 +24,10 @@ import com.google.appinventor.shared.rpc.project.youngandroid.YoungAndroidProjec
 import com.google.appinventor.shared.rpc.user.User;
 import com.google.appinventor.shared.storage.StorageUtil;
 
+import com.google.apphosting.api.ApiProxy;
 import com.google.common.base.Charsets;
+import com.google.common.hash.Hashing;
+import com.google.common.primitives.Bytes;
 
 import java.io.BufferedReader;
 import java.io.FileNotFoundException;
@@ -31,6 +39,7 @@ import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.ConcurrentModificationException;
 import java.util.List;
+import java.util.concurrent.Future;
 
 import org.json.JSONObject;
 
@@ -160,8 +169,9 @@ public class ObjectifyStorageIoTest extends LocalDatastoreTestCase {
   public void testCreateProjectFailFirst() {
     final String USER_ID = "600";
     final String USER_EMAIL = "newuser600@test.com";
-    // fail on first job in createProject (2nd job overall)
-    StorageIo throwingStorage = new FailingJobObjectifyStorageIo(2);
+    // fail on first job in createProject (5th job overall, after the three
+    // jobs that store the shared content of the two assets)
+    StorageIo throwingStorage = new FailingJobObjectifyStorageIo(5);
 
     try {
       throwingStorage.getUser(USER_ID, USER_EMAIL);
@@ -177,8 +187,8 @@ public class ObjectifyStorageIoTest extends LocalDatastoreTestCase {
   public void testCreateProjectFailSecond() {
     final String USER_ID = "700";
     final String USER_EMAIL = "newuser700@test.com";
-    // fail on second job in createProject (3rd job overall)
-    StorageIo throwingStorage = new FailingJobObjectifyStorageIo(3);
+    // fail on second job in createProject (6th job overall)
+    StorageIo throwingStorage = new FailingJobObjectifyStorageIo(6);
 
     try {
       throwingStorage.getUser(USER_ID, USER_EMAIL);
@@ -506,6 +516,58 @@ public class ObjectifyStorageIoTest extends LocalDatastoreTestCase {
     assertNull(result);
   }
 
+  public void testGetUserProjects() {
+    final String USER_ID = "1550";
+    final String USER_EMAIL = "newuser1550@test.com";
+    final String USER_ID2 = "1560";
+    final String USER_EMAIL2 = "newuser1560@test.com";
+    final int PROJECT_COUNT = 20;
+    storage.getUser(USER_ID, USER_EMAIL);
+    storage.getUser(USER_ID2, USER_EMAIL2);
+    for (int i = 0; i < PROJECT_COUNT; i++) {
+      createProject(USER_ID, PROJECT_NAME + i, FAKE_PROJECT_TYPE, FORM_QUALIFIED_NAME);
+    }
+    long otherUsersProjectId =
+        createProject(USER_ID2, PROJECT_NAME, FAKE_PROJECT_TYPE, FORM_QUALIFIED_NAME);
+
+    // What a login does: list the user's projects, then get their information.
+    StorageCallCounter counter = new StorageCallCounter();
+    List<Long> projectIds;
+    List<UserProject> userProjects;
+    int loginCalls;
+    int singleGetCalls;
+    try {
+      projectIds = storage.getProjects(USER_ID);
+      userProjects = storage.getUserProjects(USER_ID, projectIds);
+      loginCalls = counter.reset();
+      for (long projectId : projectIds) {
+        storage.getUserProject(USER_ID, projectId);
+      }
+      singleGetCalls = counter.reset();
+    } finally {
+      counter.uninstall();
+    }
+
+    assertEquals(PROJECT_COUNT, projectIds.size());
+    assertEquals(PROJECT_COUNT, userProjects.size());
+    for (int i = 0; i < PROJECT_COUNT; i++) {
+      UserProject userProject = userProjects.get(i);
+      assertEquals(projectIds.get(i).longValue(), userProject.getProjectId());
+      assertEquals(storage.getProjectName(USER_ID, userProject.getProjectId()),
+          userProject.getProjectName());
+    }
+    // The number of calls of a login doesn't depend on the number of projects.
+    assertTrue("login made " + loginCalls + " calls", loginCalls < PROJECT_COUNT);
+    assertTrue(singleGetCalls >= PROJECT_COUNT);
+
+    // Projects of other users and projects that don't exist are left out.
+    List<Long> otherProjectIds = Arrays.asList(projectIds.get(0), otherUsersProjectId,
+        otherUsersProjectId + 1000);
+    userProjects = storage.getUserProjects(USER_ID, otherProjectIds);
+    assertEquals(1, userProjects.size());
+    assertEquals(projectIds.get(0).longValue(), userProjects.get(0).getProjectId());
+  }
+
   public void testWrongUserThrowsException() throws Exception {
     final String USER_ID = "1600";
     final String USER_EMAIL = "newuser1600@test.com";
@@ -524,6 +586,376 @@ public class ObjectifyStorageIoTest extends LocalDatastoreTestCase {
     }
   }
 
+  public void testAssetsAreShared() throws Exception {
+    final String USER_ID = "2000";
+    final String USER_EMAIL = "newuser2000@test.com";
+    storage.getUser(USER_ID, USER_EMAIL);
+
+    // RAW_FILE_CONTENT1 and RAW_FILE_CONTENT2 are equal, so all the assets
+    // of both projects share the same content.
+    long projectId1 = storage.createProject(USER_ID, project, SETTINGS);
+    long projectId2 = storage.createProject(USER_ID, project, SETTINGS);
+    FileData fileData1 = storage.getFileData(projectId1, RAW_FILE_NAME1);
+    FileData fileData2 = storage.getFileData(projectId2, RAW_FILE_NAME2);
+    String hash = fileData1.contentHash;
+    assertNotNull(hash);
+    assertEquals(hash, fileData2.contentHash);
+    assertEquals(fileData1.gcsName, fileData2.gcsName);
+    assertEquals(4, storage.getAsset(hash).refCount);
+
+    // Changing an asset of one project doesn't change the other project.
+    storage.uploadRawFile(projectId1, RAW_FILE_NAME1, USER_ID, true, RAW_FILE_CONTENT3);
+    String newHash = storage.getFileData(projectId1, RAW_FILE_NAME1).contentHash;
+    assertFalse(hash.equals(newHash));
+    assertEquals(3, storage.getAsset(hash).refCount);
+    assertEquals(1, storage.getAsset(newHash).refCount);
+    assertTrue(Arrays.equals(RAW_FILE_CONTENT3,
+        storage.downloadRawFile(USER_ID, projectId1, RAW_FILE_NAME1)));
+    assertTrue(Arrays.equals(RAW_FILE_CONTENT1,
+        storage.downloadRawFile(USER_ID, projectId2, RAW_FILE_NAME1)));
+
+    // The content is deleted with the last file that uses it.
+    storage.deleteProject(USER_ID, projectId1);
+    assertNull(storage.getAsset(newHash));
+    assertEquals(2, storage.getAsset(hash).refCount);
+    assertTrue(Arrays.equals(RAW_FILE_CONTENT2,
+        storage.downloadRawFile(USER_ID, projectId2, RAW_FILE_NAME2)));
+    storage.deleteFile(USER_ID, projectId2, RAW_FILE_NAME1);
+    storage.deleteFile(USER_ID, projectId2, RAW_FILE_NAME2);
+    assertNull(storage.getAsset(hash));
+  }
+
+  public void testAssetsAreShardedByUser() throws Exception {
+    final String USER_ID = "2300";
+    final String USER_ID2 = "2301";
+    int shards = ObjectifyStorageIo.assetShards.get();
+    ObjectifyStorageIo.assetShards.setForTest(2);
+    try {
+      storage.getUser(USER_ID, "newuser2300@test.com");
+      storage.getUser(USER_ID2, "newuser2301@test.com");
+      long projectId1 = storage.createProject(USER_ID, project, SETTINGS);
+      long projectId2 = storage.createProject(USER_ID2, project, SETTINGS);
+      String hash = Hashing.sha256().hashBytes(RAW_FILE_CONTENT1).toString();
+      // The two users' ids have different shards.
+      String assetId1 = storage.getFileData(projectId1, RAW_FILE_NAME1).contentHash;
+      String assetId2 = storage.getFileData(projectId2, RAW_FILE_NAME1).contentHash;
+      assertEquals(hash + "-1", assetId1);
+      assertEquals(hash, assetId2);
+      assertEquals(2, storage.getAsset(assetId1).refCount);
+      assertEquals(2, storage.getAsset(assetId2).refCount);
+      assertTrue(Arrays.equals(RAW_FILE_CONTENT1,
+          storage.downloadRawFile(USER_ID2, projectId2, RAW_FILE_NAME1)));
+    } finally {
+      ObjectifyStorageIo.assetShards.setForTest(shards);
+    }
+  }
+
+  public void testBusyAssetUsesAnotherShard() throws Exception {
+    final String USER_ID = "2301";
+    int shards = ObjectifyStorageIo.assetShards.get();
+    ObjectifyStorageIo.assetShards.setForTest(2);
+    try {
+      storage.getUser(USER_ID, "newuser2301@test.com");
+      long projectId = createProject(USER_ID, PROJECT_NAME, FAKE_PROJECT_TYPE,
+          FORM_QUALIFIED_NAME);
+      storage.addSourceFilesToProject(USER_ID, projectId, false, RAW_FILE_NAME1);
+      String hash = Hashing.sha256().hashBytes(RAW_FILE_CONTENT1).toString();
+      // The user's shard is too busy to be updated.
+      BusyEntityDelegate busy = new BusyEntityDelegate(hash);
+      try {
+        storage.uploadRawFile(projectId, RAW_FILE_NAME1, USER_ID, true, RAW_FILE_CONTENT1);
+      } finally {
+        busy.uninstall();
+      }
+      assertEquals(hash + "-1", storage.getFileData(projectId, RAW_FILE_NAME1).contentHash);
+      assertNull(storage.getAsset(hash));
+      assertEquals(1, storage.getAsset(hash + "-1").refCount);
+      assertTrue(Arrays.equals(RAW_FILE_CONTENT1,
+          storage.downloadRawFile(USER_ID, projectId, RAW_FILE_NAME1)));
+    } finally {
+      ObjectifyStorageIo.assetShards.setForTest(shards);
+    }
+  }
+
+  public void testRacingAssetSavesReleaseOldContentOnce() throws Exception {
+    final String USER_ID = "2302";
+    storage.getUser(USER_ID, "newuser2302@test.com");
+    final long projectId1 = storage.createProject(USER_ID, project, SETTINGS);
+    storage.createProject(USER_ID, project, SETTINGS);
+    String hash = storage.getFileData(projectId1, RAW_FILE_NAME1).contentHash;
+    assertEquals(4, storage.getAsset(hash).refCount);
+
+    // Another save of the file is written while the first one writes it.
+    final byte[] racingContent = { (byte) 4, (byte) 5, (byte) 6, (byte) 7 };
+    InterceptingDelegate race = new InterceptingDelegate(RAW_FILE_NAME1) {
+      boolean raced;
+
+      @Override
+      void intercept(String methodName) {
+        if (methodName.equals("Put") && !raced) {
+          raced = true;
+          storage.uploadRawFileForce(projectId1, RAW_FILE_NAME1, USER_ID, racingContent);
+        }
+      }
+    };
+    try {
+      storage.uploadRawFile(projectId1, RAW_FILE_NAME1, USER_ID, true, RAW_FILE_CONTENT3);
+    } finally {
+      race.uninstall();
+    }
+    // The first save was written over the racing one, and each released the
+    // content it replaced.
+    FileData fileData = storage.getFileData(projectId1, RAW_FILE_NAME1);
+    assertTrue(Arrays.equals(RAW_FILE_CONTENT3,
+        storage.downloadRawFile(USER_ID, projectId1, RAW_FILE_NAME1)));
+    assertEquals(1, storage.getAsset(fileData.contentHash).refCount);
+    assertNull(storage.getAsset(Hashing.sha256().hashBytes(racingContent).toString()));
+    assertEquals(3, storage.getAsset(hash).refCount);
+  }
+
+  /**
+   * Makes datastore reads of the entity with the given key name fail as if
+   * other transactions kept changing it.
+   */
+  private static class BusyEntityDelegate extends InterceptingDelegate {
+    BusyEntityDelegate(String name) throws UnsupportedEncodingException {
+      super(name);
+    }
+
+    @Override
+    void intercept(String methodName) {
+      if (methodName.equals("Get")) {
+        throw new ConcurrentModificationException("too much contention");
+      }
+    }
+  }
+
+  /**
+   * Calls intercept() before the datastore calls whose requests contain the
+   * given key name.
+   */
+  private abstract static class InterceptingDelegate
+      implements ApiProxy.Delegate<ApiProxy.Environment> {
+    private final ApiProxy.Delegate<ApiProxy.Environment> delegate;
+    private final byte[] name;
+
+    @SuppressWarnings("unchecked")
+    InterceptingDelegate(String name) throws UnsupportedEncodingException {
+      delegate = ApiProxy.getDelegate();
+      // The name as it is encoded in the request, after its length
+      byte[] bytes = name.getBytes("UTF-8");
+      this.name = new byte[bytes.length + 1];
+      this.name[0] = (byte) bytes.length;
+      System.arraycopy(bytes, 0, this.name, 1, bytes.length);
+      ApiProxy.setDelegate(this);
+    }
+
+    void uninstall() {
+      ApiProxy.setDelegate(delegate);
+    }
+
+    abstract void intercept(String methodName);
+
+    private void check(String packageName, String methodName, byte[] request) {
+      if (packageName.equals("datastore_v3") && Bytes.indexOf(request, name) >= 0) {
+        intercept(methodName);
+      }
+    }
+
+    @Override
+    public byte[] makeSyncCall(ApiProxy.Environment environment, String packageName,
+        String methodName, byte[] request) {
+      check(packageName, methodName, request);
+      return delegate.makeSyncCall(environment, packageName, methodName, request);
+    }
+
+    @Override
+    public Future<byte[]> makeAsyncCall(ApiProxy.Environment environment, String packageName,
+        String methodName, byte[] request, ApiProxy.ApiConfig apiConfig) {
+      check(packageName, methodName, request);
+      return delegate.makeAsyncCall(environment, packageName, methodName, request, apiConfig);
+    }
+
+    @Override
+    public void log(ApiProxy.Environment environment, ApiProxy.LogRecord record) {
+      delegate.log(environment, record);
+    }
+
+    @Override
+    public void flushLogs(ApiProxy.Environment environment) {
+      delegate.flushLogs(environment);
+    }
+
+    @Override
+    public List<Thread> getRequestThreads(ApiProxy.Environment environment) {
+      return delegate.getRequestThreads(environment);
+    }
+  }
+
+  public void testCopyFiles() throws Exception {
+    final String USER_ID = "2100";
+    final String USER_EMAIL = "newuser2100@test.com";
+    final String USER_ID2 = "2200";
+    storage.getUser(USER_ID, USER_EMAIL);
+    long projectId1 = storage.createProject(USER_ID, project, SETTINGS);
+    Project emptyProject = new Project("Project2");
+    emptyProject.setProjectType(FAKE_PROJECT_TYPE);
+    long projectId2 = storage.createProject(USER_ID, emptyProject, SETTINGS);
+
+    storage.copyFiles(USER_ID, projectId1, projectId2, Arrays.asList(FILE_NAME1, RAW_FILE_NAME1));
+    assertEquals(Arrays.asList(FILE_NAME1, RAW_FILE_NAME1),
+        storage.getProjectSourceFiles(USER_ID, projectId2));
+    assertEquals(FILE_CONTENT1,
+        storage.downloadFile(USER_ID, projectId2, FILE_NAME1, StorageUtil.DEFAULT_CHARSET));
+    assertTrue(Arrays.equals(RAW_FILE_CONTENT1,
+        storage.downloadRawFile(USER_ID, projectId2, RAW_FILE_NAME1)));
+    // The copy of the asset shares the content of the original.
+    String hash = storage.getFileData(projectId1, RAW_FILE_NAME1).contentHash;
+    assertEquals(hash, storage.getFileData(projectId2, RAW_FILE_NAME1).contentHash);
+    assertEquals(3, storage.getAsset(hash).refCount);
+
+    try {
+      storage.copyFiles(USER_ID2, projectId1, projectId2, Arrays.asList(RAW_FILE_NAME2));
+      fail();
+    } catch (Exception e) {
+      assertTrue(e instanceof UnauthorizedAccessException
+                 || e.getCause() instanceof UnauthorizedAccessException);
+    }
+    assertEquals(3, storage.getAsset(hash).refCount);
+  }
+
+  public void testCoalescedSaves() throws Exception {
+    final String USER_ID = "2500";
+    final String USER_EMAIL = "newuser2500@test.com";
+    final String BKY_FILE_NAME = "src/com/yourdomain/Form1.bky";
+    final String CONTENT1 = FILE_CONTENT2 + "1";
+    final String CONTENT2 = FILE_CONTENT2 + "2";
+    final String CONTENT3 = FILE_CONTENT2 + "3";
+    storage.getUser(USER_ID, USER_EMAIL);
+    long projectId = createProject(USER_ID, PROJECT_NAME, FAKE_PROJECT_TYPE, BKY_FILE_NAME);
+    ObjectifyStorageIo.saveCoalesceMillis.setForTest(60000);
+    try {
+      // The first save is written at once, the following ones are held back
+      long modDate = storage.uploadFile(projectId, BKY_FILE_NAME, USER_ID, CONTENT1,
+          StorageUtil.DEFAULT_CHARSET);
+      assertEquals(CONTENT1, new String(storage.getFileData(projectId, BKY_FILE_NAME).content,
+          StorageUtil.DEFAULT_CHARSET));
+      assertEquals(modDate, storage.uploadFile(projectId, BKY_FILE_NAME, USER_ID, CONTENT2,
+          StorageUtil.DEFAULT_CHARSET));
+      storage.uploadFile(projectId, BKY_FILE_NAME, USER_ID, CONTENT3,
+          StorageUtil.DEFAULT_CHARSET);
+      assertEquals(CONTENT1, new String(storage.getFileData(projectId, BKY_FILE_NAME).content,
+          StorageUtil.DEFAULT_CHARSET));
+      // Reading the file writes the last save
+      assertEquals(CONTENT3, storage.downloadFile(USER_ID, projectId, BKY_FILE_NAME,
+          StorageUtil.DEFAULT_CHARSET));
+      assertEquals(CONTENT3, new String(storage.getFileData(projectId, BKY_FILE_NAME).content,
+          StorageUtil.DEFAULT_CHARSET));
+
+      // So does flushing the project
+      storage.uploadFile(projectId, BKY_FILE_NAME, USER_ID, CONTENT2,
+          StorageUtil.DEFAULT_CHARSET);
+      storage.flushPendingSaves(projectId);
+      assertEquals(CONTENT2, new String(storage.getFileData(projectId, BKY_FILE_NAME).content,
+          StorageUtil.DEFAULT_CHARSET));
+
+      // Forced saves and saves of other files are written at once
+      storage.uploadFileForce(projectId, BKY_FILE_NAME, USER_ID, CONTENT1,
+          StorageUtil.DEFAULT_CHARSET);
+      assertEquals(CONTENT1, new String(storage.getFileData(projectId, BKY_FILE_NAME).content,
+          StorageUtil.DEFAULT_CHARSET));
+      assertFalse(ObjectifyStorageIo.isCoalescedFile(FILE_NAME2));
+      assertFalse(ObjectifyStorageIo.isCoalescedFile(RAW_FILE_NAME1));
+    } finally {
+      ObjectifyStorageIo.saveCoalesceMillis.setForTest(0);
+    }
+  }
+
+  public void testHeldBackSavesHaveFlushTasks() throws Exception {
+    final String USER_ID = "2510";
+    final String USER_EMAIL = "newuser2510@test.com";
+    final String BKY_FILE_NAME = "src/com/yourdomain/Form1.bky";
+    LocalTaskQueue taskQueue = LocalTaskQueueTestConfig.getLocalTaskQueue();
+    storage.getUser(USER_ID, USER_EMAIL);
+    long projectId = createProject(USER_ID, PROJECT_NAME, FAKE_PROJECT_TYPE, BKY_FILE_NAME);
+    ObjectifyStorageIo.saveCoalesceMillis.setForTest(60000);
+    try {
+      storage.uploadFile(projectId, BKY_FILE_NAME, USER_ID, FILE_CONTENT2 + "1",
+          StorageUtil.DEFAULT_CHARSET);
+      storage.uploadFile(projectId, BKY_FILE_NAME, USER_ID, FILE_CONTENT2 + "2",
+          StorageUtil.DEFAULT_CHARSET);
+      assertEquals(1, countFlushTasks(taskQueue));
+
+      // A flush that read the save before may be running, so a save held
+      // back while an earlier one is still in memcache gets a task too.
+      taskQueue.flushQueue(Queue.DEFAULT_QUEUE);
+      long modDate = storage.uploadFile(projectId, BKY_FILE_NAME, USER_ID, FILE_CONTENT2 + "3",
+          StorageUtil.DEFAULT_CHARSET);
+      assertEquals(1, countFlushTasks(taskQueue));
+
+      // The held back save is written with the date returned for it
+      storage.flushPendingSaves(projectId);
+      assertEquals(FILE_CONTENT2 + "3", new String(
+          storage.getFileData(projectId, BKY_FILE_NAME).content, StorageUtil.DEFAULT_CHARSET));
+      assertEquals(modDate, storage.getProjectDateModified(USER_ID, projectId));
+    } finally {
+      ObjectifyStorageIo.saveCoalesceMillis.setForTest(0);
+      taskQueue.flushQueue(Queue.DEFAULT_QUEUE);
+    }
+  }
+
+  private static int countFlushTasks(LocalTaskQueue taskQueue) {
+    int count = 0;
+    for (TaskStateInfo task :
+             taskQueue.getQueueStateInfo().get(Queue.DEFAULT_QUEUE).getTaskInfo()) {
+      if (task.getUrl().equals("/flushsaves")) {
+        count++;
+      }
+    }
+    return count;
+  }
+
+  public void testFlushDoesNotWriteOverLaterSave() throws Exception {
+    final String USER_ID = "2520";
+    final String USER_EMAIL = "newuser2520@test.com";
+    final String BKY_FILE_NAME = "src/com/yourdomain/Form1.bky";
+    storage.getUser(USER_ID, USER_EMAIL);
+    final long projectId = createProject(USER_ID, PROJECT_NAME, FAKE_PROJECT_TYPE,
+        BKY_FILE_NAME);
+    ObjectifyStorageIo.saveCoalesceMillis.setForTest(60000);
+    try {
+      storage.uploadFile(projectId, BKY_FILE_NAME, USER_ID, FILE_CONTENT2 + "1",
+          StorageUtil.DEFAULT_CHARSET);
+      storage.uploadFile(projectId, BKY_FILE_NAME, USER_ID, FILE_CONTENT2 + "2",
+          StorageUtil.DEFAULT_CHARSET);
+      // A forced save is written after the flush read the held back save,
+      // but before the flush writes it.
+      InterceptingDelegate race = new InterceptingDelegate(BKY_FILE_NAME) {
+        boolean raced;
+
+        @Override
+        void intercept(String methodName) {
+          if (!raced) {
+            raced = true;
+            storage.uploadFileForce(projectId, BKY_FILE_NAME, USER_ID, FILE_CONTENT2 + "3",
+                StorageUtil.DEFAULT_CHARSET);
+          }
+        }
+      };
+      try {
+        storage.flushPendingSaves(projectId);
+      } finally {
+        race.uninstall();
+      }
+      assertEquals(FILE_CONTENT2 + "3", new String(
+          storage.getFileData(projectId, BKY_FILE_NAME).content, StorageUtil.DEFAULT_CHARSET));
+      assertEquals(FILE_CONTENT2 + "3", storage.downloadFile(USER_ID, projectId, BKY_FILE_NAME,
+          StorageUtil.DEFAULT_CHARSET));
+    } finally {
+      ObjectifyStorageIo.saveCoalesceMillis.setForTest(0);
+    }
+  }
+
   public void testTempFiles() throws Exception {
     String fileName = storage.uploadTempFile("test\n".getBytes(Charsets.UTF_8));
     BufferedReader reader = new BufferedReader(new InputStreamReader(storage.openTempFile(fileName),
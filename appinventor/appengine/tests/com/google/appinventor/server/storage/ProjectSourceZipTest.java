@@ -0,0 +1,145 @@
+// -*- mode: java; c-basic-offset: 2; -*-
+// Copyright 2016 MIT, All rights reserved
+// Released under the Apache License, Version 2.0
+// http://www.apache.org/licenses/LICENSE-2.0
+
+package com.google.appinventor.server.storage;
+
+import com.google.appinventor.server.LocalDatastoreTestCase;
+import com.google.appinventor.shared.rpc.project.Project;
+import com.google.appinventor.shared.rpc.project.ProjectSourceZip;
+import com.google.appinventor.shared.rpc.project.RawFile;
+import com.google.appinventor.shared.rpc.project.TextFile;
+import com.google.appinventor.shared.rpc.project.youngandroid.YoungAndroidProjectNode;
+import com.google.common.io.ByteStreams;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeMap;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+
+/**
+ * Tests {@link ObjectifyStorageIo#exportProjectSourceZip} for a project with
+ * many assets in GCS.
+ *
+ */
+public class ProjectSourceZipTest extends LocalDatastoreTestCase {
+
+  private static final String USER_ID = "1400";
+  private static final String USER_EMAIL = "newuser1400@test.com";
+  private static final String SETTINGS = "{settings: \"none\"}";
+  private static final String SOURCE_FILE_NAME = "src/com/yourdomain/Form1.scm";
+  private static final int ASSET_COUNT = 24;
+  private static final int ASSET_SIZE = 100 * 1024;
+
+  private ObjectifyStorageIo storage;
+  private CountingGcsService gcsService;
+  private long projectId;
+  private Map<String, byte[]> expectedFiles;
+  private int defaultConcurrency;
+
+  @Override
+  protected void setUp() throws Exception {
+    super.setUp();
+    storage = new ObjectifyStorageIo();
+    // Wrap the storage's GCS service. Creating another local GCS service in
+    // the same test makes the factory pick the production one.
+    gcsService = new CountingGcsService(storage.getGcsService());
+    storage.setGcsService(gcsService);
+    storage.getUser(USER_ID, USER_EMAIL);
+
+    Project project = new Project("ManyAssets");
+    project.setProjectType(YoungAndroidProjectNode.YOUNG_ANDROID_PROJECT_TYPE);
+    expectedFiles = new TreeMap<String, byte[]>();
+    project.addTextFile(new TextFile(SOURCE_FILE_NAME, "#|\n$JSON\n{}\n|#"));
+    expectedFiles.put(SOURCE_FILE_NAME, "#|\n$JSON\n{}\n|#".getBytes("UTF-8"));
+    Random random = new Random(0);
+    for (int i = 0; i < ASSET_COUNT; i++) {
+      byte[] content = new byte[ASSET_SIZE];
+      random.nextBytes(content);
+      project.addRawFile(new RawFile("assets/image" + i + ".png", content));
+      expectedFiles.put("assets/image" + i + ".png", content);
+    }
+    projectId = storage.createProject(USER_ID, project, SETTINGS);
+    assertTrue(storage.isGcsFile(projectId, "assets/image0.png"));
+    defaultConcurrency = ObjectifyStorageIo.gcsReadConcurrency.get();
+  }
+
+  @Override
+  public void tearDown() throws Exception {
+    ObjectifyStorageIo.gcsReadConcurrency.setForTest(defaultConcurrency);
+    super.tearDown();
+  }
+
+  public void testExportContainsAllFiles() throws Exception {
+    ObjectifyStorageIo.gcsReadConcurrency.setForTest(1);
+    assertFilesEqual(expectedFiles, export(false));
+    ObjectifyStorageIo.gcsReadConcurrency.setForTest(defaultConcurrency);
+    assertFilesEqual(expectedFiles, export(false));
+  }
+
+  public void testMissingGcsObject() throws Exception {
+    gcsService.missingObjects.add(storage.getFileData(projectId, "assets/image3.png").gcsName);
+    Map<String, byte[]> files = export(false);
+    assertEquals(0, files.get("assets/image3.png").length);
+    assertTrue(Arrays.equals(expectedFiles.get("assets/image4.png"),
+        files.get("assets/image4.png")));
+    try {
+      export(true);
+      fail();
+    } catch (IOException e) {
+      // expected
+    }
+  }
+
+  public void testReadsAhead() throws Exception {
+    ObjectifyStorageIo.gcsReadConcurrency.setForTest(1);
+    gcsService.resetMaxOpenChannels();
+    export(false);
+    assertEquals(1, gcsService.getMaxOpenChannels());
+    assertEquals(0, gcsService.getOpenChannels());
+
+    ObjectifyStorageIo.gcsReadConcurrency.setForTest(defaultConcurrency);
+    gcsService.resetMaxOpenChannels();
+    export(false);
+    assertEquals(Math.min(defaultConcurrency, ASSET_COUNT), gcsService.getMaxOpenChannels());
+    assertEquals(0, gcsService.getOpenChannels());
+  }
+
+  public void testReadChannelsClosedWhenExportFails() throws Exception {
+    gcsService.missingObjects.add(storage.getFileData(projectId, "assets/image3.png").gcsName);
+    try {
+      export(true);
+      fail();
+    } catch (IOException e) {
+      // expected
+    }
+    assertEquals(0, gcsService.getOpenChannels());
+  }
+
+  private Map<String, byte[]> export(boolean fatalError) throws IOException {
+    ProjectSourceZip zip = storage.exportProjectSourceZip(USER_ID, projectId, false, false,
+        null, false, false, fatalError);
+    assertEquals("ManyAssets.aia", zip.getFileName());
+    Map<String, byte[]> files = new TreeMap<String, byte[]>();
+    ZipInputStream in = new ZipInputStream(new ByteArrayInputStream(zip.getContent()));
+    ZipEntry entry;
+    while ((entry = in.getNextEntry()) != null) {
+      if (!entry.getName().equals("youngandroidproject/project.properties")) {
+        files.put(entry.getName(), ByteStreams.toByteArray(in));
+      }
+    }
+    return files;
+  }
+
+  private static void assertFilesEqual(Map<String, byte[]> expected, Map<String, byte[]> actual) {
+    assertEquals(expected.keySet(), actual.keySet());
+    for (Map.Entry<String, byte[]> entry : expected.entrySet()) {
+      assertTrue(entry.getKey(), Arrays.equals(entry.getValue(), actual.get(entry.getKey())));
+    }
+  }
+}
@@ -0,0 +1,74 @@
+// -*- mode: java; c-basic-offset: 2; -*-
+// Copyright 2016 MIT, All rights reserved
+// Released under the Apache License, Version 2.0
+// http://www.apache.org/licenses/LICENSE-2.0
+
+package com.google.appinventor.server.storage;
+
+import com.google.apphosting.api.ApiProxy;
+
+import java.util.List;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Counts the datastore and memcache calls made through the API proxy, from
+ * creation until uninstall is called.
+ *
+ */
+class StorageCallCounter implements ApiProxy.Delegate<ApiProxy.Environment> {
+  private final ApiProxy.Delegate<ApiProxy.Environment> delegate;
+  private final AtomicInteger count = new AtomicInteger();
+
+  @SuppressWarnings("unchecked")
+  StorageCallCounter() {
+    delegate = ApiProxy.getDelegate();
+    ApiProxy.setDelegate(this);
+  }
+
+  void uninstall() {
+    ApiProxy.setDelegate(delegate);
+  }
+
+  /*
+   * Returns the number of calls since the last reset.
+   */
+  int reset() {
+    return count.getAndSet(0);
+  }
+
+  private void count(String packageName) {
+    if (packageName.equals("datastore_v3") || packageName.equals("memcache")) {
+      count.incrementAndGet();
+    }
+  }
+
+  @Override
+  public byte[] makeSyncCall(ApiProxy.Environment environment, String packageName,
+      String methodName, byte[] request) {
+    count(packageName);
+    return delegate.makeSyncCall(environment, packageName, methodName, request);
+  }
+
+  @Override
+  public Future<byte[]> makeAsyncCall(ApiProxy.Environment environment, String packageName,
+      String methodName, byte[] request, ApiProxy.ApiConfig apiConfig) {
+    count(packageName);
+    return delegate.makeAsyncCall(environment, packageName, methodName, request, apiConfig);
+  }
+
+  @Override
+  public void log(ApiProxy.Environment environment, ApiProxy.LogRecord record) {
+    delegate.log(environment, record);
+  }
+
+  @Override
+  public void flushLogs(ApiProxy.Environment environment) {
+    delegate.flushLogs(environment);
+  }
+
+  @Override
+  public List<Thread> getRequestThreads(ApiProxy.Environment environment) {
+    return delegate.getRequestThreads(environment);
+  }
+}
@@ -0,0 +1,77 @@
+// -*- mode: java; c-basic-offset: 2; -*-
+// Copyright 2016 MIT, All rights reserved
+// Released under the Apache License, Version 2.0
+// http://www.apache.org/licenses/LICENSE-2.0
+
+package com.google.appinventor.server.storage;
+
+import com.google.appinventor.server.LocalDatastoreTestCase;
+import com.google.appinventor.shared.rpc.user.User;
+
+/**
+ * Tests for {@link UserCache}.
+ *
+ */
+public class UserCacheTest extends LocalDatastoreTestCase {
+
+  private static final String USER_ID = "2300";
+  private static final String USER_EMAIL = "newuser2300@test.com";
+
+  private ObjectifyStorageIo storage;
+
+  @Override
+  protected void setUp() throws Exception {
+    super.setUp();
+    ObjectifyStorageIo.requireTos.setForTest(false);
+    UserCache.invalidateAll();
+    storage = new ObjectifyStorageIo();
+    storage.getUser(USER_ID, USER_EMAIL);
+  }
+
+  @Override
+  public void tearDown() throws Exception {
+    ObjectifyStorageIo.requireTos.setForTest(false);
+    super.tearDown();
+  }
+
+  public void testGetUser() {
+    long hits = UserCache.getUserStats().hitCount();
+    User user = UserCache.getUser(storage, USER_ID);
+    assertEquals(USER_EMAIL, user.getUserEmail());
+    // Callers get their own copies, which they may modify.
+    user.setReadOnly(true);
+    User cachedUser = UserCache.getUser(storage, USER_ID);
+    assertEquals(hits + 1, UserCache.getUserStats().hitCount());
+    assertEquals(USER_EMAIL, cachedUser.getUserEmail());
+    assertFalse(cachedUser.isReadOnly());
+  }
+
+  public void testSettersInvalidateUser() {
+    UserCache.getUser(storage, USER_ID);
+    storage.setUserName(USER_ID, "New Name");
+    assertEquals("New Name", UserCache.getUser(storage, USER_ID).getUserName());
+    storage.setUserSessionId(USER_ID, "session2");
+    assertEquals("session2", UserCache.getUser(storage, USER_ID).getSessionId());
+    storage.setUserPassword(USER_ID, "hashed");
+    assertEquals("hashed", UserCache.getUser(storage, USER_ID).getPassword());
+  }
+
+  public void testUserWithoutTosIsNotCached() {
+    final String userId = "2400";
+    ObjectifyStorageIo.requireTos.setForTest(true);
+    storage.getUser(userId, "newuser2400@test.com");
+    long misses = UserCache.getUserStats().missCount();
+    assertFalse(UserCache.getUser(storage, userId).getUserTosAccepted());
+    assertFalse(UserCache.getUser(storage, userId).getUserTosAccepted());
+    assertEquals(misses + 2, UserCache.getUserStats().missCount());
+    storage.setTosAccepted(userId);
+    assertTrue(UserCache.getUser(storage, userId).getUserTosAccepted());
+  }
+
+  public void testCheckWhiteList() {
+    long hits = UserCache.getWhitelistStats().hitCount();
+    assertFalse(UserCache.checkWhiteList(storage, USER_EMAIL));
+    assertFalse(UserCache.checkWhiteList(storage, USER_EMAIL));
+    assertEquals(hits + 1, UserCache.getWhitelistStats().hitCount());
+  }
+}
@@ -0,0 +1,67 @@
+// -*- mode: java; c-basic-offset: 2; -*-
+// Copyright 2016 MIT, All rights reserved
+// Released under the Apache License, Version 2.0
+// http://www.apache.org/licenses/LICENSE-2.0
+
+package com.google.appinventor.shared.rpc.project;
+
+import junit.framework.TestCase;
+
+/**
+ * Unit tests for {@link FileDelta}.
+ *
+ */
+public class FileDeltaTest extends TestCase {
+
+  private static void checkDelta(String base, String content, String expectedText)
+      throws Exception {
+    FileDelta delta = FileDelta.create(base, ChecksumedLoadFile.computeChecksum(base), content,
+        ChecksumedLoadFile.computeChecksum(content));
+    assertEquals(expectedText, delta.getText());
+    assertEquals(content, delta.apply(base));
+  }
+
+  public void testCreateAndApply() throws Exception {
+    checkDelta("<xml><block id=\"1\"/></xml>", "<xml><block id=\"2\"/></xml>", "2");
+    checkDelta("<xml></xml>", "<xml><block/></xml>", "block/><");
+    checkDelta("<xml><block/></xml>", "<xml></xml>", "");
+    checkDelta("same", "same", "");
+    checkDelta("", "new", "new");
+    checkDelta("old", "", "");
+    // Repeated characters must not be counted in both the prefix and the suffix.
+    checkDelta("aaa", "aaaa", "a");
+    checkDelta("aaaa", "aa", "");
+  }
+
+  public void testChecksumMatchesLoadFile() throws Exception {
+    ChecksumedLoadFile loadFile = new ChecksumedLoadFile();
+    loadFile.setContent("<xml>\u00e9</xml>");
+    assertEquals(ChecksumedLoadFile.computeChecksum("<xml>\u00e9</xml>"),
+        loadFile.getChecksum());
+  }
+
+  public void testWrongBase() throws Exception {
+    String base = "<xml><block id=\"1\"/></xml>";
+    String content = "<xml><block id=\"2\"/></xml>";
+    FileDelta delta = FileDelta.create(base, ChecksumedLoadFile.computeChecksum(base), content,
+        ChecksumedLoadFile.computeChecksum(content));
+    try {
+      delta.apply("<xml><block id=\"3\"/></xml>");
+      fail();
+    } catch (ChecksumedFileException e) {
+      // Expected
+    }
+  }
+
+  public void testWrongChecksum() throws Exception {
+    String base = "<xml><block id=\"1\"/></xml>";
+    FileDelta delta = FileDelta.create(base, ChecksumedLoadFile.computeChecksum(base),
+        "<xml><block id=\"2\"/></xml>", ChecksumedLoadFile.computeChecksum(base));
+    try {
+      delta.apply(base);
+      fail();
+    } catch (ChecksumedFileException e) {
+      // Expected
+    }
+  }
+}
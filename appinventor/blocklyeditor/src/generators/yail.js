@@ -37,6 +37,7 @@ Blockly.Yail.YAIL_ADD_TO_LIST = "(add-to-list ";
 Blockly.Yail.YAIL_BEGIN = "(begin ";
 Blockly.Yail.YAIL_CALL_COMPONENT_METHOD = "(call-component-method ";
 Blockly.Yail.YAIL_CALL_COMPONENT_TYPE_METHOD = "(call-component-type-method ";
+Blockly.Yail.YAIL_CALL_TYPED_COMPONENT_METHOD = "(call-typed-component-method ";
 Blockly.Yail.YAIL_CALL_YAIL_PRIMITIVE = "(call-yail-primitive ";
 Blockly.Yail.YAIL_CLEAR_FORM = "(clear-current-form)";
 // The lines below are complicated because we want to support versions of the
@@ -93,6 +94,13 @@ Blockly.Yail.INTEGER_REGEXP = "^[\\s]*[-+]?[0-9]+[\\s]*$";
 Blockly.Yail.FLONUM_REGEXP = "^[\\s]*[-+]?([0-9]*)((\\.[0-9]+)|[0-9]\\.)[\\s]*$";
 
 
+/**
+ * True while generating code for an apk, where calls to methods of named components are bound
+ * to the component type when the Yail is compiled. The REPL keeps the dynamic calls, because
+ * older Companions do not have call-typed-component-method.
+ */
+Blockly.Yail.typedMethodCalls = false;
+
 /**
  * Generate the Yail code for this blocks workspace, given its associated form specification.
  * 
@@ -103,6 +111,18 @@ Blockly.Yail.FLONUM_REGEXP = "^[\\s]*[-+]?([0-9]*)((\\.[0-9]+)|[0-9]\\.)[\\s]*$"
  * @returns {String} the generated code if there were no errors.
  */
 Blockly.Yail.getFormYail = function(formJson, packageName, forRepl) {
+  Blockly.Yail.typedMethodCalls = !forRepl;
+  try {
+    return Blockly.Yail.getFormYailCode(formJson, packageName, forRepl);
+  } finally {
+    Blockly.Yail.typedMethodCalls = false;
+  }
+};
+
+/**
+ * Generate the Yail code for getFormYail, once typedMethodCalls has been set.
+ */
+Blockly.Yail.getFormYailCode = function(formJson, packageName, forRepl) {
   var jsonObject = JSON.parse(formJson); 
   // TODO: check for JSON parse error
   var componentNames = [];
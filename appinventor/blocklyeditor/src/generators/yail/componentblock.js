@@ -177,6 +177,25 @@ Blockly.Yail.methodHelper = function(methodBlock, name, methodName, generic) {
               + Blockly.Yail.valueToCode(methodBlock, 'ARG' + x, Blockly.Yail.ORDER_NONE));
   }
 
+  if (!generic && Blockly.Yail.typedMethodCalls) {
+    // The component type is known, so the call can be bound when the Yail is compiled.
+    return Blockly.Yail.YAIL_CALL_TYPED_COMPONENT_METHOD
+      + name
+      + Blockly.Yail.YAIL_SPACER
+      + Blockly.ComponentTypes[methodBlock.typeName].type
+      + Blockly.Yail.YAIL_SPACER
+      + methodName
+      + Blockly.Yail.YAIL_SPACER
+      + Blockly.Yail.YAIL_OPEN_COMBINATION
+      + args.join(' ')
+      + Blockly.Yail.YAIL_CLOSE_COMBINATION
+      + Blockly.Yail.YAIL_SPACER
+      + Blockly.Yail.YAIL_OPEN_COMBINATION
+      + yailTypes.join(' ')
+      + Blockly.Yail.YAIL_CLOSE_COMBINATION
+      + Blockly.Yail.YAIL_CLOSE_COMBINATION;
+  }
+
   return callPrefix
     + Blockly.Yail.YAIL_QUOTE
     + name
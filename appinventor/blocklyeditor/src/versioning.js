@@ -2055,7 +2055,12 @@ Blockly.Versioning.AllUpgradeMaps =
 
     // For FORM_COMPONENT_VERSION 19:
     // - The Screen1.HideKeyboard method was added and no block needs to be changed.
-    19: "noUpgrade"
+    19: "noUpgrade",
+
+    // For FORM_COMPONENT_VERSION 20:
+    // - The Screen1.BackgroundTasksWaiting and Screen1.BackgroundTasksRunning properties were
+    //   added and no block needs to be changed.
+    20: "noUpgrade"
 
   }, // End Screen
 
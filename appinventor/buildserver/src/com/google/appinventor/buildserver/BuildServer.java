@@ -8,11 +8,14 @@ package com.google.appinventor.buildserver;
 import com.google.appinventor.common.version.GitBuildId;
 import com.google.common.collect.ImmutableMap;
 import com.google.common.io.ByteStreams;
+import com.google.common.io.CountingInputStream;
+import com.google.common.io.CountingOutputStream;
 import com.google.common.io.Files;
 
 import com.sun.grizzly.http.SelectorThread;
 import com.sun.jersey.api.container.grizzly.GrizzlyServerFactory;
 
+import org.apache.commons.io.FileUtils;
 import org.codehaus.jettison.json.JSONException;
 import org.codehaus.jettison.json.JSONObject;
 import org.kohsuke.args4j.CmdLineException;
@@ -26,7 +29,10 @@ import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
 import java.io.PrintStream;
+import java.io.PushbackInputStream;
 import java.lang.management.ManagementFactory;
 import java.lang.management.MemoryMXBean;
 import java.lang.management.OperatingSystemMXBean;
@@ -38,12 +44,19 @@ import java.net.URL;
 import java.text.DateFormat;
 import java.util.Date;
 import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.logging.Logger;
 import java.util.zip.ZipEntry;
 import java.util.zip.ZipFile;
+import java.util.zip.ZipInputStream;
 import java.util.zip.ZipOutputStream;
 
 import javax.ws.rs.GET;
@@ -64,7 +77,10 @@ import javax.ws.rs.core.Response;
 // The Java class will be hosted at the URI path "/buildserver"
 @Path("/buildserver")
 public class BuildServer {
-  private ProjectBuilder projectBuilder = new ProjectBuilder();
+  // The progress of this build request and the resources used by each build stage.
+  private final BuildTrace trace = new BuildTrace();
+
+  private ProjectBuilder projectBuilder = new ProjectBuilder(trace);
 
   static class CommandLineOptions {
     @Option(name = "--shutdownToken",
@@ -79,6 +95,10 @@ public class BuildServer {
       usage = "Maximum number of builds that can run in parallel. O means unlimited.")
     int maxSimultaneousBuilds = 0;  // The default is unlimited.
 
+    @Option(name = "--maxQueuedBuilds",
+      usage = "Maximum number of builds that can wait for one of the maxSimultaneousBuilds to finish. Additional builds are rejected.")
+    int maxQueuedBuilds = 50;
+
     @Option(name = "--port",
       usage = "The port number to bind to on the local machine.")
     int port = 9990;
@@ -95,6 +115,22 @@ public class BuildServer {
             usage = "the directory to cache the pre-dexed libraries")
     String dexCacheDir = null;
 
+    @Option(name = "--classCacheDir",
+      usage = "The directory to cache the classes compiled from each screen. If not set, every screen is compiled in every build.")
+    String classCacheDir = null;
+
+    @Option(name = "--classCacheSizeMb",
+      usage = "Maximum size of the compiled class cache, in MB.")
+    int classCacheSizeMb = 1024;
+
+    @Option(name = "--maxChildProcesses",
+      usage = "Maximum number of Kawa or dx child processes that can run in parallel. 0 means compute it from childProcessRamMb, the free memory and the number of processors.")
+    int maxChildProcesses = 0;
+
+    @Option(name = "--kawaWorkers",
+      usage = "Number of long-lived Kawa compiler processes to keep warm. 0 means start a new Kawa process for every build. -1 means one for each parallel child process.")
+    int kawaWorkers = -1;
+
   }
 
   private static final CommandLineOptions commandLineOptions = new CommandLineOptions();
@@ -106,6 +142,13 @@ public class BuildServer {
     new MediaType("application", "vnd.android.package-archive",
       ImmutableMap.of("charset", "utf-8"));
 
+  // The response header of build-all-from-zip-async that holds the estimated number of seconds
+  // until a queued build starts.
+  static final String ESTIMATED_START_HEADER = "Estimated-Start-Seconds";
+
+  // The chunk size used to stream the build results to the callback.
+  private static final int CALLBACK_CHUNK_SIZE = 64 * 1024;
+
   private static final MediaType ZIP_MEDIA_TYPE =
     new MediaType("application", "zip", ImmutableMap.of("charset", "utf-8"));
 
@@ -126,15 +169,42 @@ public class BuildServer {
   //The number of failed build requests for this server run
   private static int maximumActiveBuildTasks = 0;
 
+  // The number of bytes of project files extracted to disk by async build requests
+  private static final AtomicLong extractedBytes = new AtomicLong(0);
+
+  // The number of bytes that async build requests would have written to temp files before they
+  // were streamed: the input zip, the extracted project, the APK and keystore copied into the
+  // output directory and the result zip
+  private static final AtomicLong stagedBytesBeforeStreaming = new AtomicLong(0);
+
+  // The traces of the queued and running async builds, keyed by the build id that the App
+  // Inventor server sends with the build request and with its progress queries.
+  private static final ConcurrentMap<String, BuildTrace> activeBuilds =
+    new ConcurrentHashMap<String, BuildTrace>();
+
+  // The resources used by each build stage, over all builds of this server run
+  private static final StageHistograms stageHistograms = new StageHistograms();
+
   // The build executor used to limit the number of simultaneous builds.
   // NOTE(lizlooney) - the buildExecutor must be created after the command line options are
   // processed in main(). If it is created here, the number of simultaneous builds will always be
   // the default value, even if the --maxSimultaneousBuilds option is on the command line.
-  private static NonQueuingExecutor buildExecutor;
+  private static FairQueuingExecutor buildExecutor;
 
   // The input zip file. It will be deleted in cleanUp.
   private File inputZip;
 
+  // The directory that the project of an async build request is extracted into and built in. It
+  // will be deleted in cleanUp.
+  private File projectRoot;
+
+  // The source files extracted into projectRoot, or null if the project could not be extracted.
+  private List<String> sourceFiles;
+
+  // The number of bytes that this async build request would have written to temp files before
+  // it was streamed.
+  private long stagedBytes;
+
   // The built APK file for this build request, if any.
   private File outputApk;
 
@@ -219,6 +289,13 @@ public class BuildServer {
     variables.put("rejected-async-build-requests", rejectedAsyncBuildRequests.get() + "");
     variables.put("successful-async-build-requests", successfulBuildRequests.get() + "");
     variables.put("failed-async-build-requests", failedBuildRequests.get() + "");
+    int buildRequests = successfulBuildRequests.get() + failedBuildRequests.get();
+    variables.put("extracted-bytes", extractedBytes.get() + "");
+    variables.put("average-extracted-bytes-per-build",
+        (buildRequests == 0 ? 0 : extractedBytes.get() / buildRequests) + "");
+    variables.put("staged-bytes-before-streaming", stagedBytesBeforeStreaming.get() + "");
+    variables.put("average-staged-bytes-per-build-before-streaming",
+        (buildRequests == 0 ? 0 : stagedBytesBeforeStreaming.get() / buildRequests) + "");
 
     // Build tasks
     int max = buildExecutor.getMaxActiveTasks();
@@ -231,6 +308,33 @@ public class BuildServer {
     maximumActiveBuildTasks = Math.max(maximumActiveBuildTasks, buildExecutor.getActiveTaskCount());
     variables.put("maximum-simultaneous-build-tasks-occurred", maximumActiveBuildTasks + "");
     variables.put("active-build-tasks", buildExecutor.getActiveTaskCount() + "");
+    buildExecutor.addVariables(variables);
+    variables.put("traced-build-tasks", activeBuilds.size() + "");
+    stageHistograms.addVariables(variables);
+
+    // Child processes
+    Compiler.getChildProcessScheduler().addVariables(variables);
+
+    // Compiled class cache
+    CompiledClassCache compiledClassCache = Compiler.getCompiledClassCache();
+    if (compiledClassCache != null) {
+      variables.put("class-cache-hits", compiledClassCache.getHits() + "");
+      variables.put("class-cache-misses", compiledClassCache.getMisses() + "");
+      variables.put("class-cache-evictions", compiledClassCache.getEvictions() + "");
+      variables.put("class-cache-entries", compiledClassCache.getEntryCount() + "");
+      variables.put("class-cache-bytes", compiledClassCache.getTotalBytes() + "");
+      variables.put("class-cache-max-bytes", compiledClassCache.getMaxBytes() + "");
+    }
+
+    // Kawa workers
+    KawaCompilerPool kawaCompilerPool = Compiler.getKawaCompilerPool();
+    if (kawaCompilerPool != null) {
+      variables.put("kawa-workers", kawaCompilerPool.getSize() + "");
+      variables.put("kawa-workers-started", kawaCompilerPool.getWorkersStarted() + "");
+      variables.put("kawa-warm-jobs", kawaCompilerPool.getWarmJobs() + "");
+      variables.put("kawa-cold-jobs", kawaCompilerPool.getColdJobs() + "");
+      variables.put("kawa-failed-jobs", kawaCompilerPool.getFailedJobs() + "");
+    }
 
     StringBuilder html = new StringBuilder();
     html.append("<html><body><tt>");
@@ -374,11 +478,22 @@ public class BuildServer {
    * The status code returned here will be seen by the server in YoungAndroidProjectService.build
    * as connection.getResponseCode().
    *
+   * If the maximum number of builds are already running, the build is queued and the estimated
+   * number of seconds until it starts is returned in the {@link #ESTIMATED_START_HEADER} header.
+   * Only when the queue is full is the request rejected.
+   *
+   * A request with an empty body is a progress query. The response holds the progress, in percent,
+   * of the queued or running build with the given buildId, or 0 if there is no such build.
+   *
    * @param userName  The user name to be used in making the CN entry in the generated keystore.
    * @param gitBuildVersion  The value of GitBuildId.getVersion() sent from
    *     YoungAndroidProjectService.build.
    * @param callbackUrlStr An url to send the build results back to.
-   * @param inputZipFile  The zip file representing the App Inventor source code.
+   * @param buildId  An id, unique to the project and build target, for progress queries. May be
+   *     null for App Inventor servers that don't send one.
+   * @param inputZipStream  The zip file representing the App Inventor source code. It is
+   *     extracted as it is read, without first being saved to disk, once the build has been
+   *     admitted.
    * @return a status response, typically OK (200) or SERVICE_UNAVAILABLE (503).
    */
   @POST
@@ -388,17 +503,23 @@ public class BuildServer {
     @QueryParam("uname") final String userName,
     @QueryParam("callback") final String callbackUrlStr,
     @QueryParam("gitBuildVersion") final String gitBuildVersion,
-    final File inputZipFile) throws IOException {
-    // Set the inputZip field so we can delete the input zip file later in
-    // cleanUp.
-    inputZip = inputZipFile;
-    inputZip.deleteOnExit(); // In case build server is killed before cleanUp executes.
+    @QueryParam("buildId") String buildId,
+    InputStream inputZipStream) throws IOException {
     String requesting_host = (new URL(callbackUrlStr)).getHost();
+    // Builds from App Inventor servers that don't send a buildId get an id of their own, so
+    // that their traces and progress are kept apart.
+    final String buildKey = buildId == null ? UUID.randomUUID().toString() : buildId;
+    PushbackInputStream inputStream = new PushbackInputStream(inputZipStream);
+    int firstByte = inputStream.read();
 
     //for the request for update part, the file should be empty
-    if (inputZip.length() == 0L) {
+    if (firstByte == -1) {
       cleanUp();
+      BuildTrace activeTrace = activeBuilds.get(buildKey);
+      return Response.ok().type(MediaType.TEXT_PLAIN_TYPE)
+        .entity("" + (activeTrace == null ? 0 : activeTrace.getProgress())).build();
     } else {
+      inputStream.unread(firstByte);
       if (getShutdownState() == ShutdownState.DOWN) {
         LOG.info("request received while shutdown completely");
         return Response.status(Response.Status.FORBIDDEN).type(MediaType.TEXT_PLAIN_TYPE).entity("Temporary build error, try again.").build();
@@ -442,57 +563,77 @@ public class BuildServer {
         }
       }
 
+      // The build is admitted before the project is extracted, so that a rejected build doesn't
+      // write anything to disk. The build task waits until the project has been extracted.
+      final CountDownLatch extracted = new CountDownLatch(1);
       Runnable buildTask = new Runnable() {
           @Override
           public void run() {
             int count = buildCount.incrementAndGet();
             try {
+              extracted.await();
               LOG.info("START NEW BUILD " + count);
               checkMemory();
-              buildAndCreateZip(userName, inputZipFile);
+              Result buildResult = sourceFiles == null
+                ? Result.createFailingResult("", "Problems processing zip file.")
+                : build(userName, projectRoot, sourceFiles);
+              // The temp file path also copied the APK and keystore into the output directory.
+              if (outputApk != null) {
+                stagedBytes += outputApk.length();
+              }
+              if (outputKeystore != null) {
+                stagedBytes += outputKeystore.length();
+              }
               // Send zip back to the callbackUrl
               LOG.info("CallbackURL: " + callbackUrlStr);
               URL callbackUrl = new URL(callbackUrlStr);
               HttpURLConnection connection = (HttpURLConnection) callbackUrl.openConnection();
               connection.setDoOutput(true);
               connection.setRequestMethod("POST");
+              // Stream the zip as it is created, instead of buffering all of it in memory.
+              connection.setChunkedStreamingMode(CALLBACK_CHUNK_SIZE);
               // Make sure we aren't misinterpreted as
               // form-url-encoded
               connection.addRequestProperty("Content-Type","application/zip; charset=utf-8");
               connection.setConnectTimeout(60000);
               connection.setReadTimeout(60000);
-              BufferedOutputStream bufferedOutputStream = new BufferedOutputStream(connection.getOutputStream());
+              CountingOutputStream outputStream = new CountingOutputStream(
+                new BufferedOutputStream(connection.getOutputStream()));
               try {
-                BufferedInputStream bufferedInputStream = new BufferedInputStream(
-                  new FileInputStream(outputZip));
-                try {
-                  ByteStreams.copy(bufferedInputStream,bufferedOutputStream);
-                  checkMemory();
-                  bufferedOutputStream.flush();
-                } finally {
-                  bufferedInputStream.close();
-                }
+                writeBuildZip(buildResult, outputStream);
+                checkMemory();
+                outputStream.flush();
               } finally {
-                bufferedOutputStream.close();
+                outputStream.close();
               }
+              // The temp file path wrote the result zip to disk before sending it.
+              stagedBytes += outputStream.getCount();
               if (connection.getResponseCode() != HttpURLConnection.HTTP_OK) {LOG.severe("Bad Response Code!: "+ connection.getResponseCode());
                 // TODO(user) Maybe do some retries
               }
             } catch (Exception e) {
               // TODO(user): Maybe send a failure callback
-              LOG.severe("Exception: " + e.getMessage()+ " and the length is of inputZip is "+ inputZip.length());
+              LOG.severe("Exception: " + e.getMessage()+ " while building "+ projectRoot);
             } finally {
+              activeBuilds.remove(buildKey, trace);
+              if (sourceFiles != null) {
+                stageHistograms.record(trace);
+                stagedBytesBeforeStreaming.addAndGet(stagedBytes);
+              }
               cleanUp();
               checkMemory();
               LOG.info("BUILD " + count + " FINISHED");
             }
           }
         };
+      long estimatedStartMs;
+      activeBuilds.put(buildKey, trace);
       try {
-        buildExecutor.execute(buildTask);
+        estimatedStartMs = buildExecutor.execute(userName, buildTask);
       } catch (RejectedExecutionException e) {
         // This request was rejected because all threads in the build
-        // executor are busy.
+        // executor are busy and the queue is full.
+        activeBuilds.remove(buildKey, trace);
         rejectedAsyncBuildRequests.incrementAndGet();
         cleanUp();
         // Here, we use SERVICE_UNAVAILABLE (response code 503), which
@@ -503,19 +644,61 @@ public class BuildServer {
         // alleviated after some delay."
         return Response.status(Response.Status.SERVICE_UNAVAILABLE).type(MediaType.TEXT_PLAIN_TYPE).entity("The build server is currently at maximum capacity.").build();
       }
+
+      // Extract the project while reading the request, so that the zip is never written to disk.
+      // A queued build keeps only the extracted project.
+      try {
+        projectRoot = Files.createTempDir();
+        projectRoot.deleteOnExit(); // In case build server is killed before cleanUp executes.
+        CountingInputStream countingStream = new CountingInputStream(inputStream);
+        sourceFiles = ProjectBuilder.extractProjectFiles(
+          new ZipInputStream(new BufferedInputStream(countingStream)), projectRoot);
+        // Read the rest of the zip, its central directory, to count all of its bytes.
+        ByteStreams.copy(countingStream, ByteStreams.nullOutputStream());
+        long projectBytes = FileUtils.sizeOfDirectory(projectRoot);
+        extractedBytes.addAndGet(projectBytes);
+        // The temp file path saved the zip and then extracted it.
+        stagedBytes = countingStream.getCount() + projectBytes;
+      } catch (IOException e) {
+        LOG.severe("unexpected problem extracting project file from zip");
+        // The build task reports the failure to the callback, as the build would have.
+        sourceFiles = null;
+      } finally {
+        extracted.countDown();
+      }
+
+      if (estimatedStartMs > 0) {
+        // The build is queued. Round up, so that a queued build never reports 0 seconds.
+        return Response.ok().type(MediaType.TEXT_PLAIN_TYPE)
+          .header(ESTIMATED_START_HEADER, (estimatedStartMs + 999) / 1000)
+          .entity("" + trace.getProgress()).build();
+      }
     }
     return Response.ok().type(MediaType.TEXT_PLAIN_TYPE)
-      .entity("" + projectBuilder.getProgress()).build();
+      .entity("" + trace.getProgress()).build();
   }
 
   private void buildAndCreateZip(String userName, File inputZipFile)
     throws IOException, JSONException {
     Result buildResult = build(userName, inputZipFile);
-    boolean buildSucceeded = buildResult.succeeded();
     outputZip = File.createTempFile(inputZipFile.getName(), ".zip");
     outputZip.deleteOnExit();  // In case build server is killed before cleanUp executes.
-    ZipOutputStream zipOutputStream =
-      new ZipOutputStream(new BufferedOutputStream(new FileOutputStream(outputZip)));
+    OutputStream outputStream = new BufferedOutputStream(new FileOutputStream(outputZip));
+    try {
+      writeBuildZip(buildResult, outputStream);
+    } finally {
+      outputStream.close();
+    }
+  }
+
+  /*
+   * Writes the build results to the given stream, as a zip that contains build.out and, if the
+   * build succeeded, the APK and the generated keystore.
+   */
+  private void writeBuildZip(Result buildResult, OutputStream outputStream)
+    throws IOException, JSONException {
+    boolean buildSucceeded = buildResult.succeeded();
+    ZipOutputStream zipOutputStream = new ZipOutputStream(outputStream);
     if (buildSucceeded) {
       if (outputKeystore != null) {
         zipOutputStream.putNextEntry(new ZipEntry(outputKeystore.getName()));
@@ -533,8 +716,7 @@ public class BuildServer {
     PrintStream zipPrintStream = new PrintStream(zipOutputStream);
     zipPrintStream.print(buildOutputJson);
     zipPrintStream.flush();
-    zipOutputStream.flush();
-    zipOutputStream.close();
+    zipOutputStream.finish();
   }
 
   private String genBuildOutput(Result buildResult) throws JSONException {
@@ -545,6 +727,17 @@ public class BuildServer {
     if (buildResult.getFormName() != null) {
       buildOutputJsonObj.put("formName", buildResult.getFormName());
     }
+    JSONObject traceJsonObj = new JSONObject();
+    for (BuildTrace.Stage stage : buildResult.getTrace().getStages()) {
+      JSONObject stageJsonObj = new JSONObject();
+      stageJsonObj.put("wallMs", stage.getWallMs());
+      stageJsonObj.put("cpuMs", stage.getCpuMs());
+      if (stage.getPeakChildRssKb() >= 0) {
+        stageJsonObj.put("peakChildRssKb", stage.getPeakChildRssKb());
+      }
+      traceJsonObj.put(stage.getName(), stageJsonObj);
+    }
+    buildOutputJsonObj.put("trace", traceJsonObj);
     return buildOutputJsonObj.toString();
   }
 
@@ -559,6 +752,7 @@ public class BuildServer {
       commandLineOptions.childProcessRamMb, commandLineOptions.dexCacheDir);
     String buildOutput = buildResult.getOutput();
     LOG.info("Build output: " + buildOutput);
+    LOG.info("Build trace: " + buildResult.getTrace());
     String buildError = buildResult.getError();
     LOG.info("Build error output: " + buildError);
     outputApk = projectBuilder.getOutputApk();
@@ -573,6 +767,22 @@ public class BuildServer {
     return buildResult;
   }
 
+  /*
+   * Builds a project that was extracted into the given project root. The APK and keystore are
+   * left in the project root, from where they are streamed to the callback.
+   */
+  private Result build(String userName, File projectRoot, List<String> sourceFiles) {
+    Result buildResult = projectBuilder.build(userName, projectRoot, sourceFiles, false,
+      commandLineOptions.childProcessRamMb, commandLineOptions.dexCacheDir);
+    LOG.info("Build output: " + buildResult.getOutput());
+    LOG.info("Build trace: " + buildResult.getTrace());
+    LOG.info("Build error output: " + buildResult.getError());
+    outputApk = projectBuilder.getOutputApk();
+    outputKeystore = projectBuilder.getOutputKeystore();
+    checkMemory();
+    return buildResult;
+  }
+
   private void cleanUp() {
     if (inputZip != null) {
       inputZip.delete();
@@ -589,6 +799,13 @@ public class BuildServer {
     if (outputDir != null) {
       outputDir.delete();
     }
+    if (projectRoot != null) {
+      try {
+        FileUtils.deleteDirectory(projectRoot);
+      } catch (IOException e) {
+        LOG.warning("Unable to delete " + projectRoot + ": " + e.getMessage());
+      }
+    }
   }
 
   private static void checkMemory() {
@@ -612,7 +829,32 @@ public class BuildServer {
     }
 
     // Now that the command line options have been processed, we can create the buildExecutor.
-    buildExecutor = new NonQueuingExecutor(commandLineOptions.maxSimultaneousBuilds);
+    buildExecutor = new FairQueuingExecutor(commandLineOptions.maxSimultaneousBuilds,
+        commandLineOptions.maxQueuedBuilds);
+
+    int maxChildProcesses = commandLineOptions.maxChildProcesses;
+    if (maxChildProcesses == 0) {
+      maxChildProcesses =
+          ChildProcessScheduler.computeMaxChildProcesses(commandLineOptions.childProcessRamMb);
+    }
+    Compiler.setChildProcessScheduler(new ChildProcessScheduler(maxChildProcesses));
+
+    if (commandLineOptions.classCacheDir != null) {
+      Compiler.setCompiledClassCache(new CompiledClassCache(
+          new File(commandLineOptions.classCacheDir),
+          commandLineOptions.classCacheSizeMb * 1024L * 1024L));
+    }
+
+    int kawaWorkers = commandLineOptions.kawaWorkers;
+    if (kawaWorkers < 0) {
+      kawaWorkers = maxChildProcesses;
+    }
+    if (kawaWorkers > 0) {
+      KawaCompilerPool kawaCompilerPool = new KawaCompilerPool(kawaWorkers,
+          commandLineOptions.childProcessRamMb);
+      Compiler.setKawaCompilerPool(kawaCompilerPool);
+      kawaCompilerPool.prestart();
+    }
 
     int port = commandLineOptions.port;
     SelectorThread threadSelector = GrizzlyServerFactory.create("http://localhost:" + port + "/");
@@ -624,6 +866,7 @@ public class BuildServer {
       LOG.info("Maximum simultanous builds = unlimited!");
     } else {
       LOG.info("Maximum simultanous builds = " + commandLineOptions.maxSimultaneousBuilds);
+      LOG.info("Maximum queued builds = " + commandLineOptions.maxQueuedBuilds);
     }
     LOG.info("Visit: http://" + hostAddress + ":" + port +
       "/buildserver/health for server health");
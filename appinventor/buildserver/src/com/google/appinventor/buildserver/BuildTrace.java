@@ -0,0 +1,182 @@
+// -*- mode: java; c-basic-offset: 2; -*-
+// Copyright 2016 MIT, All rights reserved
+// Released under the Apache License, Version 2.0
+// http://www.apache.org/licenses/LICENSE-2.0
+
+package com.google.appinventor.buildserver;
+
+import com.google.common.base.Ticker;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Records the progress of one build and the resources used by each of its
+ * stages.
+ *
+ * <p>For every stage the trace keeps the wall time, the CPU time and the
+ * peak resident set size of the child processes that the stage started. The
+ * CPU time is the time of the build thread during the stage plus the CPU
+ * time of the stage's child processes. Child process statistics are sampled
+ * (see {@link ProcessSampler}) and are only available on Linux.
+ *
+ */
+final class BuildTrace {
+  static final String MANIFEST = "manifest";
+  static final String AAPT = "aapt";
+  static final String KAWA = "kawa";
+  static final String DX = "dx";
+  static final String PACKAGE = "package";
+  static final String TOTAL = "total";
+
+  private static final ThreadMXBean THREAD_BEAN = ManagementFactory.getThreadMXBean();
+
+  // Measures the wall time of the stages.
+  private final Ticker ticker;
+
+  // Stages in the order they started. Guarded by this.
+  private final Map<String, Stage> stages = new LinkedHashMap<String, Stage>();
+
+  private volatile int progress;
+
+  BuildTrace() {
+    this(Ticker.systemTicker());
+  }
+
+  /**
+   * Creates a BuildTrace that measures wall time with the given ticker, so
+   * that tests can control it.
+   */
+  BuildTrace(Ticker ticker) {
+    this.ticker = ticker;
+  }
+
+  /**
+   * Starts timing the given stage in the current thread. If the stage ran
+   * before, the new time is added to it.
+   */
+  synchronized Stage startStage(String name) {
+    Stage stage = stages.get(name);
+    if (stage == null) {
+      stage = new Stage(name, ticker);
+      stages.put(name, stage);
+    }
+    stage.start();
+    return stage;
+  }
+
+  synchronized List<Stage> getStages() {
+    return new ArrayList<Stage>(stages.values());
+  }
+
+  /**
+   * Returns the progress of the build, in percent.
+   */
+  int getProgress() {
+    return progress;
+  }
+
+  void setProgress(int progress) {
+    this.progress = progress;
+  }
+
+  @Override
+  public String toString() {
+    StringBuilder sb = new StringBuilder();
+    for (Stage stage : getStages()) {
+      if (sb.length() > 0) {
+        sb.append(", ");
+      }
+      sb.append(stage);
+    }
+    return sb.toString();
+  }
+
+  private static long readWallMs(Ticker ticker) {
+    return ticker.read() / 1000000;
+  }
+
+  private static long getThreadCpuMs() {
+    return THREAD_BEAN.isCurrentThreadCpuTimeSupported()
+        ? THREAD_BEAN.getCurrentThreadCpuTime() / 1000000
+        : 0;
+  }
+
+  /**
+   * The resources used by one build stage. Child processes may be added
+   * from any thread.
+   */
+  static final class Stage {
+    private final String name;
+    private final Ticker ticker;
+    private long startWallMs;
+    private long startCpuMs;
+    private long wallMs;
+    private long cpuMs;
+    private long peakChildRssKb = -1;
+
+    private Stage(String name, Ticker ticker) {
+      this.name = name;
+      this.ticker = ticker;
+    }
+
+    private synchronized void start() {
+      startWallMs = readWallMs(ticker);
+      startCpuMs = getThreadCpuMs();
+    }
+
+    /**
+     * Stops timing the stage. Must be called by the thread that started it.
+     *
+     * @return the wall time of the stage, in milliseconds
+     */
+    synchronized long end() {
+      wallMs += readWallMs(ticker) - startWallMs;
+      cpuMs += getThreadCpuMs() - startCpuMs;
+      return wallMs;
+    }
+
+    /**
+     * Adds the resources used by a child process of this stage.
+     *
+     * @param childCpuMs the CPU time of the child process, in milliseconds
+     * @param childPeakRssKb the peak resident set size of the child process,
+     *     in KB, or -1 if unknown
+     */
+    synchronized void addChildProcess(long childCpuMs, long childPeakRssKb) {
+      cpuMs += childCpuMs;
+      peakChildRssKb = Math.max(peakChildRssKb, childPeakRssKb);
+    }
+
+    String getName() {
+      return name;
+    }
+
+    synchronized long getWallMs() {
+      return wallMs;
+    }
+
+    synchronized long getCpuMs() {
+      return cpuMs;
+    }
+
+    /**
+     * Returns the peak resident set size of the child processes of this
+     * stage, in KB, or -1 if the stage has no child processes or it is
+     * unknown.
+     */
+    synchronized long getPeakChildRssKb() {
+      return peakChildRssKb;
+    }
+
+    @Override
+    public synchronized String toString() {
+      return name + ": " + wallMs + " ms wall, " + cpuMs + " ms cpu" +
+          (peakChildRssKb < 0 ? "" : ", " + peakChildRssKb + " KB child rss");
+    }
+  }
+}
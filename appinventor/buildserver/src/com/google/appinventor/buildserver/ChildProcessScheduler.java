@@ -0,0 +1,164 @@
+// -*- mode: java; c-basic-offset: 2; -*-
+// Copyright 2016 MIT, All rights reserved
+// Released under the Apache License, Version 2.0
+// http://www.apache.org/licenses/LICENSE-2.0
+
+package com.google.appinventor.buildserver;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.OperatingSystemMXBean;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Logger;
+
+/**
+ * Limits the number of memory hungry child processes (Kawa and dx) that run
+ * at the same time across all builds.
+ *
+ * <p>Each build stage that launches a child process calls
+ * {@link #acquire(String)} before and {@link #release(String)} after the
+ * child runs. Waiting stages are served in arrival order. The scheduler keeps
+ * the queue depth and wait time of every stage for the /buildserver/vars page.
+ *
+ */
+final class ChildProcessScheduler {
+  static final String KAWA_STAGE = "kawa";
+  static final String DX_STAGE = "dx";
+
+  // Memory kept free for the build server itself and the operating system, in MB.
+  private static final long RESERVED_MEMORY_MB = 512;
+
+  private final int maxChildProcesses;
+  private final Semaphore permits;
+  private final ConcurrentMap<String, StageStats> stageStats =
+      new ConcurrentHashMap<String, StageStats>();
+
+  // Logging support
+  private static final Logger LOG = Logger.getLogger(ChildProcessScheduler.class.getName());
+
+  /**
+   * Creates a ChildProcessScheduler.
+   *
+   * @param maxChildProcesses the maximum number of child processes that can
+   *     run at the same time
+   */
+  ChildProcessScheduler(int maxChildProcesses) {
+    this.maxChildProcesses = Math.max(1, maxChildProcesses);
+    permits = new Semaphore(this.maxChildProcesses, true);
+  }
+
+  /**
+   * Computes how many child processes this machine can run at the same time.
+   * The result is the number of child processes of {@code childProcessRamMb}
+   * that fit in the free physical memory, but no more than the number of
+   * processors and no less than one.
+   *
+   * @param childProcessRamMb maximum ram that can be used by a child process, in MB
+   */
+  static int computeMaxChildProcesses(int childProcessRamMb) {
+    int processors = Runtime.getRuntime().availableProcessors();
+    long freeMemoryMb = getFreePhysicalMemoryMb();
+    if (freeMemoryMb < 0) {
+      LOG.warning("Unable to determine free physical memory, allowing one child process.");
+      return 1;
+    }
+    long byMemory = (freeMemoryMb - RESERVED_MEMORY_MB) / Math.max(1, childProcessRamMb);
+    int max = (int) Math.max(1, Math.min(processors, byMemory));
+    LOG.info("Free memory " + freeMemoryMb + " MB, " + processors + " processors: allowing " +
+        max + " simultaneous child processes.");
+    return max;
+  }
+
+  /*
+   * Returns the free physical memory in MB, or -1 if the JVM does not report it.
+   */
+  private static long getFreePhysicalMemoryMb() {
+    OperatingSystemMXBean osBean = ManagementFactory.getOperatingSystemMXBean();
+    if (osBean instanceof com.sun.management.OperatingSystemMXBean) {
+      long freeBytes =
+          ((com.sun.management.OperatingSystemMXBean) osBean).getFreePhysicalMemorySize();
+      return freeBytes / (1024 * 1024);
+    }
+    return -1;
+  }
+
+  /**
+   * Waits until a child process for the given stage may be started.
+   *
+   * @param stage the name of the build stage
+   */
+  void acquire(String stage) {
+    StageStats stats = getStats(stage);
+    stats.waiting.incrementAndGet();
+    long start = System.currentTimeMillis();
+    permits.acquireUninterruptibly();
+    long waited = System.currentTimeMillis() - start;
+    stats.waiting.decrementAndGet();
+    stats.running.incrementAndGet();
+    stats.count.incrementAndGet();
+    stats.totalWaitMs.addAndGet(waited);
+    long max;
+    while (waited > (max = stats.maxWaitMs.get())) {
+      if (stats.maxWaitMs.compareAndSet(max, waited)) {
+        break;
+      }
+    }
+    if (waited > 0) {
+      LOG.info("Stage " + stage + " waited " + waited + " ms for a child process slot.");
+    }
+  }
+
+  /**
+   * Indicates that the child process for the given stage has finished.
+   *
+   * @param stage the name of the build stage
+   */
+  void release(String stage) {
+    getStats(stage).running.decrementAndGet();
+    permits.release();
+  }
+
+  int getMaxChildProcesses() {
+    return maxChildProcesses;
+  }
+
+  /**
+   * Adds the statistics of every stage to the given map of variables.
+   */
+  void addVariables(Map<String, String> variables) {
+    variables.put("maximum-simultaneous-child-processes", maxChildProcesses + "");
+    for (Map.Entry<String, StageStats> entry : stageStats.entrySet()) {
+      String stage = entry.getKey();
+      StageStats stats = entry.getValue();
+      long count = stats.count.get();
+      variables.put(stage + "-queue-depth", stats.waiting.get() + "");
+      variables.put(stage + "-running", stats.running.get() + "");
+      variables.put(stage + "-count", count + "");
+      variables.put(stage + "-total-wait-ms", stats.totalWaitMs.get() + "");
+      variables.put(stage + "-average-wait-ms",
+          (count == 0 ? 0 : stats.totalWaitMs.get() / count) + "");
+      variables.put(stage + "-maximum-wait-ms", stats.maxWaitMs.get() + "");
+    }
+  }
+
+  private StageStats getStats(String stage) {
+    StageStats stats = stageStats.get(stage);
+    if (stats == null) {
+      stageStats.putIfAbsent(stage, new StageStats());
+      stats = stageStats.get(stage);
+    }
+    return stats;
+  }
+
+  private static class StageStats {
+    final AtomicInteger waiting = new AtomicInteger(0);
+    final AtomicInteger running = new AtomicInteger(0);
+    final AtomicLong count = new AtomicLong(0);
+    final AtomicLong totalWaitMs = new AtomicLong(0);
+    final AtomicLong maxWaitMs = new AtomicLong(0);
+  }
+}
@@ -0,0 +1,235 @@
+// -*- mode: java; c-basic-offset: 2; -*-
+// Copyright 2016 MIT, All rights reserved
+// Released under the Apache License, Version 2.0
+// http://www.apache.org/licenses/LICENSE-2.0
+
+package com.google.appinventor.buildserver;
+
+import com.google.common.io.ByteStreams;
+import com.google.common.io.Files;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+import java.util.zip.ZipOutputStream;
+
+/**
+ * A content-addressed disk cache of the class files that Kawa generates for
+ * one source file.
+ *
+ * <p>Each entry is a zip file named after its key, holding the class files
+ * with paths relative to the classes directory. Callers compute the key from
+ * everything that affects the generated classes (see
+ * {@link Compiler#getClassCacheKey}). When the total size of the entries
+ * exceeds the limit, the least recently used entries are deleted.
+ *
+ */
+final class CompiledClassCache {
+  private static final String ENTRY_SUFFIX = ".zip";
+
+  private final File cacheDir;
+  private final long maxBytes;
+
+  // Entry file name to entry size, in least recently used order.
+  private final LinkedHashMap<String, Long> entries =
+      new LinkedHashMap<String, Long>(16, 0.75f, true);
+  private long totalBytes;
+
+  private int hits;
+  private int misses;
+  private int evictions;
+
+  // Logging support
+  private static final Logger LOG = Logger.getLogger(CompiledClassCache.class.getName());
+
+  /**
+   * Creates a CompiledClassCache, indexing any entries already in the
+   * directory.
+   *
+   * @param cacheDir the directory that holds the cache entries
+   * @param maxBytes the maximum total size of the entries
+   */
+  CompiledClassCache(File cacheDir, long maxBytes) {
+    this.cacheDir = cacheDir;
+    this.maxBytes = maxBytes;
+    cacheDir.mkdirs();
+    File[] files = cacheDir.listFiles();
+    if (files != null) {
+      // Oldest first, so that the least recently used entries are evicted first.
+      Arrays.sort(files, new Comparator<File>() {
+        @Override
+        public int compare(File f1, File f2) {
+          long m1 = f1.lastModified();
+          long m2 = f2.lastModified();
+          return m1 < m2 ? -1 : (m1 == m2 ? 0 : 1);
+        }
+      });
+      for (File file : files) {
+        if (file.isFile() && file.getName().endsWith(ENTRY_SUFFIX)) {
+          entries.put(file.getName(), file.length());
+          totalBytes += file.length();
+        } else if (file.isFile()) {
+          // Left over from an interrupted store.
+          file.delete();
+        }
+      }
+    }
+    LOG.info("Compiled class cache " + cacheDir + ": " + entries.size() + " entries, " +
+        totalBytes + " bytes");
+  }
+
+  /**
+   * Restores the class files for the given key into the classes directory.
+   *
+   * @param key the cache key
+   * @param classesDir the classes directory of the build
+   * @return {@code true} on a cache hit, {@code false} otherwise
+   */
+  boolean restore(String key, File classesDir) {
+    String name = key + ENTRY_SUFFIX;
+    File entryFile = new File(cacheDir, name);
+    synchronized (this) {
+      if (entries.get(name) == null || !entryFile.isFile()) {
+        misses++;
+        return false;
+      }
+      // Update the last modified time so that the order survives a restart.
+      entryFile.setLastModified(System.currentTimeMillis());
+    }
+    try {
+      ZipInputStream zip = new ZipInputStream(new BufferedInputStream(
+          new FileInputStream(entryFile)));
+      try {
+        ZipEntry zipEntry;
+        while ((zipEntry = zip.getNextEntry()) != null) {
+          File classFile = new File(classesDir, zipEntry.getName());
+          Files.createParentDirs(classFile);
+          OutputStream out = new BufferedOutputStream(new FileOutputStream(classFile));
+          try {
+            ByteStreams.copy(zip, out);
+          } finally {
+            out.close();
+          }
+        }
+      } finally {
+        zip.close();
+      }
+    } catch (IOException e) {
+      // Treat a damaged entry as a miss and remove it.
+      LOG.log(Level.WARNING, "Unable to restore compiled classes from " + entryFile, e);
+      synchronized (this) {
+        remove(name);
+        misses++;
+      }
+      return false;
+    }
+    synchronized (this) {
+      hits++;
+    }
+    return true;
+  }
+
+  /**
+   * Stores the given class files under the given key.
+   *
+   * @param key the cache key
+   * @param classesDir the classes directory of the build
+   * @param classFiles the class files to store, all inside classesDir
+   */
+  void store(String key, File classesDir, List<File> classFiles) {
+    String name = key + ENTRY_SUFFIX;
+    String classesPath = classesDir.getAbsolutePath() + File.separator;
+    try {
+      // Write to a temporary file first, so that a partial entry is never visible.
+      File tmpFile = File.createTempFile("entry", ".tmp", cacheDir);
+      ZipOutputStream zip = new ZipOutputStream(new BufferedOutputStream(
+          new FileOutputStream(tmpFile)));
+      try {
+        for (File classFile : classFiles) {
+          String relativePath = classFile.getAbsolutePath().substring(classesPath.length())
+              .replace(File.separatorChar, '/');
+          zip.putNextEntry(new ZipEntry(relativePath));
+          InputStream in = new BufferedInputStream(new FileInputStream(classFile));
+          try {
+            ByteStreams.copy(in, zip);
+          } finally {
+            in.close();
+          }
+        }
+      } finally {
+        zip.close();
+      }
+      synchronized (this) {
+        File entryFile = new File(cacheDir, name);
+        remove(name);
+        if (!tmpFile.renameTo(entryFile)) {
+          tmpFile.delete();
+          return;
+        }
+        entries.put(name, entryFile.length());
+        totalBytes += entryFile.length();
+        evictIfNeeded();
+      }
+    } catch (IOException e) {
+      LOG.log(Level.WARNING, "Unable to store compiled classes for " + key, e);
+    }
+  }
+
+  private void evictIfNeeded() {
+    Iterator<Map.Entry<String, Long>> iterator = entries.entrySet().iterator();
+    while (totalBytes > maxBytes && iterator.hasNext()) {
+      Map.Entry<String, Long> eldest = iterator.next();
+      iterator.remove();
+      totalBytes -= eldest.getValue();
+      new File(cacheDir, eldest.getKey()).delete();
+      evictions++;
+    }
+  }
+
+  private void remove(String name) {
+    Long size = entries.remove(name);
+    if (size != null) {
+      totalBytes -= size;
+    }
+    new File(cacheDir, name).delete();
+  }
+
+  synchronized int getHits() {
+    return hits;
+  }
+
+  synchronized int getMisses() {
+    return misses;
+  }
+
+  synchronized int getEvictions() {
+    return evictions;
+  }
+
+  synchronized int getEntryCount() {
+    return entries.size();
+  }
+
+  synchronized long getTotalBytes() {
+    return totalBytes;
+  }
+
+  long getMaxBytes() {
+    return maxBytes;
+  }
+}
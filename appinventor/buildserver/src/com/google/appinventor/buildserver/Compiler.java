@@ -10,12 +10,13 @@ import com.google.common.annotations.VisibleForTesting;
 import com.google.common.base.Charsets;
 import com.google.common.base.Strings;
 import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
 import com.google.common.collect.Sets;
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
 import com.google.common.io.Files;
 import com.google.common.io.Resources;
 
-import com.android.sdklib.build.ApkBuilder;
-
 import org.codehaus.jettison.json.JSONArray;
 import org.codehaus.jettison.json.JSONException;
 import org.codehaus.jettison.json.JSONObject;
@@ -24,7 +25,6 @@ import java.awt.image.BufferedImage;
 import java.io.BufferedWriter;
 import java.io.ByteArrayOutputStream;
 import java.io.File;
-import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.FileReader;
 import java.io.FileWriter;
@@ -32,6 +32,8 @@ import java.io.IOException;
 import java.io.OutputStreamWriter;
 import java.io.PrintStream;
 import java.io.Reader;
+import java.security.KeyStore;
+import java.security.cert.X509Certificate;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashMap;
@@ -45,6 +47,8 @@ import java.util.logging.Logger;
 
 import javax.imageio.ImageIO;
 
+import org.apache.commons.io.FileUtils;
+
 /**
  * Main entry point for the YAIL compiler.
  *
@@ -60,10 +64,26 @@ public final class Compiler {
    * Ext == External, ext == external, EXT == EXTERNAL
    */
 
-  public static int currentProgress = 10;
+  // Kawa and DX processes can use a lot of memory. The scheduler limits how many of them run at
+  // the same time across all builds. By default, only one Kawa or DX process runs at a time.
+  private static volatile ChildProcessScheduler childProcessScheduler =
+      new ChildProcessScheduler(1);
+
+  // Long-lived Kawa compiler processes, or null if every build starts its own Kawa process.
+  private static volatile KawaCompilerPool kawaCompilerPool;
+
+  // Cache of the classes compiled from each source file, or null if there is no cache.
+  private static volatile CompiledClassCache compiledClassCache;
+
+  // Change this whenever the way classes are compiled changes, to ignore the old cache entries.
+  private static final int CLASS_CACHE_FORMAT = 1;
+
+  // The classes of the YAIL runtime, relative to the classes directory.
+  private static final String RUNTIME_CLASS_PATH = "com/google/youngandroid/runtime";
 
-  // Kawa and DX processes can use a lot of memory. We only launch one Kawa or DX process at a time.
-  private static final Object SYNC_KAWA_OR_DX = new Object();
+  // SHA-256 hashes of the resource files, which don't change while the build server runs.
+  private static final ConcurrentMap<String, String> resourceHashes =
+      new ConcurrentHashMap<String, String>();
 
   private static final String SLASH = File.separator;
   private static final String COLON = File.pathSeparator;
@@ -124,16 +144,10 @@ public final class Compiler {
 
   private static final String LINUX_AAPT_TOOL =
       "/tools/linux/aapt";
-  private static final String LINUX_ZIPALIGN_TOOL =
-      "/tools/linux/zipalign";
   private static final String MAC_AAPT_TOOL =
       "/tools/mac/aapt";
-  private static final String MAC_ZIPALIGN_TOOL =
-      "/tools/mac/zipalign";
   private static final String WINDOWS_AAPT_TOOL =
       "/tools/windows/aapt";
-  private static final String WINDOWS_ZIPALIGN_TOOL =
-      "/tools/windows/zipalign";
 
   @VisibleForTesting
   static final String YAIL_RUNTIME = RUNTIME_FILES_DIR + "runtime.scm";
@@ -182,6 +196,9 @@ public final class Compiler {
   private String dexCacheDir;
   private boolean hasSecondDex = false; // True if classes2.dex should be added to the APK
 
+  // The progress of the build and the resources used by each build stage
+  private final BuildTrace trace;
+
   private JSONArray simpleCompsBuildInfo;
   private JSONArray extCompsBuildInfo;
   private Set<String> simpleCompTypes;  // types needed by the project
@@ -346,6 +363,16 @@ public final class Compiler {
    * Creates an AndroidManifest.xml file needed for the Android application.
    */
   private boolean writeAndroidManifest(File manifestFile, Set<String> broadcastReceiversNeeded) {
+    BuildTrace.Stage stage = trace.startStage(BuildTrace.MANIFEST);
+    try {
+      return writeAndroidManifestFile(manifestFile, broadcastReceiversNeeded);
+    } finally {
+      stage.end();
+    }
+  }
+
+  private boolean writeAndroidManifestFile(File manifestFile,
+      Set<String> broadcastReceiversNeeded) {
     // Create AndroidManifest.xml
     String mainClass = project.getMainClass();
     String packageName = Signatures.getPackageName(mainClass);
@@ -567,6 +594,7 @@ public final class Compiler {
    * @param userErrors stream to write user-visible error messages
    * @param keystoreFilePath
    * @param childProcessRam   maximum RAM for child processes, in MBs.
+   * @param trace  receives the progress of the build and the resources used by each stage
    * @return  {@code true} if the compilation succeeds, {@code false} otherwise
    * @throws JSONException
    * @throws IOException
@@ -574,13 +602,30 @@ public final class Compiler {
   public static boolean compile(Project project, Set<String> compTypes,
                                 PrintStream out, PrintStream err, PrintStream userErrors,
                                 boolean isForCompanion, String keystoreFilePath,
-                                int childProcessRam, String dexCacheDir) throws IOException, JSONException {
-    long start = System.currentTimeMillis();
-
-    // Create a new compiler instance for the compilation
-    Compiler compiler = new Compiler(project, compTypes, out, err, userErrors, isForCompanion,
-                                     childProcessRam, dexCacheDir);
+                                int childProcessRam, String dexCacheDir,
+                                BuildTrace trace) throws IOException, JSONException {
+    BuildTrace.Stage totalStage = trace.startStage(BuildTrace.TOTAL);
+    boolean success;
+    try {
+      // Create a new compiler instance for the compilation
+      Compiler compiler = new Compiler(project, compTypes, out, err, userErrors, isForCompanion,
+                                       childProcessRam, dexCacheDir, trace);
+      success = runStages(compiler, project, out, keystoreFilePath);
+    } finally {
+      // Failed builds are timed too.
+      totalStage.end();
+    }
+    if (success) {
+      out.println("Build finished in " + (totalStage.getWallMs() / 1000.0) + " seconds");
+    }
+    return success;
+  }
 
+  /*
+   * Runs the stages of a build with the given compiler, from the assets to the signed apk.
+   */
+  private static boolean runStages(Compiler compiler, Project project, PrintStream out,
+                                   String keystoreFilePath) throws IOException, JSONException {
     compiler.generateAssets();
     compiler.generateLibNames();
     compiler.generateNativeLibNames();
@@ -596,7 +641,7 @@ public final class Compiler {
     if (!compiler.prepareApplicationIcon(new File(drawableDir, "ya.png"))) {
       return false;
     }
-    setProgress(10);
+    compiler.setProgress(10);
 
     // Create anim directory and animation xml files
     out.println("________Creating animation xml");
@@ -611,7 +656,7 @@ public final class Compiler {
     if (broadcastReceiversNeeded == null) {
       return false;
     }
-    setProgress(15);
+    compiler.setProgress(15);
 
     // Generate AndroidManifest.xml
     out.println("________Generating manifest file");
@@ -619,7 +664,7 @@ public final class Compiler {
     if (!compiler.writeAndroidManifest(manifestFile, broadcastReceiversNeeded)) {
       return false;
     }
-    setProgress(20);
+    compiler.setProgress(20);
 
     // Insert native libraries
     out.println("________Attaching native libraries");
@@ -639,7 +684,7 @@ public final class Compiler {
     if (!compiler.generateClasses(classesDir)) {
       return false;
     }
-    setProgress(35);
+    compiler.setProgress(35);
 
     // Invoke dx on class files
     out.println("________Invoking DX");
@@ -663,7 +708,7 @@ public final class Compiler {
     if (!compiler.runDx(classesDir, dexedClassesDir, false)) {
       return false;
     }
-    setProgress(85);
+    compiler.setProgress(85);
 
     // Invoke aapt to package everything up
     out.println("________Invoking AAPT");
@@ -673,33 +718,18 @@ public final class Compiler {
     if (!compiler.runAaptPackage(manifestFile, resDir, tmpPackageName)) {
       return false;
     }
-    setProgress(90);
+    compiler.setProgress(90);
 
-    // Seal the apk with ApkBuilder
-    out.println("________Invoking ApkBuilder");
+    // Seal, sign and align the apk in one pass
+    out.println("________Writing the signed apk file");
     String apkAbsolutePath = deployDir.getAbsolutePath() + SLASH +
         project.getProjectName() + ".apk";
-    if (!compiler.runApkBuilder(apkAbsolutePath, tmpPackageName, dexedClassesDir)) {
-      return false;
-    }
-    setProgress(95);
-
-    // Sign the apk file
-    out.println("________Signing the apk file");
-    if (!compiler.runJarSigner(apkAbsolutePath, keystoreFilePath)) {
+    if (!compiler.writeSignedApk(apkAbsolutePath, tmpPackageName, dexedClassesDir,
+        keystoreFilePath)) {
       return false;
     }
 
-    // ZipAlign the apk file
-    out.println("________ZipAligning the apk file");
-    if (!compiler.runZipAlign(apkAbsolutePath, tmpDir)) {
-      return false;
-    }
-
-    setProgress(100);
-
-    out.println("Build finished in " +
-        ((System.currentTimeMillis() - start) / 1000.0) + " seconds");
+    compiler.setProgress(100);
 
     return true;
   }
@@ -753,28 +783,57 @@ public final class Compiler {
   }
 
   /*
-   * Runs ApkBuilder by using the API instead of calling its main method because the main method
-   * can call System.exit(1), which will bring down our server.
+   * Writes the apk from the resource package written by aapt and the dex files, signed with the
+   * key in the given keystore and aligned (see SignedApkWriter). This replaces running ApkBuilder,
+   * jarsigner and zipalign one after the other, each of which rewrote the whole apk.
    */
-  private boolean runApkBuilder(String apkAbsolutePath, String zipArchive, String dexedClassesDir) {
+  private boolean writeSignedApk(String apkAbsolutePath, String zipArchive,
+      String dexedClassesDir, String keystoreAbsolutePath) {
+    BuildTrace.Stage stage = trace.startStage(BuildTrace.PACKAGE);
     try {
-      ApkBuilder apkBuilder =
-          new ApkBuilder(apkAbsolutePath, zipArchive,
-            dexedClassesDir + File.separator + "classes.dex", null, System.out);
-      if (hasSecondDex) {
-        apkBuilder.addFile(new File(dexedClassesDir + File.separator + "classes2.dex"),
-          "classes2.dex");
+      KeyStore.PrivateKeyEntry key;
+      try {
+        key = SignedApkWriter.loadKey(keystoreAbsolutePath);
+      } catch (Exception e) {
+        e.printStackTrace();
+        LOG.warning("YAIL compiler - unable to load the signing key.");
+        err.println("YAIL compiler - unable to load the signing key.");
+        userErrors.print(String.format(ERROR_IN_STAGE, "JarSigner"));
+        return false;
       }
-      apkBuilder.sealApk();
-      return true;
-    } catch (Exception e) {
-      // This is fatal.
-      e.printStackTrace();
-      LOG.warning("YAIL compiler - ApkBuilder failed.");
-      err.println("YAIL compiler - ApkBuilder failed.");
-      userErrors.print(String.format(ERROR_IN_STAGE, "ApkBuilder"));
-      return false;
+      SignedApkWriter apkWriter = null;
+      try {
+        apkWriter = new SignedApkWriter(new File(apkAbsolutePath));
+        apkWriter.addZip(new File(zipArchive));
+        apkWriter.addFile(new File(dexedClassesDir, "classes.dex"), "classes.dex");
+        if (hasSecondDex) {
+          apkWriter.addFile(new File(dexedClassesDir, "classes2.dex"), "classes2.dex");
+        }
+        apkWriter.sign(key.getPrivateKey(), (X509Certificate) key.getCertificate());
+        apkWriter = null;
+      } catch (Exception e) {
+        // This is fatal.
+        e.printStackTrace();
+        LOG.warning("YAIL compiler - writing the signed apk failed.");
+        err.println("YAIL compiler - writing the signed apk failed.");
+        userErrors.print(String.format(ERROR_IN_STAGE, "ApkBuilder"));
+        return false;
+      } finally {
+        if (apkWriter != null) {
+          try {
+            apkWriter.close();
+          } catch (IOException e) {
+            // The build has already failed.
+          }
+        }
+      }
+    } finally {
+      long packageTime = stage.end();
+      String packageTimeMessage = "Apk writing time: " + (packageTime / 1000.0) + " seconds";
+      out.println(packageTimeMessage);
+      LOG.info(packageTimeMessage);
     }
+    return true;
   }
 
   /**
@@ -791,7 +850,15 @@ public final class Compiler {
   Compiler(Project project, Set<String> compTypes, PrintStream out, PrintStream err,
            PrintStream userErrors, boolean isForCompanion,
            int childProcessMaxRam, String dexCacheDir) {
+    this(project, compTypes, out, err, userErrors, isForCompanion, childProcessMaxRam,
+        dexCacheDir, new BuildTrace());
+  }
+
+  private Compiler(Project project, Set<String> compTypes, PrintStream out, PrintStream err,
+           PrintStream userErrors, boolean isForCompanion,
+           int childProcessMaxRam, String dexCacheDir, BuildTrace trace) {
     this.project = project;
+    this.trace = trace;
 
     prepareCompTypes(compTypes);
     readBuildInfo();
@@ -819,6 +886,7 @@ public final class Compiler {
       List<Project.SourceDescriptor> sources = project.getSources();
       List<String> sourceFileNames = Lists.newArrayListWithCapacity(sources.size());
       List<String> classFileNames = Lists.newArrayListWithCapacity(sources.size());
+      List<String> sourceFileRelativePaths = Lists.newArrayListWithCapacity(sources.size());
       boolean userCodeExists = false;
       for (Project.SourceDescriptor source : sources) {
         String sourceFileName = source.getFile().getAbsolutePath();
@@ -851,6 +919,7 @@ public final class Compiler {
         }
         sourceFileNames.add(sourceFileName);
         classFileNames.add(classFileName);
+        sourceFileRelativePaths.add(sourceFileRelativePath);
       }
 
       if (!userCodeExists) {
@@ -897,44 +966,100 @@ public final class Compiler {
       System.out.println("Libraries Classpath = " + classpath);
 
       String yailRuntime = getResource(YAIL_RUNTIME);
-      List<String> kawaCommandArgs = Lists.newArrayList();
-      int mx = childProcessRamMb - 200;
-      Collections.addAll(kawaCommandArgs,
-          System.getProperty("java.home") + "/bin/java",
-          "-Dfile.encoding=UTF-8",
-          "-mx" + mx + "M",
-          "-cp", classpath,
-          "kawa.repl",
-          "-f", yailRuntime,
-          "-d", classesDir.getAbsolutePath(),
-          "-P", Signatures.getPackageName(project.getMainClass()) + ".",
-          "-C");
+      String packagePrefix = Signatures.getPackageName(project.getMainClass()) + ".";
       // TODO(lizlooney) - we are currently using (and have always used) absolute paths for the
       // source file names. The resulting .class files contain references to the source file names,
       // including the name of the tmp directory that contains them. We may be able to avoid that
       // by using source file names that are relative to the project root and using the project
       // root as the working directory for the Kawa compiler process.
-      kawaCommandArgs.addAll(sourceFileNames);
-      kawaCommandArgs.add(yailRuntime);
-      String[] kawaCommandLine = kawaCommandArgs.toArray(new String[kawaCommandArgs.size()]);
+      List<String> kawaSourceFileNames = Lists.newArrayList();
+
+      // Restore the classes of unchanged source files from the cache and only compile the rest.
+      CompiledClassCache cache = compiledClassCache;
+      List<String> cacheKeys = Lists.newArrayListWithCapacity(sources.size());
+      String runtimeCacheKey = null;
+      boolean compileRuntime = true;
+      if (cache != null) {
+        String toolchainKey = getClassCacheToolchainKey(classpath, yailRuntime);
+        int restored = 0;
+        for (int i = 0; i < sourceFileNames.size(); i++) {
+          String key = getClassCacheKey(toolchainKey, packagePrefix,
+              sourceFileRelativePaths.get(i), new File(sourceFileNames.get(i)));
+          if (cache.restore(key, classesDir)) {
+            restored++;
+            cacheKeys.add(null);
+          } else {
+            kawaSourceFileNames.add(sourceFileNames.get(i));
+            cacheKeys.add(key);
+          }
+        }
+        runtimeCacheKey = getClassCacheKey(toolchainKey, "", RUNTIME_CLASS_PATH,
+            new File(yailRuntime));
+        // Source files are always compiled together with the runtime, just like a full build.
+        compileRuntime = !kawaSourceFileNames.isEmpty() ||
+            !cache.restore(runtimeCacheKey, classesDir);
+        out.println("Reused compiled classes for " + restored + " of " + sourceFileNames.size() +
+            " source files");
+      } else {
+        kawaSourceFileNames.addAll(sourceFileNames);
+      }
+      if (compileRuntime) {
+        kawaSourceFileNames.add(yailRuntime);
+      }
 
-      long start = System.currentTimeMillis();
+      BuildTrace.Stage kawaStage = trace.startStage(BuildTrace.KAWA);
       // Capture Kawa compiler stderr. The ODE server parses out the warnings and errors and adds
       // them to the protocol buffer for logging purposes. (See
       // buildserver/ProjectBuilder.processCompilerOutout.
       ByteArrayOutputStream kawaOutputStream = new ByteArrayOutputStream();
-      boolean kawaSuccess;
-      synchronized (SYNC_KAWA_OR_DX) {
-        kawaSuccess = Execution.execute(null, kawaCommandLine,
-            System.out, new PrintStream(kawaOutputStream));
+      boolean kawaSuccess = true;
+      boolean usedWarmWorker = false;
+      if (!kawaSourceFileNames.isEmpty()) {
+        ChildProcessScheduler scheduler = childProcessScheduler;
+        scheduler.acquire(ChildProcessScheduler.KAWA_STAGE);
+        try {
+          KawaCompilerPool pool = kawaCompilerPool;
+          // The warm workers only have the libraries of the built-in components on their
+          // classpath.
+          if (pool != null && extCompTypes.isEmpty()) {
+            try {
+              kawaSuccess = pool.compile(classesDir, packagePrefix, kawaSourceFileNames,
+                  new PrintStream(kawaOutputStream), kawaStage);
+              usedWarmWorker = true;
+            } catch (IOException e) {
+              LOG.log(Level.WARNING, "Kawa worker unavailable, starting a new Kawa process.", e);
+              kawaSuccess = runKawa(classpath, classesDir, packagePrefix, kawaSourceFileNames,
+                  kawaOutputStream, kawaStage);
+            }
+          } else {
+            kawaSuccess = runKawa(classpath, classesDir, packagePrefix, kawaSourceFileNames,
+                kawaOutputStream, kawaStage);
+          }
+        } finally {
+          scheduler.release(ChildProcessScheduler.KAWA_STAGE);
+        }
+      }
+      if (kawaSuccess && cache != null) {
+        for (int i = 0; i < cacheKeys.size(); i++) {
+          String key = cacheKeys.get(i);
+          File classFile = new File(classFileNames.get(i));
+          if (key != null && classFile.exists()) {
+            cache.store(key, classesDir, getModuleClassFiles(classFile));
+          }
+        }
+        File runtimeClassFile = new File(classesDir, RUNTIME_CLASS_PATH + ".class");
+        if (compileRuntime && runtimeClassFile.exists()) {
+          cache.store(runtimeCacheKey, classesDir, getModuleClassFiles(runtimeClassFile));
+        }
       }
       if (!kawaSuccess) {
         LOG.log(Level.SEVERE, "Kawa compile has failed.");
       }
       String kawaOutput = kawaOutputStream.toString();
       out.print(kawaOutput);
-      String kawaCompileTimeMessage = "Kawa compile time: " +
-          ((System.currentTimeMillis() - start) / 1000.0) + " seconds";
+      long kawaTime = kawaStage.end();
+      String kawaCompileTimeMessage = "Kawa compile time: " + (kawaTime / 1000.0) + " seconds" +
+          (usedWarmWorker ? " (warm worker)" : "");
       out.println(kawaCompileTimeMessage);
       LOG.info(kawaCompileTimeMessage);
 
@@ -959,95 +1084,99 @@ public final class Compiler {
     return true;
   }
 
-  private boolean runJarSigner(String apkAbsolutePath, String keystoreAbsolutePath) {
-    // TODO(user): maybe make a command line flag for the jarsigner location
-    String javaHome = System.getProperty("java.home");
-    // This works on Mac OS X.
-    File jarsignerFile = new File(javaHome + SLASH + "bin" +
-        SLASH + "jarsigner");
-    if (!jarsignerFile.exists()) {
-      // This works when a JDK is installed with the JRE.
-      jarsignerFile = new File(javaHome + SLASH + ".." + SLASH + "bin" +
-          SLASH + "jarsigner");
-      if (System.getProperty("os.name").startsWith("Windows")) {
-        jarsignerFile = new File(javaHome + SLASH + ".." + SLASH + "bin" +
-            SLASH + "jarsigner.exe");
-      }
-      if (!jarsignerFile.exists()) {
-        LOG.warning("YAIL compiler - could not find jarsigner.");
-        err.println("YAIL compiler - could not find jarsigner.");
-        userErrors.print(String.format(ERROR_IN_STAGE, "JarSigner"));
-        return false;
+  /*
+   * Returns the class file of a Kawa module together with the classes Kawa
+   * generated for its closures and frames (Module$frame.class, etc.).
+   */
+  private static List<File> getModuleClassFiles(File moduleClassFile) {
+    String moduleName = moduleClassFile.getName();
+    moduleName = moduleName.substring(0, moduleName.length() - ".class".length());
+    List<File> classFiles = Lists.newArrayList();
+    File[] files = moduleClassFile.getParentFile().listFiles();
+    if (files != null) {
+      for (File file : files) {
+        String name = file.getName();
+        if (name.equals(moduleName + ".class") ||
+            (name.startsWith(moduleName + "$") && name.endsWith(".class"))) {
+          classFiles.add(file);
+        }
       }
     }
+    return classFiles;
+  }
 
-    String[] jarsignerCommandLine = {
-        jarsignerFile.getAbsolutePath(),
-        "-digestalg", "SHA1",
-        "-sigalg", "MD5withRSA",
-        "-keystore", keystoreAbsolutePath,
-        "-storepass", "android",
-        apkAbsolutePath,
-        "AndroidKey"
-    };
-    if (!Execution.execute(null, jarsignerCommandLine, System.out, System.err)) {
-      LOG.warning("YAIL compiler - jarsigner execution failed.");
-      err.println("YAIL compiler - jarsigner execution failed.");
-      userErrors.print(String.format(ERROR_IN_STAGE, "JarSigner"));
-      return false;
+  /*
+   * Returns the part of the compiled class cache key that is shared by all the
+   * source files of a build: the cache format, the YAIL runtime and the
+   * contents of every jar on the Kawa classpath.
+   */
+  private String getClassCacheToolchainKey(String classpath, String yailRuntime)
+      throws IOException {
+    Hasher hasher = Hashing.sha256().newHasher();
+    hasher.putInt(CLASS_CACHE_FORMAT);
+    hasher.putBytes(hashFile(yailRuntime).getBytes(Charsets.UTF_8));
+    String projectAssets = project.getAssetsDirectory().getAbsolutePath();
+    for (String entry : classpath.split(COLON)) {
+      // Jars inside the project (extensions) change from build to build, so their hashes are not
+      // remembered.
+      String hash = entry.startsWith(projectAssets) ? hashFile(entry) : hashResourceFile(entry);
+      hasher.putBytes(hash.getBytes(Charsets.UTF_8));
     }
+    return hasher.hash().toString();
+  }
 
-    return true;
+  /*
+   * Returns the compiled class cache key for one source file.
+   */
+  @VisibleForTesting
+  static String getClassCacheKey(String toolchainKey, String packagePrefix,
+      String sourceFileRelativePath, File sourceFile) throws IOException {
+    Hasher hasher = Hashing.sha256().newHasher();
+    hasher.putBytes(toolchainKey.getBytes(Charsets.UTF_8));
+    hasher.putByte((byte) 0);
+    hasher.putBytes(packagePrefix.getBytes(Charsets.UTF_8));
+    hasher.putByte((byte) 0);
+    hasher.putBytes(sourceFileRelativePath.getBytes(Charsets.UTF_8));
+    hasher.putByte((byte) 0);
+    hasher.putBytes(Files.toByteArray(sourceFile));
+    return hasher.hash().toString();
   }
 
-  private boolean runZipAlign(String apkAbsolutePath, File tmpDir) {
-    // TODO(user): add zipalign tool appinventor->lib->android->tools->linux and windows
-    // Need to make sure assets directory exists otherwise zipalign will fail.
-    createDir(project.getAssetsDirectory());
-    String zipAlignTool;
-    String osName = System.getProperty("os.name");
-    if (osName.equals("Mac OS X")) {
-      zipAlignTool = MAC_ZIPALIGN_TOOL;
-    } else if (osName.equals("Linux")) {
-      zipAlignTool = LINUX_ZIPALIGN_TOOL;
-    } else if (osName.startsWith("Windows")) {
-      zipAlignTool = WINDOWS_ZIPALIGN_TOOL;
-    } else {
-      LOG.warning("YAIL compiler - cannot run ZIPALIGN on OS " + osName);
-      err.println("YAIL compiler - cannot run ZIPALIGN on OS " + osName);
-      userErrors.print(String.format(ERROR_IN_STAGE, "ZIPALIGN"));
-      return false;
-    }
-    // TODO: create tmp file for zipaling result
-    String zipAlignedPath = tmpDir.getAbsolutePath() + SLASH + "zipaligned.apk";
-    // zipalign -f -v 4 infile.zip outfile.zip
-    String[] zipAlignCommandLine = {
-        getResource(zipAlignTool),
-        "-f",
-        "4",
-        apkAbsolutePath,
-        zipAlignedPath
-    };
-    long startZipAlign = System.currentTimeMillis();
-    // Using System.err and System.out on purpose. Don't want to pollute build messages with
-    // tools output
-    if (!Execution.execute(null, zipAlignCommandLine, System.out, System.err)) {
-      LOG.warning("YAIL compiler - ZIPALIGN execution failed.");
-      err.println("YAIL compiler - ZIPALIGN execution failed.");
-      userErrors.print(String.format(ERROR_IN_STAGE, "ZIPALIGN"));
-      return false;
+  private static String hashResourceFile(String path) throws IOException {
+    String hash = resourceHashes.get(path);
+    if (hash == null) {
+      hash = hashFile(path);
+      resourceHashes.put(path, hash);
     }
-    if (!copyFile(zipAlignedPath, apkAbsolutePath)) {
-      LOG.warning("YAIL compiler - ZIPALIGN file copy failed.");
-      err.println("YAIL compiler - ZIPALIGN file copy failed.");
-      userErrors.print(String.format(ERROR_IN_STAGE, "ZIPALIGN"));
-      return false;
-    }
-    String zipALignTimeMessage = "ZIPALIGN time: " +
-        ((System.currentTimeMillis() - startZipAlign) / 1000.0) + " seconds";
-    out.println(zipALignTimeMessage);
-    LOG.info(zipALignTimeMessage);
-    return true;
+    return hash;
+  }
+
+  private static String hashFile(String path) throws IOException {
+    return Files.hash(new File(path), Hashing.sha256()).toString();
+  }
+
+  /*
+   * Runs the Kawa compiler in a new process. Kawa's stderr is written to kawaOutputStream.
+   */
+  private boolean runKawa(String classpath, File classesDir, String packagePrefix,
+      List<String> kawaSourceFileNames, ByteArrayOutputStream kawaOutputStream,
+      BuildTrace.Stage kawaStage) {
+    List<String> kawaCommandArgs = Lists.newArrayList();
+    int mx = childProcessRamMb - 200;
+    Collections.addAll(kawaCommandArgs,
+        System.getProperty("java.home") + "/bin/java",
+        "-Dfile.encoding=UTF-8",
+        "-mx" + mx + "M",
+        "-cp", classpath,
+        "kawa.repl",
+        "-f", getResource(YAIL_RUNTIME),
+        "-d", classesDir.getAbsolutePath(),
+        "-P", packagePrefix,
+        "-C");
+    kawaCommandArgs.addAll(kawaSourceFileNames);
+    String[] kawaCommandLine = kawaCommandArgs.toArray(new String[kawaCommandArgs.size()]);
+    return Execution.execute(null, kawaCommandLine,
+        System.out, new PrintStream(kawaOutputStream), kawaStage);
   }
 
   /*
@@ -1088,7 +1217,21 @@ public final class Compiler {
     List<File> libList = new ArrayList<File>();
     List<File> inputList = new ArrayList<File>();
     List<File> class2List = new ArrayList<File>();
-    inputList.add(classesDir); //this is a directory, and won't be cached into the dex cache
+    if (dexCacheDir == null) {
+      inputList.add(classesDir); //this is a directory, and won't be cached into the dex cache
+    } else {
+      // Each Kawa module (a screen or the YAIL runtime) is pre-dexed and cached on its own, so
+      // that only the modules that changed are dexed. The cached fragments are merged by dx.
+      try {
+        inputList.addAll(splitClassesByModule(classesDir, new File(dexedClassesDir, "modules")));
+      } catch (IOException e) {
+        e.printStackTrace();
+        LOG.warning("YAIL compiler - unable to prepare classes for DX.");
+        err.println("YAIL compiler - unable to prepare classes for DX.");
+        userErrors.print(String.format(ERROR_IN_STAGE, "DX"));
+        return false;
+      }
+    }
     inputList.add(new File(getResource(SIMPLE_ANDROID_RUNTIME_JAR)));
     inputList.add(new File(getResource(KAWA_RUNTIME)));
     inputList.add(new File(getResource(ACRA_RUNTIME)));
@@ -1138,6 +1281,8 @@ public final class Compiler {
     dexTask.setExecutable(getResource(DX_JAR));
     dexTask.setOutput(dexedClassesDir + File.separator + "classes.dex");
     dexTask.setChildProcessRamMb(childProcessRamMb);
+    // Each dx child process, including every library pre-dexed in parallel, takes its own slot.
+    dexTask.setChildProcessScheduler(childProcessScheduler);
     if (dexCacheDir == null) {
       dexTask.setDisableDexMerger(true);
     } else {
@@ -1145,46 +1290,99 @@ public final class Compiler {
       dexTask.setDexedLibs(dexCacheDir);
     }
 
-    long startDx = System.currentTimeMillis();
+    BuildTrace.Stage stage = trace.startStage(BuildTrace.DX);
+    dexTask.setTraceStage(stage);
     // Using System.err and System.out on purpose. Don't want to pollute build messages with
     // tools output
     boolean dxSuccess;
-    synchronized (SYNC_KAWA_OR_DX) {
-      setProgress(50);
-      dxSuccess = dexTask.execute(inputList);
-      if (dxSuccess && (class2List.size() > 0)) {
-        setProgress(60);
-        dexTask.setOutput(dexedClassesDir + File.separator + "classes2.dex");
-        inputList = new ArrayList<File>();
-        dxSuccess = dexTask.execute(class2List);
-        setProgress(75);
-        hasSecondDex = true;
-      } else if (!dxSuccess) {  // The initial dx blew out, try more conservative
-        LOG.info("DX execution failed, trying with fewer libraries.");
-        if (secondTry) {        // Already tried the more conservative approach!
-          LOG.warning("YAIL compiler - DX execution failed (secondTry!).");
-          err.println("YAIL compiler - DX execution failed.");
-          userErrors.print(String.format(ERROR_IN_STAGE, "DX"));
-          return false;
-        } else {
-          return runDx(classesDir, dexedClassesDir, true);
-        }
+    setProgress(50);
+    dxSuccess = dexTask.execute(inputList);
+    if (dxSuccess && (class2List.size() > 0)) {
+      setProgress(60);
+      dexTask.setOutput(dexedClassesDir + File.separator + "classes2.dex");
+      inputList = new ArrayList<File>();
+      dxSuccess = dexTask.execute(class2List);
+      setProgress(75);
+      hasSecondDex = true;
+    } else if (!dxSuccess) {  // The initial dx blew out, try more conservative
+      LOG.info("DX execution failed, trying with fewer libraries.");
+      stage.end();
+      if (secondTry) {        // Already tried the more conservative approach!
+        LOG.warning("YAIL compiler - DX execution failed (secondTry!).");
+        err.println("YAIL compiler - DX execution failed.");
+        userErrors.print(String.format(ERROR_IN_STAGE, "DX"));
+        return false;
+      } else {
+        return runDx(classesDir, dexedClassesDir, true);
       }
     }
+    long dxTime = stage.end();
     if (!dxSuccess) {
       LOG.warning("YAIL compiler - DX execution failed.");
       err.println("YAIL compiler - DX execution failed.");
       userErrors.print(String.format(ERROR_IN_STAGE, "DX"));
       return false;
     }
-    String dxTimeMessage = "DX time: " +
-        ((System.currentTimeMillis() - startDx) / 1000.0) + " seconds";
+    String dxTimeMessage = "DX time: " + (dxTime / 1000.0) + " seconds";
     out.println(dxTimeMessage);
     LOG.info(dxTimeMessage);
 
     return true;
   }
 
+  /*
+   * Copies the classes of each Kawa module (a top level class together with its inner classes)
+   * into a directory of its own below modulesDir, so that each module can be pre-dexed separately.
+   * Returns the module directories.
+   */
+  @VisibleForTesting
+  static List<File> splitClassesByModule(File classesDir, File modulesDir) throws IOException {
+    Map<String, List<String>> modules = Maps.newTreeMap();
+    collectModuleClasses(classesDir, "", modules);
+    if (modulesDir.exists()) {
+      FileUtils.deleteDirectory(modulesDir);
+    }
+    List<File> moduleDirs = Lists.newArrayList();
+    for (List<String> classFiles : modules.values()) {
+      File moduleDir = new File(modulesDir, Integer.toString(moduleDirs.size()));
+      for (String classFile : classFiles) {
+        File target = new File(moduleDir, classFile);
+        Files.createParentDirs(target);
+        Files.copy(new File(classesDir, classFile), target);
+      }
+      moduleDirs.add(moduleDir);
+    }
+    return moduleDirs;
+  }
+
+  /*
+   * Adds the relative path of each class file below dir to the list of its module. The module of
+   * a class is its top level class, for example Screen1 for Screen1$frame.
+   */
+  private static void collectModuleClasses(File dir, String prefix,
+      Map<String, List<String>> modules) {
+    File[] files = dir.listFiles();
+    if (files == null) {
+      return;
+    }
+    for (File file : files) {
+      String name = file.getName();
+      if (file.isDirectory()) {
+        collectModuleClasses(file, prefix + name + "/", modules);
+      } else if (name.endsWith(".class")) {
+        int dollar = name.indexOf('$');
+        String module = prefix + (dollar == -1 ?
+            name.substring(0, name.length() - ".class".length()) : name.substring(0, dollar));
+        List<String> classFiles = modules.get(module);
+        if (classFiles == null) {
+          classFiles = Lists.newArrayList();
+          modules.put(module, classFiles);
+        }
+        classFiles.add(prefix + name);
+      }
+    }
+  }
+
   private boolean runAaptPackage(File manifestFile, File resDir, String tmpPackageName) {
     // Need to make sure assets directory exists otherwise aapt will fail.
     createDir(project.getAssetsDirectory());
@@ -1214,17 +1412,19 @@ public final class Compiler {
         "-F", tmpPackageName,
         libsDir.getAbsolutePath()
     };
-    long startAapt = System.currentTimeMillis();
+    BuildTrace.Stage stage = trace.startStage(BuildTrace.AAPT);
     // Using System.err and System.out on purpose. Don't want to pollute build messages with
     // tools output
-    if (!Execution.execute(null, aaptPackageCommandLine, System.out, System.err)) {
+    boolean aaptSuccess =
+        Execution.execute(null, aaptPackageCommandLine, System.out, System.err, stage);
+    long aaptTime = stage.end();
+    if (!aaptSuccess) {
       LOG.warning("YAIL compiler - AAPT execution failed.");
       err.println("YAIL compiler - AAPT execution failed.");
       userErrors.print(String.format(ERROR_IN_STAGE, "AAPT"));
       return false;
     }
-    String aaptTimeMessage = "AAPT time: " +
-        ((System.currentTimeMillis() - startAapt) / 1000.0) + " seconds";
+    String aaptTimeMessage = "AAPT time: " + (aaptTime / 1000.0) + " seconds";
     out.println(aaptTimeMessage);
     LOG.info(aaptTimeMessage);
 
@@ -1398,32 +1598,6 @@ public final class Compiler {
     }
   }
 
-  /**
-   * Copy one file to another. If destination file does not exist, it is created.
-   *
-   * @param srcPath absolute path to source file
-   * @param dstPath absolute path to destination file
-   * @return  {@code true} if the copy succeeds, {@code false} otherwise
-   */
-  private static Boolean copyFile(String srcPath, String dstPath) {
-    try {
-      FileInputStream in = new FileInputStream(srcPath);
-      FileOutputStream out = new FileOutputStream(dstPath);
-      byte[] buf = new byte[1024];
-      int len;
-      while ((len = in.read(buf)) > 0) {
-        out.write(buf, 0, len);
-      }
-      in.close();
-      out.close();
-    }
-    catch (IOException e) {
-      e.printStackTrace();
-      return false;
-    }
-    return true;
-  }
-
   /**
    * Creates a new directory (if it doesn't exist already).
    *
@@ -1467,20 +1641,78 @@ public final class Compiler {
     return dir;
   }
 
-  private static int setProgress(int increments) {
-    Compiler.currentProgress = increments;
+  private int setProgress(int increments) {
+    trace.setProgress(increments);
     LOG.info("The current progress is "
-              + Compiler.currentProgress + "%");
-    return Compiler.currentProgress;
+              + increments + "%");
+    return increments;
   }
 
-  public static int getProgress() {
-    if (Compiler.currentProgress==100) {
-      Compiler.currentProgress = 10;
-      return 100;
-    } else {
-      return Compiler.currentProgress;
+  /**
+   * Sets the pool of long-lived Kawa compiler processes used by all builds.
+   *
+   * @param pool  the pool, or null to start a new Kawa process for every build
+   */
+  static void setKawaCompilerPool(KawaCompilerPool pool) {
+    kawaCompilerPool = pool;
+  }
+
+  static KawaCompilerPool getKawaCompilerPool() {
+    return kawaCompilerPool;
+  }
+
+  /**
+   * Sets the scheduler that limits the number of Kawa and DX processes running
+   * at the same time across all builds.
+   */
+  static void setChildProcessScheduler(ChildProcessScheduler scheduler) {
+    childProcessScheduler = scheduler;
+  }
+
+  static ChildProcessScheduler getChildProcessScheduler() {
+    return childProcessScheduler;
+  }
+
+  /**
+   * Sets the cache of compiled classes used by all builds.
+   *
+   * @param cache  the cache, or null to compile every source file in every build
+   */
+  static void setCompiledClassCache(CompiledClassCache cache) {
+    compiledClassCache = cache;
+  }
+
+  static CompiledClassCache getCompiledClassCache() {
+    return compiledClassCache;
+  }
+
+  /**
+   * Returns the Kawa classpath used by the long-lived Kawa compiler processes.
+   * It contains the libraries needed by every built-in component.
+   */
+  static String getWarmKawaClasspath() throws IOException {
+    StringBuilder classpath = new StringBuilder();
+    classpath.append(getResource(KAWA_RUNTIME)).append(COLON)
+        .append(getResource(ACRA_RUNTIME)).append(COLON)
+        .append(getResource(SIMPLE_ANDROID_RUNTIME_JAR)).append(COLON);
+    try {
+      JSONArray buildInfo = new JSONArray(Resources.toString(
+          Compiler.class.getResource(COMP_BUILD_INFO), Charsets.UTF_8));
+      Set<String> libs = Sets.newTreeSet();
+      for (int i = 0; i < buildInfo.length(); ++i) {
+        JSONArray compLibs = buildInfo.getJSONObject(i).getJSONArray(LIBRARIES_TARGET);
+        for (int j = 0; j < compLibs.length(); ++j) {
+          libs.add(compLibs.getString(j));
+        }
+      }
+      for (String lib : libs) {
+        classpath.append(getResource(RUNTIME_FILES_DIR + lib)).append(COLON);
+      }
+    } catch (JSONException e) {
+      throw new IOException(e);
     }
+    classpath.append(getResource(ANDROID_RUNTIME));
+    return classpath.toString();
   }
 
   private void readBuildInfo() {
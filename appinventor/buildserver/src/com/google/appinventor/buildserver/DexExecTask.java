@@ -17,23 +17,43 @@
 package com.google.appinventor.buildserver;
 
 import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
 import java.io.IOException;
-import java.nio.file.Files;
+import java.io.InputStream;
+import java.io.OutputStream;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
-import java.util.Iterator;
+import java.util.Comparator;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.HashMap;
-
-import com.google.common.hash.HashCode;
-import com.google.common.hash.HashFunction;
+import java.util.Properties;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+
+import com.google.common.hash.Hasher;
 import com.google.common.hash.Hashing;
+import com.google.common.io.Files;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 
 /**
  * Dex task, modified from the Android SDK to run in BuildServer.
  * Custom task to execute dx while handling dependencies.
+ *
+ * <p>Libraries are pre-dexed in parallel and the results are shared by all
+ * builds: a library that is being pre-dexed by one build is waited for, not
+ * dexed again, by any other build that needs it. Completed pre-dexed files
+ * are recorded in an index file in the dex cache directory, so that a file
+ * left behind by an interrupted dx run is never used, even after a restart.
  */
 public class DexExecTask  {
 
@@ -44,9 +64,42 @@ public class DexExecTask  {
     private boolean mNoLocals = false;
     private int mChildProcessRamMb = 1024;
     private boolean mDisableDexMerger = false;
-    private static Map<String, String> alreadyChecked = new HashMap<String, String>();
+    private ChildProcessScheduler mScheduler;
+    private BuildTrace.Stage mTraceStage;
+
+    // Hashes of the input files, keyed by path, length and last modified time.
+    private static final ConcurrentMap<String, String> alreadyChecked =
+        new ConcurrentHashMap<String, String>();
+
+    // Pre-dex runs in progress, keyed by the path of the pre-dexed file.
+    private static final ConcurrentMap<String, Future<Boolean>> inFlight =
+        new ConcurrentHashMap<String, Future<Boolean>>();
+
+    // Indexes of the completed pre-dexed files, one per dex cache directory.
+    private static final ConcurrentMap<String, DexCacheIndex> indexes =
+        new ConcurrentHashMap<String, DexCacheIndex>();
 
-    private static Object semaphore = new Object(); // Used to protect dex cache creation
+    // Runs the pre-dex jobs. The number of dx processes running at the same time is limited by
+    // the ChildProcessScheduler, not by this executor.
+    private static final ExecutorService preDexExecutor = Executors.newCachedThreadPool(
+        new ThreadFactoryBuilder().setNameFormat("pre-dex-%d").setDaemon(true).build());
+
+    private static final String INDEX_FILE = "dex-cache-index.properties";
+
+    // Pre-dexed class directories (one per compiled Kawa module) are kept in this sub-directory
+    // of the dex cache. Unlike libraries, they change with every edit of a screen, so the least
+    // recently used ones are deleted when they take more than mMaxClassFragmentBytes.
+    private static final String CLASS_FRAGMENTS_DIR = "classes";
+    private static final String CLASS_FRAGMENT_PREFIX = "dex-cached-classes-";
+    private long mMaxClassFragmentBytes = 512L * 1024 * 1024;
+
+    // Pre-dexed class directories that running builds use, with the number of builds that use
+    // each. Pinned fragments are never pruned. Pruning holds the lock of this map, so a fragment
+    // can't be deleted between the time a build pins it and the time it finds it in the index.
+    private static final Map<String, Integer> pinnedFragments = new HashMap<String, Integer>();
+
+    // The fragments that this task pinned. They are unpinned when the task completes.
+    private final List<File> mPinnedFragments = new ArrayList<File>();
 
 
     /**
@@ -93,6 +146,26 @@ public class DexExecTask  {
         mDisableDexMerger = disable;
     }
 
+    public void setMaxClassFragmentBytes(long maxBytes) {
+        mMaxClassFragmentBytes = maxBytes;
+    }
+
+    /**
+     * Sets the scheduler that every dx child process waits for. If no
+     * scheduler is set, dx processes are started right away.
+     */
+    void setChildProcessScheduler(ChildProcessScheduler scheduler) {
+        mScheduler = scheduler;
+    }
+
+    /**
+     * Sets the build stage that receives the CPU time and peak memory of the
+     * dx child processes.
+     */
+    void setTraceStage(BuildTrace.Stage stage) {
+        mTraceStage = stage;
+    }
+
     private boolean preDexLibraries(List<File> inputs) {
         if (mDisableDexMerger || inputs.size() == 1) {
             // only one input, no need to put a pre-dexed version, even if this path is
@@ -100,84 +173,270 @@ public class DexExecTask  {
             return true;
         }
 
-        synchronized(semaphore) {
-
-            final int count = inputs.size();
-            boolean allSuccessful = true;
-            for (int i = 0 ; i < count; i++) {
-                File input = inputs.get(i);
+        DexCacheIndex index = getIndex(new File(mDexedLibs));
+        File fragmentsDir = new File(mDexedLibs, CLASS_FRAGMENTS_DIR);
+        fragmentsDir.mkdirs();
+
+        // Start all of the pre-dex jobs first, then wait for them, so that independent
+        // libraries are dexed in parallel.
+        final int count = inputs.size();
+        boolean allSuccessful = true;
+        List<Future<Boolean>> results = new ArrayList<Future<Boolean>>();
+        for (int i = 0 ; i < count; i++) {
+            File input = inputs.get(i);
+            File dexed;
+            try {
                 if (input.isFile()) {
                     // check if this libs needs to be pre-dexed
-                    String fileName = getDexFileName(input);
-                    File dexedLib = new File(mDexedLibs, fileName);
-                    String dexedLibPath = dexedLib.getAbsolutePath();
-
-                    if (dexedLib.isFile() == false/*||
-                                                    dexedLib.lastModified() < input.lastModified()*/) {
-
-                        System.out.println(
-                            String.format("Pre-Dexing %1$s -> %2$s",
-                              input.getAbsolutePath(), fileName));
-
-                        if (dexedLib.isFile()) {
-                            dexedLib.delete();
-                        }
-
-                        boolean dexSuccess = runDx(input, dexedLibPath, false /*showInput*/);
-                        allSuccessful = allSuccessful && dexSuccess;
-                    } else {
-                        System.out.println(
-                            String.format("Using Pre-Dexed %1$s <- %2$s",
-                              fileName, input.getAbsolutePath()));
-                    }
+                    dexed = new File(mDexedLibs, getDexFileName(input));
+                } else if (input.isDirectory()) {
+                    dexed = new File(fragmentsDir,
+                        CLASS_FRAGMENT_PREFIX + getDirectoryHash(input) + ".jar");
+                    pinClassFragment(dexed);
+                } else {
+                    continue;
+                }
+            } catch (IOException e) {
+                e.printStackTrace();
+                allSuccessful = false;
+                continue;
+            }
+            results.add(preDex(input, dexed, index));
+
+            // replace the input with the pre-dexed version.
+            inputs.set(i, dexed);
+        }
 
-                    // replace the input with the pre-dex libs.
-                    inputs.set(i, dexedLib);
+        for (Future<Boolean> result : results) {
+            try {
+                allSuccessful = result.get() && allSuccessful;
+            } catch (ExecutionException e) {
+                e.getCause().printStackTrace();
+                allSuccessful = false;
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                allSuccessful = false;
+            }
+        }
+        pruneClassFragments(index);
+        return allSuccessful;
+    }
+
+    /**
+     * Pre-dexes the given input into the given file, unless the file is
+     * already in the index. If another build is pre-dexing the same input,
+     * the result of that build is returned instead.
+     */
+    private Future<Boolean> preDex(final File input, final File dexed,
+            final DexCacheIndex index) {
+        if (index.contains(dexed)) {
+            System.out.println(
+                String.format("Using Pre-Dexed %1$s <- %2$s",
+                  dexed.getName(), input.getAbsolutePath()));
+            // Mark the file as recently used.
+            dexed.setLastModified(System.currentTimeMillis());
+            return Futures.immediateFuture(true);
+        }
+
+        final String key = dexed.getAbsolutePath();
+        FutureTask<Boolean> task = new FutureTask<Boolean>(new Callable<Boolean>() {
+            @Override
+            public Boolean call() throws IOException {
+                try {
+                    return runPreDex(input, dexed, index);
+                } finally {
+                    inFlight.remove(key);
                 }
             }
-            return allSuccessful;
+        });
+        Future<Boolean> existing = inFlight.putIfAbsent(key, task);
+        if (existing != null) {
+            System.out.println(
+                String.format("Waiting for Pre-Dexing %1$s -> %2$s",
+                  input.getAbsolutePath(), dexed.getName()));
+            return existing;
+        }
+        preDexExecutor.execute(task);
+        return task;
+    }
+
+    private boolean runPreDex(File input, File dexed, DexCacheIndex index) throws IOException {
+        // A build that was pre-dexing the same input may have finished in the meantime.
+        if (index.contains(dexed)) {
+            return true;
+        }
+        System.out.println(
+            String.format("Pre-Dexing %1$s -> %2$s",
+              input.getAbsolutePath(), dexed.getName()));
+
+        // dx writes a jar only if the output name ends with .jar. Write to a temporary jar
+        // and rename it, so that a partially written file is never used.
+        File tmpDexed = File.createTempFile("tmp-", ".jar", dexed.getParentFile());
+        if (!runDx(input, tmpDexed.getAbsolutePath(), false /*showInput*/)) {
+            tmpDexed.delete();
+            return false;
         }
+        dexed.delete();
+        if (!tmpDexed.renameTo(dexed)) {
+            tmpDexed.delete();
+            return false;
+        }
+        index.add(dexed);
+        return true;
     }
 
-    private String getDexFileName(File inputFile) {
-        // get the filename
-        String name = inputFile.getName();
-        // remove the extension
-        int pos = name.lastIndexOf('.');
-        if (pos != -1) {
-            name = name.substring(0, pos);
+    /**
+     * Computes a hash of the relative paths and contents of all files in a
+     * directory.
+     */
+    private static String getDirectoryHash(File dir) throws IOException {
+        List<String> relativePaths = new ArrayList<String>();
+        listFiles(dir, "", relativePaths);
+        Collections.sort(relativePaths);
+        Hasher hasher = Hashing.md5().newHasher();
+        for (String relativePath : relativePaths) {
+            hasher.putBytes(relativePath.getBytes("UTF-8"));
+            hasher.putByte((byte) 0);
+            hasher.putBytes(Files.toByteArray(new File(dir, relativePath)));
         }
+        return hasher.hash().toString();
+    }
 
-        String hashed = getHashFor(inputFile);
+    private static void listFiles(File dir, String prefix, List<String> relativePaths) {
+        File[] files = dir.listFiles();
+        if (files == null) {
+            return;
+        }
+        for (File file : files) {
+            if (file.isDirectory()) {
+                listFiles(file, prefix + file.getName() + "/", relativePaths);
+            } else {
+                relativePaths.add(prefix + file.getName());
+            }
+        }
+    }
 
-        return "dex-cached-" + hashed + ".jar";
+    /**
+     * Keeps the given pre-dexed class directory from being pruned until this
+     * task completes.
+     */
+    void pinClassFragment(File dexed) {
+        String key = dexed.getAbsolutePath();
+        synchronized (pinnedFragments) {
+            Integer count = pinnedFragments.get(key);
+            pinnedFragments.put(key, count == null ? 1 : count + 1);
+        }
+        mPinnedFragments.add(dexed);
     }
 
-    private String getHashFor(File inputFile) {
-        String retval = alreadyChecked.get(inputFile.getAbsolutePath());
-        if (retval != null) return retval;
-        // add a hash of the original file path
-        try {
-            HashFunction hashFunction = Hashing.md5();
-            HashCode hashCode = hashFunction.hashBytes(Files.readAllBytes(inputFile.toPath()));
-            retval = hashCode.toString();
-            alreadyChecked.put(inputFile.getAbsolutePath(), retval);
-            return retval;
-        } catch (IOException e) {
-            e.printStackTrace();
-            return "ERROR";
+    /**
+     * Allows the pre-dexed class directories pinned by this task to be pruned.
+     */
+    void unpinClassFragments() {
+        synchronized (pinnedFragments) {
+            for (File dexed : mPinnedFragments) {
+                String key = dexed.getAbsolutePath();
+                int count = pinnedFragments.get(key) - 1;
+                if (count == 0) {
+                    pinnedFragments.remove(key);
+                } else {
+                    pinnedFragments.put(key, count);
+                }
+            }
+        }
+        mPinnedFragments.clear();
+    }
+
+    /**
+     * Deletes the least recently used pre-dexed class directories until they
+     * take no more than mMaxClassFragmentBytes. Fragments pinned by a running
+     * build are kept.
+     */
+    void pruneClassFragments(DexCacheIndex index) {
+        synchronized (pinnedFragments) {
+            pruneUnpinnedClassFragments(index);
         }
     }
 
+    private void pruneUnpinnedClassFragments(DexCacheIndex index) {
+        File[] fragments = new File(mDexedLibs, CLASS_FRAGMENTS_DIR).listFiles();
+        if (fragments == null) {
+            return;
+        }
+        long totalBytes = 0;
+        List<File> cached = new ArrayList<File>();
+        for (File fragment : fragments) {
+            if (fragment.getName().startsWith(CLASS_FRAGMENT_PREFIX)) {
+                cached.add(fragment);
+                totalBytes += fragment.length();
+            }
+        }
+        if (totalBytes <= mMaxClassFragmentBytes) {
+            return;
+        }
+        Collections.sort(cached, new Comparator<File>() {
+            @Override
+            public int compare(File f1, File f2) {
+                long m1 = f1.lastModified();
+                long m2 = f2.lastModified();
+                return m1 < m2 ? -1 : (m1 == m2 ? 0 : 1);
+            }
+        });
+        for (File fragment : cached) {
+            if (totalBytes <= mMaxClassFragmentBytes) {
+                break;
+            }
+            if (pinnedFragments.containsKey(fragment.getAbsolutePath())) {
+                continue;
+            }
+            totalBytes -= fragment.length();
+            index.remove(fragment);
+            fragment.delete();
+        }
+    }
+
+    private String getDexFileName(File inputFile) throws IOException {
+        return "dex-cached-" + getHashFor(inputFile) + ".jar";
+    }
+
+    private static String getHashFor(File inputFile) throws IOException {
+        // The same library is extracted to the same path for the life of the build server, so
+        // the hash is computed only once unless the file changes.
+        String key = inputFile.getAbsolutePath() + ":" + inputFile.length() + ":" +
+            inputFile.lastModified();
+        String retval = alreadyChecked.get(key);
+        if (retval == null) {
+            // Files.hash streams the file instead of reading all of it into memory.
+            retval = Files.hash(inputFile, Hashing.md5()).toString();
+            alreadyChecked.put(key, retval);
+        }
+        return retval;
+    }
+
+    private static DexCacheIndex getIndex(File dexedLibs) {
+        String key = dexedLibs.getAbsolutePath();
+        DexCacheIndex index = indexes.get(key);
+        if (index == null) {
+            indexes.putIfAbsent(key, new DexCacheIndex(dexedLibs));
+            index = indexes.get(key);
+        }
+        return index;
+    }
+
     public boolean execute(List<File> paths) {
-        // pre dex libraries if needed
-        boolean successPredex = preDexLibraries(paths);
-        if (!successPredex) return false;
+        try {
+            // pre dex libraries if needed
+            boolean successPredex = preDexLibraries(paths);
+            if (!successPredex) return false;
 
-        System.out.println(String.format(
-                "Converting compiled files and external libraries into %1$s...", mOutput));
+            System.out.println(String.format(
+                    "Converting compiled files and external libraries into %1$s...", mOutput));
 
-        return runDx(paths, mOutput, mVerbose /*showInputs*/);
+            return runDx(paths, mOutput, mVerbose /*showInputs*/);
+        } finally {
+            // The pre-dexed class directories are inputs of the final dx run.
+            unpinClassFragments();
+        }
     }
 
     private boolean runDx(File input, String output, boolean showInputs) {
@@ -218,12 +477,91 @@ public class DexExecTask  {
         String[] dxCommandLine = new String[commandLineList.size()];
         commandLineList.toArray(dxCommandLine);
 
-        boolean dxSuccess = Execution.execute(null, dxCommandLine, System.out, System.err);
-        return dxSuccess;
+        if (mScheduler == null) {
+            return Execution.execute(null, dxCommandLine, System.out, System.err, mTraceStage);
+        }
+        mScheduler.acquire(ChildProcessScheduler.DX_STAGE);
+        try {
+            return Execution.execute(null, dxCommandLine, System.out, System.err, mTraceStage);
+        } finally {
+            mScheduler.release(ChildProcessScheduler.DX_STAGE);
+        }
 
     }
 
     protected String getExecTaskName() {
         return "dx";
     }
+
+    /**
+     * The pre-dexed files in a dex cache directory that were completely
+     * written, with their lengths. The index is kept in a properties file so
+     * that it survives a restart of the build server.
+     */
+    static class DexCacheIndex {
+        private final File mDir;
+        private final File mIndexFile;
+        private final Properties mEntries = new Properties();
+
+        DexCacheIndex(File dir) {
+            mDir = dir;
+            mIndexFile = new File(dir, INDEX_FILE);
+            if (mIndexFile.isFile()) {
+                try {
+                    InputStream in = new FileInputStream(mIndexFile);
+                    try {
+                        mEntries.load(in);
+                    } finally {
+                        in.close();
+                    }
+                } catch (IOException e) {
+                    // Start over with an empty index. Files that are not in the index are
+                    // pre-dexed again.
+                    e.printStackTrace();
+                    mEntries.clear();
+                }
+            }
+        }
+
+        synchronized boolean contains(File dexed) {
+            String length = mEntries.getProperty(getKey(dexed));
+            return length != null && dexed.isFile() && length.equals(dexed.length() + "");
+        }
+
+        synchronized void add(File dexed) throws IOException {
+            mEntries.setProperty(getKey(dexed), dexed.length() + "");
+            save();
+        }
+
+        synchronized void remove(File dexed) {
+            if (mEntries.remove(getKey(dexed)) != null) {
+                try {
+                    save();
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
+            }
+        }
+
+        private String getKey(File dexed) {
+            return dexed.getAbsolutePath().substring(mDir.getAbsolutePath().length() + 1)
+                .replace(File.separatorChar, '/');
+        }
+
+        private void save() throws IOException {
+            // Write to a temporary file and rename it, so that the index is never partially
+            // written.
+            File tmpIndex = File.createTempFile("tmp-", ".properties", mDir);
+            OutputStream out = new FileOutputStream(tmpIndex);
+            try {
+                mEntries.store(out, "Pre-dexed files and their lengths");
+            } finally {
+                out.close();
+            }
+            if (!tmpIndex.renameTo(mIndexFile)) {
+                tmpIndex.delete();
+                throw new IOException("Unable to write " + mIndexFile);
+            }
+        }
+    }
 }
@@ -101,6 +101,23 @@ public final class Execution {
    */
   public static boolean execute(File workingDir, String[] command, PrintStream out,
       PrintStream err) {
+    return execute(workingDir, command, out, err, null);
+  }
+
+  /**
+   * Executes a command, redirects standard output and standard error to the
+   * given streams, and adds the CPU time and peak memory of the command to
+   * the given build stage.
+   *
+   * @param workingDir  working directory for the command
+   * @param command  command to execute and its arguments
+   * @param out  standard output stream to redirect to
+   * @param err  standard error stream to redirect to
+   * @param stage  build stage that receives the statistics of the command, or null
+   * @return  {@code true} if the command succeeds, {@code false} otherwise
+   */
+  static boolean execute(File workingDir, String[] command, PrintStream out,
+      PrintStream err, BuildTrace.Stage stage) {
     LOG.log(Level.INFO, "____Executing " + joiner.join(command));
     if (System.getProperty("os.name").startsWith("Windows")){
     	for(int i =0; i < command.length; i++){
@@ -111,7 +128,14 @@ public final class Execution {
       Process process = Runtime.getRuntime().exec(command, null, workingDir);
       new RedirectStreamHandler(new PrintWriter(out, true), process.getInputStream());
       new RedirectStreamHandler(new PrintWriter(err, true), process.getErrorStream());
-      return process.waitFor() == 0;
+      ProcessSampler sampler = ProcessSampler.start(process, stage);
+      try {
+        return process.waitFor() == 0;
+      } finally {
+        if (sampler != null) {
+          sampler.finish();
+        }
+      }
     } catch (Exception e) {
       LOG.log(Level.WARNING, "____Execution failure: ", e);
       return false;
@@ -0,0 +1,241 @@
+// -*- mode: java; c-basic-offset: 2; -*-
+// Copyright 2016 MIT, All rights reserved
+// Released under the Apache License, Version 2.0
+// http://www.apache.org/licenses/LICENSE-2.0
+
+package com.google.appinventor.buildserver;
+
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.logging.Logger;
+
+/**
+ * Executes tasks, each in its own thread, allowing only a certain number of
+ * simultaneous tasks.
+ *
+ * <p>Additional tasks wait in a bounded queue. Tasks are taken from the queue
+ * fairly: a user's second waiting task starts after the first waiting task of
+ * every other user, and so on. Tasks with the same rank start in arrival
+ * order. When the queue is full, additional tasks are rejected.</p>
+ *
+ * <p>The executor keeps the average task duration so that it can estimate
+ * when a queued task will start.</p>
+ */
+final class FairQueuingExecutor {
+  // The estimated duration of a task until the first task completes.
+  static final long DEFAULT_TASK_DURATION_MS = 60 * 1000;
+
+  // The maximum number of active tasks. O means unlimited.
+  private final int maxActiveTasks;
+  // The maximum number of queued tasks. O means no task is queued.
+  private final int maxQueuedTasks;
+
+  // All fields below are guarded by this.
+  private final PriorityQueue<QueuedTask> queue = new PriorityQueue<QueuedTask>(11,
+      new Comparator<QueuedTask>() {
+        @Override
+        public int compare(QueuedTask t1, QueuedTask t2) {
+          if (t1.rank != t2.rank) {
+            return t1.rank < t2.rank ? -1 : 1;
+          }
+          return t1.sequence < t2.sequence ? -1 : (t1.sequence == t2.sequence ? 0 : 1);
+        }
+      });
+  // The number of active or queued tasks of each user.
+  private final Map<String, Integer> userTaskCounts = new HashMap<String, Integer>();
+  private long nextSequence;
+
+  private int activeTaskCount;
+  private int completedTaskCount;
+  private int rejectedTaskCount;
+  private int maximumQueuedTaskCount;
+  private long queuedTaskCount;
+  private long totalQueueWaitMs;
+  private long maximumQueueWaitMs;
+  private long totalTaskDurationMs;
+
+  // Logging support
+  private static final Logger LOG = Logger.getLogger(FairQueuingExecutor.class.getName());
+
+  /**
+   * Creates a FairQueuingExecutor.
+   *
+   * @param maxActiveTasks the maximum number of active tasks
+   * @param maxQueuedTasks the maximum number of queued tasks
+   */
+  FairQueuingExecutor(int maxActiveTasks, int maxQueuedTasks) {
+    this.maxActiveTasks = maxActiveTasks;
+    this.maxQueuedTasks = maxQueuedTasks;
+  }
+
+  /**
+   * Executes the given task, or queues it if the executor is at maximum
+   * capacity.
+   *
+   * @param userName the user that requested the task
+   * @param runnable the task
+   * @return the estimated time until the task starts, in milliseconds. 0
+   *     means that the task has started.
+   * @throws RejectedExecutionException if the queue is full
+   */
+  synchronized long execute(String userName, Runnable runnable) {
+    if (maxActiveTasks == 0 || activeTaskCount < maxActiveTasks) {
+      incrementUserTaskCount(userName);
+      startTask(new QueuedTask(userName, runnable, 0, nextSequence++));
+      return 0;
+    }
+    if (queue.size() >= maxQueuedTasks) {
+      // If the queue is full, reject the task.
+      rejectedTaskCount++;
+      throw new RejectedExecutionException();
+    }
+    int rank = incrementUserTaskCount(userName);
+    QueuedTask task = new QueuedTask(userName, runnable, rank, nextSequence++);
+    queue.add(task);
+    maximumQueuedTaskCount = Math.max(maximumQueuedTaskCount, queue.size());
+    long estimate = estimateStartMs(task);
+    LOG.info("Queued task for " + userName + " behind " + countTasksAhead(task) +
+        " tasks, estimated start in " + estimate + " ms");
+    return estimate;
+  }
+
+  /*
+   * Returns the rank of the user's new task, which is the number of the user's tasks that are
+   * already active or queued.
+   */
+  private int incrementUserTaskCount(String userName) {
+    Integer count = userTaskCounts.get(userName);
+    int rank = count == null ? 0 : count;
+    userTaskCounts.put(userName, rank + 1);
+    return rank;
+  }
+
+  private void decrementUserTaskCount(String userName) {
+    int count = userTaskCounts.get(userName) - 1;
+    if (count == 0) {
+      userTaskCounts.remove(userName);
+    } else {
+      userTaskCounts.put(userName, count);
+    }
+  }
+
+  private void startTask(final QueuedTask task) {
+    activeTaskCount++;
+    // Create a new thread for the task. When the task completes, the thread runs the next
+    // queued task, if any.
+    Thread thread = new Thread(new Runnable() {
+      @Override
+      public void run() {
+        QueuedTask next = task;
+        while (next != null) {
+          long start = System.currentTimeMillis();
+          try {
+            next.runnable.run();
+          } finally {
+            next = taskCompleted(next, System.currentTimeMillis() - start);
+          }
+        }
+      }
+    });
+    thread.start();
+  }
+
+  /*
+   * Records that the given task completed and returns the next task to run in the same thread,
+   * or null if the queue is empty.
+   */
+  private synchronized QueuedTask taskCompleted(QueuedTask task, long durationMs) {
+    completedTaskCount++;
+    totalTaskDurationMs += durationMs;
+    decrementUserTaskCount(task.userName);
+    QueuedTask next = queue.poll();
+    if (next == null) {
+      activeTaskCount--;
+      return null;
+    }
+    long waited = System.currentTimeMillis() - next.queuedTime;
+    queuedTaskCount++;
+    totalQueueWaitMs += waited;
+    maximumQueueWaitMs = Math.max(maximumQueueWaitMs, waited);
+    LOG.info("Starting queued task for " + next.userName + " after " + waited + " ms");
+    return next;
+  }
+
+  /*
+   * Estimates when the given queued task starts, from the number of tasks ahead of it and the
+   * average task duration.
+   */
+  private long estimateStartMs(QueuedTask task) {
+    long averageDurationMs = completedTaskCount == 0
+        ? DEFAULT_TASK_DURATION_MS
+        : totalTaskDurationMs / completedTaskCount;
+    // The task starts after every task ahead of it has started and one active task completed.
+    // Active tasks are assumed to be half done.
+    int waves = countTasksAhead(task) / maxActiveTasks;
+    return averageDurationMs / 2 + waves * averageDurationMs;
+  }
+
+  private int countTasksAhead(QueuedTask task) {
+    int ahead = 0;
+    for (QueuedTask other : queue) {
+      if (queue.comparator().compare(other, task) < 0) {
+        ahead++;
+      }
+    }
+    return ahead;
+  }
+
+  public int getMaxActiveTasks() {
+    return maxActiveTasks;
+  }
+
+  public int getMaxQueuedTasks() {
+    return maxQueuedTasks;
+  }
+
+  public synchronized int getActiveTaskCount() {
+    return activeTaskCount;
+  }
+
+  public synchronized int getQueuedTaskCount() {
+    return queue.size();
+  }
+
+  public synchronized int getCompletedTaskCount() {
+    return completedTaskCount;
+  }
+
+  /**
+   * Adds the queue statistics to the given map of variables.
+   */
+  synchronized void addVariables(Map<String, String> variables) {
+    variables.put("maximum-queued-build-tasks-allowed", maxQueuedTasks + "");
+    variables.put("queued-build-tasks", queue.size() + "");
+    variables.put("maximum-queued-build-tasks-occurred", maximumQueuedTaskCount + "");
+    variables.put("rejected-build-tasks", rejectedTaskCount + "");
+    variables.put("build-tasks-started-from-queue", queuedTaskCount + "");
+    variables.put("average-queue-wait-ms",
+        (queuedTaskCount == 0 ? 0 : totalQueueWaitMs / queuedTaskCount) + "");
+    variables.put("maximum-queue-wait-ms", maximumQueueWaitMs + "");
+    variables.put("average-build-task-ms",
+        (completedTaskCount == 0 ? 0 : totalTaskDurationMs / completedTaskCount) + "");
+  }
+
+  private static class QueuedTask {
+    final String userName;
+    final Runnable runnable;
+    final int rank;
+    final long sequence;
+    final long queuedTime = System.currentTimeMillis();
+
+    QueuedTask(String userName, Runnable runnable, int rank, long sequence) {
+      this.userName = userName;
+      this.runnable = runnable;
+      this.rank = rank;
+      this.sequence = sequence;
+    }
+  }
+}
@@ -0,0 +1,317 @@
+// -*- mode: java; c-basic-offset: 2; -*-
+// Copyright 2016 MIT, All rights reserved
+// Released under the Apache License, Version 2.0
+// http://www.apache.org/licenses/LICENSE-2.0
+
+package com.google.appinventor.buildserver;
+
+import com.google.common.base.Charsets;
+import com.google.common.base.Joiner;
+import com.google.common.collect.Lists;
+import com.google.common.io.Files;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.PrintStream;
+import java.io.Writer;
+import java.net.URISyntaxException;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * A pool of long-lived Kawa compiler processes.
+ *
+ * <p>Starting a JVM and loading runtime.scm for every build costs several
+ * seconds. The workers in this pool (see {@link KawaWorker}) load the YAIL
+ * runtime once and then compile one job at a time. All workers share the same
+ * classpath, which contains the libraries of every built-in component, so a
+ * worker can compile any project that does not use extensions.
+ *
+ * <p>A worker that fails a job (Kawa exits on compile errors) or that has
+ * compiled {@link #MAX_JOBS_PER_WORKER} jobs is replaced by a new one.
+ *
+ */
+final class KawaCompilerPool {
+  // Workers are recycled after this many jobs to bound any state Kawa keeps between compilations.
+  static final int MAX_JOBS_PER_WORKER = 50;
+
+  private final int childProcessRamMb;
+
+  // The classpath and YAIL runtime of the workers, or null for the build server's own.
+  private final String workerClasspath;
+  private final String yailRuntime;
+
+  // Slots for the workers. A slot holds a null worker until the worker is first needed.
+  private final BlockingQueue<WorkerSlot> slots;
+  private final int size;
+
+  private final AtomicInteger workersStarted = new AtomicInteger(0);
+  private final AtomicInteger warmJobs = new AtomicInteger(0);
+  private final AtomicInteger coldJobs = new AtomicInteger(0);
+  private final AtomicInteger failedJobs = new AtomicInteger(0);
+
+  // Logging support
+  private static final Logger LOG = Logger.getLogger(KawaCompilerPool.class.getName());
+
+  private static final Joiner FIELD_JOINER = Joiner.on(KawaWorker.FIELD_SEPARATOR);
+
+  /**
+   * Creates a KawaCompilerPool. Worker processes are started the first time
+   * they are needed.
+   *
+   * @param size the number of worker processes
+   * @param childProcessRamMb maximum ram that can be used by a worker, in MB
+   */
+  KawaCompilerPool(int size, int childProcessRamMb) {
+    this(size, childProcessRamMb, null, null);
+  }
+
+  /**
+   * Creates a KawaCompilerPool whose workers use the given classpath and
+   * runtime, so that tests can run workers without the YAIL runtime.
+   *
+   * @param size the number of worker processes
+   * @param childProcessRamMb maximum ram that can be used by a worker, in MB
+   * @param workerClasspath the classpath of the workers, which must contain
+   *                        Kawa and {@link KawaWorker}, or null
+   * @param yailRuntime the path of the runtime that the workers load, or null
+   */
+  KawaCompilerPool(int size, int childProcessRamMb, String workerClasspath, String yailRuntime) {
+    this.size = size;
+    this.childProcessRamMb = childProcessRamMb;
+    this.workerClasspath = workerClasspath;
+    this.yailRuntime = yailRuntime;
+    slots = new ArrayBlockingQueue<WorkerSlot>(size);
+    for (int i = 0; i < size; i++) {
+      slots.add(new WorkerSlot());
+    }
+  }
+
+  /**
+   * Starts all of the worker processes, so that the first builds find them
+   * warm.
+   */
+  void prestart() {
+    List<WorkerSlot> taken = Lists.newArrayList();
+    slots.drainTo(taken);
+    try {
+      for (WorkerSlot slot : taken) {
+        try {
+          slot.ensureStarted();
+        } catch (IOException e) {
+          LOG.log(Level.WARNING, "Unable to start Kawa worker", e);
+        }
+      }
+    } finally {
+      slots.addAll(taken);
+    }
+  }
+
+  /**
+   * Compiles the given YAIL source files with a warm worker. Blocks until a
+   * worker is available.
+   *
+   * @param classesDir  the directory to write the class files to
+   * @param packagePrefix  the package prefix for the compiled classes
+   * @param sourceFileNames  absolute paths of the source files, including the
+   *                         YAIL runtime
+   * @param kawaErr  stream that receives the Kawa compiler messages
+   * @param stage  the build stage that receives the CPU time and peak memory
+   *               of the worker for this job, or null
+   * @return  {@code true} if the worker reports success, {@code false} otherwise
+   */
+  boolean compile(File classesDir, String packagePrefix, List<String> sourceFileNames,
+      PrintStream kawaErr, BuildTrace.Stage stage) throws IOException {
+    WorkerSlot slot;
+    try {
+      slot = slots.take();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IOException("Interrupted while waiting for a Kawa worker");
+    }
+    File logFile = File.createTempFile("kawa", ".log", classesDir.getParentFile());
+    try {
+      boolean warm = slot.isStarted();
+      slot.ensureStarted();
+      if (warm) {
+        warmJobs.incrementAndGet();
+      } else {
+        coldJobs.incrementAndGet();
+      }
+
+      List<String> fields = Lists.newArrayList(logFile.getAbsolutePath(),
+          "-d", classesDir.getAbsolutePath(),
+          "-P", packagePrefix,
+          "-C");
+      fields.addAll(sourceFileNames);
+      long[] before = slot.worker.sample();
+      boolean success = slot.worker.runJob(FIELD_JOINER.join(fields));
+      long[] after = slot.worker.sample();
+      if (stage != null && before != null && after != null) {
+        // The peak resident set size covers all of the jobs the worker has run.
+        stage.addChildProcess(after[0] - before[0], after[1]);
+      }
+      kawaErr.print(Files.toString(logFile, Charsets.UTF_8));
+      if (!success) {
+        failedJobs.incrementAndGet();
+      }
+      return success;
+    } finally {
+      logFile.delete();
+      slot.recycleIfNeeded();
+      slots.add(slot);
+    }
+  }
+
+  int getSize() {
+    return size;
+  }
+
+  int getWorkersStarted() {
+    return workersStarted.get();
+  }
+
+  int getWarmJobs() {
+    return warmJobs.get();
+  }
+
+  int getColdJobs() {
+    return coldJobs.get();
+  }
+
+  int getFailedJobs() {
+    return failedJobs.get();
+  }
+
+  /*
+   * Holds the worker for one slot of the pool. Only the thread that took the
+   * slot from the queue touches it.
+   */
+  private class WorkerSlot {
+    private Worker worker;
+
+    boolean isStarted() {
+      return worker != null && worker.isAlive();
+    }
+
+    void ensureStarted() throws IOException {
+      if (!isStarted()) {
+        if (worker != null) {
+          worker.destroy();
+        }
+        worker = new Worker();
+        workersStarted.incrementAndGet();
+      }
+      worker.awaitReady();
+    }
+
+    void recycleIfNeeded() {
+      if (worker != null && (!worker.isAlive() || worker.jobs >= MAX_JOBS_PER_WORKER)) {
+        worker.destroy();
+        worker = null;
+      }
+    }
+  }
+
+  /*
+   * A single Kawa worker process.
+   */
+  private class Worker {
+    private final Process process;
+    private final int pid;
+    private final Writer toWorker;
+    private final BufferedReader fromWorker;
+    private boolean ready;
+    private boolean alive = true;
+    private int jobs;
+
+    Worker() throws IOException {
+      List<String> command = Lists.newArrayList();
+      Collections.addAll(command,
+          System.getProperty("java.home") + "/bin/java",
+          "-Dfile.encoding=UTF-8",
+          "-mx" + (childProcessRamMb - 200) + "M",
+          "-cp", workerClasspath == null ? getWorkerClasspath() : workerClasspath,
+          KawaWorker.class.getName(),
+          yailRuntime == null ? Compiler.getResource(Compiler.YAIL_RUNTIME) : yailRuntime);
+      LOG.info("Starting Kawa worker: " + Joiner.on(" ").join(command));
+      process = new ProcessBuilder(command)
+          .redirectError(ProcessBuilder.Redirect.INHERIT)
+          .start();
+      pid = ProcessSampler.getPid(process);
+      toWorker = new OutputStreamWriter(process.getOutputStream(), Charsets.UTF_8);
+      fromWorker = new BufferedReader(
+          new InputStreamReader(process.getInputStream(), Charsets.UTF_8));
+    }
+
+    void awaitReady() throws IOException {
+      if (!ready) {
+        String line = fromWorker.readLine();
+        if (!KawaWorker.READY.equals(line)) {
+          alive = false;
+          throw new IOException("Kawa worker failed to load the YAIL runtime");
+        }
+        ready = true;
+      }
+    }
+
+    boolean runJob(String job) {
+      jobs++;
+      try {
+        toWorker.write(job);
+        toWorker.write('\n');
+        toWorker.flush();
+        String reply = fromWorker.readLine();
+        if (reply == null) {
+          // Kawa exits the process when there are compilation errors.
+          alive = false;
+          return false;
+        }
+        return reply.equals(KawaWorker.DONE + " 0");
+      } catch (IOException e) {
+        LOG.log(Level.WARNING, "Kawa worker failed", e);
+        alive = false;
+        return false;
+      }
+    }
+
+    /*
+     * Returns the CPU time and peak resident set size of the worker (see
+     * ProcessSampler#sample), or null if they can't be read.
+     */
+    long[] sample() {
+      return pid < 0 ? null : ProcessSampler.sample(pid);
+    }
+
+    boolean isAlive() {
+      return alive;
+    }
+
+    void destroy() {
+      alive = false;
+      process.destroy();
+    }
+  }
+
+  /*
+   * The classpath of a worker is the Kawa compile classpath for a project that
+   * uses every built-in component, plus the build server itself for KawaWorker.
+   */
+  private static String getWorkerClasspath() throws IOException {
+    try {
+      File buildServer = new File(
+          KawaWorker.class.getProtectionDomain().getCodeSource().getLocation().toURI());
+      return buildServer.getAbsolutePath() + File.pathSeparator + Compiler.getWarmKawaClasspath();
+    } catch (URISyntaxException e) {
+      throw new IOException(e);
+    }
+  }
+}
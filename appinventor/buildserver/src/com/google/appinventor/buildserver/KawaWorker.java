@@ -0,0 +1,91 @@
+// -*- mode: java; c-basic-offset: 2; -*-
+// Copyright 2016 MIT, All rights reserved
+// Released under the Apache License, Version 2.0
+// http://www.apache.org/licenses/LICENSE-2.0
+
+package com.google.appinventor.buildserver;
+
+import java.io.BufferedReader;
+import java.io.FileOutputStream;
+import java.io.InputStreamReader;
+import java.io.PrintStream;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.util.Arrays;
+
+/**
+ * Main entry point for a long-lived Kawa compiler child process.
+ *
+ * <p>The worker loads the YAIL runtime once at startup and then compiles
+ * one job at a time. It is driven by {@link KawaCompilerPool} through a
+ * line based protocol on stdin/stdout:
+ * <ul>
+ * <li> On startup, after the runtime is loaded, the worker prints
+ *      {@link #READY}.
+ * <li> Each job is a single line of tab separated fields. The first field
+ *      is the path of a log file that receives Kawa's messages for the job.
+ *      The remaining fields are the kawa.repl arguments (for example
+ *      {@code -d dir -P prefix -C files...}).
+ * <li> When the job completes, the worker prints {@link #DONE} followed by
+ *      a space and 0 on success or 1 on failure.
+ * </ul>
+ * Kawa calls System.exit when a compilation has errors. In that case the
+ * worker process simply ends and the pool treats the job as failed.
+ *
+ * <p>Kawa is only on the classpath of the child process, so it is accessed
+ * through reflection.
+ *
+ */
+public final class KawaWorker {
+  static final String READY = "READY";
+  static final String DONE = "DONE";
+  static final String FIELD_SEPARATOR = "\t";
+
+  private KawaWorker() {
+  }
+
+  /**
+   * Main entry point.
+   *
+   * @param args  the path to the YAIL runtime
+   */
+  public static void main(String[] args) throws Exception {
+    // stdout is our protocol channel. Anything Kawa prints there goes to stderr instead.
+    PrintStream protocol = new PrintStream(System.out, true, "UTF-8");
+    System.setOut(System.err);
+
+    Method processArgs = Class.forName("kawa.repl")
+        .getMethod("processArgs", String[].class, int.class, int.class);
+    Class<?> moduleManagerClass = Class.forName("gnu.expr.ModuleManager");
+    Object moduleManager = moduleManagerClass.getMethod("getInstance").invoke(null);
+    Method clearModules = moduleManagerClass.getMethod("clear");
+
+    String[] loadRuntime = { "-f", args[0] };
+    processArgs.invoke(null, loadRuntime, 0, loadRuntime.length);
+    protocol.println(READY);
+
+    BufferedReader jobs = new BufferedReader(new InputStreamReader(System.in, "UTF-8"));
+    String job;
+    while ((job = jobs.readLine()) != null) {
+      String[] fields = job.split(FIELD_SEPARATOR);
+      String[] kawaArgs = Arrays.copyOfRange(fields, 1, fields.length);
+      PrintStream log = new PrintStream(new FileOutputStream(fields[0]), true, "UTF-8");
+      PrintStream savedErr = System.err;
+      System.setErr(log);
+      boolean success = true;
+      try {
+        // Forget the modules compiled by the previous job so that every job writes all of its
+        // class files, just like a fresh kawa.repl process would.
+        clearModules.invoke(moduleManager);
+        processArgs.invoke(null, kawaArgs, 0, kawaArgs.length);
+      } catch (InvocationTargetException e) {
+        e.getCause().printStackTrace(log);
+        success = false;
+      } finally {
+        System.setErr(savedErr);
+        log.close();
+      }
+      protocol.println(DONE + " " + (success ? 0 : 1));
+    }
+  }
+}
@@ -0,0 +1,142 @@
+// -*- mode: java; c-basic-offset: 2; -*-
+// Copyright 2016 MIT, All rights reserved
+// Released under the Apache License, Version 2.0
+// http://www.apache.org/licenses/LICENSE-2.0
+
+package com.google.appinventor.buildserver;
+
+import com.google.common.base.Charsets;
+import com.google.common.io.Files;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+
+/**
+ * Samples the CPU time and peak resident set size of a child process from
+ * the /proc file system while it runs.
+ *
+ * <p>The numbers are read every {@link #SAMPLE_INTERVAL_MS} milliseconds, so
+ * the CPU time of the last interval before the process exits is not
+ * counted. On systems without /proc nothing is reported.
+ *
+ */
+final class ProcessSampler extends Thread {
+  static final long SAMPLE_INTERVAL_MS = 50;
+
+  // The kernel reports CPU times in clock ticks, which are 10 ms on Linux.
+  private static final long MS_PER_CLOCK_TICK = 10;
+
+  private final int pid;
+  private final BuildTrace.Stage stage;
+  private volatile boolean done;
+  private long cpuMs;
+  private long peakRssKb = -1;
+
+  private ProcessSampler(int pid, BuildTrace.Stage stage) {
+    super("ProcessSampler-" + pid);
+    this.pid = pid;
+    this.stage = stage;
+    setDaemon(true);
+  }
+
+  /**
+   * Starts sampling the given process for the given stage.
+   *
+   * @return the sampler, or null if the process can't be sampled
+   */
+  static ProcessSampler start(Process process, BuildTrace.Stage stage) {
+    int pid = getPid(process);
+    if (stage == null || pid < 0 || !new File("/proc/" + pid).isDirectory()) {
+      return null;
+    }
+    ProcessSampler sampler = new ProcessSampler(pid, stage);
+    sampler.start();
+    return sampler;
+  }
+
+  /**
+   * Stops sampling, after the process has exited, and adds the last sample
+   * to the stage.
+   */
+  void finish() {
+    done = true;
+    interrupt();
+    try {
+      join();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+    stage.addChildProcess(cpuMs, peakRssKb);
+  }
+
+  @Override
+  public void run() {
+    while (!done) {
+      long[] sample = sample(pid);
+      if (sample != null) {
+        cpuMs = sample[0];
+        peakRssKb = sample[1];
+      }
+      try {
+        Thread.sleep(SAMPLE_INTERVAL_MS);
+      } catch (InterruptedException e) {
+        // finish() was called.
+      }
+    }
+  }
+
+  /**
+   * Reads the CPU time, in milliseconds, and the peak resident set size, in
+   * KB, of the given process.
+   *
+   * @return the two numbers, or null if they can't be read
+   */
+  static long[] sample(int pid) {
+    try {
+      // The command name in field 2 is in parentheses and may contain spaces.
+      String stat = Files.toString(new File("/proc/" + pid + "/stat"), Charsets.US_ASCII);
+      String[] fields = stat.substring(stat.lastIndexOf(')') + 2).split(" ");
+      // utime and stime are fields 14 and 15, counting from 1 before the command name.
+      long ticks = Long.parseLong(fields[11]) + Long.parseLong(fields[12]);
+      long peakRssKb = -1;
+      for (String line : Files.readLines(new File("/proc/" + pid + "/status"),
+          Charsets.US_ASCII)) {
+        if (line.startsWith("VmHWM:")) {
+          peakRssKb = Long.parseLong(line.substring(6).trim().split("\\s+")[0]);
+          break;
+        }
+      }
+      return new long[] { ticks * MS_PER_CLOCK_TICK, peakRssKb };
+    } catch (IOException e) {
+      return null;
+    } catch (RuntimeException e) {
+      // The process exited while we read it, or the format is unexpected.
+      return null;
+    }
+  }
+
+  /**
+   * Returns the process id of the given process, or -1 if it can't be
+   * determined.
+   */
+  static int getPid(Process process) {
+    try {
+      // Java 9 and later
+      Method pidMethod = Process.class.getMethod("pid");
+      return ((Long) pidMethod.invoke(process)).intValue();
+    } catch (NoSuchMethodException e) {
+      // Fall through to the private field of java.lang.UNIXProcess.
+    } catch (Exception e) {
+      return -1;
+    }
+    try {
+      Field pidField = process.getClass().getDeclaredField("pid");
+      pidField.setAccessible(true);
+      return pidField.getInt(process);
+    } catch (Exception e) {
+      return -1;
+    }
+  }
+}
@@ -16,7 +16,6 @@ import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
 import com.google.common.collect.Sets;
 import com.google.common.io.Files;
-import com.google.common.io.InputSupplier;
 import com.google.common.io.Resources;
 
 import org.codehaus.jettison.json.JSONArray;
@@ -29,6 +28,7 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.io.PrintStream;
 import java.nio.charset.Charset;
+import java.nio.file.StandardCopyOption;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Enumeration;
@@ -40,6 +40,7 @@ import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 import java.util.zip.ZipEntry;
 import java.util.zip.ZipFile;
+import java.util.zip.ZipInputStream;
 
 import org.apache.commons.io.FileUtils;
 
@@ -53,6 +54,7 @@ public final class ProjectBuilder {
   private File outputApk;
   private File outputKeystore;
   private boolean saveKeystore;
+  private final BuildTrace trace;
 
   // Logging support
   private static final Logger LOG = Logger.getLogger(ProjectBuilder.class.getName());
@@ -78,6 +80,18 @@ public final class ProjectBuilder {
   private static final String ALL_COMPONENT_TYPES =
       Compiler.RUNTIME_FILES_DIR + "simple_components.txt";
 
+  public ProjectBuilder() {
+    this(new BuildTrace());
+  }
+
+  /**
+   * Creates a ProjectBuilder that records the progress of its build and the
+   * resources used by each build stage in the given trace.
+   */
+  ProjectBuilder(BuildTrace trace) {
+    this.trace = trace;
+  }
+
   public File getOutputApk() {
     return outputApk;
   }
@@ -118,6 +132,10 @@ public final class ProjectBuilder {
         + baseNamePrefix + "0 to " + baseNamePrefix + (TEMP_DIR_ATTEMPTS - 1) + ')');
   }
 
+  /**
+   * Builds the project in the given zip file. The APK, and the keystore if
+   * one was generated, are copied to the output directory.
+   */
   Result build(String userName, ZipFile inputZip, File outputDir, boolean isForCompanion,
                int childProcessRam, String dexCachePath) {
     try {
@@ -133,67 +151,20 @@ public final class ProjectBuilder {
           return Result.createFailingResult("", "Problems processing zip file.");
         }
 
-        try {
-          genYailFilesIfNecessary(sourceFiles);
-        } catch (YailGenerationException e) {
-          // Note that we're using a special result code here for the case of a Yail gen error.
-          return new Result(Result.YAIL_GENERATION_ERROR, "", e.getMessage(), e.getFormName());
-        } catch (Exception e) {
-          LOG.severe("Unknown exception signalled by genYailFilesIf Necessary");
-          e.printStackTrace();
-          return Result.createFailingResult("", "Unexpected problems generating YAIL.");
-        }
-
-        File keyStoreFile = new File(projectRoot, KEYSTORE_FILE_NAME);
-        String keyStorePath = keyStoreFile.getPath();
-        if (!keyStoreFile.exists()) {
-          keyStorePath = createKeyStore(userName, projectRoot, KEYSTORE_FILE_NAME);
-          saveKeystore = true;
+        Result result = build(userName, projectRoot, sourceFiles, isForCompanion, childProcessRam,
+            dexCachePath);
+        // Copy the output files out of the project root, which is deleted below.
+        if (outputApk != null) {
+          File apk = new File(outputDir, outputApk.getName());
+          Files.copy(outputApk, apk);
+          outputApk = apk;
         }
-
-        // Create project object from project properties file.
-        Project project = getProjectProperties(projectRoot);
-
-        File buildTmpDir = new File(projectRoot, "build/tmp");
-        buildTmpDir.mkdirs();
-
-        // Prepare for redirection of compiler message output
-        ByteArrayOutputStream output = new ByteArrayOutputStream();
-        PrintStream console = new PrintStream(output);
-        ByteArrayOutputStream errors = new ByteArrayOutputStream();
-        PrintStream userErrors = new PrintStream(errors);
-
-        Set<String> componentTypes = isForCompanion ? getAllComponentTypes() :
-            getComponentTypes(sourceFiles, project.getAssetsDirectory());
-
-        // Invoke YoungAndroid compiler
-        boolean success =
-            Compiler.compile(project, componentTypes, console, console, userErrors, isForCompanion,
-                             keyStorePath, childProcessRam, dexCachePath);
-        console.close();
-        userErrors.close();
-
-        // Retrieve compiler messages and convert to HTML and log
-        String srcPath = projectRoot.getAbsolutePath() + "/" + PROJECT_DIRECTORY + "/../src/";
-        String messages = processCompilerOutput(output.toString(PathUtil.DEFAULT_CHARSET),
-            srcPath);
-
-        if (success) {
-          // Locate output file
-          File outputFile = new File(projectRoot,
-              "build/deploy/" + project.getProjectName() + ".apk");
-          if (!outputFile.exists()) {
-            LOG.warning("Young Android build - " + outputFile + " does not exist");
-          } else {
-            outputApk = new File(outputDir, outputFile.getName());
-            Files.copy(outputFile, outputApk);
-            if (saveKeystore) {
-              outputKeystore = new File(outputDir, KEYSTORE_FILE_NAME);
-              Files.copy(keyStoreFile, outputKeystore);
-            }
-          }
+        if (outputKeystore != null) {
+          File keystore = new File(outputDir, KEYSTORE_FILE_NAME);
+          Files.copy(outputKeystore, keystore);
+          outputKeystore = keystore;
         }
-        return new Result(success, messages, errors.toString(PathUtil.DEFAULT_CHARSET));
+        return result;
       } finally {
         // On some platforms (OS/X), the java.io.tmpdir contains a symlink. We need to use the
         // canonical path here so that Files.deleteRecursively will work.
@@ -208,6 +179,84 @@ public final class ProjectBuilder {
     }
   }
 
+  /**
+   * Builds a project that has already been extracted into the given project
+   * root. The APK, and the keystore if one was generated, are left in the
+   * project root, so the caller must not delete it until it has read them.
+   *
+   * @param sourceFiles  the paths of the extracted files, as returned by
+   *                     {@link #extractProjectFiles(ZipInputStream, File)}
+   */
+  Result build(String userName, File projectRoot, List<String> sourceFiles,
+               boolean isForCompanion, int childProcessRam, String dexCachePath) {
+    try {
+      try {
+        genYailFilesIfNecessary(sourceFiles);
+      } catch (YailGenerationException e) {
+        // Note that we're using a special result code here for the case of a Yail gen error.
+        return new Result(Result.YAIL_GENERATION_ERROR, "", e.getMessage(), e.getFormName());
+      } catch (Exception e) {
+        LOG.severe("Unknown exception signalled by genYailFilesIf Necessary");
+        e.printStackTrace();
+        return Result.createFailingResult("", "Unexpected problems generating YAIL.");
+      }
+
+      File keyStoreFile = new File(projectRoot, KEYSTORE_FILE_NAME);
+      String keyStorePath = keyStoreFile.getPath();
+      if (!keyStoreFile.exists()) {
+        keyStorePath = createKeyStore(userName, projectRoot, KEYSTORE_FILE_NAME);
+        saveKeystore = true;
+      }
+
+      // Create project object from project properties file.
+      Project project = getProjectProperties(projectRoot);
+
+      File buildTmpDir = new File(projectRoot, "build/tmp");
+      buildTmpDir.mkdirs();
+
+      // Prepare for redirection of compiler message output
+      ByteArrayOutputStream output = new ByteArrayOutputStream();
+      PrintStream console = new PrintStream(output);
+      ByteArrayOutputStream errors = new ByteArrayOutputStream();
+      PrintStream userErrors = new PrintStream(errors);
+
+      Set<String> componentTypes = isForCompanion ? getAllComponentTypes() :
+          getComponentTypes(sourceFiles, project.getAssetsDirectory());
+
+      // Invoke YoungAndroid compiler
+      boolean success =
+          Compiler.compile(project, componentTypes, console, console, userErrors, isForCompanion,
+                           keyStorePath, childProcessRam, dexCachePath, trace);
+      console.close();
+      userErrors.close();
+
+      // Retrieve compiler messages and convert to HTML and log
+      String srcPath = projectRoot.getAbsolutePath() + "/" + PROJECT_DIRECTORY + "/../src/";
+      String messages = processCompilerOutput(output.toString(PathUtil.DEFAULT_CHARSET),
+          srcPath);
+
+      if (success) {
+        // Locate output file
+        File outputFile = new File(projectRoot,
+            "build/deploy/" + project.getProjectName() + ".apk");
+        if (!outputFile.exists()) {
+          LOG.warning("Young Android build - " + outputFile + " does not exist");
+        } else {
+          outputApk = outputFile;
+          if (saveKeystore) {
+            outputKeystore = keyStoreFile;
+          }
+        }
+      }
+      Result result = new Result(success, messages, errors.toString(PathUtil.DEFAULT_CHARSET));
+      result.setTrace(trace);
+      return result;
+    } catch (Exception e) {
+      e.printStackTrace();
+      return Result.createFailingResult("", "Server error performing build");
+    }
+  }
+
   private void genYailFilesIfNecessary(List<String> sourceFiles)
       throws IOException, YailGenerationException {
     // Filter out the files that aren't really source files (i.e. that don't end in .scm or .yail)
@@ -243,28 +292,49 @@ public final class ProjectBuilder {
     return compSet;
   }
 
-  private ArrayList<String> extractProjectFiles(ZipFile inputZip, File projectRoot)
+  private static ArrayList<String> extractProjectFiles(ZipFile inputZip, File projectRoot)
       throws IOException {
     ArrayList<String> projectFileNames = Lists.newArrayList();
     Enumeration<? extends ZipEntry> inputZipEnumeration = inputZip.entries();
     while (inputZipEnumeration.hasMoreElements()) {
       ZipEntry zipEntry = inputZipEnumeration.nextElement();
-      final InputStream extractedInputStream = inputZip.getInputStream(zipEntry);
-      File extractedFile = new File(projectRoot, zipEntry.getName());
-      LOG.info("extracting " + extractedFile.getAbsolutePath() + " from input zip");
-      Files.createParentDirs(extractedFile); // Do I need this?
-      Files.copy(
-          new InputSupplier<InputStream>() {
-            public InputStream getInput() throws IOException {
-              return extractedInputStream;
-            }
-          },
-          extractedFile);
-      projectFileNames.add(extractedFile.getPath());
+      InputStream extractedInputStream = inputZip.getInputStream(zipEntry);
+      try {
+        projectFileNames.add(extractProjectFile(zipEntry, extractedInputStream, projectRoot));
+      } finally {
+        extractedInputStream.close();
+      }
+    }
+    return projectFileNames;
+  }
+
+  /**
+   * Extracts the project files from a zip stream, such as the body of a
+   * build request, without first saving the zip to disk.
+   *
+   * @param inputZip  the zip stream
+   * @param projectRoot  the directory to extract the files into
+   * @return the paths of the extracted files
+   */
+  static ArrayList<String> extractProjectFiles(ZipInputStream inputZip, File projectRoot)
+      throws IOException {
+    ArrayList<String> projectFileNames = Lists.newArrayList();
+    ZipEntry zipEntry;
+    while ((zipEntry = inputZip.getNextEntry()) != null) {
+      projectFileNames.add(extractProjectFile(zipEntry, inputZip, projectRoot));
     }
     return projectFileNames;
   }
 
+  private static String extractProjectFile(ZipEntry zipEntry, InputStream in, File projectRoot)
+      throws IOException {
+    File extractedFile = new File(projectRoot, zipEntry.getName());
+    LOG.info("extracting " + extractedFile.getAbsolutePath() + " from input zip");
+    Files.createParentDirs(extractedFile); // Do I need this?
+    java.nio.file.Files.copy(in, extractedFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+    return extractedFile.getPath();
+  }
+
   private static Set<String> getComponentTypes(List<String> files, File assetsDir)
       throws IOException, JSONException {
     Map<String, String> nameTypeMap = createNameTypeMap(assetsDir);
@@ -520,8 +590,4 @@ public final class ProjectBuilder {
       return formName;
     }
   }
-
-  public int getProgress() {
-    return Compiler.getProgress();
-  }
 }
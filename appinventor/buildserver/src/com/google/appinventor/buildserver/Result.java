@@ -43,7 +43,9 @@ public class Result {
   private String error;
   // The name of the form being built when an error occurred
   private String formName;
-  
+  // The resources used by each build stage
+  private BuildTrace trace = new BuildTrace();
+
   // Logging support
   private static final Logger LOG = Logger.getLogger(Result.class.getName());
 
@@ -152,6 +154,20 @@ public class Result {
     return formName;
   }
 
+  /**
+   * Sets the trace of the build that produced this result.
+   */
+  void setTrace(BuildTrace trace) {
+    this.trace = trace;
+  }
+
+  /**
+   * Returns the resources used by each build stage.
+   */
+  BuildTrace getTrace() {
+    return trace;
+  }
+
   /**
    * Indicates whether this succeeded
    *
@@ -0,0 +1,334 @@
+// -*- mode: java; c-basic-offset: 2; -*-
+// Copyright 2016 MIT, All rights reserved
+// Released under the Apache License, Version 2.0
+// http://www.apache.org/licenses/LICENSE-2.0
+
+package com.google.appinventor.buildserver;
+
+import com.google.common.base.Charsets;
+import com.google.common.io.BaseEncoding;
+import com.google.common.io.CountingOutputStream;
+
+import org.bouncycastle.asn1.ASN1InputStream;
+import org.bouncycastle.asn1.DEROutputStream;
+import org.bouncycastle.cert.jcajce.JcaCertStore;
+import org.bouncycastle.cms.CMSException;
+import org.bouncycastle.cms.CMSProcessableByteArray;
+import org.bouncycastle.cms.CMSSignedData;
+import org.bouncycastle.cms.CMSSignedDataGenerator;
+import org.bouncycastle.cms.jcajce.JcaSignerInfoGeneratorBuilder;
+import org.bouncycastle.operator.ContentSigner;
+import org.bouncycastle.operator.OperatorCreationException;
+import org.bouncycastle.operator.jcajce.JcaContentSignerBuilder;
+import org.bouncycastle.operator.jcajce.JcaDigestCalculatorProviderBuilder;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.security.GeneralSecurityException;
+import java.security.KeyStore;
+import java.security.MessageDigest;
+import java.security.PrivateKey;
+import java.security.cert.X509Certificate;
+import java.util.Calendar;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.GregorianCalendar;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+import java.util.zip.ZipOutputStream;
+
+/**
+ * Writes a signed and aligned APK in a single pass.
+ *
+ * <p>This does the work of ApkBuilder, jarsigner and zipalign without
+ * rewriting the APK between the steps. Entries are copied into the APK one
+ * at a time. The data of every uncompressed entry starts at a multiple of
+ * {@link #ALIGNMENT} bytes, as zipalign would place it, and the SHA-1 digest
+ * that the v1 (JAR) signature needs is computed while the entry is written.
+ * {@link #sign} then writes the manifest, the signature file and the
+ * signature block, with the same digest and signature algorithms and the
+ * same file names as jarsigner. The signature files are the last entries of
+ * the APK, which the JAR verifiers of Java and Android accept.
+ *
+ */
+final class SignedApkWriter {
+  static final int ALIGNMENT = 4;
+
+  // The signature files are named after the first 8 characters of the key alias, as jarsigner does.
+  static final String MANIFEST_NAME = "META-INF/MANIFEST.MF";
+  private static final String SIGNATURE_NAME = "META-INF/ANDROIDK.SF";
+  private static final String SIGNATURE_BLOCK_NAME = "META-INF/ANDROIDK.RSA";
+
+  private static final String KEY_ALIAS = "AndroidKey";
+  private static final char[] KEYSTORE_PASSWORD = "android".toCharArray();
+  private static final String SIGNATURE_ALGORITHM = "MD5withRSA";
+  private static final String CREATED_BY = "1.0 (App Inventor)";
+
+  // Manifest lines are at most 72 bytes long, not counting the line break.
+  private static final int MAX_LINE_BYTES = 72;
+
+  // The size of a local file header, not counting the name and the extra field.
+  private static final int LOCAL_HEADER_BYTES = 30;
+
+  // The range of times that fit in the DOS date and time of a local file header. For other times
+  // ZipOutputStream adds an extended timestamp to the extra field, which would move the data of
+  // an uncompressed entry away from where its padding put it. ZipOutputStream counts the first
+  // moment of 1980 as before 1980, so the range starts a day later.
+  private static final long EARLIEST_ENTRY_TIME =
+      new GregorianCalendar(1980, Calendar.JANUARY, 2).getTimeInMillis();
+  private static final long LATEST_ENTRY_TIME =
+      new GregorianCalendar(2097, Calendar.JANUARY, 1).getTimeInMillis();
+
+  private final CountingOutputStream counter;
+  private final ZipOutputStream zip;
+  private final MessageDigest digest;
+  private final byte[] buffer = new byte[64 * 1024];
+
+  // The manifest section of each entry written so far, in order.
+  private final Map<String, byte[]> manifestSections = new LinkedHashMap<String, byte[]>();
+
+  /**
+   * Creates a SignedApkWriter that writes to the given file.
+   */
+  SignedApkWriter(File apkFile) throws IOException {
+    counter = new CountingOutputStream(new BufferedOutputStream(new FileOutputStream(apkFile)));
+    zip = new ZipOutputStream(counter);
+    try {
+      digest = MessageDigest.getInstance("SHA-1");
+    } catch (GeneralSecurityException e) {
+      throw new IOException(e);
+    }
+  }
+
+  /**
+   * Copies all of the entries of the given zip file, such as the resource
+   * package written by aapt, into the APK. Uncompressed entries stay
+   * uncompressed. Signature files in the zip are left out.
+   */
+  void addZip(File zipFile) throws IOException {
+    ZipFile source = new ZipFile(zipFile);
+    try {
+      Enumeration<? extends ZipEntry> entries = source.entries();
+      while (entries.hasMoreElements()) {
+        ZipEntry sourceEntry = entries.nextElement();
+        String name = sourceEntry.getName();
+        if (sourceEntry.isDirectory() || isSignatureFile(name)) {
+          continue;
+        }
+        ZipEntry entry = new ZipEntry(name);
+        entry.setTime(sourceEntry.getTime());
+        if (sourceEntry.getMethod() == ZipEntry.STORED) {
+          entry.setMethod(ZipEntry.STORED);
+          entry.setSize(sourceEntry.getSize());
+          entry.setCompressedSize(sourceEntry.getSize());
+          entry.setCrc(sourceEntry.getCrc());
+        }
+        InputStream in = source.getInputStream(sourceEntry);
+        try {
+          writeEntry(entry, in);
+        } finally {
+          in.close();
+        }
+      }
+    } finally {
+      source.close();
+    }
+  }
+
+  /**
+   * Adds the given file to the APK as a compressed entry with the given name.
+   */
+  void addFile(File file, String name) throws IOException {
+    ZipEntry entry = new ZipEntry(name);
+    entry.setTime(file.lastModified());
+    InputStream in = new FileInputStream(file);
+    try {
+      writeEntry(entry, in);
+    } finally {
+      in.close();
+    }
+  }
+
+  /**
+   * Writes the v1 signature of the entries added so far, signed with the
+   * given key, and closes the APK.
+   */
+  void sign(PrivateKey privateKey, X509Certificate certificate)
+      throws IOException, GeneralSecurityException {
+    ByteArrayOutputStream manifest = new ByteArrayOutputStream();
+    writeSection(manifest, "Manifest-Version: 1.0", "Created-By: " + CREATED_BY);
+    for (byte[] section : manifestSections.values()) {
+      manifest.write(section);
+    }
+    byte[] manifestBytes = manifest.toByteArray();
+
+    ByteArrayOutputStream signature = new ByteArrayOutputStream();
+    writeSection(signature, "Signature-Version: 1.0", "Created-By: " + CREATED_BY,
+        "SHA1-Digest-Manifest: " + base64Digest(manifestBytes));
+    for (Map.Entry<String, byte[]> section : manifestSections.entrySet()) {
+      writeSection(signature, "Name: " + section.getKey(),
+          "SHA1-Digest: " + base64Digest(section.getValue()));
+    }
+    byte[] signatureBytes = signature.toByteArray();
+
+    writeMetaInfEntry(MANIFEST_NAME, manifestBytes);
+    writeMetaInfEntry(SIGNATURE_NAME, signatureBytes);
+    writeMetaInfEntry(SIGNATURE_BLOCK_NAME,
+        createSignatureBlock(signatureBytes, privateKey, certificate));
+    zip.close();
+  }
+
+  /**
+   * Closes the APK without signing it, for example after an error.
+   */
+  void close() throws IOException {
+    zip.close();
+  }
+
+  /**
+   * Loads the App Inventor signing key from the given keystore.
+   */
+  static KeyStore.PrivateKeyEntry loadKey(String keystorePath)
+      throws IOException, GeneralSecurityException {
+    KeyStore keyStore = KeyStore.getInstance("JKS");
+    InputStream in = new FileInputStream(keystorePath);
+    try {
+      keyStore.load(in, KEYSTORE_PASSWORD);
+    } finally {
+      in.close();
+    }
+    KeyStore.Entry entry = keyStore.getEntry(KEY_ALIAS,
+        new KeyStore.PasswordProtection(KEYSTORE_PASSWORD));
+    if (!(entry instanceof KeyStore.PrivateKeyEntry)) {
+      throw new GeneralSecurityException("No private key " + KEY_ALIAS + " in " + keystorePath);
+    }
+    return (KeyStore.PrivateKeyEntry) entry;
+  }
+
+  /*
+   * Writes one entry, aligning its data if it is uncompressed, and records its manifest section.
+   */
+  private void writeEntry(ZipEntry entry, InputStream in) throws IOException {
+    String name = entry.getName();
+    entry.setTime(Math.min(Math.max(entry.getTime(), EARLIEST_ENTRY_TIME), LATEST_ENTRY_TIME));
+    boolean stored = entry.getMethod() == ZipEntry.STORED;
+    if (stored) {
+      // Pad the extra field so that the data starts at a multiple of ALIGNMENT, as zipalign does.
+      long dataOffset = counter.getCount() + LOCAL_HEADER_BYTES +
+          name.getBytes(Charsets.UTF_8).length;
+      int padding = (int) ((ALIGNMENT - dataOffset % ALIGNMENT) % ALIGNMENT);
+      if (padding > 0) {
+        entry.setExtra(new byte[padding]);
+      }
+    }
+    zip.putNextEntry(entry);
+    if (stored && counter.getCount() % ALIGNMENT != 0) {
+      throw new IOException("The data of " + name + " is not aligned");
+    }
+    digest.reset();
+    int count;
+    while ((count = in.read(buffer)) != -1) {
+      digest.update(buffer, 0, count);
+      zip.write(buffer, 0, count);
+    }
+    zip.closeEntry();
+
+    ByteArrayOutputStream section = new ByteArrayOutputStream();
+    writeSection(section, "Name: " + name,
+        "SHA1-Digest: " + BaseEncoding.base64().encode(digest.digest()));
+    manifestSections.put(name, section.toByteArray());
+  }
+
+  private void writeMetaInfEntry(String name, byte[] content) throws IOException {
+    ZipEntry entry = new ZipEntry(name);
+    entry.setTime(System.currentTimeMillis());
+    zip.putNextEntry(entry);
+    zip.write(content);
+    zip.closeEntry();
+  }
+
+  private String base64Digest(byte[] bytes) {
+    digest.reset();
+    return BaseEncoding.base64().encode(digest.digest(bytes));
+  }
+
+  /*
+   * Creates the PKCS #7 signature block of the signature file. Like jarsigner, the signature is
+   * detached and covers the signature file directly, without signed attributes.
+   */
+  private static byte[] createSignatureBlock(byte[] signatureFile, PrivateKey privateKey,
+      X509Certificate certificate) throws IOException, GeneralSecurityException {
+    try {
+      ContentSigner signer = new JcaContentSignerBuilder(SIGNATURE_ALGORITHM).build(privateKey);
+      CMSSignedDataGenerator generator = new CMSSignedDataGenerator();
+      generator.addSignerInfoGenerator(
+          new JcaSignerInfoGeneratorBuilder(new JcaDigestCalculatorProviderBuilder().build())
+              .setDirectSignature(true)
+              .build(signer, certificate));
+      generator.addCertificates(new JcaCertStore(Collections.singletonList(certificate)));
+      CMSSignedData signedData =
+          generator.generate(new CMSProcessableByteArray(signatureFile), false);
+
+      // Android expects the signature block in DER.
+      ASN1InputStream asn1 = new ASN1InputStream(signedData.getEncoded());
+      ByteArrayOutputStream block = new ByteArrayOutputStream();
+      DEROutputStream der = new DEROutputStream(block);
+      der.writeObject(asn1.readObject());
+      der.close();
+      asn1.close();
+      return block.toByteArray();
+    } catch (OperatorCreationException e) {
+      throw new GeneralSecurityException(e);
+    } catch (CMSException e) {
+      throw new GeneralSecurityException(e);
+    }
+  }
+
+  /*
+   * Writes a manifest section made of the given attribute lines, followed by an empty line.
+   * Lines longer than MAX_LINE_BYTES are continued on the next line after a space.
+   */
+  private static void writeSection(ByteArrayOutputStream out, String... lines) {
+    for (String line : lines) {
+      byte[] bytes = line.getBytes(Charsets.UTF_8);
+      int start = 0;
+      int maxBytes = MAX_LINE_BYTES;
+      while (bytes.length - start > maxBytes) {
+        int end = start + maxBytes;
+        // Don't split a multi-byte character.
+        while ((bytes[end] & 0xC0) == 0x80) {
+          end--;
+        }
+        out.write(bytes, start, end - start);
+        out.write('\r');
+        out.write('\n');
+        out.write(' ');
+        start = end;
+        maxBytes = MAX_LINE_BYTES - 1;
+      }
+      out.write(bytes, start, bytes.length - start);
+      out.write('\r');
+      out.write('\n');
+    }
+    out.write('\r');
+    out.write('\n');
+  }
+
+  private static boolean isSignatureFile(String name) {
+    if (!name.startsWith("META-INF/")) {
+      return false;
+    }
+    String upperCaseName = name.toUpperCase(Locale.US);
+    return upperCaseName.equals(MANIFEST_NAME) || upperCaseName.endsWith(".SF") ||
+        upperCaseName.endsWith(".RSA") || upperCaseName.endsWith(".DSA") ||
+        upperCaseName.endsWith(".EC");
+  }
+}
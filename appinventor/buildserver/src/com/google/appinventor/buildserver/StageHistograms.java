@@ -0,0 +1,92 @@
+// -*- mode: java; c-basic-offset: 2; -*-
+// Copyright 2016 MIT, All rights reserved
+// Released under the Apache License, Version 2.0
+// http://www.apache.org/licenses/LICENSE-2.0
+
+package com.google.appinventor.buildserver;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Aggregates the traces of finished builds (see {@link BuildTrace}) for the
+ * /buildserver/vars page.
+ *
+ * <p>For every stage it keeps a histogram of the wall time, the average wall
+ * and CPU time and the largest peak resident set size of a child process.
+ *
+ */
+final class StageHistograms {
+  // Upper bounds of the wall time buckets, in milliseconds. The last bucket has no upper bound.
+  static final long[] BUCKET_LIMITS_MS = {
+    1000, 2000, 5000, 10000, 20000, 30000, 60000, 120000
+  };
+
+  // Stages in the order they were first recorded. Guarded by this.
+  private final Map<String, StageStats> stageStats = new LinkedHashMap<String, StageStats>();
+
+  /**
+   * Adds the stages of the given build trace.
+   */
+  synchronized void record(BuildTrace trace) {
+    for (BuildTrace.Stage stage : trace.getStages()) {
+      StageStats stats = stageStats.get(stage.getName());
+      if (stats == null) {
+        stats = new StageStats();
+        stageStats.put(stage.getName(), stats);
+      }
+      stats.add(stage.getWallMs(), stage.getCpuMs(), stage.getPeakChildRssKb());
+    }
+  }
+
+  /**
+   * Adds the statistics of every stage to the given map of variables.
+   */
+  synchronized void addVariables(Map<String, String> variables) {
+    for (Map.Entry<String, StageStats> entry : stageStats.entrySet()) {
+      String prefix = "stage-" + entry.getKey();
+      StageStats stats = entry.getValue();
+      variables.put(prefix + "-count", stats.count + "");
+      variables.put(prefix + "-wall-ms-histogram", stats.getHistogram());
+      variables.put(prefix + "-average-wall-ms", stats.totalWallMs / stats.count + "");
+      variables.put(prefix + "-average-cpu-ms", stats.totalCpuMs / stats.count + "");
+      if (stats.maxPeakChildRssKb >= 0) {
+        variables.put(prefix + "-maximum-child-rss-kb", stats.maxPeakChildRssKb + "");
+      }
+    }
+  }
+
+  private static class StageStats {
+    final long[] buckets = new long[BUCKET_LIMITS_MS.length + 1];
+    long count;
+    long totalWallMs;
+    long totalCpuMs;
+    long maxPeakChildRssKb = -1;
+
+    void add(long wallMs, long cpuMs, long peakChildRssKb) {
+      int bucket = 0;
+      while (bucket < BUCKET_LIMITS_MS.length && wallMs > BUCKET_LIMITS_MS[bucket]) {
+        bucket++;
+      }
+      buckets[bucket]++;
+      count++;
+      totalWallMs += wallMs;
+      totalCpuMs += cpuMs;
+      maxPeakChildRssKb = Math.max(maxPeakChildRssKb, peakChildRssKb);
+    }
+
+    /*
+     * Formats the histogram as "<=1s:3 <=2s:0 ... >120s:1".
+     */
+    String getHistogram() {
+      StringBuilder sb = new StringBuilder();
+      for (int i = 0; i < BUCKET_LIMITS_MS.length; i++) {
+        sb.append("<=").append(BUCKET_LIMITS_MS[i] / 1000).append("s:").append(buckets[i])
+            .append(' ');
+      }
+      sb.append('>').append(BUCKET_LIMITS_MS[BUCKET_LIMITS_MS.length - 1] / 1000).append("s:")
+          .append(buckets[BUCKET_LIMITS_MS.length]);
+      return sb.toString();
+    }
+  }
+}
@@ -23,8 +23,12 @@
 
 (define *this-is-the-repl* #f)
 
-(define (android-log message)
-  (when *debug* (android.util.Log:i "YAIL" message)))
+;;; The message is only computed when debugging, since it often formats
+;;; large values.
+(define-syntax android-log
+  (syntax-rules ()
+    ((_ message)
+     (when *debug* (android.util.Log:i "YAIL" message)))))
 
 ;;;; add-component
 (define-constant simple-component-package-name "com.google.appinventor.components.runtime")
@@ -906,6 +910,39 @@
           ;; TODO(markf): this should probably be generalized but for now this is OK, I think
           (sanitize-component-data result)))))
 
+;;; CALL-TYPED-COMPONENT-METHOD
+;;; Like call-component-method, but for a component whose type is known when the
+;;; code is generated.  The method is then bound when the Yail is compiled, instead
+;;; of being looked up by reflection on every call through (apply invoke ...), and
+;;; the arguments are coerced one by one without building lists, except to report
+;;; an error.  The arguments and their types are given as plain lists.
+;;; For example:
+;;;  (call-typed-component-method Sound1 com.google.appinventor.components.runtime.Sound
+;;;                               Vibrate (duration) (number))
+
+(define-syntax call-typed-component-method
+  (syntax-rules ()
+    ((_ component-name component-type method-name (arg ...) (type ...))
+     (call-typed-component-method-with-args
+      (lookup-in-current-form-environment 'component-name)
+      component-type method-name () (arg ...) (type ...)))))
+
+;;; Binds each argument and its coercion in turn, then makes the call.  The
+;;; arguments are evaluated in order, and each of them only once.
+(define-syntax call-typed-component-method-with-args
+  (syntax-rules ()
+    ((_ component component-type method-name ((value coerced) ...) () ())
+     (if (and (is-coercible? coerced) ...)
+         (sanitize-component-data
+          (invoke (as component-type component) 'method-name coerced ...))
+         (generate-runtime-type-error 'method-name (*list-for-runtime* value ...))))
+    ((_ component component-type method-name (bound ...) (arg rest ...) (type more-types ...))
+     (let* ((value arg)
+            (coerced (coerce-arg value 'type)))
+       (call-typed-component-method-with-args component component-type method-name
+                                              (bound ... (value coerced))
+                                              (rest ...) (more-types ...))))))
+
 
 ;;; CALL-USER-PROCEDURE
 
@@ -1834,8 +1871,9 @@ list, use the make-yail-list constructor with no arguments.
 
 
 ;; Implements the Blocks length operation
-(define (yail-list-length yail-list)
-  (length (yail-list-contents yail-list)))
+;; YailList keeps an index of its items, so this does not walk the list
+(define (yail-list-length yail-list :: YailList)
+  (yail-list:size))
 
 ;; These are removed, to simplify the API to lists
 ;; ;; Implements the Blocks first operation
@@ -1865,7 +1903,7 @@ list, use the make-yail-list constructor with no arguments.
           (else (loop (+ i 1) (cdr list))))))
 
 ;; Implements the Blocks get list item operation
-(define (yail-list-get-item yail-list index)
+(define (yail-list-get-item yail-list :: YailList index)
   (if (< index 1)
       (signal-runtime-error
        (format #f "Select list item: Attempt to get item number ~A, of the list ~A.  The minimum valid item number is 1."
@@ -1880,11 +1918,11 @@ list, use the make-yail-list constructor with no arguments.
                  len
                  (get-display-representation yail-list))
          "Select list item: List index too large")
-    (list-ref (yail-list-contents yail-list) (- index 1)))))
+    (yail-list:getObject (- index 1)))))
 
 
 ;; Implements the Blocks set list item operation
-(define (yail-list-set-item! yail-list index value)
+(define (yail-list-set-item! yail-list :: YailList index value)
   (if (< index 1)
       (signal-runtime-error
        (format #f "Replace list item: Attempt to replace item number ~A of the list ~A.  The minimum valid item number is 1."
@@ -1899,13 +1937,13 @@ list, use the make-yail-list constructor with no arguments.
                  len
                  (get-display-representation yail-list))
          "List index too large")))
-  (set-car! (list-tail (yail-list-contents yail-list) (- index 1)) value))
+  (yail-list:setObject (- index 1) value))
 
 
 
 ;; Implements the Blocks remove list item operation
 ;; We have to operate on the yail-list itself, not the contents
-(define (yail-list-remove-item! yail-list index)
+(define (yail-list-remove-item! yail-list :: YailList index)
   (let ((index2 (coerce-to-number index)))
     (if (eq? index2 *non-coercible-value*)
         (signal-runtime-error
@@ -1930,15 +1968,14 @@ list, use the make-yail-list constructor with no arguments.
                    len
                    (get-display-representation yail-list))
            "List index too large"))
-      (let ((pair-pointing-to-deletion (list-tail yail-list (- index2 1))))
-        (set-cdr! pair-pointing-to-deletion (cddr pair-pointing-to-deletion))))))
+      (yail-list:removeObject (- index2 1)))))
 
 
 ;; Implements the Blocks insert list item operation
 ;; Inserts the new item to be at the index of the augmented list,
 ;; Given how we number yail list items, this means that the
 ;; valid range for index is from 1 through the length of the list plus 1
-(define (yail-list-insert-item! yail-list index item)
+(define (yail-list-insert-item! yail-list :: YailList index item)
   (let ((index2 (coerce-to-number index)))
     (if (eq? index2 *non-coercible-value*)
         (signal-runtime-error
@@ -1960,35 +1997,25 @@ list, use the make-yail-list constructor with no arguments.
                    (get-display-representation yail-list)
                    len+1)
            "List index too large"))
-      (let ((contents (yail-list-contents yail-list)))
-        (if (= index2 1)
-            (set-yail-list-contents! yail-list (cons item contents))
-            (let ((at-item (list-tail contents (- index2 2))))
-              (set-cdr! at-item (cons item (cdr at-item)))))))))
+      (yail-list:insertObject (- index2 1) item))))
 
 ;; Extends list A by appending the elements of list B to it
 ;; Modifies list A
 ;; Implements blocks append operation
-(define (yail-list-append! yail-list-A yail-list-B)
+(define (yail-list-append! yail-list-A :: YailList yail-list-B :: YailList)
   ;; Unlike Scheme, we copy the tail so there's no shared tail
   ;; between the augmented list and the source of the added elements.
   ;; But like Python, we do a shallow copy, so that substructure is
-  ;; shared.
-  (define (list-copy l)
-    (if (null? l)
-    '()
-    (cons (car l) (list-copy (cdr l)))))
-  ;; We have to operate on the yail-list itself, not the contents, because
-  ;; the contents might be empty
-  (set-cdr! (list-tail yail-list-A (length (yail-list-contents yail-list-A)))
-        (list-copy (yail-list-contents yail-list-B))))
+  ;; shared.  Taking the items of B as an array first also makes
+  ;; appending a list to itself work.
+  (yail-list-A:addObjects (yail-list-B:toArray)))
 
 
 ;; Extend list A by appending the items to it
 ;; Modifies list A
 ;; Implements blocks add to list operation
-(define (yail-list-add-to-list! yail-list . items)
-  (yail-list-append! yail-list (apply make-yail-list items)))
+(define (yail-list-add-to-list! yail-list :: YailList . items)
+  (for-each (lambda (item) (yail-list:addObject item)) items))
 
 ;;;TODO(halabelson): BUG!  We need to recognize that "1" is
 ;;; a member of (1 2 3)
@@ -2107,6 +2134,20 @@ list, use the make-yail-list constructor with no arguments.
 (define (yail-alist-lookup key yail-list-of-pairs default)
   (android-log
    (format #f "List alist lookup key is  ~A and table is ~A" key yail-list-of-pairs))
+  (let ((index :: java.util.HashMap (alist-lookup-index yail-list-of-pairs)))
+    (if (eq? index #!null)
+        (yail-alist-scan key yail-list-of-pairs default)
+        ;; The index holds, for each hash key, the pairs with that hash key in
+        ;; the order they have in the table, so the first of them with an equal
+        ;; key is the one that a scan of the table would find.
+        (let loop ((pairs-to-check (index:get (alist-hash-key key))))
+          (cond ((eq? pairs-to-check #!null) default)
+                ((null? pairs-to-check) default)
+                ((yail-equal? key (car (yail-list-contents (car pairs-to-check))))
+                 (cadr (yail-list-contents (car pairs-to-check))))
+                (else (loop (cdr pairs-to-check))))))))
+
+(define (yail-alist-scan key yail-list-of-pairs default)
   (let loop ((pairs-to-check (yail-list-contents yail-list-of-pairs)))
     (cond ((null? pairs-to-check) default)
           ((not (pair-ok? (car pairs-to-check)))
@@ -2124,6 +2165,58 @@ list, use the make-yail-list constructor with no arguments.
   (and (yail-list? candidate-pair)
        (= (length (yail-list-contents candidate-pair)) 2)))
 
+;;; Return a hash table of the pairs in yail-list-of-pairs by the alist-hash-key
+;;; of their keys.  The list keeps the table until it changes, and pairs added
+;;; at its end, as when a lookup that finds nothing is followed by an add, are
+;;; added to the table it has rather than building a new one.
+;;; Return null for a list that is not a well-formed list of pairs, which is
+;;; left to yail-alist-scan to report where the lookup reaches the bad pair.
+(define (alist-lookup-index yail-list-of-pairs :: YailList) :: java.util.HashMap
+  (let* ((kept-index (yail-list-of-pairs:getLookupIndex))
+         (from (if (eq? kept-index #!null) 0 (yail-list-of-pairs:getLookupIndexSize)))
+         (size (yail-list-of-pairs:size)))
+    (cond ((not (alist-pairs-ok? yail-list-of-pairs from size)) #!null)
+          ((and (not (eq? kept-index #!null)) (= from size)) kept-index)
+          (else
+           (let ((index :: java.util.HashMap
+                        (if (eq? kept-index #!null) (java.util.HashMap) kept-index)))
+             ;; Each hash key's pairs are kept in table order, so the pairs
+             ;; from the end of the table go after the ones it has.
+             (let loop ((i from))
+               (when (< i size)
+                 (let* ((pair (yail-list-of-pairs:getObject i))
+                        (hash-key (alist-hash-key (car (yail-list-contents pair))))
+                        (pairs (index:get hash-key)))
+                   (index:put hash-key
+                              (if (eq? pairs #!null) (list pair) (append pairs (list pair))))
+                   (loop (+ i 1)))))
+             (yail-list-of-pairs:setLookupIndex index)
+             index)))))
+
+;;; Whether the items of yail-list-of-pairs from position from to position
+;;; size, counting from 0, are all well-formed pairs.
+(define (alist-pairs-ok? yail-list-of-pairs :: YailList from size)
+  (let loop ((i from))
+    (cond ((>= i size) #t)
+          ((pair-ok? (yail-list-of-pairs:getObject i)) (loop (+ i 1)))
+          (else #f))))
+
+;;; The key that alist-lookup-index hashes a pair's key by.  Keys that are
+;;; yail-equal? have the same hash key: numbers, and text that reads as a
+;;; number, hash by their value, other text by its characters, and lists
+;;; all share one hash key.
+(define (alist-hash-key key)
+  (if (pair? key)
+      'list
+      (let ((number (as-number key)))
+        (cond ((and number (real? number))
+               (java.lang.Double (+ (exact->inexact number) 0.0)))
+              ;; Keys such as "2i" are complex numbers, which do not convert to a
+              ;; double.  They are rare enough to share one hash key.
+              (number 'complex)
+              ((string? key) (key:toString))
+              (else key)))))
+
 
 
 
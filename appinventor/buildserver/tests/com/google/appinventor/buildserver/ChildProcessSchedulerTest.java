@@ -0,0 +1,63 @@
+// -*- mode: java; c-basic-offset: 2; -*-
+// Copyright 2016 MIT, All rights reserved
+// Released under the Apache License, Version 2.0
+// http://www.apache.org/licenses/LICENSE-2.0
+package com.google.appinventor.buildserver;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import junit.framework.TestCase;
+
+/**
+ * Tests ChildProcessScheduler class.
+ *
+ */
+public class ChildProcessSchedulerTest extends TestCase {
+  public void testAdditionalStageWaitsForSlot() throws Exception {
+    final ChildProcessScheduler scheduler = new ChildProcessScheduler(2);
+    scheduler.acquire(ChildProcessScheduler.KAWA_STAGE);
+    scheduler.acquire(ChildProcessScheduler.DX_STAGE);
+
+    // The scheduler is full, so a third stage has to wait.
+    final CountDownLatch acquired = new CountDownLatch(1);
+    Thread thread = new Thread(new Runnable() {
+      @Override
+      public void run() {
+        scheduler.acquire(ChildProcessScheduler.DX_STAGE);
+        acquired.countDown();
+        scheduler.release(ChildProcessScheduler.DX_STAGE);
+      }
+    });
+    thread.start();
+    assertFalse(acquired.await(200, TimeUnit.MILLISECONDS));
+
+    Map<String, String> variables = new LinkedHashMap<String, String>();
+    scheduler.addVariables(variables);
+    assertEquals("2", variables.get("maximum-simultaneous-child-processes"));
+    assertEquals("1", variables.get("dx-queue-depth"));
+    assertEquals("1", variables.get("dx-running"));
+    assertEquals("1", variables.get("kawa-running"));
+
+    // Releasing a slot lets the waiting stage run.
+    scheduler.release(ChildProcessScheduler.KAWA_STAGE);
+    assertTrue(acquired.await(5, TimeUnit.SECONDS));
+    thread.join();
+    scheduler.release(ChildProcessScheduler.DX_STAGE);
+
+    variables.clear();
+    scheduler.addVariables(variables);
+    assertEquals("0", variables.get("dx-queue-depth"));
+    assertEquals("0", variables.get("dx-running"));
+    assertEquals("2", variables.get("dx-count"));
+    assertTrue(Long.parseLong(variables.get("dx-maximum-wait-ms")) >= 200);
+  }
+
+  public void testComputeMaxChildProcessesIsAtLeastOne() {
+    assertTrue(ChildProcessScheduler.computeMaxChildProcesses(Integer.MAX_VALUE) >= 1);
+    assertTrue(ChildProcessScheduler.computeMaxChildProcesses(1) <=
+        Runtime.getRuntime().availableProcessors());
+  }
+}
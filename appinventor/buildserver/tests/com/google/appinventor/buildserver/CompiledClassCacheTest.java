@@ -0,0 +1,103 @@
+// -*- mode: java; c-basic-offset: 2; -*-
+// Copyright 2016 MIT, All rights reserved
+// Released under the Apache License, Version 2.0
+// http://www.apache.org/licenses/LICENSE-2.0
+package com.google.appinventor.buildserver;
+
+import com.google.common.base.Charsets;
+import com.google.common.collect.Lists;
+import com.google.common.io.Files;
+
+import org.apache.commons.io.FileUtils;
+
+import java.io.File;
+import java.io.IOException;
+
+import junit.framework.TestCase;
+
+/**
+ * Tests CompiledClassCache class.
+ *
+ */
+public class CompiledClassCacheTest extends TestCase {
+  private File tmpDir;
+
+  @Override
+  protected void setUp() throws Exception {
+    tmpDir = Files.createTempDir();
+  }
+
+  @Override
+  protected void tearDown() throws Exception {
+    FileUtils.deleteDirectory(tmpDir);
+  }
+
+  public void testStoreAndRestore() throws Exception {
+    CompiledClassCache cache = new CompiledClassCache(new File(tmpDir, "cache"), 1024 * 1024);
+    File classesDir = new File(tmpDir, "classes");
+    File screen = writeFile(classesDir, "appinventor/ai_test/Hello/Screen1.class", "screen");
+    File frame = writeFile(classesDir, "appinventor/ai_test/Hello/Screen1$frame.class", "frame");
+
+    assertFalse(cache.restore("key1", classesDir));
+    cache.store("key1", classesDir, Lists.newArrayList(screen, frame));
+    assertEquals(1, cache.getEntryCount());
+
+    File otherClassesDir = new File(tmpDir, "otherClasses");
+    assertTrue(cache.restore("key1", otherClassesDir));
+    assertEquals("screen", Files.toString(
+        new File(otherClassesDir, "appinventor/ai_test/Hello/Screen1.class"), Charsets.UTF_8));
+    assertEquals("frame", Files.toString(
+        new File(otherClassesDir, "appinventor/ai_test/Hello/Screen1$frame.class"),
+        Charsets.UTF_8));
+    assertEquals(1, cache.getHits());
+    assertEquals(1, cache.getMisses());
+
+    // A new cache over the same directory finds the entry.
+    CompiledClassCache reopened = new CompiledClassCache(new File(tmpDir, "cache"), 1024 * 1024);
+    assertEquals(1, reopened.getEntryCount());
+    assertTrue(reopened.restore("key1", new File(tmpDir, "thirdClasses")));
+  }
+
+  public void testLeastRecentlyUsedEntryIsEvicted() throws Exception {
+    File classesDir = new File(tmpDir, "classes");
+    File screen = writeFile(classesDir, "Screen1.class", "screen");
+    CompiledClassCache cache = new CompiledClassCache(new File(tmpDir, "cache"), Long.MAX_VALUE);
+    cache.store("probe", classesDir, Lists.newArrayList(screen));
+    long entrySize = cache.getTotalBytes();
+
+    // Room for two entries.
+    cache = new CompiledClassCache(new File(tmpDir, "cache2"), entrySize * 2);
+    cache.store("a", classesDir, Lists.newArrayList(screen));
+    cache.store("b", classesDir, Lists.newArrayList(screen));
+    assertTrue(cache.restore("a", new File(tmpDir, "restoreA")));
+    cache.store("c", classesDir, Lists.newArrayList(screen));
+
+    assertEquals(2, cache.getEntryCount());
+    assertEquals(1, cache.getEvictions());
+    assertFalse(cache.restore("b", new File(tmpDir, "restoreB")));
+    assertTrue(cache.restore("a", new File(tmpDir, "restoreA2")));
+    assertTrue(cache.restore("c", new File(tmpDir, "restoreC")));
+  }
+
+  public void testKeyDependsOnContentAndPath() throws Exception {
+    File source = writeFile(tmpDir, "Screen1.yail", "(define-form ...)");
+    String key = Compiler.getClassCacheKey("toolchain", "appinventor.ai_test.Hello.",
+        "appinventor/ai_test/Hello/Screen1.yail", source);
+    assertEquals(key, Compiler.getClassCacheKey("toolchain", "appinventor.ai_test.Hello.",
+        "appinventor/ai_test/Hello/Screen1.yail", source));
+    assertFalse(key.equals(Compiler.getClassCacheKey("toolchain2", "appinventor.ai_test.Hello.",
+        "appinventor/ai_test/Hello/Screen1.yail", source)));
+    assertFalse(key.equals(Compiler.getClassCacheKey("toolchain", "appinventor.ai_test.Hello.",
+        "appinventor/ai_test/Hello/Screen2.yail", source)));
+    Files.write("(define-form ...) ", source, Charsets.UTF_8);
+    assertFalse(key.equals(Compiler.getClassCacheKey("toolchain", "appinventor.ai_test.Hello.",
+        "appinventor/ai_test/Hello/Screen1.yail", source)));
+  }
+
+  private static File writeFile(File dir, String path, String content) throws IOException {
+    File file = new File(dir, path);
+    Files.createParentDirs(file);
+    Files.write(content, file, Charsets.UTF_8);
+    return file;
+  }
+}
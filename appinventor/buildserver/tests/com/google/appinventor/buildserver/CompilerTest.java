@@ -6,10 +6,16 @@
 
 package com.google.appinventor.buildserver;
 
+import com.google.common.base.Charsets;
 import com.google.common.collect.Sets;
+import com.google.common.io.Files;
 
 import junit.framework.TestCase;
 
+import org.apache.commons.io.FileUtils;
+
+import java.io.File;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
 
@@ -61,4 +67,38 @@ public class CompilerTest extends TestCase {
     classNames = compiler.generateBroadcastReceiver();
     assertEquals(1, classNames.size());
   }
+
+  public void testSplitClassesByModule() throws Exception {
+    File tmpDir = Files.createTempDir();
+    try {
+      File classesDir = new File(tmpDir, "classes");
+      String[] classFiles = {
+          "appinventor/ai_test/Hello/Screen1.class",
+          "appinventor/ai_test/Hello/Screen1$frame.class",
+          "appinventor/ai_test/Hello/Screen2.class",
+          "com/google/youngandroid/runtime.class",
+          "com/google/youngandroid/runtime$frame0.class"
+      };
+      for (String classFile : classFiles) {
+        File file = new File(classesDir, classFile);
+        Files.createParentDirs(file);
+        Files.write(classFile, file, Charsets.UTF_8);
+      }
+
+      List<File> moduleDirs =
+          Compiler.splitClassesByModule(classesDir, new File(tmpDir, "modules"));
+      assertEquals(3, moduleDirs.size());
+      Set<String> screen1 = Sets.newHashSet(
+          new File(moduleDirs.get(0), "appinventor/ai_test/Hello").list());
+      assertEquals(Sets.newHashSet("Screen1.class", "Screen1$frame.class"), screen1);
+      Set<String> screen2 = Sets.newHashSet(
+          new File(moduleDirs.get(1), "appinventor/ai_test/Hello").list());
+      assertEquals(Sets.newHashSet("Screen2.class"), screen2);
+      Set<String> runtime = Sets.newHashSet(
+          new File(moduleDirs.get(2), "com/google/youngandroid").list());
+      assertEquals(Sets.newHashSet("runtime.class", "runtime$frame0.class"), runtime);
+    } finally {
+      FileUtils.deleteDirectory(tmpDir);
+    }
+  }
 }
@@ -0,0 +1,96 @@
+// -*- mode: java; c-basic-offset: 2; -*-
+// Copyright 2016 MIT, All rights reserved
+// Released under the Apache License, Version 2.0
+// http://www.apache.org/licenses/LICENSE-2.0
+package com.google.appinventor.buildserver;
+
+import com.google.common.base.Charsets;
+import com.google.common.io.Files;
+
+import java.io.File;
+
+import org.apache.commons.io.FileUtils;
+
+import junit.framework.TestCase;
+
+/**
+ * Tests DexExecTask class.
+ *
+ */
+public class DexExecTaskTest extends TestCase {
+  private File cacheDir;
+
+  @Override
+  protected void setUp() throws Exception {
+    cacheDir = Files.createTempDir();
+  }
+
+  @Override
+  protected void tearDown() throws Exception {
+    FileUtils.deleteDirectory(cacheDir);
+  }
+
+  public void testIndexSurvivesRestart() throws Exception {
+    File dexed = new File(cacheDir, "dex-cached-0123.jar");
+    Files.write("dexed", dexed, Charsets.UTF_8);
+    DexExecTask.DexCacheIndex index = new DexExecTask.DexCacheIndex(cacheDir);
+    assertFalse(index.contains(dexed));
+    index.add(dexed);
+    assertTrue(index.contains(dexed));
+
+    // A new index for the same directory, as after a restart, knows the file.
+    assertTrue(new DexExecTask.DexCacheIndex(cacheDir).contains(dexed));
+  }
+
+  public void testIndexRejectsIncompleteFiles() throws Exception {
+    File dexed = new File(cacheDir, "dex-cached-4567.jar");
+    Files.write("dexed", dexed, Charsets.UTF_8);
+    DexExecTask.DexCacheIndex index = new DexExecTask.DexCacheIndex(cacheDir);
+    index.add(dexed);
+
+    // A file whose length changed was not written by a completed dx run.
+    Files.write("dex", dexed, Charsets.UTF_8);
+    assertFalse(index.contains(dexed));
+
+    // A file that is not in the index is not used either.
+    File unindexed = new File(cacheDir, "dex-cached-89ab.jar");
+    Files.write("dexed", unindexed, Charsets.UTF_8);
+    assertFalse(index.contains(unindexed));
+
+    index.remove(dexed);
+    Files.write("dexed", dexed, Charsets.UTF_8);
+    assertFalse(new DexExecTask.DexCacheIndex(cacheDir).contains(dexed));
+  }
+
+  public void testPruneKeepsPinnedFragments() throws Exception {
+    File fragmentsDir = new File(cacheDir, "classes");
+    fragmentsDir.mkdirs();
+    File older = new File(fragmentsDir, "dex-cached-classes-0123.jar");
+    File newer = new File(fragmentsDir, "dex-cached-classes-4567.jar");
+    Files.write("dexed", older, Charsets.UTF_8);
+    Files.write("dexed", newer, Charsets.UTF_8);
+    older.setLastModified(1000000000L);
+    newer.setLastModified(2000000000L);
+    DexExecTask.DexCacheIndex index = new DexExecTask.DexCacheIndex(cacheDir);
+    index.add(older);
+    index.add(newer);
+
+    DexExecTask task = new DexExecTask();
+    task.setDexedLibs(cacheDir.getAbsolutePath());
+    task.setMaxClassFragmentBytes(0);
+
+    // A build that found the least recently used fragment in the cache keeps it.
+    DexExecTask user = new DexExecTask();
+    user.pinClassFragment(older);
+    task.pruneClassFragments(index);
+    assertTrue(index.contains(older));
+    assertFalse(newer.exists());
+    assertFalse(index.contains(newer));
+
+    // Once that build completes, the fragment can be pruned.
+    user.unpinClassFragments();
+    task.pruneClassFragments(index);
+    assertFalse(older.exists());
+    assertFalse(index.contains(older));
+  }
+}
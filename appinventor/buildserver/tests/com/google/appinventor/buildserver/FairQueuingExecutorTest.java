@@ -0,0 +1,132 @@
+// -*- mode: java; c-basic-offset: 2; -*-
+// Copyright 2016 MIT, All rights reserved
+// Released under the Apache License, Version 2.0
+// http://www.apache.org/licenses/LICENSE-2.0
+
+package com.google.appinventor.buildserver;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import junit.framework.TestCase;
+
+/**
+ * Tests FairQueuingExecutor class.
+ *
+ */
+public class FairQueuingExecutorTest extends TestCase {
+  public void testAdditionalTaskIsQueuedThenRejected() throws Exception {
+    // Create the FairQueuingExecutor with capacity 10 and room for 2 queued tasks.
+    int maxCapacity = 10;
+    FairQueuingExecutor executor = new FairQueuingExecutor(maxCapacity, 2);
+
+    // Execute the maximum number of tasks, which will all wait until I notify them via the signal.
+    final Object signal = new Object();
+    for (int i = 0; i < maxCapacity; i++) {
+      assertEquals(0, executor.execute("user" + i, new TaskThatWaitsForSignal(signal)));
+    }
+
+    // Now the executor should be at maximum capacity.
+    assertEquals(maxCapacity, executor.getActiveTaskCount());
+
+    // The next two tasks are queued, with an estimated start time.
+    assertTrue(executor.execute("user", new TaskThatDoesNothing()) > 0);
+    assertTrue(executor.execute("user", new TaskThatDoesNothing()) > 0);
+    assertEquals(2, executor.getQueuedTaskCount());
+
+    // Try to execute another task. We expect it to be rejected.
+    try {
+      executor.execute("user", new TaskThatDoesNothing());
+      fail();
+    } catch (RejectedExecutionException e) {
+      // expected
+    }
+
+    // Notify the signal so the active tasks can complete.
+    synchronized (signal) {
+      signal.notifyAll();
+    }
+  }
+
+  public void testQueuedTasksAreFairAcrossUsers() throws Exception {
+    FairQueuingExecutor executor = new FairQueuingExecutor(1, 10);
+    final CountDownLatch release = new CountDownLatch(1);
+    executor.execute("busy", new Runnable() {
+      @Override
+      public void run() {
+        try {
+          release.await();
+        } catch (InterruptedException e) {
+          // ignored
+        }
+      }
+    });
+
+    // The busy user queues three more tasks before the others queue one each.
+    final List<String> order = Collections.synchronizedList(new ArrayList<String>());
+    final CountDownLatch done = new CountDownLatch(5);
+    String[] users = { "busy", "busy", "busy", "alice", "bob" };
+    long[] estimates = new long[users.length];
+    for (int i = 0; i < users.length; i++) {
+      final String user = users[i];
+      estimates[i] = executor.execute(user, new Runnable() {
+        @Override
+        public void run() {
+          order.add(user);
+          done.countDown();
+        }
+      });
+      assertTrue(estimates[i] > 0);
+    }
+    // The other users go ahead of all of the busy user's queued tasks.
+    assertTrue(estimates[3] <= estimates[0]);
+    assertTrue(estimates[4] < estimates[2]);
+
+    release.countDown();
+    assertTrue(done.await(5, TimeUnit.SECONDS));
+    // The busy user already has a task running, so the other users' first tasks run before the
+    // busy user's queued tasks.
+    assertEquals("alice", order.get(0));
+    assertEquals("bob", order.get(1));
+    assertEquals("busy", order.get(2));
+    assertEquals("busy", order.get(3));
+    assertEquals("busy", order.get(4));
+
+    Map<String, String> variables = new LinkedHashMap<String, String>();
+    executor.addVariables(variables);
+    assertEquals("5", variables.get("build-tasks-started-from-queue"));
+    assertEquals("5", variables.get("maximum-queued-build-tasks-occurred"));
+    assertEquals("0", variables.get("queued-build-tasks"));
+  }
+
+  private static class TaskThatWaitsForSignal implements Runnable {
+    private final Object signal;
+    private TaskThatWaitsForSignal(Object signal) {
+      this.signal = signal;
+    }
+
+    @Override
+    public void run() {
+      synchronized (signal) {
+        try {
+          // Wait for the signal.
+          signal.wait();
+        } catch (InterruptedException e) {
+          // ignored
+        }
+      }
+    }
+  }
+
+  private static class TaskThatDoesNothing implements Runnable {
+    @Override
+    public void run() {
+    }
+  }
+}
@@ -0,0 +1,125 @@
+// -*- mode: java; c-basic-offset: 2; -*-
+// Copyright 2016 MIT, All rights reserved
+// Released under the Apache License, Version 2.0
+// http://www.apache.org/licenses/LICENSE-2.0
+package com.google.appinventor.buildserver;
+
+import com.google.common.base.Charsets;
+import com.google.common.collect.Lists;
+import com.google.common.io.Files;
+
+import org.apache.commons.io.FileUtils;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+
+import junit.framework.TestCase;
+
+/**
+ * Tests KawaCompilerPool class and the KawaWorker processes it runs.
+ *
+ * <p>The workers load a small runtime instead of the YAIL runtime, so that
+ * they start quickly.
+ *
+ */
+public class KawaCompilerPoolTest extends TestCase {
+  private static final String WORKER_CLASSPATH = System.getProperty("java.class.path");
+
+  private File tmpDir;
+  private File runtime;
+  private ByteArrayOutputStream kawaErr;
+
+  @Override
+  protected void setUp() throws Exception {
+    tmpDir = Files.createTempDir();
+    runtime = writeFile("runtime.scm", "(define runtime-loaded #t)");
+    kawaErr = new ByteArrayOutputStream();
+  }
+
+  @Override
+  protected void tearDown() throws Exception {
+    FileUtils.deleteDirectory(tmpDir);
+  }
+
+  public void testCompileSucceeds() throws Exception {
+    KawaCompilerPool pool = newPool(runtime);
+    File source = writeFile("answer.scm", "(define (answer) 42)");
+    File classesDir = new File(tmpDir, "classes");
+    assertTrue(compile(pool, classesDir, source));
+    assertTrue(new File(classesDir, "com/example/answer.class").isFile());
+    assertTrue(kawaErr.toString("UTF-8").contains("compiling"));
+
+    // The second job runs in the same, warm worker.
+    FileUtils.deleteDirectory(classesDir);
+    assertTrue(compile(pool, classesDir, source));
+    assertTrue(new File(classesDir, "com/example/answer.class").isFile());
+    assertEquals(1, pool.getWorkersStarted());
+    assertEquals(1, pool.getColdJobs());
+    assertEquals(1, pool.getWarmJobs());
+    assertEquals(0, pool.getFailedJobs());
+  }
+
+  public void testCompileFails() throws Exception {
+    KawaCompilerPool pool = newPool(runtime);
+    File broken = writeFile("broken.scm", "(define (broken)");
+    File classesDir = new File(tmpDir, "classes");
+    assertFalse(compile(pool, classesDir, broken));
+    // Kawa's messages for the job are passed on.
+    assertTrue(kawaErr.toString("UTF-8").contains("unexpected EOF"));
+    assertEquals(1, pool.getFailedJobs());
+  }
+
+  public void testWorkerThatDiesIsReplaced() throws Exception {
+    KawaCompilerPool pool = newPool(runtime);
+    File classesDir = new File(tmpDir, "classes");
+    // Kawa exits the worker process on compilation errors.
+    assertFalse(compile(pool, classesDir, writeFile("broken.scm", "(define (broken)")));
+    assertEquals(1, pool.getWorkersStarted());
+
+    // The next job starts a new worker, instead of writing to the dead one.
+    assertTrue(compile(pool, classesDir, writeFile("answer.scm", "(define (answer) 42)")));
+    assertEquals(2, pool.getWorkersStarted());
+    assertEquals(2, pool.getColdJobs());
+    assertEquals(0, pool.getWarmJobs());
+  }
+
+  public void testWorkerThatFailsToStart() throws Exception {
+    KawaCompilerPool pool = newPool(writeFile("broken-runtime.scm", "(car"));
+    File classesDir = new File(tmpDir, "classes");
+    File source = writeFile("answer.scm", "(define (answer) 42)");
+    try {
+      compile(pool, classesDir, source);
+      fail();
+    } catch (IOException e) {
+      // expected
+    }
+
+    // The slot is returned to the pool, so later jobs don't wait forever.
+    try {
+      compile(pool, classesDir, source);
+      fail();
+    } catch (IOException e) {
+      // expected
+    }
+    assertEquals(2, pool.getWorkersStarted());
+  }
+
+  private KawaCompilerPool newPool(File runtime) {
+    return new KawaCompilerPool(1, 512, WORKER_CLASSPATH, runtime.getAbsolutePath());
+  }
+
+  private boolean compile(KawaCompilerPool pool, File classesDir, File source)
+      throws IOException {
+    classesDir.mkdirs();
+    return pool.compile(classesDir, "com.example.", Lists.newArrayList(source.getAbsolutePath()),
+        new PrintStream(kawaErr, true, "UTF-8"), null);
+  }
+
+  private File writeFile(String name, String content) throws IOException {
+    File file = new File(tmpDir, name);
+    Files.write(content, file, Charsets.UTF_8);
+    return file;
+  }
+}
@@ -0,0 +1,51 @@
+// -*- mode: java; c-basic-offset: 2; -*-
+// Copyright 2016 MIT, All rights reserved
+// Released under the Apache License, Version 2.0
+// http://www.apache.org/licenses/LICENSE-2.0
+package com.google.appinventor.buildserver;
+
+import com.google.common.base.Charsets;
+import com.google.common.io.Files;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.util.List;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+import java.util.zip.ZipOutputStream;
+
+import junit.framework.TestCase;
+
+import org.apache.commons.io.FileUtils;
+
+/**
+ * Tests ProjectBuilder class.
+ *
+ */
+public class ProjectBuilderTest extends TestCase {
+  public void testExtractProjectFilesFromStream() throws Exception {
+    ByteArrayOutputStream zipBytes = new ByteArrayOutputStream();
+    ZipOutputStream zip = new ZipOutputStream(zipBytes);
+    zip.putNextEntry(new ZipEntry("youngandroidproject/project.properties"));
+    zip.write("main=appinventor.ai_test.Test.Screen1\n".getBytes(Charsets.UTF_8));
+    zip.putNextEntry(new ZipEntry("src/appinventor/ai_test/Test/Screen1.scm"));
+    zip.write("#|\n$JSON\n{}\n|#".getBytes(Charsets.UTF_8));
+    zip.close();
+
+    File projectRoot = Files.createTempDir();
+    try {
+      List<String> files = ProjectBuilder.extractProjectFiles(
+          new ZipInputStream(new ByteArrayInputStream(zipBytes.toByteArray())), projectRoot);
+      assertEquals(2, files.size());
+      File properties = new File(projectRoot, "youngandroidproject/project.properties");
+      assertEquals(properties.getPath(), files.get(0));
+      assertEquals("main=appinventor.ai_test.Test.Screen1\n",
+          Files.toString(properties, Charsets.UTF_8));
+      assertEquals("#|\n$JSON\n{}\n|#", Files.toString(
+          new File(projectRoot, "src/appinventor/ai_test/Test/Screen1.scm"), Charsets.UTF_8));
+    } finally {
+      FileUtils.deleteDirectory(projectRoot);
+    }
+  }
+}
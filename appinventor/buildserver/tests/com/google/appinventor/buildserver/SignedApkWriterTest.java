@@ -0,0 +1,249 @@
+// -*- mode: java; c-basic-offset: 2; -*-
+// Copyright 2016 MIT, All rights reserved
+// Released under the Apache License, Version 2.0
+// http://www.apache.org/licenses/LICENSE-2.0
+package com.google.appinventor.buildserver;
+
+import com.android.sdklib.build.ApkBuilder;
+import com.google.common.base.Charsets;
+import com.google.common.base.Strings;
+import com.google.common.hash.Hashing;
+import com.google.common.io.ByteStreams;
+import com.google.common.io.Files;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.security.KeyStore;
+import java.security.cert.X509Certificate;
+import java.util.Enumeration;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.zip.CRC32;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+import java.util.zip.ZipOutputStream;
+
+import junit.framework.TestCase;
+
+import org.apache.commons.io.FileUtils;
+
+/**
+ * Tests SignedApkWriter class.
+ *
+ */
+public class SignedApkWriterTest extends TestCase {
+  // Android accepts the SHA-1 and MD5withRSA v1 signatures that App Inventor has always used,
+  // but recent JDKs treat jars signed with them as unsigned. jarsigner is run with a security
+  // properties file that allows them.
+  private static final String DISABLED_ALGORITHMS_PROPERTY = "jdk.jar.disabledAlgorithms";
+
+  private File tmpDir;
+  private File securityProperties;
+  private File resources;
+  private File dex;
+  private String keystorePath;
+
+  @Override
+  protected void setUp() throws Exception {
+    tmpDir = Files.createTempDir();
+    resources = new File(tmpDir, "test.ap_");
+    writeResourcePackage(resources);
+    dex = new File(tmpDir, "classes.dex");
+    Files.write(Strings.repeat("dex\n", 10000), dex, Charsets.UTF_8);
+    keystorePath = ProjectBuilder.createKeyStore("test", tmpDir, "android.keystore");
+    assertNotNull(keystorePath);
+    securityProperties = new File(tmpDir, "java.security");
+    Files.write(DISABLED_ALGORITHMS_PROPERTY + "=\n", securityProperties, Charsets.UTF_8);
+  }
+
+  @Override
+  protected void tearDown() throws Exception {
+    FileUtils.deleteDirectory(tmpDir);
+  }
+
+  public void testVerifiesLikeApkBuilderAndJarSigner() throws Exception {
+    // The previous pipeline: ApkBuilder, then jarsigner.
+    File oldApk = new File(tmpDir, "old.apk");
+    ApkBuilder apkBuilder = new ApkBuilder(oldApk.getAbsolutePath(), resources.getAbsolutePath(),
+        dex.getAbsolutePath(), null, null);
+    apkBuilder.sealApk();
+    String[] jarsignerCommandLine = {
+        getJarSigner(),
+        "-digestalg", "SHA1",
+        "-sigalg", "MD5withRSA",
+        "-keystore", keystorePath,
+        "-storepass", "android",
+        oldApk.getAbsolutePath(),
+        "AndroidKey"
+    };
+    assertTrue(Execution.execute(null, jarsignerCommandLine, System.out, System.err));
+
+    File newApk = writeSignedApk();
+
+    Map<String, String> oldContents = readContents(oldApk);
+    Map<String, String> newContents = readContents(newApk);
+    assertEquals(oldContents, newContents);
+    assertTrue(newContents.containsKey("assets/stored.bin"));
+    assertTrue(newContents.containsKey("classes.dex"));
+    assertEquals(verify(oldApk), verify(newApk));
+  }
+
+  public void testStoredEntriesAreAligned() throws Exception {
+    File apk = writeSignedApk();
+    RandomAccessFile file = new RandomAccessFile(apk, "r");
+    try {
+      // Walk the central directory, which follows the end of central directory record.
+      file.seek(file.length() - 22 + 10);
+      int entryCount = readShort(file);
+      file.skipBytes(4);
+      long centralDirectoryOffset = readInt(file);
+      int storedEntries = 0;
+      long position = centralDirectoryOffset;
+      for (int i = 0; i < entryCount; i++) {
+        file.seek(position + 10);
+        int method = readShort(file);
+        file.seek(position + 28);
+        int nameLength = readShort(file);
+        int extraLength = readShort(file);
+        int commentLength = readShort(file);
+        file.seek(position + 42);
+        long localHeaderOffset = readInt(file);
+        position += 46 + nameLength + extraLength + commentLength;
+
+        file.seek(localHeaderOffset + 26);
+        long dataOffset = localHeaderOffset + 30 + readShort(file) + readShort(file);
+        if (method == ZipEntry.STORED) {
+          storedEntries++;
+          assertEquals(0, dataOffset % SignedApkWriter.ALIGNMENT);
+        }
+      }
+      assertEquals(4, storedEntries);
+    } finally {
+      file.close();
+    }
+  }
+
+  private File writeSignedApk() throws Exception {
+    File apk = new File(tmpDir, "new.apk");
+    KeyStore.PrivateKeyEntry key = SignedApkWriter.loadKey(keystorePath);
+    SignedApkWriter writer = new SignedApkWriter(apk);
+    writer.addZip(resources);
+    writer.addFile(dex, "classes.dex");
+    writer.sign(key.getPrivateKey(), (X509Certificate) key.getCertificate());
+    return apk;
+  }
+
+  /*
+   * Writes a resource package like the ones aapt writes, with compressed and uncompressed
+   * entries. The names have different lengths so that the uncompressed entries need padding.
+   */
+  private static void writeResourcePackage(File file) throws IOException {
+    ZipOutputStream zip = new ZipOutputStream(new FileOutputStream(file));
+    try {
+      writeEntry(zip, "AndroidManifest.xml", Strings.repeat("<manifest/>", 100), false);
+      writeEntry(zip, "resources.arsc", "resource table", true);
+      writeEntry(zip, "res/drawable/a.png", "png", true);
+      writeEntry(zip, "assets/stored.bin", "stored", true);
+      // A time before 1980 does not fit in the DOS time of the entry.
+      writeEntry(zip, "assets/1970.bin", "from 1970", true, 0);
+      writeEntry(zip, "assets/" + Strings.repeat("long-name-", 10) + ".txt",
+          Strings.repeat("text", 100), false);
+    } finally {
+      zip.close();
+    }
+  }
+
+  private static void writeEntry(ZipOutputStream zip, String name, String content,
+      boolean stored) throws IOException {
+    writeEntry(zip, name, content, stored, System.currentTimeMillis());
+  }
+
+  private static void writeEntry(ZipOutputStream zip, String name, String content,
+      boolean stored, long time) throws IOException {
+    byte[] bytes = content.getBytes(Charsets.UTF_8);
+    ZipEntry entry = new ZipEntry(name);
+    entry.setTime(time);
+    if (stored) {
+      CRC32 crc = new CRC32();
+      crc.update(bytes);
+      entry.setMethod(ZipEntry.STORED);
+      entry.setSize(bytes.length);
+      entry.setCompressedSize(bytes.length);
+      entry.setCrc(crc.getValue());
+    }
+    zip.putNextEntry(entry);
+    zip.write(bytes);
+    zip.closeEntry();
+  }
+
+  /*
+   * Returns the content hash of each entry of the given apk that is not a signature file.
+   */
+  private static Map<String, String> readContents(File apk) throws IOException {
+    Map<String, String> results = new TreeMap<String, String>();
+    ZipFile zipFile = new ZipFile(apk);
+    try {
+      Enumeration<? extends ZipEntry> entries = zipFile.entries();
+      while (entries.hasMoreElements()) {
+        ZipEntry entry = entries.nextElement();
+        if (entry.getName().startsWith("META-INF/")) {
+          continue;
+        }
+        InputStream in = zipFile.getInputStream(entry);
+        try {
+          results.put(entry.getName(),
+              Hashing.sha1().hashBytes(ByteStreams.toByteArray(in)).toString());
+        } finally {
+          in.close();
+        }
+      }
+    } finally {
+      zipFile.close();
+    }
+    return results;
+  }
+
+  /*
+   * Verifies the given apk with jarsigner, checking that every entry is signed, and returns the
+   * certificates that signed it as jarsigner lists them.
+   */
+  private String verify(File apk) throws IOException {
+    String[] verifyCommandLine = { getJarSigner(),
+        "-J-Djava.security.properties=" + securityProperties.getAbsolutePath(),
+        "-verify", "-verbose", "-certs", apk.getAbsolutePath() };
+    StringBuffer out = new StringBuffer();
+    StringBuffer err = new StringBuffer();
+    assertEquals(err.toString(), 0, Execution.execute(null, verifyCommandLine, out, err));
+    String output = out.toString();
+    assertTrue(output, output.contains("jar verified."));
+    assertFalse(output, output.contains("unsigned entries"));
+    StringBuilder certificates = new StringBuilder();
+    for (String line : output.split("\n")) {
+      if (line.trim().startsWith("X.509, ")) {
+        certificates.append(line.trim()).append('\n');
+      }
+    }
+    assertTrue(output, certificates.length() > 0);
+    return certificates.toString();
+  }
+
+  private static String getJarSigner() {
+    File javaHome = new File(System.getProperty("java.home"));
+    File jarsigner = new File(javaHome, "bin/jarsigner");
+    if (!jarsigner.exists()) {
+      jarsigner = new File(javaHome.getParentFile(), "bin/jarsigner");
+    }
+    return jarsigner.getAbsolutePath();
+  }
+
+  private static int readShort(RandomAccessFile file) throws IOException {
+    return file.read() | (file.read() << 8);
+  }
+
+  private static long readInt(RandomAccessFile file) throws IOException {
+    return readShort(file) | ((long) readShort(file) << 16);
+  }
+}
@@ -0,0 +1,79 @@
+// -*- mode: java; c-basic-offset: 2; -*-
+// Copyright 2016 MIT, All rights reserved
+// Released under the Apache License, Version 2.0
+// http://www.apache.org/licenses/LICENSE-2.0
+package com.google.appinventor.buildserver;
+
+import com.google.common.base.Ticker;
+
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import junit.framework.TestCase;
+
+/**
+ * Tests StageHistograms and BuildTrace classes.
+ *
+ */
+public class StageHistogramsTest extends TestCase {
+  private static class FakeTicker extends Ticker {
+    private long nanos;
+
+    void advanceMs(long ms) {
+      nanos += ms * 1000000;
+    }
+
+    @Override
+    public long read() {
+      return nanos;
+    }
+  }
+
+  public void testTraceAccumulatesRepeatedStages() throws Exception {
+    FakeTicker ticker = new FakeTicker();
+    BuildTrace trace = new BuildTrace(ticker);
+    BuildTrace.Stage dx = trace.startStage(BuildTrace.DX);
+    ticker.advanceMs(20);
+    long firstWallMs = dx.end();
+    BuildTrace.Stage kawa = trace.startStage(BuildTrace.KAWA);
+    ticker.advanceMs(5);
+    kawa.end();
+    trace.startStage(BuildTrace.DX);
+    ticker.advanceMs(30);
+    long totalWallMs = dx.end();
+    dx.addChildProcess(100, 2048);
+    dx.addChildProcess(50, 1024);
+
+    assertEquals(20, firstWallMs);
+    assertEquals(50, totalWallMs);
+    assertEquals(5, kawa.getWallMs());
+    List<BuildTrace.Stage> stages = trace.getStages();
+    assertEquals(2, stages.size());
+    assertEquals(BuildTrace.DX, stages.get(0).getName());
+    assertEquals(BuildTrace.KAWA, stages.get(1).getName());
+    assertTrue(dx.getCpuMs() >= 150);
+    assertEquals(2048, dx.getPeakChildRssKb());
+    assertEquals(-1, stages.get(1).getPeakChildRssKb());
+  }
+
+  public void testVariables() throws Exception {
+    StageHistograms histograms = new StageHistograms();
+    FakeTicker ticker = new FakeTicker();
+    BuildTrace trace = new BuildTrace(ticker);
+    BuildTrace.Stage aapt = trace.startStage(BuildTrace.AAPT);
+    ticker.advanceMs(1500);
+    aapt.end();
+    histograms.record(trace);
+    histograms.record(trace);
+
+    Map<String, String> variables = new LinkedHashMap<String, String>();
+    histograms.addVariables(variables);
+    assertEquals("2", variables.get("stage-aapt-count"));
+    assertEquals("<=1s:0 <=2s:2 <=5s:0 <=10s:0 <=20s:0 <=30s:0 <=60s:0 <=120s:0 >120s:0",
+        variables.get("stage-aapt-wall-ms-histogram"));
+    assertEquals("1500", variables.get("stage-aapt-average-wall-ms"));
+    assertNotNull(variables.get("stage-aapt-average-cpu-ms"));
+    assertNull(variables.get("stage-aapt-maximum-child-rss-kb"));
+  }
+}
@@ -200,6 +200,119 @@ public class YailEvalTest extends TestCase {
     }
   }
 
+  public void testCallTypedComponentMethod() throws Throwable {
+    String schemeString =
+        "(begin " +
+        "(add-to-current-form-environment 'Builder1 (java.lang.StringBuilder \"abc\")) " +
+        "(call-typed-component-method Builder1 java.lang.StringBuilder " +
+        "  setLength (\"2\") (number)) " +
+        "(call-typed-component-method Builder1 java.lang.StringBuilder " +
+        "  insert (0 \"xy\") (number text)) " +
+        "(call-typed-component-method Builder1 java.lang.StringBuilder length () ()))";
+    assertEquals(4, ((Number) scheme.eval(schemeString)).intValue());
+    assertEquals("xyab", scheme.eval("(lookup-in-current-form-environment 'Builder1)").toString());
+  }
+
+  public void testCoercionFailureOnTypedComponentMethodCall() throws Throwable {
+    String schemeString =
+        "(add-to-current-form-environment 'Builder2 (java.lang.StringBuilder \"abc\")) " +
+        "(call-typed-component-method Builder2 java.lang.StringBuilder " +
+        "  setLength (\"foo\") (number)) ";
+    try {
+      scheme.eval(schemeString);
+      fail();
+    } catch (YailRuntimeError e) {
+      // expected
+    }
+  }
+
+  /**
+   * Checks that call-typed-component-method coerces its arguments and calls
+   * the method directly, while call-component-method goes through
+   * coerce-args and (apply invoke ...).
+   */
+  public void testTypedComponentMethodCallIsBound() throws Throwable {
+    scheme.eval("(add-to-current-form-environment 'Recorder1 " +
+        "(com.google.appinventor.buildserver.YailEvalTest$CallRecorder))");
+    scheme.eval("(call-component-method 'Recorder1 'record " +
+        "(*list-for-runtime* (com.google.appinventor.buildserver.YailEvalTest$CallRecorder)) " +
+        "'(text))");
+    assertTrue(CallRecorder.coercedThroughCoerceArgs);
+    assertTrue(CallRecorder.calledThroughInvoke);
+    scheme.eval("(call-typed-component-method Recorder1 " +
+        "com.google.appinventor.buildserver.YailEvalTest$CallRecorder record " +
+        "((com.google.appinventor.buildserver.YailEvalTest$CallRecorder)) (text))");
+    assertFalse(CallRecorder.coercedThroughCoerceArgs);
+    assertFalse(CallRecorder.calledThroughInvoke);
+  }
+
+  /**
+   * A component that records whether its method was called through Kawa's
+   * invoke, and whether the coercion of its argument to text was made by
+   * coerce-args.
+   */
+  public static class CallRecorder {
+    static boolean coercedThroughCoerceArgs;
+    static boolean calledThroughInvoke;
+
+    public void record(String value) {
+      calledThroughInvoke = false;
+      for (StackTraceElement frame : new Throwable().getStackTrace()) {
+        if (frame.getClassName().equals("gnu.kawa.reflect.Invoke")) {
+          calledThroughInvoke = true;
+        }
+      }
+    }
+
+    @Override
+    public String toString() {
+      coercedThroughCoerceArgs = false;
+      for (StackTraceElement frame : new Throwable().getStackTrace()) {
+        if (frame.getMethodName().equals("coerceArgs")) {
+          coercedThroughCoerceArgs = true;
+        }
+      }
+      return "recorder";
+    }
+  }
+
+  /**
+   * Compares the speed of component method calls bound when the Yail is compiled with that of
+   * calls made through call-component-method, which looks up the method on every call.  The
+   * calls per second are only printed, since they depend on the machine;
+   * {@link #testTypedComponentMethodCallIsBound} checks that the typed calls are bound.
+   */
+  public void testTypedComponentMethodCallSpeed() throws Throwable {
+    final int calls = 100000;
+    scheme.eval("(add-to-current-form-environment 'Builder3 (java.lang.StringBuilder \"abc\"))");
+    String typedLoop =
+        "(let loop ((i 0)) " +
+        "  (when (< i " + calls + ") " +
+        "    (call-typed-component-method Builder3 java.lang.StringBuilder " +
+        "      setLength (3) (number)) " +
+        "    (loop (+ i 1))))";
+    String dynamicLoop =
+        "(let loop ((i 0)) " +
+        "  (when (< i " + calls + ") " +
+        "    (call-component-method 'Builder3 'setLength (*list-for-runtime* 3) '(number)) " +
+        "    (loop (+ i 1))))";
+    long typedNanos = timeEval(typedLoop);
+    long dynamicNanos = timeEval(dynamicLoop);
+    System.out.println("call-typed-component-method: "
+        + (calls * 1000000000L / Math.max(typedNanos, 1)) + " calls/s");
+    System.out.println("call-component-method: "
+        + (calls * 1000000000L / Math.max(dynamicNanos, 1)) + " calls/s");
+    assertEquals("abc", scheme.eval("(lookup-in-current-form-environment 'Builder3)").toString());
+  }
+
+  private long timeEval(String schemeString) throws Throwable {
+    // Evaluate once first, so that the timing does not include loading the classes involved.
+    scheme.eval(schemeString);
+    long start = System.nanoTime();
+    scheme.eval(schemeString);
+    return System.nanoTime() - start;
+  }
+
 
   public void testYailEqual() throws Throwable {
     assertTrue((Boolean) scheme.eval(
@@ -824,6 +937,62 @@ public class YailEvalTest extends TestCase {
     assertEquals("bad pair", scheme.eval(thunkify(schemeInputString)).toString());
   }
 
+  public void testAListLookup5() throws Throwable {
+    /* check that numeric keys match as in yail-equal?, and that changes to the pairs are seen */
+    String schemeInputString = "(begin " +
+      "(define pair1 (make-yail-list \"a\" \"b\")) " +
+      "(define pair2 (make-yail-list \"01\" \"one\")) " +
+      "(define pair3 (make-yail-list \"a\" \"c\")) " +
+      "(define pairs (make-yail-list pair1 pair2 pair3)) " +
+      "(define before (make-yail-list (yail-alist-lookup 1.0 pairs \"nothing\") " +
+      "                               (yail-alist-lookup \"a\" pairs \"nothing\"))) " +
+      "(yail-list-set-item! pair1 1 \"z\") " +
+      "(yail-list-add-to-list! pairs (make-yail-list 2 \"two\")) " +
+      "(make-yail-list before (yail-alist-lookup \"a\" pairs \"nothing\") " +
+      "                (yail-alist-lookup \" 2 \" pairs \"nothing\")) " +
+      ")";
+    String schemeResultString = "((one b) c two)";
+    assertEquals(schemeResultString, scheme.eval(schemeInputString).toString());
+  }
+
+  public void testAListLookupComplexKeys() throws Throwable {
+    /* check that keys that read as complex numbers do not stop lookups in the table */
+    String schemeInputString = "(begin " +
+      "(define pairs (make-yail-list (make-yail-list \"2i\" \"two i\") " +
+      "                              (make-yail-list \"+i\" \"i\") " +
+      "                              (make-yail-list \"a\" \"b\"))) " +
+      "(make-yail-list (yail-alist-lookup \"a\" pairs \"nothing\") " +
+      "                (yail-alist-lookup \"+2i\" pairs \"nothing\") " +
+      "                (yail-alist-lookup \"+i\" pairs \"nothing\") " +
+      "                (yail-alist-lookup \"3i\" pairs \"nothing\")) " +
+      ")";
+    String schemeResultString = "(b two i i nothing)";
+    assertEquals(schemeResultString, scheme.eval(schemeInputString).toString());
+  }
+
+  /**
+   * Looks up 5000 keys in a list of pairs, adding each one when it is not
+   * found, and checks that the lookups add the new pairs to the index that
+   * the list has rather than building a new one each time.
+   */
+  public void testAListLookupThenAdd() throws Throwable {
+    String schemeInputString = "(begin " +
+      "(define pairs (make-yail-list (make-yail-list \"start\" -1))) " +
+      "(define first-index (alist-lookup-index pairs)) " +
+      "(let loop ((i 0) (found 0)) " +
+      "  (if (< i 5000) " +
+      "      (let ((value (yail-alist-lookup (number->string i) pairs #f))) " +
+      "        (if (not value) " +
+      "            (yail-list-add-to-list! pairs (make-yail-list (number->string i) i))) " +
+      "        (loop (+ i 1) (if value (+ found 1) found))) " +
+      "      (list found " +
+      "            (yail-alist-lookup \"4999\" pairs #f) " +
+      "            (eq? first-index (alist-lookup-index pairs)) " +
+      "            (pairs:getLookupIndexSize)))) " +
+      ")";
+    assertEquals("(0 4999 true 5001)", scheme.eval(schemeInputString).toString());
+  }
+
   public void testListInsertionMiddle() throws Throwable {
     /* test list insertion in middle */
     String schemeInputString = "(begin " +
@@ -395,8 +395,10 @@ public class YaVersion {
   // - LABEL_COMPONENT_VERSION was incremented to 4
   // For YOUNG_ANDROID_VERSION 158:
   // Added HorizontalScrollArrangement and VerticalScrollArrangement
+  // For YOUNG_ANDROID_VERSION 159:
+  // - FORM_COMPONENT_VERSION was incremented to 20.
 
-  public static final int YOUNG_ANDROID_VERSION = 158;
+  public static final int YOUNG_ANDROID_VERSION = 159;
 
   // ............................... Blocks Language Version Number ...............................
 
@@ -683,7 +685,9 @@ public class YaVersion {
   //   Sizing property
   // For FORM_COMPONENT_VERSION 19:
   // - Added HideKeyboard method
-  public static final int FORM_COMPONENT_VERSION = 19;
+  // For FORM_COMPONENT_VERSION 20:
+  // - The BackgroundTasksWaiting and BackgroundTasksRunning properties were added.
+  public static final int FORM_COMPONENT_VERSION = 20;
 
   // For FUSIONTABLESCONTROL_COMPONENT_VERSION 2:
   // - The Fusiontables API was migrated from SQL to V1
@@ -114,7 +114,8 @@ public final class BluetoothServer extends BluetoothConnectionBase {
       return;
     }
 
-    AsynchUtil.runAsynchronously(new Runnable() {
+    // Accepting a connection can wait indefinitely, so it gets a thread of its own.
+    AsynchUtil.runOnNewThread(new Runnable() {
       public void run() {
         Object acceptedBluetoothSocket = null;
 
@@ -12,6 +12,8 @@ import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Map;
 import java.util.Set;
+import java.util.WeakHashMap;
+import java.util.concurrent.ConcurrentHashMap;
 
 /**
  * Dispatches events to component event handlers.
@@ -70,6 +72,15 @@ public class EventDispatcher {
     private final HashMap<String, Set<EventClosure>> eventClosuresMap =
         new HashMap<String, Set<EventClosure>>();
 
+    // Mapping of components to the event closure that last dispatched each of their
+    // events, so that an event usually goes straight to its handler instead of being
+    // offered to the handlers of every component with an event of the same name.
+    // A component's name can be bound to another component later, so a closure found
+    // here is still checked by the dispatchDelegate.  Components that are gone do not
+    // stay in the map.
+    private final Map<Component, Map<String, EventClosure>> componentEventClosuresMap =
+        new WeakHashMap<Component, Map<String, EventClosure>>();
+
     EventRegistry(HandlesEventDispatching dispatchDelegate) {
       this.dispatchDelegate = dispatchDelegate;
     }
@@ -77,8 +88,9 @@ public class EventDispatcher {
 
   private static final boolean DEBUG = false;
 
-  private static final Map<HandlesEventDispatching, EventRegistry>
-      mapDispatchDelegateToEventRegistry = new HashMap<HandlesEventDispatching, EventRegistry>();
+  private static final ConcurrentHashMap<HandlesEventDispatching, EventRegistry>
+      mapDispatchDelegateToEventRegistry =
+          new ConcurrentHashMap<HandlesEventDispatching, EventRegistry>();
 
   private EventDispatcher() {
   }
@@ -87,7 +99,10 @@ public class EventDispatcher {
     EventRegistry er = mapDispatchDelegateToEventRegistry.get(dispatchDelegate);
     if (er == null) {
       er = new EventRegistry(dispatchDelegate);
-      mapDispatchDelegateToEventRegistry.put(dispatchDelegate, er);
+      EventRegistry existing = mapDispatchDelegateToEventRegistry.putIfAbsent(dispatchDelegate, er);
+      if (existing != null) {
+        er = existing;
+      }
     }
     return er;
   }
@@ -161,6 +176,7 @@ public class EventDispatcher {
   public static void unregisterAllEventsForDelegation() {
     for (EventRegistry er : mapDispatchDelegateToEventRegistry.values()) {
       er.eventClosuresMap.clear();
+      er.componentEventClosuresMap.clear();
     }
   }
 
@@ -175,6 +191,7 @@ public class EventDispatcher {
     EventRegistry er = removeEventRegistry(dispatchDelegate);
     if (er != null) {
       er.eventClosuresMap.clear();
+      er.componentEventClosuresMap.clear();
     }
   }
 
@@ -195,36 +212,67 @@ public class EventDispatcher {
       EventRegistry er = getEventRegistry(dispatchDelegate);
       Set<EventClosure> eventClosures = er.eventClosuresMap.get(eventName);
       if (eventClosures != null && eventClosures.size() > 0) {
-        dispatched = delegateDispatchEvent(dispatchDelegate, eventClosures, component, args);
+        Map<String, EventClosure> componentEventClosures =
+            er.componentEventClosuresMap.get(component);
+        EventClosure lastEventClosure = null;
+        if (componentEventClosures != null) {
+          lastEventClosure = componentEventClosures.get(eventName);
+          if (lastEventClosure != null && eventClosures.contains(lastEventClosure)) {
+            dispatched = dispatchDelegate.dispatchEvent(component,
+                                                        lastEventClosure.componentId,
+                                                        lastEventClosure.eventName,
+                                                        args);
+          }
+        }
+        if (!dispatched) {
+          dispatched = delegateDispatchEvent(er, eventClosures, lastEventClosure, component, args);
+        }
       }
     }
     return dispatched;
   }
 
   /**
-   * Delegates the dispatch of an event to the dispatch delegate.
+   * Delegates the dispatch of an event to the dispatch delegate, offering it to each of the
+   * event closures with the event name, and remembers the closure that dispatched it.
    *
+   * @param er the event registry of the dispatch delegate
    * @param eventClosures set of event closures matching the event name
+   * @param triedEventClosure the event closure that was already offered the event, or null
    * @param component the component that generated the event
    * @param args  arguments to event handler
    */
-  private static boolean delegateDispatchEvent(HandlesEventDispatching dispatchDelegate,
+  private static boolean delegateDispatchEvent(EventRegistry er,
                                                Set<EventClosure> eventClosures,
+                                               EventClosure triedEventClosure,
                                                Component component, Object... args) {
     // The event closures set will contain all event closures matching the event name.
     // We depend on the delegate's dispatchEvent method to check the registered event closure and
     // only dispatch the event if the registered component matches the component that generated the
     // event.  This should only be true for one (or zero) of the closures.
+    // The dispatch delegate may unregister closures while we go through them, so we go through
+    // a copy.
     boolean dispatched = false;
-    for (EventClosure eventClosure : eventClosures) {
-      if (dispatchDelegate.dispatchEvent(component,
-                                         eventClosure.componentId,
-                                         eventClosure.eventName,
-                                         args)) {
+    EventClosure[] eventClosuresArray = eventClosures.toArray(new EventClosure[0]);
+    for (EventClosure eventClosure : eventClosuresArray) {
+      if (eventClosure.equals(triedEventClosure)) {
+        continue;
+      }
+      if (er.dispatchDelegate.dispatchEvent(component,
+                                            eventClosure.componentId,
+                                            eventClosure.eventName,
+                                            args)) {
         if (DEBUG) {
           Log.i("EventDispatcher", "Successfully dispatched event " +
               eventClosure.componentId + "." + eventClosure.eventName);
         }
+        Map<String, EventClosure> componentEventClosures =
+            er.componentEventClosuresMap.get(component);
+        if (componentEventClosures == null) {
+          componentEventClosures = new HashMap<String, EventClosure>();
+          er.componentEventClosuresMap.put(component, componentEventClosures);
+        }
+        componentEventClosures.put(eventClosure.eventName, eventClosure);
         dispatched = true;  // break here or keep iterating through loop?
       }
     }
@@ -36,6 +36,7 @@ import java.io.InputStreamReader;
 import java.io.IOException;
 import java.io.OutputStreamWriter;
 import java.io.StringWriter;
+import java.util.concurrent.Executor;
 
 /**
  * A Component for working with files and directories on the device.
@@ -60,6 +61,10 @@ public class File extends AndroidNonvisibleComponent implements Component {
   private final int BUFFER_LENGTH = 4096;
   private static final String LOG_TAG = "FileComponent";
 
+  // Reads and writes run one at a time, in the order they are made, so that a file that
+  // is saved and then read back has the saved text.
+  private final Executor requests = AsynchUtil.newSerialExecutor();
+
   /**
    * Creates a new File component.
    * @param container the Form that this component is contained in.
@@ -143,7 +148,7 @@ public class File extends AndroidNonvisibleComponent implements Component {
       }
 
       final InputStream asyncInputStream = inputStream;
-      AsynchUtil.runAsynchronously(new Runnable() {
+      requests.execute(new Runnable() {
           @Override
           public void run() {
             AsyncRead(asyncInputStream, fileName);
@@ -200,7 +205,7 @@ public class File extends AndroidNonvisibleComponent implements Component {
       }
       return;
     }
-    AsynchUtil.runAsynchronously(new Runnable() {
+    requests.execute(new Runnable() {
       @Override
       public void run() {
         final String filepath = AbsoluteFileName(filename);
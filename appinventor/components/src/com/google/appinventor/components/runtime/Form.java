@@ -67,6 +67,7 @@ import com.google.appinventor.components.runtime.multidex.MultiDex;
 import com.google.appinventor.components.runtime.multidex.MultiDexApplication;
 import com.google.appinventor.components.runtime.util.AlignmentUtil;
 import com.google.appinventor.components.runtime.util.AnimationUtil;
+import com.google.appinventor.components.runtime.util.AsynchUtil;
 import com.google.appinventor.components.runtime.util.ErrorMessages;
 import com.google.appinventor.components.runtime.util.FullScreenVideoUtil;
 import com.google.appinventor.components.runtime.util.JsonUtil;
@@ -1453,6 +1454,30 @@ public class Form extends Activity
     return formHeight;
   }
 
+  /**
+   * BackgroundTasksWaiting property getter method.
+   *
+   * @return  the number of background tasks of the app that are waiting to run
+   */
+  @SimpleProperty(category = PropertyCategory.BEHAVIOR,
+    description = "The number of background tasks of this app, such as web requests, " +
+    "that are waiting for other tasks to finish before they run.")
+  public int BackgroundTasksWaiting() {
+    return AsynchUtil.getQueuedCount();
+  }
+
+  /**
+   * BackgroundTasksRunning property getter method.
+   *
+   * @return  the number of background tasks of the app that are running
+   */
+  @SimpleProperty(category = PropertyCategory.BEHAVIOR,
+    description = "The number of background tasks of this app, such as web requests, " +
+    "that are running.")
+  public int BackgroundTasksRunning() {
+    return AsynchUtil.getActiveCount();
+  }
+
   /**
    * Display a new form.
    *
@@ -39,6 +39,7 @@ import org.json.JSONObject;
 
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.Executor;
 
 /**
  * GameClient provides a way for AppInventor applications to
@@ -130,6 +131,10 @@ public class GameClient extends AndroidNonvisibleComponent
   private Handler androidUIHandler;
   private Activity activityContext;
 
+  // Commands run one at a time, in the order they are made, since each may depend on the
+  // instance that the ones before it joined or made.
+  private final Executor requests = AsynchUtil.newSerialExecutor();
+
   private String userEmailAddress = "";
 
   // Game instances in the current GameId that this player has joined
@@ -620,7 +625,7 @@ public class GameClient extends AndroidNonvisibleComponent
                 "InstancesInvited lists. This procedure can be called " +
                 "before setting the InstanceId.")
   public void GetInstanceLists() {
-    AsynchUtil.runAsynchronously(new Runnable() {
+    requests.execute(new Runnable() {
         public void run() { postGetInstanceLists(); }});
   }
 
@@ -704,7 +709,7 @@ public class GameClient extends AndroidNonvisibleComponent
   @SimpleFunction(
       description = "Retrieves messages of the specified type.")
   public void GetMessages(final String type, final int count) {
-    AsynchUtil.runAsynchronously(new Runnable() {
+    requests.execute(new Runnable() {
       public void run() { postGetMessages(type, count); }});
   }
 
@@ -773,7 +778,7 @@ public class GameClient extends AndroidNonvisibleComponent
   @SimpleFunction(
       description = "Invites a player to this game instance.")
   public void Invite(final String playerEmail) {
-    AsynchUtil.runAsynchronously(new Runnable() {
+    requests.execute(new Runnable() {
       public void run() { postInvite(playerEmail); }});
   }
 
@@ -829,7 +834,7 @@ public class GameClient extends AndroidNonvisibleComponent
    */
   @SimpleFunction(description = "Leaves the current instance.")
   public void LeaveInstance() {
-    AsynchUtil.runAsynchronously(new Runnable() {
+    requests.execute(new Runnable() {
       public void run() {
         postLeaveInstance();
       }
@@ -880,7 +885,7 @@ public class GameClient extends AndroidNonvisibleComponent
   @SimpleFunction(description = "Asks the server to create a new " +
                 "instance of this game.")
   public void MakeNewInstance(final String instanceId, final boolean makePublic) {
-    AsynchUtil.runAsynchronously(new Runnable() {
+    requests.execute(new Runnable() {
       public void run() { postMakeNewInstance(instanceId, makePublic); }});
   }
 
@@ -927,7 +932,7 @@ public class GameClient extends AndroidNonvisibleComponent
                 "recipients in the recipients list. The message will " +
                 "consist of the contents list.")
   public void SendMessage(final String type, final YailList recipients, final YailList contents) {
-    AsynchUtil.runAsynchronously(new Runnable() {
+    requests.execute(new Runnable() {
       public void run() { postNewMessage(type, recipients, contents); }});
   }
 
@@ -975,7 +980,7 @@ public class GameClient extends AndroidNonvisibleComponent
   @SimpleFunction(description = "Sends the specified command to " +
                 "the game server.")
   public void ServerCommand(final String command, final YailList arguments) {
-    AsynchUtil.runAsynchronously(new Runnable() {
+    requests.execute(new Runnable() {
       public void run() { postServerCommand(command, arguments); }});
   }
 
@@ -1018,7 +1023,7 @@ public class GameClient extends AndroidNonvisibleComponent
   @SimpleFunction(description = "Sets InstanceId and joins the " +
                 "specified instance.")
   public void SetInstance(final String instanceId) {
-    AsynchUtil.runAsynchronously(new Runnable() {
+    requests.execute(new Runnable() {
       public void run() {
         if (instanceId.equals("")) {
           Log.d(LOG_TAG, "Instance id set to empty string.");
@@ -1071,7 +1076,7 @@ public class GameClient extends AndroidNonvisibleComponent
                 "leader to playerId. Only the current leader may " +
                 "successfully set a new leader.")
   public void SetLeader(final String playerEmail) {
-    AsynchUtil.runAsynchronously(new Runnable() {
+    requests.execute(new Runnable() {
       public void run() { postSetLeader(playerEmail); }});
   }
 
@@ -30,6 +30,7 @@ import org.apache.http.NameValuePair;
 import org.apache.http.message.BasicNameValuePair;
 import org.json.JSONArray;
 import org.json.JSONException;
+import java.util.concurrent.Executor;
 
 // When the component is installed in App Inventor, the Javadoc
 // comments will become included in the automatically-generated system
@@ -78,6 +79,10 @@ public class TinyWebDB extends AndroidNonvisibleComponent implements Component {
   private String serviceURL;
   private Handler androidUIHandler;
 
+  // Requests run one at a time, in the order they are made, so that a value that is
+  // stored and then asked for comes back as stored.
+  private final Executor requests = AsynchUtil.newSerialExecutor();
+
   /**
    * Creates a new TinyWebDB component.
    *
@@ -153,7 +158,7 @@ public class TinyWebDB extends AndroidNonvisibleComponent implements Component {
   public void StoreValue(final String tag, final Object valueToStore) {
     final Runnable call = new Runnable() {
       public void run() { postStoreValue(tag, valueToStore); }};
-      AsynchUtil.runAsynchronously(call);
+      requests.execute(call);
   }
 
   // Here's part (b): The actual communication, which runs
@@ -259,7 +264,7 @@ public class TinyWebDB extends AndroidNonvisibleComponent implements Component {
   @SimpleFunction
   public void GetValue(final String tag) {
     final Runnable call = new Runnable() { public void run() { postGetValue(tag); }};
-    AsynchUtil.runAsynchronously(call);
+    requests.execute(call);
   }
 
   private void postGetValue(final String tag) {
@@ -7,23 +7,108 @@
 package com.google.appinventor.components.runtime.util;
 
 import android.os.Handler;
+import android.util.Log;
+
+import java.util.LinkedList;
+import java.util.concurrent.Executor;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionHandler;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * Utilities for handling asynchronous calls.
  *
+ * <p>Calls run on a pool of threads shared by all components, instead of a
+ * new thread each, so that an app that makes many calls, such as one that
+ * polls a web service from a Clock, does not spend its time creating threads.
+ * There are at most {@link #MAX_THREADS} of them.  When they are all busy,
+ * such as with web requests to a server that does not answer, calls wait in a
+ * queue of at most {@link #MAX_QUEUED} calls.  A call made when the queue is
+ * full pushes out the call that has waited longest, which is dropped with a
+ * warning in the log, so that the Android UI thread never waits and a slow
+ * server cannot make the app run out of memory.  Threads that are not needed
+ * any more stop after a while.
+ * The numbers of waiting and running calls are available to components
+ * through {@link #getQueuedCount} and {@link #getActiveCount}.
+ *
+ * <p>Components whose calls must run in the order they were made, one at a
+ * time, can make them through an executor from {@link #newSerialExecutor}.
+ * Those calls are never dropped, and they run on threads of their own, so
+ * that they do not wait behind a full shared pool.
+ *
+ * <p>Calls that can run indefinitely, such as waiting for an incoming
+ * connection, should use {@link #runOnNewThread} so that they do not hold on
+ * to one of the shared threads.
+ *
  * @author markf@google.com (Mark Friedman)
  */
 
 public class AsynchUtil {
+  private static final String LOG_TAG = "AsynchUtil";
+
+  private static final String THREAD_NAME_PREFIX = "AsynchUtil-";
+
+  // The most threads that run calls given to runAsynchronously.
+  static final int MAX_THREADS = 8;
+
+  // The most calls that wait for one of those threads.
+  static final int MAX_QUEUED = 64;
+
+  // The threads that run the calls given to serial executors.  Each executor
+  // has at most one call on them at a time.
+  private static final int SERIAL_THREADS = 2;
+
+  // How long a thread waits for another call before it stops.
+  private static final long KEEP_ALIVE_SECONDS = 30;
+
+  // The numbers of calls waiting to run and of calls running.
+  private static final AtomicInteger queuedCount = new AtomicInteger();
+  private static final AtomicInteger activeCount = new AtomicInteger();
+
+  private static final AtomicInteger threadCount = new AtomicInteger();
+
+  private static final ThreadFactory threadFactory = new ThreadFactory() {
+    public Thread newThread(Runnable runnable) {
+      return new Thread(runnable, THREAD_NAME_PREFIX + threadCount.incrementAndGet());
+    }
+  };
+
+  private static final ThreadPoolExecutor executor = newPool(MAX_THREADS,
+      new LinkedBlockingQueue<Runnable>(MAX_QUEUED),
+      new RejectedExecutionHandler() {
+        public void rejectedExecution(Runnable runnable, ThreadPoolExecutor executor) {
+          Runnable oldest = executor.getQueue().poll();
+          if (oldest instanceof CountedCall) {
+            ((CountedCall) oldest).drop();
+          }
+          Log.w(LOG_TAG, "Too many asynchronous calls are waiting; dropped the oldest one");
+          executor.execute(runnable);
+        }
+      });
+
+  // The number of serial executors bounds the calls waiting here, so the queue is not bounded.
+  private static final ThreadPoolExecutor serialExecutor = newPool(SERIAL_THREADS,
+      new LinkedBlockingQueue<Runnable>(), new ThreadPoolExecutor.AbortPolicy());
+
+  private static ThreadPoolExecutor newPool(int threads, LinkedBlockingQueue<Runnable> queue,
+                                            RejectedExecutionHandler handler) {
+    ThreadPoolExecutor pool = new ThreadPoolExecutor(threads, threads,
+        KEEP_ALIVE_SECONDS, TimeUnit.SECONDS, queue, threadFactory, handler);
+    pool.allowCoreThreadTimeOut(true);
+    return pool;
+  }
 
   /**
    * Make an asynchronous call in a separate thread.
    * @param call a {@link Runnable} to run in the thread.
    */
   public static void runAsynchronously(final Runnable call) {
-    Thread thread = new Thread(call);
-    thread.start();
+    executor.execute(new CountedCall(call));
   }
+
   /**
    * Make an asynchronous call in a separate thread, with a callback that's run on the current
    * Android UI thread.
@@ -34,7 +119,44 @@ public class AsynchUtil {
   public static void runAsynchronously(final Handler androidUIHandler,
                                        final Runnable call,
                                        final Runnable callback) {
-    Runnable runnable = new Runnable() {
+    runAsynchronously(withCallback(androidUIHandler, call, callback));
+  }
+
+  /**
+   * Make an asynchronous call in a new thread of its own, for a call that
+   * may not return for a long time.
+   * @param call a {@link Runnable} to run in the thread.
+   */
+  public static void runOnNewThread(final Runnable call) {
+    threadFactory.newThread(new CountedCall(call)).start();
+  }
+
+  /**
+   * Return a new executor that makes the calls given to it asynchronously,
+   * one at a time, in the order they were given.
+   */
+  public static Executor newSerialExecutor() {
+    return new SerialExecutor();
+  }
+
+  /**
+   * Return the number of asynchronous calls that are waiting to run.
+   */
+  public static int getQueuedCount() {
+    return queuedCount.get();
+  }
+
+  /**
+   * Return the number of asynchronous calls that are running.
+   */
+  public static int getActiveCount() {
+    return activeCount.get();
+  }
+
+  private static Runnable withCallback(final Handler androidUIHandler,
+                                       final Runnable call,
+                                       final Runnable callback) {
+    return new Runnable() {
       public void run() {
         call.run();
         if (callback != null) {
@@ -46,7 +168,75 @@ public class AsynchUtil {
         }
       }
     };
-    Thread thread = new Thread(runnable);
-    thread.start();
+  }
+
+  /**
+   * A call that is counted as queued until it starts to run, and as active
+   * while it runs.
+   */
+  private static class CountedCall implements Runnable {
+    private final Runnable call;
+
+    CountedCall(Runnable call) {
+      this.call = call;
+      queuedCount.incrementAndGet();
+    }
+
+    void drop() {
+      queuedCount.decrementAndGet();
+    }
+
+    public void run() {
+      queuedCount.decrementAndGet();
+      activeCount.incrementAndGet();
+      try {
+        call.run();
+      } finally {
+        activeCount.decrementAndGet();
+      }
+    }
+  }
+
+  /**
+   * Runs its calls on the serial threads, one at a time, in order.  Calls
+   * waiting for the previous ones to finish are counted as queued.
+   */
+  private static class SerialExecutor implements Executor {
+    private final LinkedList<CountedCall> calls = new LinkedList<CountedCall>();
+    private boolean running;
+
+    private final Runnable runCalls = new Runnable() {
+      public void run() {
+        CountedCall call;
+        while ((call = nextCall()) != null) {
+          boolean returned = false;
+          try {
+            call.run();
+            returned = true;
+          } finally {
+            if (!returned) {
+              // The exception ends this thread's turn, but the calls after it still run.
+              serialExecutor.execute(this);
+            }
+          }
+        }
+      }
+    };
+
+    public synchronized void execute(Runnable call) {
+      calls.add(new CountedCall(call));
+      if (!running) {
+        running = true;
+        serialExecutor.execute(runCalls);
+      }
+    }
+
+    private synchronized CountedCall nextCall() {
+      CountedCall call = calls.poll();
+      if (call == null) {
+        running = false;
+      }
+      return call;
+    }
   }
 }
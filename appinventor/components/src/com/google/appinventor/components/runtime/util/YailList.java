@@ -13,6 +13,7 @@ import gnu.lists.Pair;
 
 import org.json.JSONException;
 
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.List;
 
@@ -38,6 +39,42 @@ public class YailList extends Pair {
   // legitimate Yail data types.  See the definition of sanitization
   // in runtime.scm.
 
+  // The pairs that hold the items of this list, in order, so that an item can be
+  // reached by its index without walking the list.  The array is built when it is
+  // first needed and kept up to date by the methods below that change the list.
+  // The list makes its own pairs, which tell it when a set-car! or set-cdr! changes
+  // them, so that any change made some other way makes the array out of date.
+  // Pairs that the list did not make, such as those given to a set-cdr! of the
+  // header, cannot tell it, so while it has any the array is built for each use.
+  private transient Pair[] pairs;
+
+  // The number of pairs in use in the pairs array.
+  private transient int numPairs;
+
+  // The number of times that this list or one of its pairs changed, the value of
+  // it when the pairs array was last up to date, and whether all the pairs in the
+  // array are ones that this list made.
+  private transient int modCount;
+  private transient int pairsModCount;
+  private transient boolean pairsOwned;
+
+  // The number of times that the pairs array was built by walking the list.
+  // VisibleForTesting
+  transient int pairWalks;
+
+  // An index for looking up pairs in this list, built by runtime.scm, the
+  // number of pairs at the start of the list that it holds, and the value of
+  // modCount when it last held all of them.  Adding pairs at the end of the
+  // list leaves the index up to date for the pairs before them, so that
+  // runtime.scm can add just the new ones.  Any other change to the list, or
+  // to one of the pairs that the index holds, makes the index out of date.
+  private transient Object lookupIndex;
+  private transient int lookupIndexSize;
+  private transient int lookupIndexModCount;
+
+  // The lists whose lookup indexes hold this list as one of their pairs.
+  private transient List<YailList> indexingLists;
+
   /**
    * Create an empty YailList.
    */
@@ -45,10 +82,6 @@ public class YailList extends Pair {
     super(YailConstants.YAIL_HEADER, LList.Empty);
   }
 
-  private YailList(Object cdrval) {
-    super(YailConstants.YAIL_HEADER, cdrval);
-  }
-
   /**
    * Create an empty YailList YailList from an array.
    */
@@ -60,24 +93,23 @@ public class YailList extends Pair {
    * Create a YailList from an array.
    */
   public static YailList makeList(Object[] objects) {
-    LList newCdr = Pair.makeList(objects, 0);
-    return new YailList(newCdr);
+    YailList yailList = new YailList();
+    yailList.addObjects(objects);
+    return yailList;
   }
 
   /**
    * Create a YailList from a List.
    */
   public static YailList makeList(List vals) {
-    LList newCdr = Pair.makeList(vals);
-    return new YailList(newCdr);
+    return makeList(vals.toArray());
   }
 
   /**
    * Create a YailList from a Collection.
    */
   public static YailList makeList(Collection vals) {
-    LList newCdr = Pair.makeList(vals.toArray(), 0);
-    return new YailList(newCdr);
+    return makeList(vals.toArray());
   }
 
   /**
@@ -156,7 +188,29 @@ public class YailList extends Pair {
    */
   @Override
   public int size() {
-    return super.size() - 1;
+    return indexPairs();
+  }
+
+  /**
+   * Return the Object at the given position, counting the list header
+   * as position 0.
+   */
+  @Override
+  public Object get(int index) {
+    if (index == 0) {
+      return car;
+    }
+    indexPairs();
+    if (index < 0 || index > numPairs) {
+      throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + numPairs);
+    }
+    return pairs[index - 1].getCar();
+  }
+
+  @Override
+  public void setCdr(Object cdr) {
+    super.setCdr(cdr);
+    changed();
   }
 
   /**
@@ -186,4 +240,207 @@ public class YailList extends Pair {
   public Object getObject(int index) {
     return get(index + 1);
   }
+
+  /**
+   * Replace the Object at the given index.
+   */
+  public void setObject(int index, Object value) {
+    checkIndex(index, indexPairs());
+    pairs[index].setCar(value);
+    changed();
+    pairsModCount = modCount;
+  }
+
+  /**
+   * Add an Object at the end of this YailList.
+   */
+  public void addObject(Object value) {
+    insertObject(indexPairs(), value);
+  }
+
+  /**
+   * Add the given Objects, in order, at the end of this YailList.
+   */
+  public void addObjects(Object[] values) {
+    for (Object value : values) {
+      addObject(value);
+    }
+  }
+
+  /**
+   * Insert an Object at the given index, moving the Objects from that
+   * index on up by one.  The index may be the size of this YailList, to add
+   * the Object at the end.
+   */
+  public void insertObject(int index, Object value) {
+    checkIndex(index, indexPairs() + 1);
+    boolean lookupIndexCurrent = lookupIndexModCount == modCount;
+    Pair pair = new ListPair(this, value, index < numPairs ? pairs[index] : LList.Empty);
+    if (index == 0) {
+      cdr = pair;
+    } else {
+      pairs[index - 1].setCdr(pair);
+    }
+    if (numPairs == pairs.length) {
+      Pair[] morePairs = new Pair[pairs.length * 2];
+      System.arraycopy(pairs, 0, morePairs, 0, numPairs);
+      pairs = morePairs;
+    }
+    System.arraycopy(pairs, index, pairs, index + 1, numPairs - index);
+    pairs[index] = pair;
+    numPairs++;
+    changed();
+    pairsModCount = modCount;
+    if (lookupIndexCurrent && index == numPairs - 1) {
+      lookupIndexModCount = modCount;
+    }
+  }
+
+  /**
+   * Remove the Object at the given index, moving the Objects after it
+   * down by one.
+   */
+  public void removeObject(int index) {
+    checkIndex(index, indexPairs());
+    Object rest = pairs[index].getCdr();
+    if (index == 0) {
+      cdr = rest;
+    } else {
+      pairs[index - 1].setCdr(rest);
+    }
+    numPairs--;
+    System.arraycopy(pairs, index + 1, pairs, index, numPairs - index);
+    pairs[numPairs] = null;
+    changed();
+    pairsModCount = modCount;
+  }
+
+  /**
+   * Return the index for looking up pairs in this list, or null if there
+   * is none or the list or any of the pairs that it holds changed since it
+   * was kept.  Pairs added at the end of the list since then are not in the
+   * index; see {@link #getLookupIndexSize}.
+   */
+  public Object getLookupIndex() {
+    indexPairs();
+    return pairsOwned && lookupIndexModCount == modCount ? lookupIndex : null;
+  }
+
+  /**
+   * Return the number of pairs at the start of this list that the index
+   * returned by {@link #getLookupIndex} holds.
+   */
+  public int getLookupIndexSize() {
+    return lookupIndexSize;
+  }
+
+  /**
+   * Keep an index that holds all the pairs in this list, until the list or
+   * any of those pairs changes.  If it is the index that the list has, only
+   * the pairs added at the end since it was kept are new to it.
+   */
+  public void setLookupIndex(Object lookupIndex) {
+    int from = lookupIndex == getLookupIndex() ? lookupIndexSize : 0;
+    int size = indexPairs();
+    this.lookupIndex = null;
+    for (int i = from; i < size; i++) {
+      Object item = pairs[i].getCar();
+      if (item instanceof YailList && !((YailList) item).addIndexingList(this)) {
+        return;
+      }
+    }
+    this.lookupIndex = lookupIndex;
+    lookupIndexSize = size;
+    lookupIndexModCount = modCount;
+  }
+
+  // Have this list make the lookup index of the given list out of date when
+  // it changes, or return false if it cannot tell when it changes.
+  private boolean addIndexingList(YailList list) {
+    indexPairs();
+    if (!pairsOwned) {
+      return false;
+    }
+    if (indexingLists == null) {
+      indexingLists = new ArrayList<YailList>(1);
+    }
+    // YailList.equals compares the items, so look for the list itself.
+    for (YailList indexingList : indexingLists) {
+      if (indexingList == list) {
+        return true;
+      }
+    }
+    indexingLists.add(list);
+    return true;
+  }
+
+  // Called whenever this list or one of its pairs changes.
+  private void changed() {
+    modCount++;
+    if (indexingLists != null) {
+      for (YailList indexingList : indexingLists) {
+        indexingList.lookupIndex = null;
+      }
+      indexingLists = null;
+    }
+  }
+
+  private static void checkIndex(int index, int limit) {
+    if (index < 0 || index >= limit) {
+      throw new IndexOutOfBoundsException("Index: " + index + ", Limit: " + limit);
+    }
+  }
+
+  /**
+   * Make sure that the pairs array holds the pairs of this list, building it
+   * again if the list changed without it, and return the number of pairs.
+   */
+  private int indexPairs() {
+    if (pairs != null && pairsOwned && pairsModCount == modCount) {
+      return numPairs;
+    }
+    pairWalks++;
+    Pair[] newPairs = new Pair[8];
+    int n = 0;
+    boolean owned = true;
+    for (Object rest = cdr; rest instanceof Pair; rest = ((Pair) rest).getCdr()) {
+      if (n == newPairs.length) {
+        Pair[] morePairs = new Pair[n * 2];
+        System.arraycopy(newPairs, 0, morePairs, 0, n);
+        newPairs = morePairs;
+      }
+      newPairs[n++] = (Pair) rest;
+      owned = owned && rest instanceof ListPair && ((ListPair) rest).owner == this;
+    }
+    pairs = newPairs;
+    numPairs = n;
+    pairsModCount = modCount;
+    pairsOwned = owned;
+    return n;
+  }
+
+  /**
+   * A pair made by a YailList to hold one of its items, which tells the list
+   * when it changes.
+   */
+  private static class ListPair extends Pair {
+    private final YailList owner;
+
+    ListPair(YailList owner, Object car, Object cdr) {
+      super(car, cdr);
+      this.owner = owner;
+    }
+
+    @Override
+    public void setCar(Object car) {
+      super.setCar(car);
+      owner.changed();
+    }
+
+    @Override
+    public void setCdr(Object cdr) {
+      super.setCdr(cdr);
+      owner.changed();
+    }
+  }
 }
@@ -0,0 +1,125 @@
+// -*- mode: java; c-basic-offset: 2; -*-
+// Copyright 2016 MIT, All rights reserved
+// Released under the Apache License, Version 2.0
+// http://www.apache.org/licenses/LICENSE-2.0
+
+package com.google.appinventor.components.runtime;
+
+import junit.framework.TestCase;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Tests EventDispatcher.java.
+ *
+ */
+public class EventDispatcherTest extends TestCase {
+
+  /**
+   * A dispatch delegate that binds component names to components, and checks
+   * them the way the forms defined in runtime.scm do.
+   */
+  private static class TestDelegate implements HandlesEventDispatching {
+    final Map<String, Component> components = new HashMap<String, Component>();
+    final List<String> handled = new ArrayList<String>();
+    String failingHandler;
+    int offers;
+
+    public boolean canDispatchEvent(Component component, String eventName) {
+      return true;
+    }
+
+    public boolean dispatchEvent(Component component, String componentName, String eventName,
+        Object[] args) {
+      offers++;
+      if (!components.containsKey(componentName)) {
+        EventDispatcher.unregisterEventForDelegation(this, componentName, eventName);
+        return false;
+      }
+      if (components.get(componentName) != component) {
+        return false;
+      }
+      String handler = componentName + "." + eventName;
+      handled.add(handler);
+      return !handler.equals(failingHandler);
+    }
+  }
+
+  private static class TestComponent implements Component {
+    private final HandlesEventDispatching dispatchDelegate;
+
+    TestComponent(HandlesEventDispatching dispatchDelegate) {
+      this.dispatchDelegate = dispatchDelegate;
+    }
+
+    public HandlesEventDispatching getDispatchDelegate() {
+      return dispatchDelegate;
+    }
+  }
+
+  private TestDelegate delegate;
+  private Component[] buttons;
+
+  @Override
+  protected void setUp() throws Exception {
+    delegate = new TestDelegate();
+    buttons = new Component[30];
+    for (int i = 0; i < buttons.length; i++) {
+      buttons[i] = new TestComponent(delegate);
+      delegate.components.put("Button" + i, buttons[i]);
+      EventDispatcher.registerEventForDelegation(delegate, "Button" + i, "Click");
+    }
+  }
+
+  @Override
+  protected void tearDown() throws Exception {
+    EventDispatcher.removeDispatchDelegate(delegate);
+  }
+
+  public void testDispatchGoesToOneHandler() {
+    assertTrue(EventDispatcher.dispatchEvent(buttons[7], "Click"));
+    assertEquals(1, delegate.handled.size());
+    assertEquals("Button7.Click", delegate.handled.get(0));
+
+    // Once a component's event has been dispatched, it goes straight to its handler.
+    delegate.offers = 0;
+    assertTrue(EventDispatcher.dispatchEvent(buttons[7], "Click"));
+    assertEquals(1, delegate.offers);
+    assertEquals(2, delegate.handled.size());
+
+    assertFalse(EventDispatcher.dispatchEvent(buttons[7], "LongClick"));
+    assertEquals(2, delegate.handled.size());
+  }
+
+  public void testRenamedComponent() {
+    assertTrue(EventDispatcher.dispatchEvent(buttons[3], "Click"));
+    delegate.components.put("OkButton", delegate.components.remove("Button3"));
+    EventDispatcher.registerEventForDelegation(delegate, "OkButton", "Click");
+    assertTrue(EventDispatcher.dispatchEvent(buttons[3], "Click"));
+    assertEquals("OkButton.Click", delegate.handled.get(1));
+    assertEquals(2, delegate.handled.size());
+
+    delegate.offers = 0;
+    assertTrue(EventDispatcher.dispatchEvent(buttons[3], "Click"));
+    assertEquals(1, delegate.offers);
+  }
+
+  public void testFailingHandlerIsNotCalledAgain() {
+    assertTrue(EventDispatcher.dispatchEvent(buttons[5], "Click"));
+    delegate.failingHandler = "Button5.Click";
+    assertFalse(EventDispatcher.dispatchEvent(buttons[5], "Click"));
+    assertEquals(2, delegate.handled.size());
+  }
+
+  public void testUnregisteredHandler() {
+    assertTrue(EventDispatcher.dispatchEvent(buttons[2], "Click"));
+    EventDispatcher.unregisterEventForDelegation(delegate, "Button2", "Click");
+    delegate.offers = 0;
+    assertFalse(EventDispatcher.dispatchEvent(buttons[2], "Click"));
+    assertEquals(1, delegate.handled.size());
+    assertEquals(buttons.length - 1, delegate.offers);
+  }
+}
@@ -0,0 +1,153 @@
+// -*- mode: java; c-basic-offset: 2; -*-
+// Copyright 2016 MIT, All rights reserved
+// Released under the Apache License, Version 2.0
+// http://www.apache.org/licenses/LICENSE-2.0
+
+package com.google.appinventor.components.runtime.util;
+
+import junit.framework.TestCase;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Tests AsynchUtil.java.
+ *
+ */
+public class AsynchUtilTest extends TestCase {
+
+  public void testSerialExecutorKeepsOrder() throws InterruptedException {
+    Executor executor = AsynchUtil.newSerialExecutor();
+    final List<Integer> order = Collections.synchronizedList(new ArrayList<Integer>());
+    final CountDownLatch done = new CountDownLatch(100);
+    for (int i = 0; i < 100; i++) {
+      final int call = i;
+      executor.execute(new Runnable() {
+        public void run() {
+          if (call == 50) {
+            done.countDown();
+            // The calls after this one still run.
+            throw new RuntimeException("call failed");
+          }
+          order.add(call);
+          done.countDown();
+        }
+      });
+    }
+    assertTrue(done.await(10, TimeUnit.SECONDS));
+    assertEquals(99, order.size());
+    for (int i = 1; i < order.size(); i++) {
+      assertTrue(order.get(i - 1) < order.get(i));
+    }
+  }
+
+  public void testCounts() throws InterruptedException {
+    final CountDownLatch release = new CountDownLatch(1);
+    final CountDownLatch started = new CountDownLatch(1);
+    final CountDownLatch done = new CountDownLatch(3);
+    Executor executor = AsynchUtil.newSerialExecutor();
+    for (int i = 0; i < 3; i++) {
+      executor.execute(new Runnable() {
+        public void run() {
+          started.countDown();
+          try {
+            release.await();
+          } catch (InterruptedException e) {
+            // Finish the call.
+          }
+          done.countDown();
+        }
+      });
+    }
+    assertTrue(started.await(10, TimeUnit.SECONDS));
+    assertEquals(1, AsynchUtil.getActiveCount());
+    assertEquals(2, AsynchUtil.getQueuedCount());
+    release.countDown();
+    assertTrue(done.await(10, TimeUnit.SECONDS));
+    waitForActiveCount(0);
+    assertEquals(0, AsynchUtil.getQueuedCount());
+  }
+
+  public void testFullQueueDropsOldestCall() throws InterruptedException {
+    final CountDownLatch release = new CountDownLatch(1);
+    final Set<String> threads = Collections.synchronizedSet(new HashSet<String>());
+    for (int i = 0; i < AsynchUtil.MAX_THREADS; i++) {
+      AsynchUtil.runAsynchronously(new Runnable() {
+        public void run() {
+          threads.add(Thread.currentThread().getName());
+          await(release);
+        }
+      });
+    }
+    waitForActiveCount(AsynchUtil.MAX_THREADS);
+    final List<Integer> ran = Collections.synchronizedList(new ArrayList<Integer>());
+    final CountDownLatch done = new CountDownLatch(AsynchUtil.MAX_QUEUED);
+    for (int i = 0; i <= AsynchUtil.MAX_QUEUED; i++) {
+      final int call = i;
+      AsynchUtil.runAsynchronously(new Runnable() {
+        public void run() {
+          threads.add(Thread.currentThread().getName());
+          ran.add(call);
+          done.countDown();
+        }
+      });
+    }
+    // The calls wait rather than start more threads, and the one past the limit pushed out
+    // the oldest.
+    assertEquals(AsynchUtil.MAX_THREADS, AsynchUtil.getActiveCount());
+    assertEquals(AsynchUtil.MAX_QUEUED, AsynchUtil.getQueuedCount());
+    release.countDown();
+    assertTrue(done.await(10, TimeUnit.SECONDS));
+    assertEquals(AsynchUtil.MAX_QUEUED, ran.size());
+    assertFalse(ran.contains(0));
+    assertTrue(ran.contains(AsynchUtil.MAX_QUEUED));
+    assertTrue(threads.size() <= AsynchUtil.MAX_THREADS);
+    waitForActiveCount(0);
+    assertEquals(0, AsynchUtil.getQueuedCount());
+  }
+
+  public void testFullPoolDoesNotHoldBackSerialCalls() throws InterruptedException {
+    final CountDownLatch release = new CountDownLatch(1);
+    for (int i = 0; i < AsynchUtil.MAX_THREADS + AsynchUtil.MAX_QUEUED; i++) {
+      AsynchUtil.runAsynchronously(new Runnable() {
+        public void run() {
+          await(release);
+        }
+      });
+    }
+    final CountDownLatch done = new CountDownLatch(1);
+    AsynchUtil.newSerialExecutor().execute(new Runnable() {
+      public void run() {
+        done.countDown();
+      }
+    });
+    try {
+      assertTrue(done.await(10, TimeUnit.SECONDS));
+    } finally {
+      release.countDown();
+    }
+    waitForActiveCount(0);
+  }
+
+  private static void await(CountDownLatch latch) {
+    try {
+      latch.await();
+    } catch (InterruptedException e) {
+      // Finish the call.
+    }
+  }
+
+  // Calls are counted as active from when they start until they return.
+  private static void waitForActiveCount(int count) throws InterruptedException {
+    for (int i = 0; i < 1000 && AsynchUtil.getActiveCount() != count; i++) {
+      Thread.sleep(10);
+    }
+    assertEquals(count, AsynchUtil.getActiveCount());
+  }
+}
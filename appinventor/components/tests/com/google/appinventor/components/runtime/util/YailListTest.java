@@ -7,6 +7,8 @@
 package com.google.appinventor.components.runtime.util;
 
 import gnu.lists.FString;
+import gnu.lists.LList;
+import gnu.lists.Pair;
 
 import junit.framework.TestCase;
 
@@ -203,4 +205,132 @@ public class YailListTest extends TestCase {
       // this is the intended behavior
     }
   }
+
+  public void testChangeItems() {
+    YailList yailList = YailList.makeList(new Object[] {"b", "d"});
+    yailList.insertObject(0, "a");
+    yailList.insertObject(2, "c");
+    yailList.addObject("e");
+    assertEquals("(a b c d e)", yailList.toString());
+    yailList.setObject(4, "f");
+    yailList.removeObject(0);
+    yailList.removeObject(1);
+    assertEquals("(b d f)", yailList.toString());
+    assertEquals(3, yailList.size());
+    assertEquals("f", yailList.getString(2));
+    yailList.addObjects(yailList.toArray());
+    assertEquals("(b d f b d f)", yailList.toString());
+    try {
+      yailList.insertObject(7, "g");
+      fail();
+    } catch (IndexOutOfBoundsException e) {
+      // this is the intended behavior
+    }
+    try {
+      yailList.removeObject(6);
+      fail();
+    } catch (IndexOutOfBoundsException e) {
+      // this is the intended behavior
+    }
+  }
+
+  public void testChangesOutsideYailList() {
+    YailList yailList = YailList.makeList(new Object[] {"a", "b"});
+    assertEquals(2, yailList.size());
+    // A set-cdr! of the header, as done by set-yail-list-contents! in runtime.scm
+    yailList.setCdr(Pair.makeList(new Object[] {"c", "d", "e"}, 0));
+    assertEquals(3, yailList.size());
+    assertEquals("e", yailList.getString(2));
+    // An item added by changing the last pair directly
+    ((Pair) yailList.getCdr()).lastPair().setCdr(new Pair("f", LList.Empty));
+    assertEquals(4, yailList.size());
+    assertEquals("f", yailList.getString(3));
+  }
+
+  public void testInteriorChangesOutsideYailList() {
+    YailList yailList = YailList.makeList(new Object[] {"a", "b", "c", "d"});
+    assertEquals(4, yailList.size());
+    // A set-cdr! in the middle of the list, which leaves its first and last pairs
+    Pair first = (Pair) yailList.getCdr();
+    first.setCdr(((Pair) first.getCdr()).getCdr());
+    assertEquals(3, yailList.size());
+    assertEquals("c", yailList.getString(1));
+    assertEquals("d", yailList.getString(2));
+    // A set-car! in the middle of the list
+    ((Pair) first.getCdr()).setCar("e");
+    assertEquals("(a e d)", yailList.toString());
+    assertEquals("e", yailList.getString(1));
+  }
+
+  public void testLookupIndex() {
+    YailList pair = YailList.makeList(new Object[] {"a", "b"});
+    YailList pairs = YailList.makeList(new Object[] {pair});
+    YailList other = YailList.makeList(new Object[] {"c"});
+    assertNull(pairs.getLookupIndex());
+    Object index = new Object();
+    pairs.setLookupIndex(index);
+    assertSame(index, pairs.getLookupIndex());
+    // Lists that the index does not use can change
+    other.addObject("d");
+    assertSame(index, pairs.getLookupIndex());
+    // A change to one of the pairs makes the index out of date
+    pair.setObject(0, "z");
+    assertNull(pairs.getLookupIndex());
+    pairs.setLookupIndex(index);
+    assertEquals(1, pairs.getLookupIndexSize());
+    // A pair added at the end leaves the index up to date for the pairs before it
+    YailList added = YailList.makeList(new Object[] {"e", "f"});
+    pairs.addObject(added);
+    assertSame(index, pairs.getLookupIndex());
+    assertEquals(1, pairs.getLookupIndexSize());
+    pairs.setLookupIndex(index);
+    assertEquals(2, pairs.getLookupIndexSize());
+    added.setObject(1, "g");
+    assertNull(pairs.getLookupIndex());
+    pairs.setLookupIndex(index);
+    // So does any other change to the list
+    pairs.insertObject(0, YailList.makeList(new Object[] {"h", "i"}));
+    assertNull(pairs.getLookupIndex());
+    pairs.setLookupIndex(index);
+    pair.setCdr(LList.Empty);
+    assertNull(pairs.getLookupIndex());
+  }
+
+  public void testLookupIndexOfForeignPairs() {
+    YailList pair = YailList.makeList(new Object[] {"a", "b"});
+    YailList pairs = new YailList();
+    // Pairs that the list did not make cannot tell it when they change.
+    pairs.setCdr(Pair.makeList(new Object[] {pair}, 0));
+    pairs.setLookupIndex(new Object());
+    assertNull(pairs.getLookupIndex());
+    pairs = YailList.makeList(new Object[] {pair});
+    pair.setCdr(Pair.makeList(new Object[] {"c", "d"}, 0));
+    pairs.setLookupIndex(new Object());
+    assertNull(pairs.getLookupIndex());
+  }
+
+  /**
+   * Checks that adding 10000 items one by one at the end of a list, and then
+   * reading each of them by its index, walk the pairs of the list once, rather
+   * than once for each item as YailList and runtime.scm used to do.
+   */
+  public void testIndexedAccessWalksPairsOnce() {
+    final int size = 10000;
+    YailList yailList = new YailList();
+    for (int i = 0; i < size; i++) {
+      yailList.addObject(i);
+    }
+    long sum = 0;
+    for (int i = 0; i < yailList.size(); i++) {
+      sum += (Integer) yailList.getObject(i);
+    }
+    assertEquals((long) size * (size - 1) / 2, sum);
+    assertEquals(1, yailList.pairWalks);
+    // A change outside the YailList methods takes one more walk.
+    ((Pair) yailList.getCdr()).setCdr(LList.Empty);
+    for (int i = 0; i < 10; i++) {
+      assertEquals(1, yailList.size());
+    }
+    assertEquals(2, yailList.pairWalks);
+  }
 }